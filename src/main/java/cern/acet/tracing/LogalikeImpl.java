@@ -9,6 +9,9 @@
 package cern.acet.tracing;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -19,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import cern.acet.tracing.processing.Processor;
+import cern.acet.tracing.processing.window.WindowScheduler;
 
 /**
  * An implementation of {@link Logalike} that reads messages from the {@link Input}, processes them with the given
@@ -26,6 +30,10 @@ import cern.acet.tracing.processing.Processor;
  * input source is endless. The {@link LogalikeImpl} is closed by short-circuiting the stream and calling its
  * closing-handlers. {@link Input}s and {@link Output}s should therefore use the stream's
  * {@link Stream#onClose(Runnable)} method to finalise any dangling resources.
+ * <p>
+ * Processors that are {@link AutoCloseable} are closed together with Logalike. So is the {@link WindowScheduler} of
+ * the instance, if any window-based processors were built with it (see {@link Builder#getWindowScheduler()}).
+ * </p>
  *
  * @param <MessageType> The type of {@link Message} to process.
  * @author ghoranyi, jepeders
@@ -37,6 +45,8 @@ public class LogalikeImpl<MessageType extends Message<MessageType>> implements L
     private final Input<MessageType> input;
     private final Output<MessageType> output;
     private final Function<Stream<MessageType>, Stream<MessageType>> processorChain;
+    private final List<AutoCloseable> closeableProcessors;
+    private final Optional<WindowScheduler> windowScheduler;
 
     private final AtomicBoolean isClosed = new AtomicBoolean(false);
 
@@ -53,6 +63,8 @@ public class LogalikeImpl<MessageType extends Message<MessageType>> implements L
         this.input = builder.input;
         this.output = builder.output;
         this.processorChain = builder.processorChain;
+        this.closeableProcessors = builder.closeableProcessors;
+        this.windowScheduler = Optional.ofNullable(builder.windowScheduler);
     }
 
     /**
@@ -75,6 +87,16 @@ public class LogalikeImpl<MessageType extends Message<MessageType>> implements L
         return processorChain::apply;
     }
 
+    /**
+     * Retrieves the {@link WindowScheduler} that times the windows of the processors in this instance, for example to
+     * report the number of open windows per processor.
+     *
+     * @return The {@link WindowScheduler} if one was created by the builder, otherwise {@link Optional#empty()}.
+     */
+    public Optional<WindowScheduler> getWindowScheduler() {
+        return windowScheduler;
+    }
+
     @Override
     public void run() {
         inputStream = input.get().parallel().peek(message -> {
@@ -113,6 +135,14 @@ public class LogalikeImpl<MessageType extends Message<MessageType>> implements L
         if (output instanceof CloseableOutput) {
             ((CloseableOutput) output).close();
         }
+        for (AutoCloseable processor : closeableProcessors) {
+            try {
+                processor.close();
+            } catch (Exception e) {
+                LOGGER.warn("Failed to close processor " + processor, e);
+            }
+        }
+        windowScheduler.ifPresent(WindowScheduler::close);
     }
 
     /**
@@ -126,6 +156,8 @@ public class LogalikeImpl<MessageType extends Message<MessageType>> implements L
         private Input<MessageType> input;
         private Output<MessageType> output;
         private Function<Stream<MessageType>, Stream<MessageType>> processorChain = stream -> stream;
+        private final List<AutoCloseable> closeableProcessors = new ArrayList<>();
+        private WindowScheduler windowScheduler;
 
         @Override
         public LogalikeImpl<MessageType> build() {
@@ -153,9 +185,27 @@ public class LogalikeImpl<MessageType extends Message<MessageType>> implements L
         @Override
         public Builder<MessageType> addProcessor(Processor<MessageType> processorToAdd) {
             processorChain = processorChain.andThen(processorToAdd);
+            if (processorToAdd instanceof AutoCloseable) {
+                closeableProcessors.add((AutoCloseable) processorToAdd);
+            }
             return this;
         }
 
+        /**
+         * Gets the {@link WindowScheduler} of the {@link LogalikeImpl} instance being built, creating it on the first
+         * call. Window-based processors (such as the {@link cern.acet.tracing.processing.ThrottleProcessor} and the
+         * {@link cern.acet.tracing.processing.RepetitionProcessor}) built with this scheduler share one timer thread,
+         * which is stopped when the {@link LogalikeImpl} is closed.
+         *
+         * @return A {@link WindowScheduler} owned by the {@link LogalikeImpl} instance.
+         */
+        public WindowScheduler getWindowScheduler() {
+            if (windowScheduler == null) {
+                windowScheduler = new WindowScheduler();
+            }
+            return windowScheduler;
+        }
+
         @Override
         public Builder<MessageType> setInput(Input<MessageType> input) {
             this.input = input;
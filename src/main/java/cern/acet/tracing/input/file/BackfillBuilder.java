@@ -0,0 +1,173 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.input.file.store.FilePositionStore;
+
+/**
+ * A builder for a {@link FileInput} that reads existing files by splitting them into ranges which are read and
+ * converted concurrently. The stream of the input ends when all ranges are read. Progress is kept in the default
+ * {@link FilePositionStore}, so a backfill that is stopped resumes the ranges it did not finish.
+ * <p>
+ * By default the messages come out in the same order as the lines in the files. If the order does not matter, for
+ * instance because the messages are indexed by their timestamp, {@link #setOrdered(boolean)} can be disabled to let
+ * every range deliver its messages as soon as they are converted.
+ * </p>
+ *
+ * @param <MessageType> The type of {@link Message}s to create from the lines.
+ * @author jepeders
+ */
+public class BackfillBuilder<MessageType extends Message<MessageType>> implements
+        FileInputBuilder<MessageType, BackfillBuilder<MessageType>> {
+
+    /**
+     * The default number of bytes in each range.
+     */
+    public static final long DEFAULT_RANGE_SIZE = 64 * 1024 * 1024;
+
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackfillBuilder.class);
+
+    private final Function<String, MessageType> converter;
+    private final List<File> files = new ArrayList<>();
+
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private long rangeSize = DEFAULT_RANGE_SIZE;
+    private boolean isOrdered = true;
+    private Optional<FilePositionStore> positionStoreOption;
+    private ParallelBackfill<MessageType> backfill;
+
+    /**
+     * Creates a {@link BackfillBuilder} that uses the given converter to parse {@link String}s into {@link Message}s.
+     * The converter is called from several threads at once.
+     *
+     * @param converter The converter to use when converting file input to {@link Message}s.
+     */
+    public BackfillBuilder(Function<String, MessageType> converter) {
+        this.converter = converter;
+    }
+
+    @Override
+    public BackfillBuilder<MessageType> addFile(File file) {
+        files.add(verifyCanRead(file));
+        return this;
+    }
+
+    @Override
+    public BackfillBuilder<MessageType> addFiles(String glob) {
+        files.addAll(getFilesFromGlob(glob));
+        return this;
+    }
+
+    @Override
+    public FileInput<MessageType> build() {
+        if (files.isEmpty()) {
+            throw new IllegalStateException(
+                    "No files were added to the builder. Cannot construct backfill from zero input.");
+        }
+
+        FilePositionStore positionStore;
+        try {
+            positionStore = FilePositionStore.createUnderDefaultDirectory();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to create file position store, backfill cannot be resumed", e);
+            positionStore = null;
+        }
+        positionStoreOption = Optional.ofNullable(positionStore);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        backfill = new ParallelBackfill<>(files, converter, rangeSize, isOrdered, QUEUE_CAPACITY,
+                positionStoreOption, executor);
+        return new FileInput<>(this, executor);
+    }
+
+    @Override
+    public AutoCloseable getCloseableHook() {
+        return new AutoCloseable() {
+
+            /* Copy the resources to allow the BackfillBuilder to be garbage collected */
+            private final ParallelBackfill<MessageType> backfillToClose = backfill;
+            private final Optional<FilePositionStore> storeToClose = positionStoreOption;
+
+            @Override
+            public void close() throws Exception {
+                backfillToClose.close();
+                if (storeToClose.isPresent()) {
+                    storeToClose.get().close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Stream<MessageType> getStream() {
+        return backfill.getStream();
+    }
+
+    /**
+     * Defines whether the messages should come out in the same order as the lines in the files. Defaults to true.
+     *
+     * @param isOrdered True if the order of the lines should be kept, false if messages should be delivered as soon
+     *            as they are converted.
+     * @return A {@link BackfillBuilder} with the ordering set.
+     */
+    public BackfillBuilder<MessageType> setOrdered(boolean isOrdered) {
+        this.isOrdered = isOrdered;
+        return this;
+    }
+
+    /**
+     * Sets the approximate number of bytes in each range of a file. Ranges are extended to the end of the line they
+     * end in. Defaults to {@value #DEFAULT_RANGE_SIZE}.
+     *
+     * @param rangeSize The size of the ranges in bytes.
+     * @return A {@link BackfillBuilder} with the range size set.
+     * @throws IllegalArgumentException If the size is less than 1.
+     */
+    public BackfillBuilder<MessageType> setRangeSize(long rangeSize) {
+        if (rangeSize < 1) {
+            throw new IllegalArgumentException("Range size must be at least 1");
+        }
+        this.rangeSize = rangeSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads that read and convert ranges. Defaults to the number of available processors.
+     *
+     * @param threadCount The number of threads.
+     * @return A {@link BackfillBuilder} with the thread count set.
+     * @throws IllegalArgumentException If the count is less than 1.
+     */
+    public BackfillBuilder<MessageType> setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        this.threadCount = threadCount;
+        return this;
+    }
+
+}
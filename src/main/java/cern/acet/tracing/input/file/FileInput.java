@@ -40,6 +40,13 @@ import cern.acet.tracing.Message;
  *     where it left off. If the file we're reading from is rotated, the file position is reset to 0.
  * </p>
  *
+ * <h2>Backfilling files</h2>
+ * <p>
+ *     Large files that already exist can be read by several threads at once, by splitting them into ranges of lines.
+ *     The progress in each range is kept in the store as well, so an interrupted backfill can resume. See
+ *     {@link BackfillBuilder}.
+ * </p>
+ *
  * @author jepeders
  */
 public class FileInput<MessageType extends Message<MessageType>> implements CloseableInput<MessageType> {
@@ -66,6 +73,19 @@ public class FileInput<MessageType extends Message<MessageType>> implements Clos
         return new TailingBuilder<>(converter);
     }
 
+    /**
+     * Creates a {@link BackfillBuilder} that can construct a {@link FileInput} that reads one or more existing files
+     * by splitting them into ranges which are read concurrently.
+     *
+     * @param converter A function to convert the lines in a file into {@link Message}s. It is called from several
+     *            threads at once.
+     * @return A {@link BackfillBuilder} that can construct a {@link FileInput}.
+     */
+    public static <MessageType extends Message<MessageType>> BackfillBuilder<MessageType> buildBackfill(
+            Function<String, MessageType> converter) {
+        return new BackfillBuilder<>(converter);
+    }
+
     @Override
     public void close() {
         try {
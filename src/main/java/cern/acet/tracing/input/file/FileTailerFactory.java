@@ -14,14 +14,22 @@ package cern.acet.tracing.input.file;
 import java.io.File;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
 import cern.acet.tracing.input.file.store.FilePositionStore;
+import cern.acet.tracing.input.file.tailer.FileWatcher;
+import cern.acet.tracing.input.file.tailer.MultiplexedTailer;
 import cern.acet.tracing.input.file.tailer.PositionTailer;
+import cern.acet.tracing.input.file.tailer.PositionTailerListener;
 import org.apache.commons.io.input.Tailer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,11 +43,16 @@ public class FileTailerFactory implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileTailerFactory.class);
     private static final int QUEUE_CAPACITY = 500;
+    private static final int FLUSH_CHECKS_PER_TIMEOUT = 4;
 
     private final Optional<FilePositionStore> positionStoreOption;
     private final Duration fileCheckInterval;
     private final AtomicBoolean isOpen = new AtomicBoolean(true);
     private final LinkedBlockingQueue<String> lineQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Optional<MultilineAssembly> multilineOption;
+    private final List<MultilineTailerListener> multilineListeners = new CopyOnWriteArrayList<>();
+    private final Optional<ScheduledExecutorService> flushSchedulerOption;
+    private final Optional<FileWatcher> fileWatcherOption;
 
     /**
      * Creates a {@link FileTailerFactory} that spawns {@link Tailer}s which check for file changes in the given
@@ -48,11 +61,64 @@ public class FileTailerFactory implements AutoCloseable {
      * @param fileCheckInterval How often files should be checked for changes.
      */
     public FileTailerFactory(Duration fileCheckInterval) {
+        this(fileCheckInterval, Optional.empty());
+    }
+
+    /**
+     * Creates a {@link FileTailerFactory} that spawns {@link Tailer}s which check for file changes in the given
+     * interval. If a {@link MultilineAssembly} is given, the lines of every file are assembled into multiline events
+     * before they are put in the stream. The files are not watched for changes.
+     *
+     * @param fileCheckInterval How often files should be checked for changes.
+     * @param multiline An optional description of how to assemble lines into multiline events.
+     */
+    public FileTailerFactory(Duration fileCheckInterval, Optional<MultilineAssembly> multiline) {
+        this(fileCheckInterval, multiline, false);
+    }
+
+    /**
+     * Creates a {@link FileTailerFactory} that spawns {@link Tailer}s which check for file changes in the given
+     * interval. If a {@link MultilineAssembly} is given, the lines of every file are assembled into multiline events
+     * before they are put in the stream. If files are watched, the tailers are notified of changes by a
+     * {@link FileWatcher} and only poll their files at the longer interval of the watcher. Files are polled at the
+     * file check interval if the file system does not support notifications, or if they are on a file store that does
+     * not notify changes made by other machines.
+     *
+     * @param fileCheckInterval How often files should be checked for changes, when they are not watched.
+     * @param multiline An optional description of how to assemble lines into multiline events.
+     * @param isWatchingFiles True if the tailers should be notified of changes to their files.
+     */
+    public FileTailerFactory(Duration fileCheckInterval, Optional<MultilineAssembly> multiline,
+            boolean isWatchingFiles) {
+        this(fileCheckInterval, multiline, isWatchingFiles, Optional.empty());
+    }
+
+    /**
+     * Creates a {@link FileTailerFactory} like {@link #FileTailerFactory(Duration, Optional, boolean)}. If a position
+     * commit interval is given, the positions of all files are kept in one memory-mapped
+     * {@link FilePositionStore} which is forced to disk at that interval, instead of in one synchronously written file
+     * per tailed file.
+     *
+     * @param fileCheckInterval How often files should be checked for changes, when they are not watched.
+     * @param multiline An optional description of how to assemble lines into multiline events.
+     * @param isWatchingFiles True if the tailers should be notified of changes to their files.
+     * @param positionCommitInterval An optional interval at which a memory-mapped position store is forced to disk.
+     * @see FilePositionStore#createMappedUnder(java.nio.file.Path, Duration)
+     */
+    public FileTailerFactory(Duration fileCheckInterval, Optional<MultilineAssembly> multiline,
+            boolean isWatchingFiles, Optional<Duration> positionCommitInterval) {
         this.fileCheckInterval = fileCheckInterval;
+        this.fileWatcherOption = isWatchingFiles ? FileWatcher.create() : Optional.empty();
+        this.multilineOption = multiline;
+        this.flushSchedulerOption = multiline.map(this::startFlushScheduler);
 
         FilePositionStore tempPositionStore;
         try {
-            tempPositionStore = FilePositionStore.createUnderDefaultDirectory();
+            if (positionCommitInterval.isPresent()) {
+                tempPositionStore = FilePositionStore.createMappedUnderDefaultDirectory(positionCommitInterval.get());
+            } else {
+                tempPositionStore = FilePositionStore.createUnderDefaultDirectory();
+            }
         } catch (IOException e) {
             LOGGER.warn("Failed to create file position store", e);
             tempPositionStore = null;
@@ -63,6 +129,10 @@ public class FileTailerFactory implements AutoCloseable {
     @Override
     public void close() throws Exception {
         isOpen.set(false);
+        flushSchedulerOption.ifPresent(ScheduledExecutorService::shutdown);
+        if (fileWatcherOption.isPresent()) {
+            fileWatcherOption.get().close();
+        }
         positionStoreOption.ifPresent((filePositionStore) -> {
             try {
                 filePositionStore.close();
@@ -88,15 +158,75 @@ public class FileTailerFactory implements AutoCloseable {
      * @param file The file to tail.
      * @param executor The executor to run the {@link Tailer} in.
      * @param readFromBeginning True if the tailer should read the file from the beginning, false if the tailer should
-     *            only read new lines from the end of the file.
+     *            only read new lines from the end of the file. Content between the starting position and the end
+     *            of the file is read from memory mapped windows before the tailer starts to follow the file.
      * @return The started tailer.
      */
     public PositionTailer startTailer(File file, Executor executor, boolean readFromBeginning) {
-        PositionFileTailerListener listener = new PositionFileTailerListener(lineQueue, positionStoreOption);
+        final PositionTailer.Builder builder = createTailerBuilder(file, readFromBeginning);
+        fileWatcherOption.ifPresent(builder::setFileWatcher);
+
+        final PositionTailer tailer = builder.build();
+        executor.execute(tailer);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Started tailing file " + file);
+        }
+
+        return tailer;
+    }
+
+    /**
+     * Creates a {@link Tailer} and adds it to the given {@link MultiplexedTailer}.
+     *
+     * @param file The file to tail.
+     * @param multiplexer The multiplexed tailer to service the {@link Tailer}, which should have been started with
+     *            {@link #startMultiplexedTailer(Executor, int)}.
+     * @param readFromBeginning True if the tailer should read the file from the beginning, false if the tailer should
+     *            only read new lines from the end of the file.
+     * @return The started tailer.
+     */
+    public PositionTailer startTailer(File file, MultiplexedTailer multiplexer, boolean readFromBeginning) {
+        final PositionTailer tailer = createTailerBuilder(file, readFromBeginning).build();
+        multiplexer.add(tailer);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Started tailing file " + file);
+        }
+
+        return tailer;
+    }
+
+    /**
+     * Creates a {@link MultiplexedTailer} that services any number of files from the given number of threads. The
+     * files are checked for changes with the file check interval and file watcher of this factory.
+     *
+     * @param executor The executor to run the workers of the {@link MultiplexedTailer} in.
+     * @param threadCount The number of workers.
+     * @return The started multiplexed tailer.
+     */
+    public MultiplexedTailer startMultiplexedTailer(Executor executor, int threadCount) {
+        final MultiplexedTailer.Builder builder = MultiplexedTailer.builder()
+                .setExecutor(executor)
+                .setThreadCount(threadCount)
+                .setFileCheckInterval(fileCheckInterval);
+        fileWatcherOption.ifPresent(builder::setFileWatcher);
+        return builder.build();
+    }
+
+    private PositionTailer.Builder createTailerBuilder(File file, boolean readFromBeginning) {
+        PositionTailerListener listener = new PositionFileTailerListener(lineQueue, positionStoreOption);
+        if (multilineOption.isPresent()) {
+            final MultilineTailerListener multilineListener = new MultilineTailerListener(listener,
+                    multilineOption.get());
+            multilineListeners.add(multilineListener);
+            listener = multilineListener;
+        }
         PositionTailer.Builder builder = PositionTailer.builder()
                 .setFile(file)
                 .setListener(listener)
-                .setFileCheckInterval(fileCheckInterval);
+                .setFileCheckInterval(fileCheckInterval)
+                .setMemoryMappedBackfill(true);
 
         if (readFromBeginning) {
             builder.setStartPositionAtBeginningOfFile();
@@ -104,15 +234,22 @@ public class FileTailerFactory implements AutoCloseable {
             // Set the starting position if it's available in the position store
             positionStoreOption.flatMap(store -> store.getFilePosition(file.toPath())).map(builder::setStartPosition);
         }
+        return builder;
+    }
 
-        final PositionTailer tailer = builder.build();
-        executor.execute(tailer);
-
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Started tailing file " + file);
-        }
-
-        return tailer;
+    private ScheduledExecutorService startFlushScheduler(MultilineAssembly multiline) {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "logalike-multiline-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long periodMillis = Math.max(1, multiline.getFlushTimeout().toMillis() / FLUSH_CHECKS_PER_TIMEOUT);
+        scheduler.scheduleWithFixedDelay(() -> {
+            /* Tailers of files that are no longer tailed are stopped, so their listeners can be let go */
+            multilineListeners.removeIf(MultilineTailerListener::flushIfStopped);
+            multilineListeners.forEach(MultilineTailerListener::flushIfIdle);
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return scheduler;
     }
 
 }
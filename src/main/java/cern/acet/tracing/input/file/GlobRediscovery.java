@@ -0,0 +1,178 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.input.file.tailer.PositionTailer;
+
+/**
+ * Scans a number of globs at a fixed interval, starts tailers for files that started to match and stops the tailers of
+ * files that disappeared. The scans run in a single background thread and use the directory listings cached by the
+ * {@link GlobScanner}s, so rescanning a large, mostly unchanged tree is cheap.
+ * <p>
+ * New files are tailed from their beginning, so files that only appeared because an already tailed file was renamed
+ * or archived must not be tailed again. Such files are ignored if they have the file key (e. g. the inode) of a file
+ * that was tailed at the previous scan, which is what a rotation like <code>app.log</code> to <code>app.log.1</code>
+ * leaves behind, or if they were last modified before the previous scan, like compressed archives that keep the
+ * modification time of the original file. Ignored files stay ignored as long as their file key is the same.
+ * </p>
+ *
+ * @author jepeders
+ */
+class GlobRediscovery implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GlobRediscovery.class);
+
+    /**
+     * The slack given to modification times, since some file systems only store them with a precision of seconds.
+     */
+    private static final long MODIFICATION_TIME_PRECISION_MILLIS = 2000;
+
+    private final List<GlobScanner> scanners;
+    private final Function<File, PositionTailer> tailerStarter;
+    private final Map<Path, PositionTailer> tailers;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Path, Object> ignoredFiles = new HashMap<>();
+    private Set<Object> tailedFileKeys;
+    private long lastScanMillis;
+
+    /**
+     * Creates a {@link GlobRediscovery} and schedules its first scan after the given interval.
+     *
+     * @param scanners The scanners of the globs to scan.
+     * @param tailers The tailers that were already started for files matching the globs.
+     * @param tailerStarter A function that starts a tailer for a new file.
+     * @param interval The interval between the end of one scan and the start of the next.
+     */
+    GlobRediscovery(List<GlobScanner> scanners, Map<Path, PositionTailer> tailers,
+            Function<File, PositionTailer> tailerStarter, Duration interval) {
+        this.scanners = scanners;
+        this.tailers = new HashMap<>(tailers);
+        this.tailerStarter = tailerStarter;
+        this.tailedFileKeys = getFileKeys(this.tailers.keySet());
+        this.lastScanMillis = System.currentTimeMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "logalike-glob-rescan");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long intervalMillis = interval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::rescanQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Scans the globs once, starting and stopping tailers as needed.
+     */
+    void rescan() {
+        final long scanMillis = System.currentTimeMillis();
+        final Set<Path> matches = new LinkedHashSet<>();
+        scanners.forEach(scanner -> matches.addAll(scanner.scan()));
+
+        final Iterator<Map.Entry<Path, PositionTailer>> iterator = tailers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, PositionTailer> entry = iterator.next();
+            if (!matches.contains(entry.getKey())) {
+                LOGGER.info("Stopped tailing file {}, which no longer matches any glob", entry.getKey());
+                entry.getValue().stop();
+                iterator.remove();
+            }
+        }
+        ignoredFiles.keySet().retainAll(matches);
+
+        /* A renamed file keeps its key, so keys tailed at the last scan or now are both tailed already */
+        final Set<Object> currentFileKeys = getFileKeys(tailers.keySet());
+        final Set<Object> knownFileKeys = new HashSet<>(tailedFileKeys);
+        knownFileKeys.addAll(currentFileKeys);
+        for (Path file : matches) {
+            if (!tailers.containsKey(file) && !scheduler.isShutdown()) {
+                final BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    /* The file disappeared again, so it is found by the next scan if it comes back */
+                    continue;
+                }
+                final Object fileKey = attributes.fileKey();
+                if (ignoredFiles.containsKey(file) && Objects.equals(ignoredFiles.get(file), fileKey)) {
+                    continue;
+                }
+                if (fileKey != null && knownFileKeys.contains(fileKey)) {
+                    LOGGER.info("Ignored new file {}, which was renamed from a file that is already tailed", file);
+                    ignoredFiles.put(file, fileKey);
+                } else if (attributes.lastModifiedTime().toMillis()
+                        < lastScanMillis - MODIFICATION_TIME_PRECISION_MILLIS) {
+                    LOGGER.info("Ignored new file {}, which was not modified since the last scan", file);
+                    ignoredFiles.put(file, fileKey);
+                } else {
+                    LOGGER.info("Started tailing new file {}", file);
+                    ignoredFiles.remove(file);
+                    tailers.put(file, tailerStarter.apply(file.toFile()));
+                    if (fileKey != null) {
+                        currentFileKeys.add(fileKey);
+                    }
+                }
+            }
+        }
+        tailedFileKeys = currentFileKeys;
+        lastScanMillis = scanMillis;
+    }
+
+    private static Set<Object> getFileKeys(Set<Path> files) {
+        final Set<Object> fileKeys = new HashSet<>();
+        for (Path file : files) {
+            try {
+                final Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+                if (fileKey != null) {
+                    fileKeys.add(fileKey);
+                }
+            } catch (IOException e) {
+                /* The file was moved or deleted, and its tailer is stopped by the scan if it does not come back */
+            }
+        }
+        return fileKeys;
+    }
+
+    private void rescanQuietly() {
+        try {
+            rescan();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to rescan globs for new files", e);
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the files that match a glob pattern by walking the directory tree below the glob prefix, and caches the
+ * listing of every directory it walks. A directory is only listed again when its modification time changes, which
+ * happens when entries are created, removed or renamed in it. A scan of an unchanged tree therefore costs one
+ * {@link Files#getLastModifiedTime(Path, LinkOption...)} per directory, no matter how many files it holds.
+ * <p>
+ * Modification times can be coarse, so a listing made within {@link #MODIFICATION_TIME_GRANULARITY_MILLIS} of the
+ * modification of the directory is not trusted, and the directory is listed again on the next scan. Like
+ * {@link Files#walkFileTree(Path, java.nio.file.FileVisitor)}, the scanner does not follow symbolic links to
+ * directories. It is not thread-safe.
+ * </p>
+ *
+ * @author jepeders
+ */
+class GlobScanner {
+
+    /**
+     * The coarsest modification time resolution expected from a file system.
+     */
+    static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GlobScanner.class);
+
+    private final String glob;
+    private final Path root;
+    private final PathMatcher matcher;
+    private final Map<Path, Listing> listings = new HashMap<>();
+
+    /**
+     * Creates a scanner for the given glob, that walks the tree below the given root.
+     *
+     * @param glob The glob pattern, without the '<code>glob:</code>' prefix.
+     * @param root The last directory in the pattern that is not globbed.
+     */
+    GlobScanner(String glob, Path root) {
+        this.glob = glob;
+        this.root = root;
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    }
+
+    /**
+     * @return The glob pattern of the scanner.
+     */
+    String getGlob() {
+        return glob;
+    }
+
+    /**
+     * Finds the files that currently match the glob. Directories that were not modified since the last scan are not
+     * listed again.
+     *
+     * @return The matching files, in the order they were listed.
+     */
+    Set<Path> scan() {
+        final Set<Path> matches = new LinkedHashSet<>();
+        final Set<Path> visited = new HashSet<>();
+        scanDirectory(root, matches, visited);
+        listings.keySet().retainAll(visited);
+        return matches;
+    }
+
+    private void scanDirectory(Path directory, Set<Path> matches, Set<Path> visited) {
+        final FileTime modified;
+        try {
+            modified = Files.getLastModifiedTime(directory, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            LOGGER.debug("Visit to {} failed", directory, e);
+            return;
+        }
+        visited.add(directory);
+
+        Listing listing = listings.get(directory);
+        if (listing == null || !listing.isValid(modified)) {
+            listing = list(directory, modified);
+            if (listing == null) {
+                listings.remove(directory);
+                return;
+            }
+            listings.put(directory, listing);
+        }
+        matches.addAll(listing.matches);
+        for (Path subdirectory : listing.subdirectories) {
+            scanDirectory(subdirectory, matches, visited);
+        }
+    }
+
+    private Listing list(Path directory, FileTime modified) {
+        final long listedAt = System.currentTimeMillis();
+        final List<Path> matches = new ArrayList<>();
+        final List<Path> subdirectories = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                try {
+                    final BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory()) {
+                        subdirectories.add(entry);
+                    } else if (matcher.matches(entry)) {
+                        matches.add(entry);
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("Visit to {} failed", entry, e);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Visit to {} failed", directory, e);
+            return null;
+        }
+        return new Listing(modified, listedAt, matches, subdirectories);
+    }
+
+    /**
+     * The cached listing of a directory: the files in it that match the glob, and its subdirectories.
+     */
+    private static class Listing {
+
+        private final FileTime modified;
+        private final long listedAt;
+        private final List<Path> matches;
+        private final List<Path> subdirectories;
+
+        Listing(FileTime modified, long listedAt, List<Path> matches, List<Path> subdirectories) {
+            this.modified = modified;
+            this.listedAt = listedAt;
+            this.matches = matches;
+            this.subdirectories = subdirectories;
+        }
+
+        /**
+         * @return True if the directory has not been modified since it was listed.
+         */
+        boolean isValid(FileTime currentModified) {
+            return modified.equals(currentModified)
+                    && modified.toMillis() + MODIFICATION_TIME_GRANULARITY_MILLIS < listedAt;
+        }
+
+    }
+
+}
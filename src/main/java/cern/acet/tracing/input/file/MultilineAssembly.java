@@ -0,0 +1,178 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Describes how physical lines in a file are assembled into multiline events, such as Java stack traces where every
+ * frame is written on its own line. A line either starts a new event or continues the current one:
+ * <ul>
+ * <li>If a start pattern is set, lines that do <i>not</i> match it continue the current event.</li>
+ * <li>If a continuation pattern is set, only lines that match it continue the current event.</li>
+ * </ul>
+ * If both patterns are set, a line continues the current event if it does not match the start pattern, but does match
+ * the continuation pattern. The lines of an event are joined with <code>'\n'</code>.
+ * <p>
+ * An event is emitted when the next event starts, when the file is rotated or when no lines have been added to it for
+ * the flush timeout. Events are cut at the maximum event size, and the remaining continuation lines are dropped until
+ * the next event starts.
+ * </p>
+ * <p>
+ * Example for stack traces in a log where every event starts with a date:
+ *
+ * <pre>
+ * MultilineAssembly.builder().setStartPattern(&quot;^\\d{4}-\\d{2}-\\d{2} &quot;).build();
+ * </pre>
+ *
+ * </p>
+ *
+ * @author jepeders
+ * @see MultilineTailerListener
+ */
+public final class MultilineAssembly {
+
+    /**
+     * The default maximum size of an event in characters.
+     */
+    public static final int DEFAULT_MAX_EVENT_SIZE = 64 * 1024;
+
+    /**
+     * The default time to wait for more lines before an event is emitted.
+     */
+    public static final Duration DEFAULT_FLUSH_TIMEOUT = Duration.ofSeconds(1);
+
+    private final Optional<Pattern> startPattern;
+    private final Optional<Pattern> continuationPattern;
+    private final int maxEventSize;
+    private final Duration flushTimeout;
+
+    private MultilineAssembly(Builder builder) {
+        this.startPattern = Optional.ofNullable(builder.startPattern);
+        this.continuationPattern = Optional.ofNullable(builder.continuationPattern);
+        this.maxEventSize = builder.maxEventSize;
+        this.flushTimeout = builder.flushTimeout;
+    }
+
+    /**
+     * @return A {@link Builder} for a {@link MultilineAssembly}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return The time to wait for more lines before an event is emitted.
+     */
+    public Duration getFlushTimeout() {
+        return flushTimeout;
+    }
+
+    /**
+     * @return The maximum number of characters in an event.
+     */
+    public int getMaxEventSize() {
+        return maxEventSize;
+    }
+
+    /**
+     * Tests whether the given line continues the current event, or starts a new one.
+     *
+     * @param line The line to test.
+     * @return True if the line belongs to the current event, false if it starts a new event.
+     */
+    public boolean isContinuation(String line) {
+        return !startPattern.map(pattern -> pattern.matcher(line).find()).orElse(false)
+                && continuationPattern.map(pattern -> pattern.matcher(line).find()).orElse(true);
+    }
+
+    /**
+     * A builder for {@link MultilineAssembly}.
+     */
+    public static class Builder {
+
+        private Pattern startPattern;
+        private Pattern continuationPattern;
+        private int maxEventSize = DEFAULT_MAX_EVENT_SIZE;
+        private Duration flushTimeout = DEFAULT_FLUSH_TIMEOUT;
+
+        /**
+         * Builds the {@link MultilineAssembly}.
+         *
+         * @return A {@link MultilineAssembly}.
+         * @throws IllegalArgumentException If neither a start nor a continuation pattern was set.
+         */
+        public MultilineAssembly build() {
+            if (startPattern == null && continuationPattern == null) {
+                throw new IllegalArgumentException("A start or a continuation pattern must be set");
+            }
+            return new MultilineAssembly(this);
+        }
+
+        /**
+         * Sets the pattern that lines continuing an event must contain.
+         *
+         * @param regex The regular expression to look for in continuation lines.
+         * @return The same builder with the continuation pattern set.
+         */
+        public Builder setContinuationPattern(String regex) {
+            this.continuationPattern = Pattern.compile(regex);
+            return this;
+        }
+
+        /**
+         * Sets the time to wait for more lines before the current event is emitted. Defaults to 1 second.
+         *
+         * @param flushTimeout The time to wait for more lines.
+         * @return The same builder with the flush timeout set.
+         * @throws IllegalArgumentException If the timeout is zero or negative.
+         */
+        public Builder setFlushTimeout(Duration flushTimeout) {
+            if (flushTimeout.isZero() || flushTimeout.isNegative()) {
+                throw new IllegalArgumentException("Flush timeout must be positive");
+            }
+            this.flushTimeout = flushTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of characters in an event. Defaults to
+         * {@value MultilineAssembly#DEFAULT_MAX_EVENT_SIZE}.
+         *
+         * @param maxEventSize The maximum event size in characters.
+         * @return The same builder with the maximum event size set.
+         * @throws IllegalArgumentException If the size is less than 1.
+         */
+        public Builder setMaxEventSize(int maxEventSize) {
+            if (maxEventSize < 1) {
+                throw new IllegalArgumentException("Maximum event size must be at least 1");
+            }
+            this.maxEventSize = maxEventSize;
+            return this;
+        }
+
+        /**
+         * Sets the pattern that lines starting an event contain.
+         *
+         * @param regex The regular expression to look for in start lines.
+         * @return The same builder with the start pattern set.
+         */
+        public Builder setStartPattern(String regex) {
+            this.startPattern = Pattern.compile(regex);
+            return this;
+        }
+
+    }
+
+}
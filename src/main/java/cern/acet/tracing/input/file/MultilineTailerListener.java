@@ -0,0 +1,162 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.input.file.tailer.PositionTailer;
+import cern.acet.tracing.input.file.tailer.PositionTailerListener;
+
+/**
+ * A {@link PositionTailerListener} that assembles the lines of one file into multiline events, as described by a
+ * {@link MultilineAssembly}, before handing them to another listener. Every tailed file has its own listener, so events
+ * are never mixed between files.
+ * <p>
+ * The event is assembled in a buffer that is reused between events, so long stack traces only grow it once. Since the
+ * tailer only reads when the file changes, the listener cannot detect the flush timeout on its own: the owner should
+ * call {@link #flushIfIdle()} periodically, and discard the listener once {@link #flushIfStopped()} tells that its
+ * tailer has stopped.
+ * </p>
+ * <p>
+ * File positions are held back while an event is being assembled, so an event is never lost if logalike is restarted
+ * before it was emitted. This means that lines may be read twice after a restart.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class MultilineTailerListener implements PositionTailerListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultilineTailerListener.class);
+    private static final char LINE_SEPARATOR = '\n';
+
+    private final PositionTailerListener delegate;
+    private final MultilineAssembly assembly;
+    private final long flushTimeoutNanos;
+    private final StringBuilder buffer = new StringBuilder();
+
+    private boolean isEventStarted = false;
+    private boolean isTruncated = false;
+    private long lastLineNanos;
+    private Long heldPosition;
+    private volatile PositionTailer tailer;
+
+    /**
+     * Creates a {@link MultilineTailerListener} that emits assembled events to the given listener.
+     *
+     * @param delegate The listener to emit events and file positions to.
+     * @param assembly The description of how to assemble events.
+     */
+    public MultilineTailerListener(PositionTailerListener delegate, MultilineAssembly assembly) {
+        this.delegate = delegate;
+        this.assembly = assembly;
+        this.flushTimeoutNanos = assembly.getFlushTimeout().toNanos();
+    }
+
+    /**
+     * Emits the current event if no lines have been added to it for the flush timeout.
+     */
+    public synchronized void flushIfIdle() {
+        if (isEventStarted && System.nanoTime() - lastLineNanos >= flushTimeoutNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Emits the current event if the tailer of this listener has stopped, since no more lines will be added to it.
+     *
+     * @return True if the tailer has stopped, so the listener no longer needs to be flushed.
+     */
+    public synchronized boolean flushIfStopped() {
+        if (tailer == null || tailer.isRunning()) {
+            return false;
+        }
+        flush();
+        return true;
+    }
+
+    @Override
+    public void init(PositionTailer tailer) {
+        this.tailer = tailer;
+        delegate.init(tailer);
+    }
+
+    @Override
+    public void fileNotFound() {
+        delegate.fileNotFound();
+    }
+
+    @Override
+    public synchronized void fileRotated() {
+        flush();
+        delegate.fileRotated();
+    }
+
+    @Override
+    public synchronized void handle(String line) {
+        lastLineNanos = System.nanoTime();
+        if (isEventStarted && assembly.isContinuation(line)) {
+            append(true, line);
+        } else {
+            flush();
+            isEventStarted = true;
+            append(false, line);
+        }
+    }
+
+    @Override
+    public void handle(Exception exception) {
+        delegate.handle(exception);
+    }
+
+    @Override
+    public synchronized void positionUpdated(long position) {
+        if (isEventStarted) {
+            heldPosition = position;
+        } else {
+            delegate.positionUpdated(position);
+        }
+    }
+
+    private void append(boolean isContinuation, String line) {
+        if (isTruncated) {
+            return;
+        }
+        final int room = assembly.getMaxEventSize() - buffer.length() - (isContinuation ? 1 : 0);
+        if (room < line.length()) {
+            isTruncated = true;
+            LOGGER.warn("Event exceeded {} characters and was truncated", assembly.getMaxEventSize());
+            if (room <= 0) {
+                return;
+            }
+        }
+        if (isContinuation) {
+            buffer.append(LINE_SEPARATOR);
+        }
+        buffer.append(line, 0, Math.min(room, line.length()));
+    }
+
+    private void flush() {
+        if (isEventStarted) {
+            final String event = buffer.toString();
+            buffer.setLength(0);
+            isEventStarted = false;
+            isTruncated = false;
+            delegate.handle(event);
+        }
+        if (heldPosition != null) {
+            delegate.positionUpdated(heldPosition);
+            heldPosition = null;
+        }
+    }
+
+}
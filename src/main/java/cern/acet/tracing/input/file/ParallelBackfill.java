@@ -0,0 +1,351 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.input.file.store.FilePositionStore;
+import cern.acet.tracing.input.file.store.FileRange;
+import cern.acet.tracing.input.file.tailer.PositionTailer;
+import cern.acet.tracing.input.file.tailer.PositionTailerListener;
+
+/**
+ * Reads files that already exist by splitting them into byte ranges that are read and converted concurrently. The
+ * ranges are aligned to line feeds, so every range starts at the beginning of a line, and the last range ends after
+ * the last complete line of the file at the time the backfill starts.
+ * <p>
+ * If the output is ordered, every range has its own queue and the stream drains the queues one range after the other,
+ * so the elements come out in the order of the files. Ranges that are read ahead of the stream block when their queue
+ * is full. If the output is unordered, all ranges share one queue.
+ * </p>
+ * <p>
+ * With a {@link FilePositionStore}, the ranges of a file and the position each range was read to are stored, so an
+ * interrupted backfill resumes the unfinished ranges only. When all ranges of a file are read, the file position is
+ * set to the end of the last range, so a tailer can continue from there.
+ * </p>
+ *
+ * @param <T> The type of the elements that the lines are converted to.
+ * @author jepeders
+ */
+class ParallelBackfill<T> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelBackfill.class);
+    private static final Object END_OF_RANGE = new Object();
+    private static final int SEARCH_BUFFER_SIZE = 8 * 1024;
+    private static final long POLL_TIMEOUT_MILLIS = 100;
+
+    private final Function<String, T> converter;
+    private final Optional<FilePositionStore> positionStoreOption;
+    private final boolean isOrdered;
+    private final int queueCapacity;
+    private final AtomicBoolean isOpen = new AtomicBoolean(true);
+    private final List<RangeReader> readers = new ArrayList<>();
+    private final List<PositionTailer> tailers = Collections.synchronizedList(new ArrayList<>());
+    private final BlockingQueue<Object> sharedQueue;
+
+    /**
+     * Creates a {@link ParallelBackfill} which splits the given files into ranges and submits them to the executor.
+     *
+     * @param files The files to read, in order.
+     * @param converter The function to convert lines with. It is called concurrently by the executor threads.
+     * @param rangeSize The approximate number of bytes in each range.
+     * @param isOrdered True if the elements should come out in the order of the files.
+     * @param queueCapacity The number of elements each queue can hold.
+     * @param positionStore An optional store to keep track of the progress in each range.
+     * @param executor The executor to read the ranges in.
+     */
+    ParallelBackfill(List<File> files, Function<String, T> converter, long rangeSize, boolean isOrdered,
+            int queueCapacity, Optional<FilePositionStore> positionStore, ExecutorService executor) {
+        this.converter = converter;
+        this.positionStoreOption = positionStore;
+        this.isOrdered = isOrdered;
+        this.queueCapacity = queueCapacity;
+        this.sharedQueue = isOrdered ? null : new ArrayBlockingQueue<>(queueCapacity);
+
+        for (File file : files) {
+            addRanges(file.toPath(), rangeSize);
+        }
+        readers.forEach(executor::execute);
+        LOGGER.info("Backfilling {} range(s) from {} file(s)", readers.size(), files.size());
+    }
+
+    @Override
+    public void close() {
+        isOpen.set(false);
+        synchronized (tailers) {
+            tailers.forEach(PositionTailer::stop);
+        }
+    }
+
+    /**
+     * @return A finite stream of the converted lines, which ends when all ranges have been read or the backfill is
+     *         closed.
+     */
+    Stream<T> getStream() {
+        return StreamSupport.stream(new RangeSpliterator(), false);
+    }
+
+    /**
+     * Splits the file between the beginning and the last line feed into ranges of approximately the given size. Every
+     * range but the first starts after a line feed.
+     *
+     * @param file The file to split.
+     * @param rangeSize The approximate size of each range.
+     * @return A list of unread ranges, which is empty if the file contains no complete lines.
+     * @throws IOException If the file could not be read.
+     */
+    static List<FileRange> splitIntoRanges(Path file, long rangeSize) throws IOException {
+        final List<FileRange> ranges = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(SEARCH_BUFFER_SIZE);
+            final long end = findLastLineEnd(channel, buffer);
+            long start = 0;
+            while (end - start > rangeSize) {
+                final long boundary = findNextLineEnd(channel, buffer, start + rangeSize - 1, end);
+                ranges.add(new FileRange(start, boundary, start));
+                start = boundary;
+            }
+            if (start < end) {
+                ranges.add(new FileRange(start, end, start));
+            }
+        }
+        return ranges;
+    }
+
+    private static long findLastLineEnd(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long blockEnd = channel.size();
+        while (blockEnd > 0) {
+            final long blockStart = Math.max(0, blockEnd - buffer.capacity());
+            buffer.clear();
+            buffer.limit((int) (blockEnd - blockStart));
+            readFully(channel, buffer, blockStart);
+            for (int index = buffer.limit() - 1; index >= 0; index--) {
+                if (buffer.get(index) == '\n') {
+                    return blockStart + index + 1;
+                }
+            }
+            blockEnd = blockStart;
+        }
+        return 0;
+    }
+
+    private static long findNextLineEnd(FileChannel channel, ByteBuffer buffer, long from, long end)
+            throws IOException {
+        long blockStart = from;
+        while (blockStart < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - blockStart));
+            readFully(channel, buffer, blockStart);
+            for (int index = 0; index < buffer.limit(); index++) {
+                if (buffer.get(index) == '\n') {
+                    return blockStart + index + 1;
+                }
+            }
+            blockStart += buffer.limit();
+        }
+        return end;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File ended before position " + (position + buffer.limit()));
+            }
+        }
+    }
+
+    private void addRanges(Path file, long rangeSize) {
+        List<FileRange> ranges = positionStoreOption.map(store -> store.getFileRanges(file))
+                .orElse(Collections.emptyList());
+        if (ranges.isEmpty() || ranges.get(ranges.size() - 1).getEnd() > file.toFile().length()) {
+            try {
+                ranges = splitIntoRanges(file, rangeSize);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to split {} into ranges, omitting file", file, e);
+                return;
+            }
+            final List<FileRange> newRanges = ranges;
+            positionStoreOption.ifPresent(store -> store.setFileRanges(file, newRanges));
+        } else {
+            LOGGER.info("Resuming backfill of {} from stored ranges", file);
+        }
+
+        final long end = ranges.isEmpty() ? 0 : ranges.get(ranges.size() - 1).getEnd();
+        final AtomicInteger unfinishedRanges = new AtomicInteger();
+        final List<RangeReader> fileReaders = new ArrayList<>();
+        for (int index = 0; index < ranges.size(); index++) {
+            final FileRange range = ranges.get(index);
+            if (!range.isFinished()) {
+                unfinishedRanges.incrementAndGet();
+                fileReaders.add(new RangeReader(file, index, range, unfinishedRanges, end));
+            }
+        }
+        if (fileReaders.isEmpty()) {
+            positionStoreOption.ifPresent(store -> store.setFilePosition(file, end));
+        }
+        readers.addAll(fileReaders);
+    }
+
+    /**
+     * Reads one range of a file with a {@link PositionTailer} that stops at the end of the range, and converts the
+     * lines into the queue of the range.
+     */
+    private class RangeReader implements Runnable, PositionTailerListener {
+
+        private final Path file;
+        private final int index;
+        private final FileRange range;
+        private final AtomicInteger unfinishedRanges;
+        private final long fileEnd;
+        private final BlockingQueue<Object> queue;
+        private PositionTailer tailer;
+        private boolean isFinished = false;
+
+        RangeReader(Path file, int index, FileRange range, AtomicInteger unfinishedRanges, long fileEnd) {
+            this.file = file;
+            this.index = index;
+            this.range = range;
+            this.unfinishedRanges = unfinishedRanges;
+            this.fileEnd = fileEnd;
+            this.queue = isOrdered ? new ArrayBlockingQueue<>(queueCapacity) : sharedQueue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (isOpen.get()) {
+                    final PositionTailer rangeTailer = PositionTailer.builder().setFile(file.toFile())
+                            .setListener(this).setStartPosition(range.getPosition()).setEndPosition(range.getEnd())
+                            .setMemoryMappedBackfill(true).build();
+                    tailers.add(rangeTailer);
+                    if (isOpen.get()) {
+                        rangeTailer.run();
+                    }
+                    tailers.remove(rangeTailer);
+                }
+            } finally {
+                offer(END_OF_RANGE);
+            }
+        }
+
+        @Override
+        public void init(PositionTailer tailer) {
+            this.tailer = tailer;
+        }
+
+        @Override
+        public void fileNotFound() {
+            LOGGER.warn("File {} disappeared during backfill", file);
+            tailer.stop();
+        }
+
+        @Override
+        public void fileRotated() {
+            LOGGER.warn("File {} was truncated during backfill", file);
+            tailer.stop();
+        }
+
+        @Override
+        public void handle(String line) {
+            offer(converter.apply(line));
+        }
+
+        @Override
+        public void handle(Exception exception) {
+            LOGGER.warn("Exception when backfilling range {} of file {}", range, file, exception);
+        }
+
+        @Override
+        public void positionUpdated(long position) {
+            positionStoreOption.ifPresent(store -> store.setFileRangePosition(file, index, position));
+            if (position >= range.getEnd() && !isFinished) {
+                isFinished = true;
+                if (unfinishedRanges.decrementAndGet() == 0) {
+                    positionStoreOption.ifPresent(store -> store.setFilePosition(file, fileEnd));
+                    LOGGER.info("Finished backfilling {}", file);
+                }
+            }
+        }
+
+        private void offer(Object element) {
+            try {
+                while (isOpen.get() && !queue.offer(element, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    /* Wait for the stream to catch up */
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tailer.stop();
+            }
+        }
+
+    }
+
+    /**
+     * Takes elements from the queues of the ranges until every range has ended.
+     */
+    private class RangeSpliterator extends Spliterators.AbstractSpliterator<T> {
+
+        private int nextRange = 0;
+        private int endedRanges = 0;
+
+        RangeSpliterator() {
+            super(Long.MAX_VALUE, isOrdered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            try {
+                while (isOpen.get() && endedRanges < readers.size()) {
+                    final BlockingQueue<Object> queue = isOrdered ? readers.get(nextRange).queue : sharedQueue;
+                    final Object element = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (element == END_OF_RANGE) {
+                        endedRanges++;
+                        nextRange++;
+                    } else if (element != null) {
+                        action.accept((T) element);
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -12,15 +12,23 @@
 package cern.acet.tracing.input.file;
 
 import java.io.File;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import cern.acet.tracing.input.file.tailer.FileWatcher;
+import cern.acet.tracing.input.file.tailer.MultiplexedTailer;
 import cern.acet.tracing.input.file.tailer.PositionTailer;
 import org.apache.commons.io.input.Tailer;
 import org.slf4j.Logger;
@@ -39,8 +47,25 @@ import cern.acet.tracing.Message;
  * the file instead by using {@link #shouldReadFromBeginning(boolean)}.
  * </p>
  * <p>
- * Files are checked for changes every second by default. This can be changed via the
- * {@link #setFileCheckInterval(Duration)}.
+ * Files are checked for changes every half second by default. This can be changed via the
+ * {@link #setFileCheckInterval(Duration)}. Files on local file systems can instead be watched for changes via
+ * {@link #shouldWatchFiles(boolean)}, so new lines are read as soon as they are written.
+ * </p>
+ * <p>
+ * All files are tailed by a {@link MultiplexedTailer} with a small, fixed number of threads, which defaults to the
+ * number of available processors and can be changed via {@link #setThreadCount(int)}.
+ * </p>
+ * <p>
+ * Globs given to {@link #addFiles(String)} are only scanned when the input is built, unless rescans are turned on via
+ * {@link #shouldRescanGlobs(boolean)}. The globs are then scanned again every ten seconds by default, so files that are
+ * created later are tailed from their beginning, and files that are deleted stop being tailed. The interval can be
+ * changed via {@link #setGlobRescanInterval(Duration)}. Files that appear because a tailed file was rotated, such as
+ * <code>app.log.1</code> or a compressed archive, are not tailed again.
+ * </p>
+ * <p>
+ * The position of every file is stored in a file of its own, which is written synchronously on every update. When many
+ * files are tailed, the positions can instead be kept in one memory-mapped table which is committed to disk at an
+ * interval set via {@link #setPositionCommitInterval(Duration)}.
  * </p>
  *
  * @author jepeders
@@ -52,15 +77,26 @@ public class TailingBuilder<MessageType extends Message<MessageType>> implements
         FileInputBuilder<MessageType, TailingBuilder<MessageType>> {
 
     private static final Duration DEFAULT_FILE_CHECK_INTERVAL = Duration.ofMillis(500);
+    private static final Duration DEFAULT_GLOB_RESCAN_INTERVAL = Duration.ofSeconds(10);
     private static final Logger LOGGER = LoggerFactory.getLogger(FileInput.class);
 
     private final Function<String, MessageType> converter;
     private final List<File> files = new ArrayList<>();
+    private final List<GlobScanner> globScanners = new ArrayList<>();
+    private final Set<Path> globMatches = new HashSet<>();
 
     private Duration fileCheckInterval = DEFAULT_FILE_CHECK_INTERVAL;
     private boolean isReadingFromBeginning = false;
+    private boolean isWatchingFiles = false;
+    private boolean isRescanningGlobs = false;
+    private Duration globRescanInterval = DEFAULT_GLOB_RESCAN_INTERVAL;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private Optional<MultilineAssembly> multilineOption = Optional.empty();
+    private Optional<Duration> positionCommitIntervalOption = Optional.empty();
     private FileTailerFactory tailerFactory;
+    private MultiplexedTailer multiplexer;
     private List<PositionTailer> tailers;
+    private Optional<GlobRediscovery> rediscoveryOption = Optional.empty();
 
     /**
      * Creates a {@link TailingBuilder} that uses the given converter to parse {@link String}s into {@link Message}s.
@@ -79,22 +115,42 @@ public class TailingBuilder<MessageType extends Message<MessageType>> implements
 
     @Override
     public TailingBuilder<MessageType> addFiles(String glob) {
-        files.addAll(getFilesFromGlob(glob));
+        final GlobScanner scanner = new GlobScanner(glob, getGlobPrefixPath(glob));
+        for (Path match : scanner.scan()) {
+            files.add(match.toFile());
+            globMatches.add(match);
+        }
+        globScanners.add(scanner);
         return this;
     }
 
     @Override
     public FileInput<MessageType> build() {
-        if (files.isEmpty()) {
+        final boolean isDiscoveringFiles = isRescanningGlobs && !globScanners.isEmpty();
+        if (files.isEmpty() && !isDiscoveringFiles) {
             throw new IllegalStateException(
                     "No files were added to the builder. Cannot construct tailer from zero input.");
         }
 
-        tailerFactory = new FileTailerFactory(fileCheckInterval);
-        final ExecutorService executor = Executors.newScheduledThreadPool(files.size());
-        this.tailers = files.stream().map(file -> tailerFactory.startTailer(file, executor, isReadingFromBeginning))
+        tailerFactory = new FileTailerFactory(fileCheckInterval, multilineOption, isWatchingFiles,
+                positionCommitIntervalOption);
+        final int workerCount = isDiscoveringFiles ? threadCount : Math.min(threadCount, files.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        multiplexer = tailerFactory.startMultiplexedTailer(executor, workerCount);
+        this.tailers = files.stream().map(file -> tailerFactory.startTailer(file, multiplexer, isReadingFromBeginning))
                 .collect(Collectors.toList());
 
+        if (isDiscoveringFiles) {
+            final Map<Path, PositionTailer> globTailers = new HashMap<>();
+            tailers.stream().filter(tailer -> globMatches.contains(tailer.getFile().toPath()))
+                    .forEach(tailer -> globTailers.put(tailer.getFile().toPath(), tailer));
+            /* Copy the resources to allow the TailingBuilder to be garbage collected */
+            final FileTailerFactory factory = tailerFactory;
+            final MultiplexedTailer newFileMultiplexer = multiplexer;
+            rediscoveryOption = Optional.of(new GlobRediscovery(globScanners, globTailers,
+                    file -> factory.startTailer(file, newFileMultiplexer, true), globRescanInterval));
+        }
+
         LOGGER.info("Created file input tailing {} file(s): {}", files.size(), files);
         return new FileInput<>(this, executor);
     }
@@ -105,10 +161,14 @@ public class TailingBuilder<MessageType extends Message<MessageType>> implements
 
             /* Copy the resource to allow the TailingBuilder to be garbage collected */
             private final List<PositionTailer> tailersToClose = tailers;
+            private final MultiplexedTailer multiplexerToClose = multiplexer;
+            private final Optional<GlobRediscovery> rediscoveryToClose = rediscoveryOption;
 
             @Override
             public void close() throws Exception {
+                rediscoveryToClose.ifPresent(GlobRediscovery::close);
                 tailersToClose.forEach(PositionTailer::stop);
+                multiplexerToClose.close();
                 tailerFactory.close();
             }
         };
@@ -120,7 +180,8 @@ public class TailingBuilder<MessageType extends Message<MessageType>> implements
     }
 
     /**
-     * Sets the interval with which the {@link FileInput} should check for new data in the tailing files.
+     * Sets the interval with which the {@link FileInput} should check for new data in the tailing files, if the files
+     * are not watched for changes (see {@link #shouldWatchFiles(boolean)}).
      *
      * @param interval The interval to check for changes in the files.
      * @return A {@link TailingBuilder} with the interval set.
@@ -133,6 +194,18 @@ public class TailingBuilder<MessageType extends Message<MessageType>> implements
         return this;
     }
 
+    /**
+     * Assembles the lines of every file into multiline events before they are converted to {@link Message}s, so that
+     * for instance a stack trace becomes one message instead of one message per line.
+     *
+     * @param multiline The description of how to assemble lines into events.
+     * @return A {@link TailingBuilder} with the multiline assembly set.
+     */
+    public TailingBuilder<MessageType> setMultiline(MultilineAssembly multiline) {
+        this.multilineOption = Optional.of(multiline);
+        return this;
+    }
+
     /**
      * Defines whether the {@link FileInput} should read from the beginning of a file or not. Defaults to false.
      *
@@ -145,4 +218,87 @@ public class TailingBuilder<MessageType extends Message<MessageType>> implements
         return this;
     }
 
+    /**
+     * Sets the interval between scans of the globs given to {@link #addFiles(String)}, if the globs are rescanned (see
+     * {@link #shouldRescanGlobs(boolean)}). Defaults to ten seconds.
+     *
+     * @param interval The interval between the end of one scan and the start of the next.
+     * @return A {@link TailingBuilder} with the interval set.
+     */
+    public TailingBuilder<MessageType> setGlobRescanInterval(Duration interval) {
+        if (interval.isZero() || interval.isNegative()) {
+            throw new IllegalArgumentException("Interval cannot be zero or below");
+        }
+        this.globRescanInterval = interval;
+        return this;
+    }
+
+    /**
+     * Keeps the positions of all files in one memory-mapped table, which is forced to disk at the given interval,
+     * instead of writing the position of every file synchronously to a file of its own. This saves a file descriptor
+     * per file and a disk write per update, but the positions stored within the last interval may be lost if the
+     * machine crashes, in which case those lines are read again. Positions stored without a table are taken over.
+     *
+     * @param interval The interval between two commits of the positions to disk.
+     * @return A {@link TailingBuilder} with the position commit interval set.
+     * @throws IllegalArgumentException If the interval is less than one millisecond.
+     */
+    public TailingBuilder<MessageType> setPositionCommitInterval(Duration interval) {
+        if (interval.toMillis() < 1) {
+            throw new IllegalArgumentException("Interval cannot be less than one millisecond");
+        }
+        this.positionCommitIntervalOption = Optional.of(interval);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads that read the files. Each thread services many files in turn, so the count can be much
+     * lower than the number of files. Defaults to the number of available processors.
+     *
+     * @param threadCount The number of threads.
+     * @return A {@link TailingBuilder} with the thread count set.
+     * @throws IllegalArgumentException If the count is less than 1.
+     */
+    public TailingBuilder<MessageType> setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        this.threadCount = threadCount;
+        return this;
+    }
+
+    /**
+     * Defines whether the {@link FileInput} should be notified of changes to the files by the file system, instead of
+     * checking the files for new data at the file check interval. If the file system does not support notifications,
+     * the files are checked at the file check interval anyway. Defaults to false.
+     * <p>
+     * Changes to files that are written from other machines, for instance over a network file system, may not be
+     * notified. Files on network and FUSE file stores are therefore checked at the file check interval as well (see
+     * {@link FileWatcher#isNotified(java.nio.file.Path)}). Watched files on other file stores are still checked every
+     * {@link FileWatcher#DEFAULT_POLL_INTERVAL}, in case a change is not notified.
+     * </p>
+     *
+     * @param shouldWatchFiles True if the files should be watched for changes, false if they should be polled.
+     * @return A {@link TailingBuilder} with the <code>isWatchingFiles</code> flag set.
+     */
+    public TailingBuilder<MessageType> shouldWatchFiles(boolean shouldWatchFiles) {
+        this.isWatchingFiles = shouldWatchFiles;
+        return this;
+    }
+
+    /**
+     * Defines whether the globs given to {@link #addFiles(String)} should be scanned again at the glob rescan interval,
+     * to tail files that were created after the {@link FileInput} was built and stop tailing files that were deleted.
+     * Files that are added explicitly are never stopped. New files that have the file key of a file that is already
+     * tailed, or that were not modified since the previous scan, are left out, so rotated files are not read twice.
+     * Defaults to false.
+     *
+     * @param shouldRescanGlobs True if the globs should be scanned again, false if they should only be scanned once.
+     * @return A {@link TailingBuilder} with the <code>isRescanningGlobs</code> flag set.
+     */
+    public TailingBuilder<MessageType> shouldRescanGlobs(boolean shouldRescanGlobs) {
+        this.isRescanningGlobs = shouldRescanGlobs;
+        return this;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import static com.google.common.hash.Hashing.md5;
+
+/**
+ * Identifies the content of a file by its file key (the device and inode on most unix systems) and a checksum of the
+ * first {@value #FINGERPRINT_BYTES} bytes. A file that is moved away and replaced by another file at the same path
+ * gets a different key, while a file that is truncated and rewritten in place gets a different checksum.
+ * <p>
+ * Files shorter than {@value #FINGERPRINT_BYTES} bytes are fingerprinted over the bytes they have, and the length of
+ * the fingerprint is kept, so a file that has grown since is still recognised by checking the same prefix.
+ * </p>
+ *
+ * @author jepeders
+ */
+final class FileIdentity {
+
+    /**
+     * The number of bytes from the beginning of the file that are checksummed.
+     */
+    static final int FINGERPRINT_BYTES = 1024;
+
+    /**
+     * The number of bytes an identity takes up when written with {@link #writeTo(ByteBuffer)}.
+     */
+    static final int BYTES = Long.BYTES + Integer.BYTES + Long.BYTES;
+
+    /**
+     * The key hash used when the file system does not support file keys.
+     */
+    private static final long NO_KEY = 0;
+
+    private final long keyHash;
+    private final int fingerprintLength;
+    private final long checksum;
+
+    FileIdentity(long keyHash, int fingerprintLength, long checksum) {
+        this.keyHash = keyHash;
+        this.fingerprintLength = fingerprintLength;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Reads the identity of the given file.
+     *
+     * @param file The file to identify.
+     * @return A {@link FileIdentity} of the file as it is now.
+     * @throws IOException If the attributes or the beginning of the file could not be read.
+     */
+    static FileIdentity of(Path file) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final int length = (int) Math.min(FINGERPRINT_BYTES, attributes.size());
+        final ByteBuffer prefix = readPrefix(file, length);
+        return new FileIdentity(hashKey(attributes.fileKey()), prefix.remaining(), checksum(prefix));
+    }
+
+    /**
+     * Reads an identity from the given buffer, as written by {@link #writeTo(ByteBuffer)}.
+     *
+     * @param buffer The buffer to read from.
+     * @return The {@link FileIdentity} stored in the buffer.
+     */
+    static FileIdentity readFrom(ByteBuffer buffer) {
+        return new FileIdentity(buffer.getLong(), buffer.getInt(), buffer.getLong());
+    }
+
+    /**
+     * Writes this identity to the given buffer, taking up {@value #BYTES} bytes.
+     *
+     * @param buffer The buffer to write to.
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putLong(keyHash).putInt(fingerprintLength).putLong(checksum);
+    }
+
+    /**
+     * @return The number of bytes from the beginning of the file that were checksummed.
+     */
+    int getFingerprintLength() {
+        return fingerprintLength;
+    }
+
+    /**
+     * Tests whether the given file has the same identity, i. e. the same file key (if known) and the same checksum over
+     * the bytes that were fingerprinted in this identity.
+     *
+     * @param file The file to compare with.
+     * @return True if the file has the same key and begins with the same content.
+     * @throws IOException If the attributes or the beginning of the file could not be read.
+     */
+    boolean matches(Path file) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return hasSameKey(attributes) && attributes.size() >= fingerprintLength
+                && checksum(readPrefix(file, fingerprintLength)) == checksum;
+    }
+
+    /**
+     * Tests whether the given attributes belong to a file with the same key. If either key is unknown the keys are
+     * considered the same, leaving the decision to the checksum.
+     *
+     * @param attributes The attributes of the file to compare with.
+     * @return True if the file keys are equal or unknown.
+     */
+    boolean hasSameKey(BasicFileAttributes attributes) {
+        final long otherKeyHash = hashKey(attributes.fileKey());
+        return keyHash == NO_KEY || otherKeyHash == NO_KEY || keyHash == otherKeyHash;
+    }
+
+    private static long hashKey(Object fileKey) {
+        if (fileKey == null) {
+            return NO_KEY;
+        }
+        return md5().hashString(fileKey.toString(), StandardCharsets.UTF_8).asLong();
+    }
+
+    private static ByteBuffer readPrefix(Path file, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                /* Keep reading until the buffer is full or the file ends */
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static long checksum(ByteBuffer prefix) {
+        final CRC32 crc = new CRC32();
+        crc.update(prefix);
+        return crc.getValue();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FileIdentity)) {
+            return false;
+        }
+        final FileIdentity identity = (FileIdentity) other;
+        return keyHash == identity.keyHash && fingerprintLength == identity.fingerprintLength
+                && checksum == identity.checksum;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(keyHash, fingerprintLength, checksum);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FileIdentity[key %x, %d bytes with checksum %x]", keyHash, fingerprintLength, checksum);
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Optional;
+
+/**
+ * A {@link PositionSlot} in a file of its own, which is locked for as long as the slot is open. The position is
+ * stored in the first eight bytes of the file, followed by the {@link FileIdentity}. Every write is synchronous, so the
+ * channel should be opened with {@link java.nio.file.StandardOpenOption#SYNC}.
+ *
+ * @author jepeders
+ */
+class FilePositionSlot implements PositionSlot {
+
+    private static final int BEGINNING_OF_FILE = 0;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    /**
+     * Creates a slot which reads and writes the given channel.
+     *
+     * @param channel The channel of the store file.
+     * @param lock The lock on the store file, which is released when the slot is closed.
+     */
+    FilePositionSlot(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.release();
+        channel.close();
+    }
+
+    @Override
+    public Optional<Long> getPosition() throws IOException {
+        channel.position(BEGINNING_OF_FILE);
+        return FilePositionStoreEntry.readLongFromChannel(channel).filter(position -> position != NO_POSITION);
+    }
+
+    @Override
+    public Optional<FileIdentity> getIdentity() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(FileIdentity.BYTES);
+        while (buffer.hasRemaining() && channel.read(buffer, Long.BYTES + buffer.position()) > 0) {
+            /* Keep reading until the buffer is full or the file ends */
+        }
+        if (buffer.hasRemaining()) {
+            return Optional.empty();
+        }
+        buffer.flip();
+        return Optional.of(FileIdentity.readFrom(buffer));
+    }
+
+    @Override
+    public void setPosition(long position) throws IOException {
+        channel.write(FilePositionStoreEntry.longToBytes(position), BEGINNING_OF_FILE);
+    }
+
+    @Override
+    public void setPositionAndIdentity(long position, FileIdentity identity) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + FileIdentity.BYTES);
+        buffer.putLong(position);
+        identity.writeTo(buffer);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+    }
+
+}
@@ -21,7 +21,10 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -30,6 +33,18 @@ import java.util.concurrent.ConcurrentHashMap;
  * Keeps track of file-pointers in files by storing them on disk. This is useful for later if a program
  * crashes or simply stops reading from a file, and you'd like to continue where you left off. By default the store
  * keeps its files under the user home directory, but that can be changed by giving the
+ * <p>
+ * Positions are stored together with an identity of the file content (the file key and a checksum of the first bytes
+ * in the file), so a stored position is only reused for the same content. When a different file has taken the place of
+ * a tracked file, for instance after a log rotation, its position is reset to the beginning of the new file.
+ * </p>
+ * <p>
+ * By default every tracked file gets a store file of its own, which is locked while the file is tracked and written
+ * synchronously on every update. A store created with {@link #createMappedUnder(Path, Duration)} instead keeps the
+ * positions of all files in one memory-mapped table, which is forced to disk at a given commit interval. That saves a
+ * file descriptor and a synchronous write per update when many files are tracked, at the price of losing the updates
+ * of the last interval if the machine crashes.
+ * </p>
  */
 public class FilePositionStore implements AutoCloseable {
 
@@ -41,17 +56,20 @@ public class FilePositionStore implements AutoCloseable {
 
     private final Map<Path, FilePositionStoreEntry> entries = new ConcurrentHashMap<>();
     private final Path directory;
+    private final Optional<MappedOffsetTable> tableOption;
 
     /**
      * Creates a {@link FilePositionStore} using the given directory as the parent for the store files. The directory
      * may not exists, but it cannot exist <b>and</b> not be a directory, i. e. a file or a link.
      *
      * @param directory The {@link Path} to the directory where to save files used by this store.
+     * @param table An optional table to keep the file positions in, instead of in one file per tracked file.
      * @throws IOException If the directory for the store could not be created or if it already exists, but is not
      *                     a directory.
      */
-    private FilePositionStore(Path directory) throws IOException {
+    private FilePositionStore(Path directory, Optional<MappedOffsetTable> table) throws IOException {
         this.directory = directory;
+        this.tableOption = table;
     }
 
     @Override
@@ -65,6 +83,9 @@ public class FilePositionStore implements AutoCloseable {
                 LOGGER.debug("Failed to close file position entry for {}", path, e);
             }
         });
+        if (tableOption.isPresent()) {
+            tableOption.get().close();
+        }
     }
 
     /**
@@ -88,32 +109,80 @@ public class FilePositionStore implements AutoCloseable {
      * @throws IllegalArgumentException If the given directory is not a directory.
      */
     public static FilePositionStore createUnder(Path directory) throws IOException {
+        createDirectory(directory);
+        return new FilePositionStore(directory, Optional.empty());
+    }
+
+    /**
+     * Creates a {@link FilePositionStore} which keeps the file positions in one memory-mapped table under the default
+     * directory ({@value DEFAULT_DIRECTORY_NAME}) in the user directory.
+     *
+     * @param commitInterval The interval at which the positions are forced to disk.
+     * @return A {@link FilePositionStore} created under the user directory.
+     * @throws IOException If the directory or the table could not be created, or if the table is already in use.
+     * @see #createMappedUnder(Path, Duration)
+     */
+    public static FilePositionStore createMappedUnderDefaultDirectory(Duration commitInterval) throws IOException {
+        return createMappedUnder(Paths.get(DEFAULT_DIRECTORY), commitInterval);
+    }
+
+    /**
+     * Creates a {@link FilePositionStore} which keeps the file positions in one memory-mapped table under the given
+     * directory. Positions are written to memory and forced to disk at the given commit interval. Positions of files
+     * that were not updated for 30 days are compacted away. Positions
+     * stored by a store from {@link #createUnder(Path)} in the same directory are taken over the first time a file is
+     * tracked. The ranges of a file are still stored in a file of their own.
+     *
+     * @param directory The parent directory where the file position store saves its file-pointers.
+     * @param commitInterval The interval at which the positions are forced to disk. Must be at least one millisecond.
+     * @return A {@link FilePositionStore} created under the given directory.
+     * @throws IOException If the directory or the table could not be created, or if the table is already in use.
+     * @throws IllegalArgumentException If the given directory is not a directory or the commit interval is less than
+     *                                  one millisecond.
+     */
+    public static FilePositionStore createMappedUnder(Path directory, Duration commitInterval) throws IOException {
+        createDirectory(directory);
+        return new FilePositionStore(directory, Optional.of(MappedOffsetTable.open(directory, commitInterval)));
+    }
+
+    private static void createDirectory(Path directory) throws IOException {
         if (!Files.exists(directory)) {
             Files.createDirectory(directory);
         } else if (!Files.isDirectory(directory)) {
             throw new IllegalArgumentException("The path to the store must be a directory: " + directory.toString());
         }
-        return new FilePositionStore(directory);
     }
 
     /**
      * Reads the last know file-pointer position where the given file was read.
      *
      * @param file The file in question.
-     * @return A long if it exists in the store.
+     * @return A long if it exists in the store, which is zero if the file was replaced since the position was stored.
      */
     public synchronized Optional<Long> getFilePosition(Path file) {
-        return getFilePositionEntry(file).flatMap(entry -> tryGet(entry::getFilePosition));
+        return getVerifiedEntry(file).flatMap(entry -> tryGet(entry::getFilePosition));
+    }
+
+    /**
+     * Gets the entry for the given file, after making sure that the stored positions belong to the content currently in
+     * the file. If another file has taken its place, the positions are reset to the beginning of the new file.
+     */
+    private synchronized Optional<FilePositionStoreEntry> getVerifiedEntry(Path file) {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+        return getFilePositionEntry(file).flatMap(entry -> tryGet(() -> {
+            if (entry.resetIfReplaced()) {
+                LOGGER.info("File {} was replaced since its position was stored, resetting to the beginning", file);
+            }
+            return Optional.of(entry);
+        }));
     }
 
     private synchronized Optional<FilePositionStoreEntry> getFilePositionEntry(Path file) {
         final FilePositionStoreEntry mapEntry = entries.get(file);
-        try {
-            if (mapEntry != null && mapEntry.isSameFile(file)) {
-                return Optional.of(mapEntry);
-            }
-        } catch (IOException e) {
-            LOGGER.warn("Failed to get ");
+        if (mapEntry != null) {
+            return Optional.of(mapEntry);
         }
 
         Optional<FilePositionStoreEntry> newEntryOptional = createEntry(file);
@@ -123,6 +192,10 @@ public class FilePositionStore implements AutoCloseable {
 
     private Optional<FilePositionStoreEntry> createEntry(Path file) {
         try {
+            if (tableOption.isPresent()) {
+                return Optional.of(FilePositionStoreEntry.createEntry(directory, tableOption.get(),
+                        file.toAbsolutePath()));
+            }
             return Optional.of(FilePositionStoreEntry.createEntry(directory, file.toAbsolutePath()));
         } catch (IOException e) {
             LOGGER.warn("Failed to read file position for " + file, e);
@@ -139,6 +212,39 @@ public class FilePositionStore implements AutoCloseable {
         getFilePositionEntry(file).ifPresent(entry -> trySet(entry::setFilePosition, position));
     }
 
+    /**
+     * Reads the ranges of the given file that are being read concurrently, along with how far each range was read.
+     *
+     * @param file The file in question.
+     * @return A list of {@link FileRange}s, which is empty if no ranges are stored for the file.
+     */
+    public synchronized List<FileRange> getFileRanges(Path file) {
+        return getVerifiedEntry(file).flatMap(entry -> tryGet(() -> Optional.of(entry.getFileRanges())))
+                .orElse(Collections.emptyList());
+    }
+
+    /**
+     * Replaces the ranges of the given file that are being read concurrently.
+     *
+     * @param file The file which should be updated.
+     * @param ranges The ranges to store for the file.
+     */
+    public synchronized void setFileRanges(Path file, List<FileRange> ranges) {
+        getFilePositionEntry(file).ifPresent(entry -> trySet(entry::setFileRanges, ranges));
+    }
+
+    /**
+     * Updates the position that one of the ranges of the given file was read to.
+     *
+     * @param file The file which should be updated.
+     * @param index The index of the range in the list given to {@link #setFileRanges(Path, List)}.
+     * @param position The position that was last read in the range.
+     */
+    public synchronized void setFileRangePosition(Path file, int index, long position) {
+        getFilePositionEntry(file).ifPresent(entry -> trySet(newPosition -> entry.setFileRangePosition(index,
+                newPosition), position));
+    }
+
     private static <T> Optional<T> tryGet(ThrowingSupplier<Optional<T>, IOException> f) {
         try {
             return f.get();
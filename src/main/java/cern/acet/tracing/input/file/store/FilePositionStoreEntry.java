@@ -5,8 +5,9 @@ import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.nio.charset.Charset;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static com.google.common.hash.Hashing.*;
@@ -16,33 +17,55 @@ import static java.nio.file.StandardOpenOption.*;
  * An entry in the {@link FilePositionStore} which accounts for one single file. When the entry is created it tries
  * to open a file and lock it for the duration of the entry. It is therefore very important that the entry is
  * {@link #close()}d when the entry is no longer used.
+ * <p>
+ * Next to the position, the entry stores the {@link FileIdentity} of the tracked file, so positions are only reused
+ * for the same content. The identity is recorded when the entry is created, extended while the file is shorter than
+ * the fingerprint and recorded again whenever the position moves backwards, which is what happens when a tailer
+ * follows a rotated or truncated file.
+ * </p>
  */
 class FilePositionStoreEntry implements AutoCloseable {
 
     private static final int BEGINNING_OF_FILE = 0;
+    private static final long NO_POSITION = PositionSlot.NO_POSITION;
+    private static final String RANGE_FILE_SUFFIX = ".ranges";
+    private static final int RANGES_POSITION = Integer.BYTES;
+    private static final int RANGE_BYTES = Long.BYTES * 3;
 
-    private final Instant timeOfCreation;
-    private final FileChannel channel;
-    private final FileLock lock;
+    private final Path file;
+    private final PositionSlot slot;
+    private final Path rangeFile;
+    private FileChannel rangeChannel;
+    private Optional<FileIdentity> identityOption;
+    private long lastPosition;
 
     /**
-     * Creates a new {@link FilePositionStoreEntry} which uses the given channel to write file positions to.
-     * @param channel The channel to read from.
-     * @param lock The file lock which will be held for the duration of the class.
-     * @param timeOfCreation The {@link Instant} when the file we are tracking was created. Used to check for log
-     *                       rotations.
-     * @throws IOException If the file could not be read or we failed to lock the store file (already in use?).
+     * Creates a new {@link FilePositionStoreEntry} which uses the given slot to write file positions to.
+     * @param slot The slot to store the position and identity of the file in. It is closed with the entry.
+     * @param file The file we are tracking. Used to check for log rotations.
+     * @param rangeFile The file to store the ranges of the tracked file in, if it is read in ranges.
+     * @throws IOException If the slot or the file could not be read.
      */
-    FilePositionStoreEntry(FileChannel channel, FileLock lock, Instant timeOfCreation) throws IOException{
-        this.channel = channel;
-        this.timeOfCreation = timeOfCreation;
-        this.lock = lock;
+    FilePositionStoreEntry(PositionSlot slot, Path file, Path rangeFile) throws IOException {
+        this.slot = slot;
+        this.file = file;
+        this.rangeFile = rangeFile;
+        this.lastPosition = getFilePosition().orElse(NO_POSITION);
+        this.identityOption = slot.getIdentity();
+        if (!identityOption.isPresent()) {
+            final Optional<FileIdentity> identity = identifyFile(true);
+            if (identity.isPresent()) {
+                writePositionAndIdentity(lastPosition, identity.get());
+            }
+        }
     }
 
     @Override
     public void close() throws Exception {
-        lock.release();
-        channel.close();
+        slot.close();
+        if (rangeChannel != null) {
+            rangeChannel.close();
+        }
     }
 
     /**
@@ -60,36 +83,95 @@ class FilePositionStoreEntry implements AutoCloseable {
             Files.createFile(storeFile);
         }
 
+        final Path rangeFile = Paths.get(parentDirectory.toString(), encoded + RANGE_FILE_SUFFIX);
+        return new FilePositionStoreEntry(openFileSlot(storeFile), file, rangeFile);
+    }
+
+    /**
+     * Creates a {@link FilePositionStoreEntry} which keeps the position of the given file in a slot of the given
+     * {@link MappedOffsetTable}. Ranges are still stored in a file of their own under the parent directory. If the
+     * table has nothing stored for the file, but a store file from {@link #createEntry(Path, Path)} exists, its
+     * position and identity are copied into the table.
+     *
+     * @param parentDirectory The parent directory for the file position store.
+     * @param table The table to keep the position of the file in.
+     * @param file The file to track. Should be the absolute name of the file avoid name-clashes.
+     * @return A {@link FilePositionStoreEntry}.
+     * @throws IOException If the slot or the file could not be read.
+     */
+    public static FilePositionStoreEntry createEntry(Path parentDirectory, MappedOffsetTable table, Path file)
+            throws IOException {
+        final String encoded = hashFileName(file.toString());
+        final PositionSlot slot = table.getSlot(encoded);
+        final Path storeFile = Paths.get(parentDirectory.toString(), encoded);
+        if (!slot.getPosition().isPresent() && !slot.getIdentity().isPresent() && Files.exists(storeFile)) {
+            try (PositionSlot fileSlot = openFileSlot(storeFile)) {
+                final Optional<FileIdentity> identity = fileSlot.getIdentity();
+                final long position = fileSlot.getPosition().orElse(NO_POSITION);
+                if (identity.isPresent()) {
+                    slot.setPositionAndIdentity(position, identity.get());
+                } else if (position != NO_POSITION) {
+                    slot.setPosition(position);
+                }
+            }
+        }
+        final Path rangeFile = Paths.get(parentDirectory.toString(), encoded + RANGE_FILE_SUFFIX);
+        return new FilePositionStoreEntry(slot, file, rangeFile);
+    }
+
+    private static PositionSlot openFileSlot(Path storeFile) throws IOException {
+        final FileChannel channel = FileChannel.open(storeFile, SYNC, READ, WRITE);
+        final FileLock lock;
         try {
-            final FileChannel channel = FileChannel.open(storeFile, SYNC, READ, WRITE);
-            final FileLock lock = channel.tryLock();
-            return new FilePositionStoreEntry(channel, lock, getTimeOfCreation(file));
+            lock = channel.tryLock();
         } catch (OverlappingFileLockException e) {
+            channel.close();
             throw new IOException(e);
         }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The store file " + storeFile + " is locked by another process");
+        }
+        return new FilePositionSlot(channel, lock);
     }
 
     /**
-     * Verifies that the given file is the same that we are currently tracking by comparing the time of creation for the
-     * file we are currently tracking and the given file.
+     * Verifies that the given file is the same that we are currently tracking by comparing the stored
+     * {@link FileIdentity} with the identity of the given file. If the tracked file did not exist when the entry was
+     * created, any file is assumed to be the same.
      *
      * @param file The other file to compare with the currently tracked file.
      * @return True if the file from this entry is the same as the given file.
-     * @throws IOException If we could not read the file attributes of the given file.
+     * @throws IOException If we could not read the file attributes or the beginning of the given file.
      */
     public boolean isSameFile(Path file) throws IOException {
-        Instant newFileTime = getTimeOfCreation(file);
-        return timeOfCreation.compareTo(newFileTime) == 0;
+        if (identityOption.isPresent()) {
+            return identityOption.get().matches(file);
+        }
+        return true;
     }
 
-    private static Instant getTimeOfCreation(Path file) throws IOException {
-        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
-        return attributes.creationTime().toInstant();
+    /**
+     * Resets the position and ranges of this entry if the tracked file has been replaced by a different file, so the
+     * new file is read from the beginning instead of from a position in the old one.
+     *
+     * @return True if the entry was reset.
+     * @throws IOException If the file could not be identified or the store could not be written.
+     */
+    public boolean resetIfReplaced() throws IOException {
+        if (isSameFile(file)) {
+            return false;
+        }
+        if (rangeChannel != null || Files.exists(rangeFile)) {
+            getRangeChannel().truncate(0);
+        }
+        writePositionAndIdentity(BEGINNING_OF_FILE, FileIdentity.of(file));
+        lastPosition = BEGINNING_OF_FILE;
+        return true;
     }
 
     public Optional<Long> getFilePosition() throws IOException {
-        channel.position(0);
-        return readLongFromChannel(channel);
+        return slot.getPosition();
     }
 
     /**
@@ -101,8 +183,118 @@ class FilePositionStoreEntry implements AutoCloseable {
         return md5().hashString(fileName, Charset.defaultCharset()).toString();
     }
 
+    /**
+     * Stores the given position, along with the identity of the tracked file if it has not been recorded for the
+     * content at that position yet.
+     *
+     * @param filePosition The position in the tracked file.
+     * @throws IOException If the position could not be written.
+     */
     public void setFilePosition(long filePosition) throws IOException {
-        channel.write(longToBytes(filePosition), BEGINNING_OF_FILE);
+        final boolean isRewound = filePosition < lastPosition;
+        final boolean isFingerprinted = identityOption.filter(identity ->
+                identity.getFingerprintLength() >= Math.min(FileIdentity.FINGERPRINT_BYTES, filePosition)).isPresent();
+        final Optional<FileIdentity> newIdentity = isRewound || !isFingerprinted
+                ? identifyFile(isRewound) : Optional.empty();
+        if (newIdentity.isPresent()) {
+            writePositionAndIdentity(filePosition, newIdentity.get());
+        } else {
+            slot.setPosition(filePosition);
+        }
+        lastPosition = filePosition;
+    }
+
+    /**
+     * Reads the identity of the tracked file. Unless the content is known to have changed, the identity is only
+     * accepted if the file still begins with the content of the recorded identity, so a file that replaced the tracked
+     * file before its old content was read to the end is not mistaken for it.
+     */
+    private Optional<FileIdentity> identifyFile(boolean isContentChanged) throws IOException {
+        try {
+            if (!isContentChanged && identityOption.isPresent() && !identityOption.get().matches(file)) {
+                return Optional.empty();
+            }
+            return Optional.of(FileIdentity.of(file));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    private void writePositionAndIdentity(long position, FileIdentity identity) throws IOException {
+        slot.setPositionAndIdentity(position, identity);
+        identityOption = Optional.of(identity);
+    }
+
+    /**
+     * Reads the ranges of the file that are being read concurrently. The ranges are stored in a file next to the file
+     * position, with the suffix {@value RANGE_FILE_SUFFIX}.
+     *
+     * @return A list of {@link FileRange}s, which is empty if no ranges were stored.
+     * @throws IOException If the ranges could not be read.
+     */
+    public List<FileRange> getFileRanges() throws IOException {
+        final ByteBuffer countBuffer = ByteBuffer.allocate(Integer.BYTES);
+        final FileChannel rangeChannel = getRangeChannel();
+        rangeChannel.read(countBuffer, 0);
+        if (countBuffer.hasRemaining()) {
+            return Collections.emptyList();
+        }
+        final int count = countBuffer.getInt(0);
+        final ByteBuffer buffer = ByteBuffer.allocate(count * RANGE_BYTES);
+        while (buffer.hasRemaining() && rangeChannel.read(buffer, RANGES_POSITION + buffer.position()) > 0) {
+            /* Keep reading until the buffer is full or the file ends */
+        }
+        if (buffer.hasRemaining()) {
+            throw new IOException("Expected " + count + " file ranges in the store, but the file was too short");
+        }
+        buffer.flip();
+        final List<FileRange> ranges = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            ranges.add(new FileRange(buffer.getLong(), buffer.getLong(), buffer.getLong()));
+        }
+        return ranges;
+    }
+
+    /**
+     * Replaces the ranges of the file that are being read concurrently.
+     *
+     * @param ranges The ranges to store.
+     * @throws IOException If the ranges could not be written.
+     */
+    public void setFileRanges(List<FileRange> ranges) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + ranges.size() * RANGE_BYTES);
+        buffer.putInt(ranges.size());
+        for (FileRange range : ranges) {
+            buffer.putLong(range.getStart()).putLong(range.getEnd()).putLong(range.getPosition());
+        }
+        buffer.flip();
+        getRangeChannel().truncate(0);
+        writeFully(buffer, 0);
+    }
+
+    /**
+     * Updates the position of one of the stored file ranges.
+     *
+     * @param index The index of the range in the list given to {@link #setFileRanges(List)}.
+     * @param position The position up to which the range has been read.
+     * @throws IOException If the position could not be written.
+     */
+    public void setFileRangePosition(int index, long position) throws IOException {
+        writeFully(longToBytes(position), RANGES_POSITION + (long) index * RANGE_BYTES + Long.BYTES * 2);
+    }
+
+    private FileChannel getRangeChannel() throws IOException {
+        if (rangeChannel == null) {
+            rangeChannel = FileChannel.open(rangeFile, CREATE, SYNC, READ, WRITE);
+        }
+        return rangeChannel;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        final FileChannel rangeChannel = getRangeChannel();
+        while (buffer.hasRemaining()) {
+            rangeChannel.write(buffer, position + buffer.position());
+        }
     }
 
     static ByteBuffer longToBytes(long number) {
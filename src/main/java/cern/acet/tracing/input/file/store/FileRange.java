@@ -0,0 +1,94 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.store;
+
+import java.util.Objects;
+
+/**
+ * A range of bytes in a file, along with the position up to which the range has been read. Ranges are used to read
+ * parts of a large file concurrently, and to resume each part where it left off.
+ */
+public final class FileRange {
+
+    private final long start;
+    private final long end;
+    private final long position;
+
+    /**
+     * Creates a {@link FileRange} between the given start and end, read up to the given position.
+     *
+     * @param start The position of the first byte in the range.
+     * @param end The position after the last byte in the range.
+     * @param position The position up to which the range has been read, between start and end.
+     * @throws IllegalArgumentException If the positions are negative or out of order.
+     */
+    public FileRange(long start, long end, long position) {
+        if (start < 0 || end < start || position < start || position > end) {
+            throw new IllegalArgumentException(
+                    String.format("Illegal range from %d to %d at position %d", start, end, position));
+        }
+        this.start = start;
+        this.end = end;
+        this.position = position;
+    }
+
+    /**
+     * @return The position after the last byte in the range.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return The position up to which the range has been read.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return The position of the first byte in the range.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return True if the range has been read to its end.
+     */
+    public boolean isFinished() {
+        return position == end;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FileRange)) {
+            return false;
+        }
+        final FileRange range = (FileRange) other;
+        return start == range.start && end == range.end && position == range.position;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(start, end, position);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FileRange[%d-%d at %d]", start, end, position);
+    }
+
+}
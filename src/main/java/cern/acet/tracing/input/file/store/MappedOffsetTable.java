@@ -0,0 +1,415 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A table of file positions in one memory-mapped file, with a fixed-size slot for every tracked file. Writing a
+ * position only changes the mapped memory, so no system call is made per update. The changes are forced to disk by a
+ * background thread at a fixed commit interval, so at most the positions of one interval are lost if the machine
+ * crashes. That is harmless for a tailer, which then reads a few lines again.
+ * <p>
+ * The slots are packed at the beginning of the table. When the table is opened and whenever it runs out of slots, it
+ * is compacted: the slots that were not updated within the retention period are dropped and the remaining slots are
+ * written to a new file with room for as many again, which then atomically replaces the old table. A separate lock
+ * file keeps other processes from using the same table.
+ * </p>
+ *
+ * @author jepeders
+ */
+final class MappedOffsetTable implements AutoCloseable {
+
+    /**
+     * The name of the table file in the store directory.
+     */
+    static final String TABLE_FILE_NAME = "offsets.table";
+
+    /**
+     * How long a slot is kept after it was last updated, when no other retention is given.
+     */
+    static final Duration DEFAULT_RETENTION = Duration.ofDays(30);
+
+    /**
+     * The smallest number of slots in a table.
+     */
+    static final int MINIMUM_CAPACITY = 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedOffsetTable.class);
+
+    private static final String LOCK_FILE_SUFFIX = ".lock";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4C474F54;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int CAPACITY_OFFSET = Integer.BYTES * 2;
+
+    /* The layout of a slot. A slot that was never updated is free. */
+    private static final int SLOT_BYTES = 64;
+    private static final int UPDATED_OFFSET = 0;
+    private static final int KEY_OFFSET = 8;
+    private static final int KEY_BYTES = 16;
+    private static final int POSITION_OFFSET = 24;
+    private static final int HAS_IDENTITY_OFFSET = 32;
+    private static final int IDENTITY_OFFSET = 36;
+    private static final long NEVER_UPDATED = 0;
+
+    private final Path tableFile;
+    private final Duration retention;
+    private final Clock clock;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ScheduledExecutorService committer;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private boolean isDirty = false;
+
+    /**
+     * Opens the table in the given directory, or creates it if it does not exist, and compacts it.
+     *
+     * @param directory The directory of the table. It must exist.
+     * @param commitInterval The interval at which changes are forced to disk. Must be at least one millisecond.
+     * @param retention How long a slot is kept after it was last updated.
+     * @param clock The clock to tell when slots were updated.
+     * @throws IOException If the table could not be read or written, or if it is used by another process.
+     * @throws IllegalArgumentException If the commit interval is less than one millisecond.
+     */
+    MappedOffsetTable(Path directory, Duration commitInterval, Duration retention, Clock clock) throws IOException {
+        if (commitInterval.toMillis() < 1) {
+            throw new IllegalArgumentException("The commit interval must be at least one millisecond");
+        }
+        this.tableFile = directory.resolve(TABLE_FILE_NAME);
+        this.retention = retention;
+        this.clock = clock;
+        this.lockChannel = FileChannel.open(directory.resolve(TABLE_FILE_NAME + LOCK_FILE_SUFFIX), CREATE, READ, WRITE);
+        this.lock = tryLock(lockChannel, directory);
+        try {
+            rewrite(readSlots());
+        } catch (IOException e) {
+            lock.release();
+            lockChannel.close();
+            throw e;
+        }
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "logalike-offset-committer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(this::commit, commitInterval.toMillis(), commitInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the table in the given directory with the {@link #DEFAULT_RETENTION}.
+     *
+     * @param directory The directory of the table. It must exist.
+     * @param commitInterval The interval at which changes are forced to disk. Must be at least one millisecond.
+     * @return A {@link MappedOffsetTable}.
+     * @throws IOException If the table could not be read or written, or if it is used by another process.
+     * @throws IllegalArgumentException If the commit interval is less than one millisecond.
+     */
+    static MappedOffsetTable open(Path directory, Duration commitInterval) throws IOException {
+        return new MappedOffsetTable(directory, commitInterval, DEFAULT_RETENTION, Clock.systemUTC());
+    }
+
+    private static FileLock tryLock(FileChannel channel, Path directory) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The offset table in " + directory + " is already in use");
+        }
+        return lock;
+    }
+
+    /**
+     * Forces the last changes to disk and releases the table.
+     */
+    @Override
+    public void close() throws IOException {
+        committer.shutdown();
+        commit();
+        lock.release();
+        lockChannel.close();
+    }
+
+    /**
+     * Forces the changes since the last commit to disk, if there are any.
+     */
+    void commit() {
+        final MappedByteBuffer dirtyBuffer;
+        synchronized (this) {
+            if (!isDirty) {
+                return;
+            }
+            isDirty = false;
+            dirtyBuffer = buffer;
+        }
+        try {
+            dirtyBuffer.force();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to commit file positions to {}", tableFile, e);
+            synchronized (this) {
+                isDirty = true;
+            }
+        }
+    }
+
+    /**
+     * @return The number of slots the table has room for before it is compacted again.
+     */
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of slots in use.
+     */
+    synchronized int getSlotCount() {
+        return slots.size();
+    }
+
+    /**
+     * Gets the slot for the given key. The slot only takes up room in the table once something is stored in it.
+     *
+     * @param key A hexadecimal MD5 hash which identifies the tracked file, as given by
+     *            {@link FilePositionStoreEntry#hashFileName(String)}.
+     * @return A {@link PositionSlot} in this table.
+     */
+    PositionSlot getSlot(String key) {
+        return new TableSlot(key);
+    }
+
+    private synchronized Optional<Long> getPosition(String key) {
+        final Integer slot = slots.get(key);
+        if (slot == null) {
+            return Optional.empty();
+        }
+        final long position = buffer.getLong(offsetOf(slot) + POSITION_OFFSET);
+        return position == PositionSlot.NO_POSITION ? Optional.empty() : Optional.of(position);
+    }
+
+    private synchronized Optional<FileIdentity> getIdentity(String key) {
+        final Integer slot = slots.get(key);
+        if (slot == null || buffer.getInt(offsetOf(slot) + HAS_IDENTITY_OFFSET) == 0) {
+            return Optional.empty();
+        }
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offsetOf(slot) + IDENTITY_OFFSET);
+        return Optional.of(FileIdentity.readFrom(view));
+    }
+
+    private synchronized void setPosition(String key, long position) throws IOException {
+        final int offset = offsetOf(getOrAllocateSlot(key));
+        buffer.putLong(offset + POSITION_OFFSET, position);
+        touch(offset);
+    }
+
+    private synchronized void setPositionAndIdentity(String key, long position, FileIdentity identity)
+            throws IOException {
+        final int offset = offsetOf(getOrAllocateSlot(key));
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset + IDENTITY_OFFSET);
+        identity.writeTo(view);
+        buffer.putInt(offset + HAS_IDENTITY_OFFSET, 1);
+        buffer.putLong(offset + POSITION_OFFSET, position);
+        touch(offset);
+    }
+
+    private void touch(int offset) {
+        buffer.putLong(offset + UPDATED_OFFSET, Math.max(NEVER_UPDATED + 1, clock.millis()));
+        isDirty = true;
+    }
+
+    private int getOrAllocateSlot(String key) throws IOException {
+        final Integer existing = slots.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (slots.size() == capacity) {
+            rewrite(copySlots(buffer, capacity));
+        }
+        final int slot = slots.size();
+        final int offset = offsetOf(slot);
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset + KEY_OFFSET);
+        view.put(HashCode.fromString(key).asBytes());
+        buffer.putLong(offset + POSITION_OFFSET, PositionSlot.NO_POSITION);
+        buffer.putInt(offset + HAS_IDENTITY_OFFSET, 0);
+        slots.put(key, slot);
+        return slot;
+    }
+
+    private static int offsetOf(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    /**
+     * Reads the slots of the existing table file, if there is one.
+     */
+    private Collection<ByteBuffer> readSlots() throws IOException {
+        if (!Files.exists(tableFile)) {
+            return new ArrayList<>();
+        }
+        final ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(tableFile));
+        if (content.limit() < HEADER_BYTES || content.getInt(0) != MAGIC || content.getInt(Integer.BYTES) != VERSION) {
+            LOGGER.warn("Ignoring file positions in {}, which is not an offset table of version {}", tableFile,
+                    VERSION);
+            return new ArrayList<>();
+        }
+        final int storedSlots = (content.limit() - HEADER_BYTES) / SLOT_BYTES;
+        return copySlots(content, Math.min(content.getInt(CAPACITY_OFFSET), storedSlots));
+    }
+
+    /**
+     * Copies the slots that were updated within the retention period. If a key occurs more than once, the most
+     * recently updated slot is kept.
+     */
+    private Collection<ByteBuffer> copySlots(ByteBuffer table, int slotCount) {
+        final long oldestUpdate = clock.millis() - retention.toMillis();
+        final Map<String, ByteBuffer> copies = new LinkedHashMap<>();
+        for (int slot = 0; slot < slotCount; slot++) {
+            final int offset = offsetOf(slot);
+            final long updated = table.getLong(offset + UPDATED_OFFSET);
+            if (updated == NEVER_UPDATED || updated < oldestUpdate) {
+                continue;
+            }
+            final byte[] key = new byte[KEY_BYTES];
+            final ByteBuffer view = table.duplicate();
+            view.position(offset + KEY_OFFSET);
+            view.get(key);
+            final ByteBuffer copy = ByteBuffer.allocate(SLOT_BYTES);
+            view.position(offset).limit(offset + SLOT_BYTES);
+            copy.put(view).flip();
+            final ByteBuffer previous = copies.get(HashCode.fromBytes(key).toString());
+            if (previous == null || previous.getLong(UPDATED_OFFSET) <= updated) {
+                copies.put(HashCode.fromBytes(key).toString(), copy);
+            }
+        }
+        return copies.values();
+    }
+
+    /**
+     * Writes the given slots to a new table with room for as many slots again, replaces the table file with it and
+     * maps the new file.
+     */
+    private void rewrite(Collection<ByteBuffer> liveSlots) throws IOException {
+        final int newCapacity = Math.max(MINIMUM_CAPACITY, liveSlots.size() * 2);
+        final ByteBuffer content = ByteBuffer.allocate(offsetOf(newCapacity));
+        content.putInt(MAGIC).putInt(VERSION).putInt(newCapacity);
+        content.position(HEADER_BYTES);
+        final List<String> keys = new ArrayList<>(liveSlots.size());
+        for (ByteBuffer slot : liveSlots) {
+            final byte[] key = new byte[KEY_BYTES];
+            slot.position(KEY_OFFSET);
+            slot.get(key);
+            keys.add(HashCode.fromBytes(key).toString());
+            slot.position(0);
+            content.put(slot);
+        }
+        content.clear();
+
+        final Path temporaryFile = tableFile.resolveSibling(TABLE_FILE_NAME + TEMPORARY_FILE_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporaryFile, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(temporaryFile, tableFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(tableFile, READ, WRITE)) {
+            // The mapping stays valid after the channel is closed. The old mapping is released by the garbage
+            // collector, since Java 8 has no way to unmap a buffer.
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, content.capacity());
+        }
+        capacity = newCapacity;
+        slots.clear();
+        for (int slot = 0; slot < keys.size(); slot++) {
+            slots.put(keys.get(slot), slot);
+        }
+        isDirty = false;
+        LOGGER.debug("Compacted {} to {} of {} slots", tableFile, keys.size(), newCapacity);
+    }
+
+    /**
+     * A {@link PositionSlot} which reads and writes a slot in the table. The slot is looked up by its key on every
+     * access, because compacting the table moves the slots.
+     */
+    private final class TableSlot implements PositionSlot {
+
+        private final String key;
+
+        private TableSlot(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public Optional<Long> getPosition() {
+            return MappedOffsetTable.this.getPosition(key);
+        }
+
+        @Override
+        public Optional<FileIdentity> getIdentity() {
+            return MappedOffsetTable.this.getIdentity(key);
+        }
+
+        @Override
+        public void setPosition(long position) throws IOException {
+            MappedOffsetTable.this.setPosition(key, position);
+        }
+
+        @Override
+        public void setPositionAndIdentity(long position, FileIdentity identity) throws IOException {
+            MappedOffsetTable.this.setPositionAndIdentity(key, position, identity);
+        }
+
+        @Override
+        public void close() {
+            /* The slot stays in the table */
+        }
+
+    }
+
+}
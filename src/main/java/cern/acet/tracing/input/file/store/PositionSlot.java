@@ -0,0 +1,62 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.store;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Holds the position and {@link FileIdentity} of one tracked file in a {@link FilePositionStore}. A slot is either a
+ * file of its own ({@link FilePositionSlot}) or a part of a shared {@link MappedOffsetTable}.
+ *
+ * @author jepeders
+ */
+interface PositionSlot extends AutoCloseable {
+
+    /**
+     * The position stored when an identity is recorded before any position is known.
+     */
+    long NO_POSITION = -1;
+
+    /**
+     * @return The stored position, if any.
+     * @throws IOException If the position could not be read.
+     */
+    Optional<Long> getPosition() throws IOException;
+
+    /**
+     * @return The stored identity of the tracked file, if any.
+     * @throws IOException If the identity could not be read.
+     */
+    Optional<FileIdentity> getIdentity() throws IOException;
+
+    /**
+     * Stores the given position, keeping the identity.
+     *
+     * @param position The position in the tracked file.
+     * @throws IOException If the position could not be written.
+     */
+    void setPosition(long position) throws IOException;
+
+    /**
+     * Stores the given position and identity together.
+     *
+     * @param position The position in the tracked file, or {@link #NO_POSITION}.
+     * @param identity The identity of the tracked file.
+     * @throws IOException If the position or identity could not be written.
+     */
+    void setPositionAndIdentity(long position, FileIdentity identity) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.tailer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the directories of tailed files with a {@link WatchService}, and notifies the tailers when their file is
+ * created, modified or deleted. A single thread serves all registered files, so idle files cost nothing but a
+ * registration.
+ * <p>
+ * Some file systems do not deliver notifications, for instance if the file is written from another machine over a
+ * network file system. Files on network and FUSE file stores (see {@link #isNotified(Path)}) should therefore not be
+ * registered, but polled at the interval used without a watcher. Tailers of registered files should still check their
+ * file at the {@link #getPollInterval()}, which is much longer, in case a change is not notified. If the platform only
+ * offers a polling {@link WatchService}, {@link #create(FileSystem, Duration)} returns no watcher, and the tailers
+ * should keep polling at their own interval.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class FileWatcher implements AutoCloseable {
+
+    /**
+     * The default interval at which tailers check their files for changes that were not notified.
+     */
+    public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds(10);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileWatcher.class);
+    private static final String POLLING_WATCH_SERVICE = "sun.nio.fs.PollingWatchService";
+
+    /**
+     * The types of file stores that are shared between machines, so changes made by other machines are not notified.
+     */
+    private static final Set<String> UNNOTIFIED_STORE_TYPES = new HashSet<>(Arrays.asList("nfs", "nfs4", "cifs",
+            "smbfs", "smb3", "9p", "afs", "ceph", "lustre", "gpfs", "fuse", "sshfs"));
+    private static final String FUSE_STORE_TYPE_PREFIX = "fuse.";
+
+    private final WatchService watchService;
+    private final Duration pollInterval;
+    private final Map<Path, WatchedDirectory> directories = new HashMap<>();
+    private final Map<Path, Boolean> notifiedDirectories = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    private FileWatcher(WatchService watchService, Duration pollInterval) {
+        this.watchService = watchService;
+        this.pollInterval = pollInterval;
+        this.thread = new Thread(this::watch, "logalike-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Creates a {@link FileWatcher} for the default file system with the {@link #DEFAULT_POLL_INTERVAL}.
+     *
+     * @return A {@link FileWatcher} if the default file system delivers change notifications, otherwise empty.
+     */
+    public static Optional<FileWatcher> create() {
+        return create(FileSystems.getDefault(), DEFAULT_POLL_INTERVAL);
+    }
+
+    /**
+     * Creates a {@link FileWatcher} for the given file system.
+     *
+     * @param fileSystem The file system of the files to watch.
+     * @param pollInterval The interval at which tailers should check their files for changes that were not notified.
+     * @return A {@link FileWatcher} if the file system delivers change notifications, otherwise empty.
+     */
+    public static Optional<FileWatcher> create(FileSystem fileSystem, Duration pollInterval) {
+        try {
+            final WatchService watchService = fileSystem.newWatchService();
+            if (watchService.getClass().getName().equals(POLLING_WATCH_SERVICE)) {
+                LOGGER.info("File system only supports polling for changes, files will be polled");
+                watchService.close();
+                return Optional.empty();
+            }
+            return Optional.of(new FileWatcher(watchService, pollInterval));
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.info("Cannot watch files for changes, files will be polled", e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        thread.interrupt();
+    }
+
+    /**
+     * @return The interval at which tailers should check their files for changes that were not notified.
+     */
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Tells whether changes to the given file can be expected to be notified. Files on network file systems, such as NFS
+     * or CIFS, and on FUSE file systems are changed behind the back of the local kernel, so the {@link WatchService}
+     * may never see the changes. Such files should be polled at the file check interval instead of being registered.
+     * The type of the file store is looked up once per directory.
+     *
+     * @param file The file to check.
+     * @return False if the file is on a file store that does not notify changes, otherwise true.
+     */
+    public boolean isNotified(Path file) {
+        final Path directory = file.toAbsolutePath().getParent();
+        return notifiedDirectories.computeIfAbsent(directory, FileWatcher::isNotifiedDirectory);
+    }
+
+    /**
+     * Registers a file to watch. The file does not have to exist, but its directory must. The listener is called from
+     * the watcher thread whenever the file is created, modified or deleted, and should return quickly.
+     *
+     * @param file The file to watch.
+     * @param listener The listener to call when the file changes.
+     * @return A {@link Closeable} that stops watching the file for the listener when closed.
+     * @throws IOException If the directory of the file could not be watched.
+     */
+    public Closeable register(Path file, Runnable listener) throws IOException {
+        final Path absoluteFile = file.toAbsolutePath();
+        final Path directory = absoluteFile.getParent();
+        final Path fileName = absoluteFile.getFileName();
+        final FileListener fileListener = new FileListener(fileName, listener);
+        synchronized (directories) {
+            WatchedDirectory watched = directories.get(directory);
+            if (watched == null) {
+                final WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watched = new WatchedDirectory(key);
+                directories.put(directory, watched);
+            }
+            watched.listeners.add(fileListener);
+        }
+        return () -> unregister(directory, fileListener);
+    }
+
+    static boolean isNotifiedStoreType(String type) {
+        return !UNNOTIFIED_STORE_TYPES.contains(type) && !type.startsWith(FUSE_STORE_TYPE_PREFIX);
+    }
+
+    private static boolean isNotifiedDirectory(Path directory) {
+        try {
+            final String type = Files.getFileStore(directory).type();
+            if (isNotifiedStoreType(type)) {
+                return true;
+            }
+            LOGGER.info("Files in {} are on a {} file store, which does not notify changes, and will be polled",
+                    directory, type);
+            return false;
+        } catch (IOException e) {
+            /* The directory does not exist (yet), so let the registration find out */
+            return true;
+        }
+    }
+
+    private void unregister(Path directory, FileListener fileListener) {
+        synchronized (directories) {
+            final WatchedDirectory watched = directories.get(directory);
+            if (watched != null && watched.listeners.remove(fileListener) && watched.listeners.isEmpty()) {
+                watched.key.cancel();
+                directories.remove(directory);
+            }
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                final Path directory = (Path) key.watchable();
+                final WatchedDirectory watched;
+                synchronized (directories) {
+                    watched = directories.get(directory);
+                }
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (watched != null) {
+                        notify(watched, event);
+                    }
+                }
+                if (!key.reset() && watched != null) {
+                    // The directory is gone, so let every tailer in it find out on its own
+                    LOGGER.debug("Stopped watching {}", directory);
+                    watched.listeners.forEach(FileListener::run);
+                    synchronized (directories) {
+                        directories.remove(directory, watched);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOGGER.debug("File watcher stopped");
+        }
+    }
+
+    private static void notify(WatchedDirectory watched, WatchEvent<?> event) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            watched.listeners.forEach(FileListener::run);
+        } else {
+            final Object fileName = event.context();
+            for (FileListener listener : watched.listeners) {
+                if (listener.fileName.equals(fileName)) {
+                    listener.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * The listeners of files in a watched directory.
+     */
+    private static class WatchedDirectory {
+
+        private final WatchKey key;
+        private final List<FileListener> listeners = new CopyOnWriteArrayList<>();
+
+        WatchedDirectory(WatchKey key) {
+            this.key = key;
+        }
+
+    }
+
+    /**
+     * A listener for changes to a file with the given name.
+     */
+    private static class FileListener implements Runnable {
+
+        private final Path fileName;
+        private final Runnable listener;
+
+        FileListener(Path fileName, Runnable listener) {
+            this.fileName = fileName;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to notify listener of change to {}", fileName, e);
+            }
+        }
+
+    }
+
+}
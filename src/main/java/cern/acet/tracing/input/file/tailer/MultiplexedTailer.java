@@ -0,0 +1,361 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.tailer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tails any number of files with a small, fixed number of worker threads, instead of one blocking thread per
+ * {@link PositionTailer}.
+ * <p>
+ * A file is put in a ready queue when its {@link FileWatcher} reports a change, or when it is due for a check: every
+ * file check interval for files that are not watched, and every poll interval of the watcher for files that are. The
+ * workers take files from the queue one at a time and read at most {@link Builder#setMaxBytesPerTurn(long)} bytes of
+ * new lines from each before moving on. A file with more to read goes to the back of the queue, so one busy file
+ * cannot starve the others. Each file is in the queue at most once, and is only read by one worker at a time, so
+ * {@link PositionTailerListener}s are called from one thread at a time, although not always the same thread.
+ * </p>
+ * <p>
+ * The workers share their read buffers between files, so a file costs its {@link PositionTailer} and a few fields of
+ * scheduling state. Backfilling from memory mapped windows is done one window per turn.
+ * </p>
+ * <p>
+ * Tailers are added with {@link #add(PositionTailer)} and should not be run on their own. A tailer is removed when it
+ * is stopped, when it has read up to its end position or when it fails. Closing the multiplexer stops all its tailers.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class MultiplexedTailer implements AutoCloseable {
+
+    /**
+     * The number of bytes a worker reads from one file before it moves on to the next, by default.
+     */
+    public static final long DEFAULT_MAX_BYTES_PER_TURN = 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiplexedTailer.class);
+
+    /* The scheduling states of a file */
+    private static final int IDLE = 0;
+    private static final int QUEUED = 1;
+    private static final int RUNNING = 2;
+    private static final int CHANGED_WHILE_RUNNING = 3;
+    private static final int RETIRED = 4;
+
+    private static final AtomicIntegerFieldUpdater<TailedFile> STATE = AtomicIntegerFieldUpdater
+            .newUpdater(TailedFile.class, "state");
+
+    /**
+     * Tells a worker to stop.
+     */
+    private static final TailedFile STOP = new TailedFile(null);
+
+    private final AtomicBoolean isOpen = new AtomicBoolean(true);
+    private final LinkedBlockingQueue<TailedFile> readyQueue = new LinkedBlockingQueue<>();
+    private final Set<TailedFile> files = ConcurrentHashMap.newKeySet();
+    private final FileWatcher fileWatcher;
+    private final int threadCount;
+    private final int bufferSize;
+    private final long maxBytesPerTurn;
+    private final long checksPerWatchedPoll;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * The number of times the files have been checked. Only accessed from the {@link #timer}.
+     */
+    private long checkCount = 0;
+
+    private MultiplexedTailer(Builder builder) {
+        this.fileWatcher = builder.fileWatcher;
+        this.threadCount = builder.threadCount;
+        this.bufferSize = builder.bufferSize;
+        this.maxBytesPerTurn = builder.maxBytesPerTurn;
+
+        final long checkMillis = builder.fileCheckInterval.toMillis();
+        this.checksPerWatchedPoll = fileWatcher == null ? 1
+                : Math.max(1, fileWatcher.getPollInterval().toMillis() / checkMillis);
+
+        for (int i = 0; i < threadCount; i++) {
+            builder.executor.execute(this::work);
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "logalike-tailer-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::checkFiles, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return A new Builder which can help construct instances of the MultiplexedTailer.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Starts tailing the file of the given tailer. The file is checked right away, and after that whenever it changes
+     * or is due for a check.
+     *
+     * @param tailer The tailer to service. It should not be run by anyone else.
+     * @throws IllegalStateException If the multiplexer has been closed.
+     */
+    public void add(PositionTailer tailer) {
+        if (!isOpen.get()) {
+            throw new IllegalStateException("Cannot add a tailer to a closed multiplexed tailer");
+        }
+        final TailedFile file = new TailedFile(tailer);
+        files.add(file);
+        signal(file);
+        if (fileWatcher != null && fileWatcher.isNotified(tailer.getFile().toPath())) {
+            try {
+                file.watchRegistration = fileWatcher.register(tailer.getFile().toPath(), () -> signal(file));
+                // Check the file again for changes made before it was watched
+                signal(file);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to watch file {}, it will be polled instead", tailer.getFile(), e);
+            }
+        }
+    }
+
+    /**
+     * @return The number of files that are currently tailed.
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * Stops all the tailers and the workers. The workers finish the files that are already queued, and then return.
+     */
+    @Override
+    public void close() {
+        if (!isOpen.getAndSet(false)) {
+            return;
+        }
+        timer.shutdown();
+        for (TailedFile file : files) {
+            file.tailer.stop();
+            signal(file);
+        }
+        for (int i = 0; i < threadCount; i++) {
+            readyQueue.add(STOP);
+        }
+    }
+
+    /**
+     * Queues the file to be read by a worker, unless it is already queued. If a worker is reading the file, it is
+     * queued again when the worker is done.
+     */
+    private void signal(TailedFile file) {
+        while (true) {
+            final int state = file.state;
+            if (state == IDLE) {
+                if (STATE.compareAndSet(file, IDLE, QUEUED)) {
+                    readyQueue.add(file);
+                    return;
+                }
+            } else if (state == RUNNING) {
+                if (STATE.compareAndSet(file, RUNNING, CHANGED_WHILE_RUNNING)) {
+                    return;
+                }
+            } else {
+                return; // Already queued, already marked as changed or retired
+            }
+        }
+    }
+
+    private void checkFiles() {
+        final boolean isPollingWatchedFiles = ++checkCount % checksPerWatchedPoll == 0;
+        for (TailedFile file : files) {
+            if (isPollingWatchedFiles || file.watchRegistration == null) {
+                signal(file);
+            }
+        }
+    }
+
+    private void work() {
+        final ByteBuffer buffer = PositionTailer.allocateBuffer(bufferSize);
+        try {
+            while (true) {
+                final TailedFile file = readyQueue.take();
+                if (file == STOP) {
+                    return;
+                }
+                service(file, buffer);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.debug("Multiplexed tailer worker interrupted");
+        }
+    }
+
+    private void service(TailedFile file, ByteBuffer buffer) {
+        STATE.set(file, RUNNING);
+        final boolean hasMore = file.tailer.service(buffer, maxBytesPerTurn);
+        if (!file.tailer.isRunning()) {
+            retire(file);
+        } else if (hasMore || !STATE.compareAndSet(file, RUNNING, IDLE)) {
+            // More to read, or the file changed while it was read, so go to the back of the queue
+            STATE.set(file, QUEUED);
+            readyQueue.add(file);
+        }
+    }
+
+    private void retire(TailedFile file) {
+        STATE.set(file, RETIRED);
+        files.remove(file);
+        file.tailer.release();
+        IOUtils.closeQuietly(file.watchRegistration);
+    }
+
+    /**
+     * The scheduling state of a tailed file.
+     */
+    private static class TailedFile {
+
+        private final PositionTailer tailer;
+        volatile int state = IDLE; // Not private, so the updater can reach it
+        private volatile Closeable watchRegistration;
+
+        TailedFile(PositionTailer tailer) {
+            this.tailer = tailer;
+        }
+
+    }
+
+    /**
+     * A builder for {@link MultiplexedTailer}s.
+     */
+    public static class Builder {
+
+        private static final Duration DEFAULT_FILE_CHECK_INTERVAL = Duration.ofSeconds(1);
+
+        private Executor executor;
+        private FileWatcher fileWatcher;
+        private Duration fileCheckInterval = DEFAULT_FILE_CHECK_INTERVAL;
+        private int threadCount = Runtime.getRuntime().availableProcessors();
+        private int bufferSize = 64 * 1024;
+        private long maxBytesPerTurn = DEFAULT_MAX_BYTES_PER_TURN;
+
+        /**
+         * Builds a MultiplexedTailer and starts its workers in the executor.
+         *
+         * @return A MultiplexedTailer.
+         * @throws IllegalArgumentException If no executor was given.
+         */
+        public MultiplexedTailer build() {
+            if (executor == null) {
+                throw new IllegalArgumentException("An executor must be given to run the workers");
+            }
+            return new MultiplexedTailer(this);
+        }
+
+        /**
+         * Sets the size of the buffer each worker reads files into. Defaults to 64 KiB.
+         *
+         * @param bufferSize The size of the buffer in bytes.
+         * @return The same Builder with the buffer size set.
+         */
+        public Builder setBufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Buffer size must be at least 1");
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Sets the executor to run the workers in. The executor must be able to run all the workers at once.
+         *
+         * @param executor The executor to run the workers in.
+         * @return The same Builder with the executor set.
+         */
+        public Builder setExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the interval at which files that are not watched are checked for changes. Defaults to one second.
+         *
+         * @param interval The interval to check for changes in the files.
+         * @return The same Builder with the interval set.
+         */
+        public Builder setFileCheckInterval(Duration interval) {
+            if (interval.toMillis() < 1) {
+                throw new IllegalArgumentException("Interval must be at least one millisecond");
+            }
+            this.fileCheckInterval = interval;
+            return this;
+        }
+
+        /**
+         * Sets the watcher that notifies the multiplexer of changes to the files. Watched files are checked at the
+         * poll interval of the watcher instead of the file check interval. By default all files are polled.
+         *
+         * @param fileWatcher The watcher to register the files in.
+         * @return The same Builder with the file watcher set.
+         */
+        public Builder setFileWatcher(FileWatcher fileWatcher) {
+            this.fileWatcher = fileWatcher;
+            return this;
+        }
+
+        /**
+         * Sets the number of bytes a worker reads from one file before it moves on to the next. The worker always
+         * reads up to the end of a line, so a turn can be longer if a line is. Defaults to
+         * {@link #DEFAULT_MAX_BYTES_PER_TURN}.
+         *
+         * @param maxBytesPerTurn The number of bytes to read per turn.
+         * @return The same Builder with the number of bytes per turn set.
+         */
+        public Builder setMaxBytesPerTurn(long maxBytesPerTurn) {
+            if (maxBytesPerTurn < 1) {
+                throw new IllegalArgumentException("Bytes per turn must be at least 1");
+            }
+            this.maxBytesPerTurn = maxBytesPerTurn;
+            return this;
+        }
+
+        /**
+         * Sets the number of workers that read the files. Defaults to the number of available processors.
+         *
+         * @param threadCount The number of workers.
+         * @return The same Builder with the thread count set.
+         */
+        public Builder setThreadCount(int threadCount) {
+            if (threadCount < 1) {
+                throw new IllegalArgumentException("Thread count must be at least 1");
+            }
+            this.threadCount = threadCount;
+            return this;
+        }
+
+    }
+
+}
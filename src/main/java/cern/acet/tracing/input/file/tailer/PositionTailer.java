@@ -17,19 +17,64 @@ package cern.acet.tracing.input.file.tailer;
  * limitations under the License.
  */
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Slightly modified implementation of the unix "tail -f" functionality from the Apache commons library.
  * This version exposes the file position to the {@link PositionTailerListener}
  * <p>
+ * The file is read through a {@link FileChannel} into a reusable direct {@link ByteBuffer}. Line endings are found
+ * eight bytes at a time by testing a whole <code>long</code> word for <code>'\n'</code> and <code>'\r'</code> bytes,
+ * and only complete lines are decoded into {@link String}s. A line without a line ending is left in the file until the
+ * rest of it is written.
+ * </p>
+ * <p>
+ * Lines are decoded with the charset of the builder, which defaults to UTF-8. Lines that only contain ASCII characters
+ * are copied straight into a {@link String}, while other lines are decoded by a reusable {@link CharsetDecoder} which
+ * replaces malformed input. Since line endings are found byte by byte, only charsets that encode ASCII as single
+ * bytes (such as UTF-8 and the ISO-8859 family) are supported.
+ * </p>
+ * <p>
+ * When the tailer starts far from the end of a file, such as when reading an archive from the beginning, it can
+ * backfill the file from memory mapped windows instead (see {@link Builder#setBackfillWindowSize(int)}). Lines are
+ * scanned in place in the mapped windows, and the tailer reverts to reading through the buffer once it reaches the end
+ * of the file.
+ * </p>
+ * <p>
+ * Between reads the tailer sleeps for the file check interval. If it is given a {@link FileWatcher}, it instead waits
+ * until the watcher notifies it of a change to the file, so new lines are read as soon as they are written and idle
+ * files are only checked at the much longer poll interval of the watcher. To tail many files with a few threads, the
+ * tailers can be added to a {@link MultiplexedTailer} instead of being run on their own.
+ * </p>
+ * <p>
+ * Rotation is detected by the file key of the file (see {@link BasicFileAttributes#fileKey()}), which identifies the
+ * device and inode on Unix. If the file at the path gets a new key, the old file was renamed and replaced, so the
+ * tailer reads the old file to its end through the handle it still holds before it switches to the new one. If the
+ * key stays the same but the file shrinks, it was truncated in place (as by <code>copytruncate</code>) and is read
+ * again from the beginning. On file systems without file keys the tailer falls back to detecting rotation by the file
+ * shrinking.
+ * </p>
+ * <p>
  * <h2>1. Create a PositionTailerListener implementation</h3>
  * <p>
  * First you need to create a {@link PositionTailerListener} implementation.
@@ -72,12 +117,45 @@ import java.time.Duration;
  */
 public class PositionTailer implements Runnable {
 
-    private static final String RAF_MODE = "r";
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LINE_FEEDS = ONES * '\n';
+    private static final long CARRIAGE_RETURNS = ONES * '\r';
+
+    /**
+     * The size of the direct buffer on top of the file channel.
+     */
+    private final int bufSize;
+
+    /**
+     * Reusable buffer for the bytes of the line being read.
+     */
+    private byte[] lineBytes = new byte[128];
+
+    /**
+     * The number of bytes of the current line in the {@link #lineBytes}.
+     */
+    private int lineLength = 0;
+
+    /**
+     * The decoder for lines that contain non-ASCII bytes.
+     */
+    private final CharsetDecoder decoder;
+
+    /**
+     * True if every byte maps directly to the char with the same value, as in ISO-8859-1.
+     */
+    private final boolean isLatin1;
+
+    /**
+     * Reusable buffer for lines decoded by the {@link #decoder}.
+     */
+    private CharBuffer decodedChars = CharBuffer.allocate(128);
 
     /**
-     * Buffer on top of RandomAccessFile.
+     * True if the last line ended with a carriage return, so a following line feed should be skipped.
      */
-    private final byte inbuf[];
+    private boolean isAfterCarriageReturn = false;
 
     /**
      * The file which will be tailed.
@@ -104,6 +182,68 @@ public class PositionTailer implements Runnable {
      */
     private final Long startingPosition;
 
+    /**
+     * The size of the windows to map when backfilling the file, or 0 if the file should not be mapped.
+     */
+    private final int backfillWindowSize;
+
+    /**
+     * The position where the tailer stops reading, or {@link Long#MAX_VALUE} if it follows the file.
+     */
+    private final long endPosition;
+
+    /**
+     * The optional watcher that notifies the tailer when the file changes.
+     */
+    private final FileWatcher fileWatcher;
+
+    /**
+     * The amount of time to wait for the file to be updated, when the file is watched for changes.
+     */
+    private final long watchedDelayMillis;
+
+    /**
+     * Released when the file changes or the tailer is stopped.
+     */
+    private final Semaphore changes = new Semaphore(0);
+
+    /**
+     * The registration of the file in the {@link #fileWatcher}, or null if the file is polled.
+     */
+    private Closeable watchRegistration;
+
+    /**
+     * The open file, or null if the file has not been opened yet.
+     */
+    private FileChannel reader;
+
+    /**
+     * The position of the next line to read in the file.
+     */
+    private long position = 0;
+
+    /**
+     * The last time the file was checked for changes.
+     */
+    private long last = 0;
+
+    /**
+     * The key that identifies the open file on the file system, or null if it is unknown.
+     *
+     * @see BasicFileAttributes#fileKey()
+     */
+    private Object fileKey;
+
+    /**
+     * True while the file is read from memory mapped windows, before the tailer starts to follow the file.
+     */
+    private boolean isBackfilling = false;
+
+    /**
+     * True if the last read stopped before the end of the file, because it read the maximum number of bytes.
+     */
+    private boolean isReadLimited = false;
+
     /**
      * The tailer will run as long as this value is true.
      */
@@ -117,8 +257,16 @@ public class PositionTailer implements Runnable {
         this.file = builder.file;
         this.delayMillis = builder.delayMillis;
         this.startingPosition = builder.startingPosition;
+        this.backfillWindowSize = builder.backfillWindowSize;
+        this.endPosition = builder.endPosition;
+        this.fileWatcher = builder.fileWatcher;
+        this.watchedDelayMillis = fileWatcher == null ? delayMillis
+                : Math.max(delayMillis, fileWatcher.getPollInterval().toMillis());
 
-        this.inbuf = new byte[builder.bufSize];
+        this.bufSize = builder.bufSize;
+        this.decoder = builder.charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.isLatin1 = builder.charset.equals(StandardCharsets.ISO_8859_1);
 
         // Save and prepare the listener
         this.listener = builder.listener;
@@ -152,167 +300,504 @@ public class PositionTailer implements Runnable {
     }
 
     /**
-     * Follows changes in the file, calling the PositionTailerListener's handle method for each new line.
+     * Follows changes in the file, calling the PositionTailerListener's handle method for each new line, until the
+     * tailer is stopped or has read up to its end position.
      */
     public void run() {
-        RandomAccessFile reader = null;
+        final ByteBuffer buffer = allocateBuffer(bufSize);
+        boolean isWatchPending = fileWatcher != null;
         try {
-            long last = 0; // The last time the file was checked for changes
-            long position = 0; // position within the file
-            // Open the file
-            while (run && reader == null) {
-                try {
-                    reader = new RandomAccessFile(file, RAF_MODE);
-                } catch (FileNotFoundException e) {
-                    listener.fileNotFound();
+            while (isRunning()) {
+                if (poll(buffer, Long.MAX_VALUE) || !isRunning()) {
+                    continue;
                 }
-
-                if (reader == null) {
-                    try {
-                        Thread.sleep(delayMillis);
-                    } catch (InterruptedException e) {
-                    }
-                } else {
-                    // The current position in the file
-                    position = startingPosition == null ? file.length() : startingPosition;
-                    last = System.currentTimeMillis();
-                    reader.seek(position);
+                if (isWatchPending) {
+                    // Open the file before watching it, and check it again for changes made in the meantime
+                    isWatchPending = false;
+                    registerWatch();
+                    continue;
+                }
+                final boolean isReopening = reOpen && reader != null;
+                if (isReopening) {
+                    IOUtils.closeQuietly(reader);
+                }
+                awaitChange();
+                if (run && isReopening) {
+                    reopen();
                 }
             }
 
-            while (run) {
+        } catch (Exception e) {
 
-                boolean newer = FileUtils.isFileNewer(file, last); // IO-279, must be done first
+            listener.handle(e);
 
-                // Check the file length to see if it was rotated
-                long length = file.length();
+        } finally {
+            IOUtils.closeQuietly(reader);
+            IOUtils.closeQuietly(watchRegistration);
+        }
+    }
 
-                if (length < position) {
+    /**
+     * Checks the file once and reads the lines that were added since the last check, but stops at the first line
+     * ending after the given number of bytes. Opens the file first if it has not been opened yet.
+     *
+     * @param buffer The buffer to read the file into, which must be in little-endian byte order.
+     * @param maxBytes The number of bytes after which the tailer should stop reading.
+     * @return True if there may be more to read right away, false if the tailer should wait for the file to change.
+     * @throws IOException if an I/O error occurs.
+     */
+    boolean poll(ByteBuffer buffer, long maxBytes) throws IOException {
+        if (reader == null && !openReader()) {
+            return false;
+        }
+        if (isBackfilling) {
+            position = backfill(reader, position, buffer.capacity(), maxBytes);
+            if (isBackfilling) {
+                return true;
+            }
+        }
 
-                    // File was rotated
-                    listener.fileRotated();
+        // Read the size, modification time and identity of the file at once, so they are consistent (see IO-279)
+        final BasicFileAttributes attributes = readAttributes();
+        if (attributes != null && isReplaced(attributes)) {
+            // The file was rotated by renaming it, so finish reading it through the open handle before switching
+            if (reader.size() > position + lineLength) {
+                position = readLines(reader, buffer, maxBytes);
+                last = System.currentTimeMillis();
+                return true;
+            }
+            return switchToReplacement();
+        }
 
-                    // Reopen the reader after rotation
-                    try {
-                        // Ensure that the old file is closed iff we re-open it successfully
-                        RandomAccessFile save = reader;
-                        reader = new RandomAccessFile(file, RAF_MODE);
-                        position = 0;
-                        // close old file explicitly rather than relying on GC picking up previous RAF
-                        IOUtils.closeQuietly(save);
-                    } catch (FileNotFoundException e) {
-                        // in this case we continue to use the previous reader and position values
-                        listener.fileNotFound();
-                    }
-                    continue;
-                } else {
+        // If the file was moved away and not replaced yet, keep reading it through the open handle
+        final long length = attributes == null ? reader.size() : attributes.size();
+        final boolean newer = attributes != null && attributes.lastModifiedTime().toMillis() > last;
 
-                    // File was not rotated
+        if (length < position) {
 
-                    // See if the file needs to be read again
-                    if (length > position) {
+            if (fileKey != null) {
+                // The file was truncated in place, as by copytruncate, so the open handle still reads the right file
+                listener.fileRotated();
+                position = 0;
+                lineLength = 0;
+                isAfterCarriageReturn = false;
+                reader.position(position);
+                return true;
+            }
 
-                        // The file has more content than it did last time
-                        position = readLines(reader);
-                        last = System.currentTimeMillis();
+            // File was rotated
+            listener.fileRotated();
+
+            // Reopen the reader after rotation
+            try {
+                // Ensure that the old file is closed iff we re-open it successfully
+                FileChannel save = reader;
+                reader = open();
+                position = 0;
+                isAfterCarriageReturn = false;
+                // close old file explicitly rather than relying on GC picking up previous channel
+                IOUtils.closeQuietly(save);
+                return true;
+            } catch (IOException e) {
+                // in this case we continue to use the previous reader and position values
+                listener.fileNotFound();
+                return false;
+            }
+        } else if (length > position) {
+
+            // The file has more content than it did last time
+            position = readLines(reader, buffer, maxBytes);
+            last = System.currentTimeMillis();
+            return isReadLimited;
+
+        } else if (newer) {
+
+            /*
+             * This can happen if the file is truncated or overwritten with the exact same length of information. In
+             * cases like this, the file position needs to be reset
+             */
+            position = 0;
+            isAfterCarriageReturn = false;
+            reader.position(position);
+            // Now we can read new lines
+            position = readLines(reader, buffer, maxBytes);
+            last = System.currentTimeMillis();
+            return isReadLimited;
+        }
+        return false;
+    }
 
-                    } else if (newer) {
+    /**
+     * @return True if the file at the path is not the file that is open, because it was rotated by renaming.
+     */
+    private boolean isReplaced(BasicFileAttributes attributes) {
+        return fileKey != null && attributes.fileKey() != null && !fileKey.equals(attributes.fileKey());
+    }
 
-                        /*
-                         * This can happen if the file is truncated or overwritten with the exact same length of
-                         * information. In cases like this, the file position needs to be reset
-                         */
-                        position = 0;
-                        reader.seek(position); // cannot be null here
-                        // Now we can read new lines
-                        position = readLines(reader);
-                        last = System.currentTimeMillis();
-                    }
-                }
-                if (reOpen) {
-                    IOUtils.closeQuietly(reader);
-                }
-                try {
-                    Thread.sleep(delayMillis);
-                } catch (InterruptedException e) {
-                }
-                if (run && reOpen) {
-                    reader = new RandomAccessFile(file, RAF_MODE);
-                    reader.seek(position);
-                }
-            }
+    /**
+     * Switches from the open file, which has been read to its end, to the file that replaced it.
+     *
+     * @return True if the new file was opened, false if it could not be opened.
+     */
+    private boolean switchToReplacement() {
+        if (lineLength > 0) {
+            handleLine(); // The rotated file did not end with a line ending
+        }
+        listener.fileRotated();
+        try {
+            final FileChannel save = reader;
+            reader = open();
+            fileKey = readFileKey();
+            position = 0;
+            isAfterCarriageReturn = false;
+            IOUtils.closeQuietly(save);
+            return true;
+        } catch (IOException e) {
+            listener.fileNotFound();
+            return false;
+        }
+    }
 
+    /**
+     * Polls the file on behalf of a {@link MultiplexedTailer}, and stops the tailer if the file cannot be read.
+     *
+     * @param buffer The buffer to read the file into, which must be in little-endian byte order.
+     * @param maxBytes The number of bytes after which the tailer should stop reading.
+     * @return True if there may be more to read right away, false if the tailer should wait for the file to change.
+     * @see #poll(ByteBuffer, long)
+     */
+    boolean service(ByteBuffer buffer, long maxBytes) {
+        try {
+            return poll(buffer, maxBytes);
         } catch (Exception e) {
-
             listener.handle(e);
-
-        } finally {
-            IOUtils.closeQuietly(reader);
+            run = false;
+            return false;
         }
     }
 
+    /**
+     * @return True if the tailer has neither been stopped nor read up to its end position.
+     */
+    public boolean isRunning() {
+        return run && position < endPosition;
+    }
+
+    /**
+     * Closes the file, if it is open. The tailer should not be polled afterwards.
+     */
+    void release() {
+        IOUtils.closeQuietly(reader);
+    }
+
+    /**
+     * Allocates a buffer that the tailer can read files into.
+     *
+     * @param size The size of the buffer in bytes.
+     * @return A direct buffer in little-endian byte order.
+     */
+    static ByteBuffer allocateBuffer(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     /**
      * Allows the tailer to complete its current loop and return.
      */
     public void stop() {
         this.run = false;
+        changes.release();
+    }
+
+    /**
+     * Waits until the file is changed or the check interval passes. Without a {@link FileWatcher} this is the same as
+     * sleeping for the check interval.
+     */
+    private void awaitChange() {
+        try {
+            changes.tryAcquire(watchRegistration == null ? delayMillis : watchedDelayMillis, TimeUnit.MILLISECONDS);
+            changes.drainPermits();
+        } catch (InterruptedException e) {
+        }
+    }
+
+    private void registerWatch() {
+        if (!fileWatcher.isNotified(file.toPath())) {
+            return;
+        }
+        try {
+            watchRegistration = fileWatcher.register(file.toPath(), changes::release);
+        } catch (IOException e) {
+            listener.handle(e);
+        }
+    }
+
+    private boolean openReader() throws IOException {
+        try {
+            reader = open();
+        } catch (IOException e) {
+            listener.fileNotFound();
+            return false;
+        }
+        fileKey = readFileKey();
+        // The current position in the file
+        position = startingPosition == null ? reader.size() : startingPosition;
+        last = System.currentTimeMillis();
+        reader.position(position);
+        isBackfilling = backfillWindowSize > 0;
+        return true;
+    }
+
+    private FileChannel open() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Reopens the file after it was closed between reads. If the file was replaced in the meantime, the rest of the old
+     * file cannot be read anymore, and the new file is read from the beginning.
+     */
+    private void reopen() throws IOException {
+        reader = open();
+        final Object newFileKey = readFileKey();
+        if (fileKey != null && !fileKey.equals(newFileKey)) {
+            listener.fileRotated();
+            fileKey = newFileKey;
+            position = 0;
+            lineLength = 0;
+            isAfterCarriageReturn = false;
+        }
+        reader.position(position);
     }
 
     /**
-     * Read new lines.
+     * @return The attributes of the file, or null if the file does not exist or cannot be read.
+     */
+    private BasicFileAttributes readAttributes() {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The key that identifies the file on the file system, or null if the file system does not provide one.
+     */
+    private Object readFileKey() {
+        final BasicFileAttributes attributes = readAttributes();
+        return attributes == null ? null : attributes.fileKey();
+    }
+
+    /**
+     * Read new lines, until the end of the file or the first line ending after the given number of bytes.
      *
      * @param reader The file to read
+     * @param buffer The buffer to read the file into
+     * @param maxBytes The number of bytes after which to stop reading
      * @return The new position after the lines have been read
      * @throws java.io.IOException if an I/O error occurs.
      */
-    private long readLines(RandomAccessFile reader) throws IOException {
-        StringBuilder sb = new StringBuilder();
-
-        long pos = reader.getFilePointer();
+    private long readLines(FileChannel reader, ByteBuffer buffer, long maxBytes) throws IOException {
+        final long start = reader.position();
+        long pos = start;
         long rePos = pos; // position to re-read
+        lineLength = 0;
+        isReadLimited = false;
+
+        while (run && pos < endPosition) {
+            final long remainingBytes = maxBytes - (pos - start);
+            if (remainingBytes <= 0 && rePos > start) {
+                isReadLimited = true;
+                break;
+            }
+            long readLimit = Math.min(buffer.capacity(), endPosition - pos);
+            if (remainingBytes > 0) {
+                readLimit = Math.min(readLimit, remainingBytes);
+            }
+            buffer.clear();
+            buffer.limit((int) readLimit);
+            if (reader.read(buffer) == -1) {
+                break;
+            }
+            final int limit = buffer.position();
+            final int lineStart = scanLines(buffer, limit);
+            if (lineStart > 0) {
+                rePos = pos + lineStart;
+            }
+            appendLineBytes(buffer, lineStart, limit);
+
+            pos += limit;
+        }
+
+        reader.position(rePos); // Ensure we can re-read if necessary
+        if (rePos != start) {
+            listener.positionUpdated(rePos);
+        }
+        return rePos;
+    }
+
+    /**
+     * Reads the file from the given position to its current end by mapping it into memory, one window at a time.
+     * Lines are scanned in place in the mapped window, and each window starts at the first line that did not fit in
+     * the previous one. Stops when less than a read buffer is left, or if a line is longer than a window, and leaves
+     * the rest to {@link #readLines(FileChannel, ByteBuffer, long)}. If the given number of bytes are read before
+     * that, the tailer keeps {@link #isBackfilling} and continues from the returned position in the next poll.
+     *
+     * @param reader The file to read
+     * @param from The position to start reading from
+     * @param bufferSize The size of the read buffer
+     * @param maxBytes The number of bytes after which to stop reading
+     * @return The new position after the lines have been read
+     * @throws java.io.IOException if an I/O error occurs.
+     */
+    private long backfill(FileChannel reader, long from, int bufferSize, long maxBytes) throws IOException {
+        final long end = Math.min(reader.size(), endPosition);
+        long pos = from;
+        isBackfilling = false;
+        while (run && end - pos > bufferSize) {
+            if (pos - from >= maxBytes) {
+                isBackfilling = true;
+                break;
+            }
+            final int windowSize = (int) Math.min(backfillWindowSize, end - pos);
+            final MappedByteBuffer window = reader.map(FileChannel.MapMode.READ_ONLY, pos, windowSize);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            lineLength = 0;
+
+            final int lineStart = scanLines(window, windowSize);
+            if (lineStart == 0) {
+                break; // The line is longer than the window
+            }
+            pos += lineStart;
+            listener.positionUpdated(pos);
+        }
+        lineLength = 0;
+        reader.position(pos);
+        return pos;
+    }
+
+    /**
+     * Hands all complete lines in the buffer to the listener.
+     *
+     * @param buffer The buffer to read from, starting at index 0.
+     * @param limit The number of bytes in the buffer.
+     * @return The index after the last line ending in the buffer, or 0 if the buffer did not end any lines.
+     */
+    private int scanLines(ByteBuffer buffer, int limit) {
+        int lineStart = 0;
+        if (isAfterCarriageReturn && limit > 0) {
+            isAfterCarriageReturn = false;
+            if (buffer.get(0) == '\n') {
+                lineStart = 1; // swallow LF after CR
+            }
+        }
 
-        int num;
-        boolean seenCR = false;
-        while (run && ((num = reader.read(inbuf)) != -1)) {
-            for (int i = 0; i < num; i++) {
-                byte ch = inbuf[i];
-                switch (ch) {
-                    case '\n':
-                        seenCR = false; // swallow CR before LF
-                        listener.handle(sb.toString());
-                        sb.setLength(0);
-                        rePos = pos + i + 1;
-                        break;
-                    case '\r':
-                        if (seenCR) {
-                            sb.append('\r');
-                        }
-                        seenCR = true;
-                        break;
-                    default:
-                        if (seenCR) {
-                            seenCR = false; // swallow final CR
-                            listener.handle(sb.toString());
-                            sb.setLength(0);
-                            rePos = pos + i + 1;
-                        }
-                        sb.append((char) ch); // add character, not its ascii value
+        int end;
+        while (run && (end = findLineEnd(buffer, lineStart, limit)) >= 0) {
+            appendLineBytes(buffer, lineStart, end);
+            handleLine();
+            if (buffer.get(end) == '\r') {
+                if (end + 1 < limit) {
+                    if (buffer.get(end + 1) == '\n') {
+                        end++; // swallow LF after CR
+                    }
+                } else {
+                    isAfterCarriageReturn = true;
                 }
             }
+            lineStart = end + 1;
+        }
+        return lineStart;
+    }
 
-            pos = reader.getFilePointer();
+    /**
+     * Finds the index of the next line feed or carriage return in the buffer, testing eight bytes at a time.
+     *
+     * @param buffer The little-endian buffer to search in.
+     * @param from The index to search from.
+     * @param limit The index to search to, exclusive.
+     * @return The index of the first line ending, or -1 if no line ending was found.
+     */
+    private static int findLineEnd(ByteBuffer buffer, int from, int limit) {
+        int index = from;
+        for (; index + Long.BYTES <= limit; index += Long.BYTES) {
+            final long word = buffer.getLong(index);
+            final long lineFeeds = word ^ LINE_FEEDS;
+            final long carriageReturns = word ^ CARRIAGE_RETURNS;
+            final long found = ((lineFeeds - ONES) & ~lineFeeds | (carriageReturns - ONES) & ~carriageReturns)
+                    & HIGH_BITS;
+            if (found != 0) {
+                // The lowest flagged byte is always a true match, since false positives only follow a match
+                return index + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; index < limit; index++) {
+            final byte ch = buffer.get(index);
+            if (ch == '\n' || ch == '\r') {
+                return index;
+            }
         }
+        return -1;
+    }
 
-        reader.seek(rePos); // Ensure we can re-read if necessary
-        listener.positionUpdated(pos);
-        return rePos;
+    private void appendLineBytes(ByteBuffer buffer, int from, int to) {
+        final int length = to - from;
+        if (lineLength + length > lineBytes.length) {
+            lineBytes = Arrays.copyOf(lineBytes, Math.max(lineBytes.length * 2, lineLength + length));
+        }
+        buffer.position(from);
+        buffer.get(lineBytes, lineLength, length);
+        lineLength += length;
+    }
+
+    private void handleLine() {
+        listener.handle(decodeLine());
+        lineLength = 0;
+    }
+
+    /**
+     * Decodes the bytes of the current line. ASCII lines are copied directly into a {@link String}, which avoids the
+     * charset lookup and intermediate char array of the regular {@link String} constructors.
+     */
+    @SuppressWarnings("deprecation")
+    private String decodeLine() {
+        if (isLatin1 || isAscii(lineBytes, lineLength)) {
+            return new String(lineBytes, 0, 0, lineLength);
+        }
+        final int maxLength = (int) Math.ceil(lineLength * (double) decoder.maxCharsPerByte());
+        if (decodedChars.capacity() < maxLength) {
+            decodedChars = CharBuffer.allocate(Math.max(decodedChars.capacity() * 2, maxLength));
+        }
+        decodedChars.clear();
+        decoder.reset();
+        final ByteBuffer bytes = ByteBuffer.wrap(lineBytes, 0, lineLength);
+        decoder.decode(bytes, decodedChars, true); // Cannot overflow, and malformed input is replaced
+        decoder.flush(decodedChars);
+        return new String(decodedChars.array(), 0, decodedChars.position());
+    }
+
+    private static boolean isAscii(byte[] bytes, int length) {
+        int bits = 0;
+        for (int index = 0; index < length; index++) {
+            bits |= bytes[index];
+        }
+        return bits >= 0;
     }
 
     /**
      * A builder which can help to construct a PositionTailer.
      */
     public static class Builder {
-        private int bufSize = 4096;
+
+        /**
+         * The size of the windows mapped by {@link #setMemoryMappedBackfill(boolean)}.
+         */
+        public static final int DEFAULT_BACKFILL_WINDOW_SIZE = 64 * 1024 * 1024;
+
+        private int bufSize = 64 * 1024;
+        private Charset charset = StandardCharsets.UTF_8;
+        private int backfillWindowSize = 0;
+        private long endPosition = Long.MAX_VALUE;
+        private FileWatcher fileWatcher;
         private long delayMillis = 1000;
         private File file;
         private PositionTailerListener listener;
@@ -335,7 +820,7 @@ public class PositionTailer implements Runnable {
         }
 
         /**
-         * @param bufferSize The size of the byte-buffer to read data into. Defaults to 4096.
+         * @param bufferSize The size of the byte-buffer to read data into. Defaults to 64 KiB.
          * @return The same builder with the given buffer size.
          */
         public Builder setBufferSize(int bufferSize) {
@@ -346,6 +831,58 @@ public class PositionTailer implements Runnable {
             return this;
         }
 
+        /**
+         * Configures the PositionTailer to map the file into memory in windows of the given size when it starts, and
+         * read the content up to the end of the file from the mapped windows. Once the end is reached, the file is
+         * tailed as usual. This is much faster than reading through the read buffer when starting far from the end,
+         * for instance when reading large files from the beginning. Disabled by default.
+         * @param windowSize The number of bytes to map at a time, or 0 to disable backfilling via mapped windows.
+         * @return The same Builder with the backfill window size set.
+         */
+        public Builder setBackfillWindowSize(int windowSize) {
+            if (windowSize < 0) {
+                throw new IllegalArgumentException("Cannot set backfill window size to less than 0");
+            }
+            this.backfillWindowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * Configures the PositionTailer to map the file into memory in windows of
+         * {@value #DEFAULT_BACKFILL_WINDOW_SIZE} bytes when it starts, as described in
+         * {@link #setBackfillWindowSize(int)}.
+         * @param isBackfillMapped True if the content up to the end of the file should be read from mapped windows.
+         * @return The same Builder with memory mapped backfilling enabled or disabled.
+         */
+        public Builder setMemoryMappedBackfill(boolean isBackfillMapped) {
+            return setBackfillWindowSize(isBackfillMapped ? DEFAULT_BACKFILL_WINDOW_SIZE : 0);
+        }
+
+        /**
+         * Sets the charset to decode lines with. Defaults to UTF-8.
+         * @param charset The charset of the file. Must encode the ASCII characters as single bytes of the same value.
+         * @return The same builder with the charset set.
+         * @throws IllegalArgumentException If the charset does not encode ASCII as single bytes.
+         */
+        public Builder setCharset(Charset charset) {
+            if (!isAsciiCompatible(charset)) {
+                throw new IllegalArgumentException("Cannot read lines in charset " + charset);
+            }
+            this.charset = charset;
+            return this;
+        }
+
+        private static boolean isAsciiCompatible(Charset charset) {
+            if (!charset.canEncode()) {
+                return false;
+            }
+            final byte[] ascii = new byte[128];
+            for (int index = 0; index < ascii.length; index++) {
+                ascii[index] = (byte) index;
+            }
+            return Arrays.equals(ascii, new String(ascii, StandardCharsets.US_ASCII).getBytes(charset));
+        }
+
         /**
          * Sets the time-interval between checks for new content in the file. Defaults to 1 second.
          * @param fileCheckInterval The interval with which the PositionTailer will check for new content.
@@ -388,6 +925,32 @@ public class PositionTailer implements Runnable {
             return this;
         }
 
+        /**
+         * Configures the PositionTailer to wait for change notifications from the given {@link FileWatcher} instead of
+         * checking the file at every file check interval. The file is still checked at the poll interval of the
+         * watcher, in case a change is not notified. By default the file is polled.
+         * @param fileWatcher The watcher to register the file in.
+         * @return The same Builder with the file watcher set.
+         */
+        public Builder setFileWatcher(FileWatcher fileWatcher) {
+            this.fileWatcher = fileWatcher;
+            return this;
+        }
+
+        /**
+         * Configures the PositionTailer to stop when it has read all lines up to the given position, instead of
+         * following the file. The position should be at the beginning of a line. By default the file is followed.
+         * @param position The position to stop reading at.
+         * @return The same Builder with the end position set.
+         */
+        public Builder setEndPosition(long position) {
+            if (position < 0) {
+                throw new IllegalArgumentException("Cannot set end position to less than 0");
+            }
+            this.endPosition = position;
+            return this;
+        }
+
         /**
          * Configures the PositionTailer to start reading from the given position. Cannot be less than 0.
          * @param position The position to start reading from. If set to zero, the file will be read from the beginning.
@@ -48,6 +48,13 @@ public class BulkConsumer implements CloseableConsumer<ElasticsearchMessage> {
     private static final int BULK_ACTIONS_LIMIT = 1000;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BulkConsumer.class);
+    private static final int NANOS_PER_MILLI = 1_000_000;
+
+    /**
+     * The last time-stamp formatted by {@link #formatTimestamp(ZonedDateTime)}. Entries are immutable, so concurrent
+     * formatting at worst replaces the entry of another thread.
+     */
+    private static volatile FormattedTimestamp lastFormattedTimestamp;
 
     private final ElasticsearchIndex defaultIndex;
     private final String documentType;
@@ -153,12 +160,27 @@ public class BulkConsumer implements CloseableConsumer<ElasticsearchMessage> {
 
     /**
      * Formats a {@link ZonedDateTime} to a string using the {@value #DATE_TIME_FORMATTER} {@link DateTimeFormatter}.
+     * The last formatted time-stamp is cached, so time-stamps within the same millisecond reuse the same string and
+     * time-stamps within the same second only format the milliseconds.
      *
      * @param timestamp the timestamp.
      * @return A String formatted via {@link #DATE_TIME_FORMATTER}.
      */
     static String formatTimestamp(ZonedDateTime timestamp) {
-        return timestamp.format(DATE_TIME_FORMATTER);
+        final long epochSecond = timestamp.toEpochSecond();
+        final int offsetSeconds = timestamp.getOffset().getTotalSeconds();
+        final int millis = timestamp.getNano() / NANOS_PER_MILLI;
+
+        FormattedTimestamp cached = lastFormattedTimestamp;
+        if (cached == null || cached.epochSecond != epochSecond || cached.offsetSeconds != offsetSeconds) {
+            cached = FormattedTimestamp.ofSecond(epochSecond, offsetSeconds, timestamp.withNano(0).format(
+                    DATE_TIME_FORMATTER));
+        }
+        if (cached.millis != millis) {
+            cached = cached.withMillis(millis);
+        }
+        lastFormattedTimestamp = cached;
+        return cached.formatted;
     }
 
     private Map<String, ZonedDateTime> findTimestamps(ElasticsearchMessage message) {
@@ -191,4 +213,47 @@ public class BulkConsumer implements CloseableConsumer<ElasticsearchMessage> {
         processor.close();
     }
 
+    /**
+     * A time-stamp formatted with {@link BulkConsumer#DATE_TIME_FORMATTER}, split around the milliseconds so other
+     * milliseconds within the same second can be formatted without the {@link DateTimeFormatter}.
+     */
+    private static final class FormattedTimestamp {
+
+        private final long epochSecond;
+        private final int offsetSeconds;
+        private final int millis;
+        private final String prefix;
+        private final String suffix;
+        private final String formatted;
+
+        private FormattedTimestamp(long epochSecond, int offsetSeconds, int millis, String prefix, String suffix,
+                String formatted) {
+            this.epochSecond = epochSecond;
+            this.offsetSeconds = offsetSeconds;
+            this.millis = millis;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.formatted = formatted;
+        }
+
+        /**
+         * @param formatted A time-stamp formatted with zero milliseconds.
+         */
+        private static FormattedTimestamp ofSecond(long epochSecond, int offsetSeconds, String formatted) {
+            final int millisStart = formatted.lastIndexOf('.') + 1;
+            return new FormattedTimestamp(epochSecond, offsetSeconds, 0, formatted.substring(0, millisStart),
+                    formatted.substring(millisStart + 3), formatted);
+        }
+
+        private FormattedTimestamp withMillis(int newMillis) {
+            final StringBuilder builder = new StringBuilder(prefix.length() + 3 + suffix.length()).append(prefix);
+            builder.append((char) ('0' + newMillis / 100));
+            builder.append((char) ('0' + newMillis / 10 % 10));
+            builder.append((char) ('0' + newMillis % 10));
+            builder.append(suffix);
+            return new FormattedTimestamp(epochSecond, offsetSeconds, newMillis, prefix, suffix, builder.toString());
+        }
+
+    }
+
 }
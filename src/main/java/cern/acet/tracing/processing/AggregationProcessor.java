@@ -0,0 +1,223 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.sketch.QuantileSketch;
+import cern.acet.tracing.processing.window.WindowAccumulator;
+import cern.acet.tracing.processing.window.WindowManager;
+
+/**
+ * <p>
+ * A processor that aggregates messages into one summary message per key and window, so metrics such as the number of
+ * messages per host and level can be stored instead of (or besides) the messages themselves. The key is typically
+ * given by the values of one or more fields ({@link Builder#setKeyFields(String...)}), and the windows are tumbling
+ * windows of a fixed duration, managed by a {@link WindowManager}. See {@link WindowSummaryProcessor} for the fields
+ * every summary contains.
+ * </p>
+ * <h2>Aggregates</h2>
+ * <p>
+ * For every numeric field added with {@link Builder#addNumericField(String)}, the summary contains the count, sum,
+ * minimum, maximum and quantiles of the values in the window, in fields named after the numeric field with a suffix,
+ * for instance <code>duration_sum</code> or <code>duration_p99</code>. The quantiles are estimated with a
+ * {@link QuantileSketch}, which can be merged across windows or instances. Fields that are not numbers are parsed if
+ * they are text, and otherwise ignored.
+ * </p>
+ * <p>
+ * The state of a window is kept in primitive arrays, one element per numeric field, so the memory per key is fixed by
+ * the number of numeric fields and the size of the sketches.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to process.
+ * @author jepeders
+ */
+public class AggregationProcessor<T extends Message<T>> extends
+        WindowSummaryProcessor<T, AggregationProcessor<T>.Aggregate> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AggregationProcessor.class);
+
+    private final String[] numericFields;
+    private final double[] quantiles;
+    private final String[] quantileSuffixes;
+
+    private AggregationProcessor(Builder<T> builder) {
+        super(builder);
+        this.numericFields = builder.numericFields.toArray(new String[builder.numericFields.size()]);
+        this.quantiles = builder.quantiles.clone();
+        this.quantileSuffixes = new String[quantiles.length];
+        for (int index = 0; index < quantiles.length; index++) {
+            quantileSuffixes[index] = getQuantileSuffix(quantiles[index]);
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Aggregation processor initialised over the fields {}", Arrays.toString(numericFields));
+        }
+    }
+
+    /**
+     * @return A builder that can help build an {@link AggregationProcessor}.
+     * @param <T> The type of {@link Message} to process in the {@link AggregationProcessor}.
+     */
+    public static <T extends Message<T>> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @Override
+    protected Aggregate createAccumulator(T firstMessage) {
+        return new Aggregate();
+    }
+
+    @Override
+    protected void summarize(Aggregate aggregate, T summary) {
+        aggregate.putInto(summary);
+    }
+
+    private static String getQuantileSuffix(double quantile) {
+        final String percentile = Double.toString(quantile * 100).replaceAll("\\.0$", "").replace('.', '_');
+        return "_p" + percentile;
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof CharSequence) {
+            try {
+                return Double.parseDouble(value.toString());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * The aggregates of the numeric fields in one window, kept in primitive arrays indexed by the position of the
+     * field. Messages from many threads can be accumulated at the same time, so the aggregate is locked while updated.
+     */
+    protected final class Aggregate implements WindowAccumulator<T> {
+
+        private final long[] counts = new long[numericFields.length];
+        private final double[] sums = new double[numericFields.length];
+        private final double[] mins = new double[numericFields.length];
+        private final double[] maxs = new double[numericFields.length];
+        private final QuantileSketch[] sketches = new QuantileSketch[numericFields.length];
+
+        private Aggregate() {
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        }
+
+        @Override
+        public synchronized void accumulate(T message) {
+            for (int index = 0; index < numericFields.length; index++) {
+                final Object value = message.getOptional(numericFields[index]).orElse(null);
+                if (value == null) {
+                    continue;
+                }
+                final double number = toDouble(value);
+                if (Double.isNaN(number)) {
+                    continue;
+                }
+                counts[index]++;
+                sums[index] += number;
+                mins[index] = Math.min(mins[index], number);
+                maxs[index] = Math.max(maxs[index], number);
+                if (quantiles.length > 0) {
+                    if (sketches[index] == null) {
+                        sketches[index] = new QuantileSketch();
+                    }
+                    sketches[index].add(number);
+                }
+            }
+        }
+
+        private synchronized void putInto(T summary) {
+            for (int index = 0; index < numericFields.length; index++) {
+                if (counts[index] == 0) {
+                    continue;
+                }
+                final String field = numericFields[index];
+                summary.put(field + "_count", counts[index]).put(field + "_sum", sums[index])
+                        .put(field + "_min", mins[index]).put(field + "_max", maxs[index]);
+                for (int quantile = 0; quantile < quantiles.length; quantile++) {
+                    summary.put(field + quantileSuffixes[quantile], sketches[index].getQuantile(quantiles[quantile]));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * A builder that can help build an {@link AggregationProcessor}.
+     *
+     * @author jepeders
+     * @param <T> The type of {@link Message}s to process in the built {@link AggregationProcessor}.
+     */
+    public static class Builder<T extends Message<T>> extends WindowSummaryProcessor.Builder<T, Builder<T>> {
+
+        private static final double[] DEFAULT_QUANTILES = { 0.5, 0.9, 0.99 };
+
+        private final List<String> numericFields = new ArrayList<>();
+        private double[] quantiles = DEFAULT_QUANTILES;
+
+        /**
+         * @param field The name of a field whose values to aggregate. The values should be numbers or text that can be
+         *            parsed as numbers.
+         * @return The same builder with the numeric field added.
+         */
+        public Builder<T> addNumericField(String field) {
+            numericFields.add(field);
+            return this;
+        }
+
+        /**
+         * Builds an instance of an {@link AggregationProcessor} using the current values of the builder.
+         *
+         * @return An {@link AggregationProcessor}.
+         * @throws IllegalArgumentException If no key is set.
+         */
+        public AggregationProcessor<T> build() {
+            validate();
+            return new AggregationProcessor<>(this);
+        }
+
+        /**
+         * @param quantiles The quantiles to estimate for every numeric field, between 0 and 1. Defaults to 0.5, 0.9
+         *            and 0.99. Give no quantiles to skip the sketches.
+         * @return The same builder with the quantiles set.
+         * @throws IllegalArgumentException If a quantile is not between 0 and 1.
+         */
+        public Builder<T> setQuantiles(double... quantiles) {
+            for (double quantile : quantiles) {
+                if (quantile < 0 || quantile > 1) {
+                    throw new IllegalArgumentException("Quantiles must be between 0 and 1");
+                }
+            }
+            this.quantiles = quantiles.clone();
+            return this;
+        }
+
+        @Override
+        protected Builder<T> self() {
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,249 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.sketch.RotatingBloomFilter;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+
+/**
+ * <p>
+ * A processor that drops messages that have already been seen within a horizon, for instance lines that are shipped
+ * twice or read again after a file rotation. Messages are identified by the 64-bit fingerprint of a
+ * {@link FingerprintStrategy}, typically over the fields that make a message unique, and the fingerprints are
+ * remembered in a {@link RotatingBloomFilter}.
+ * </p>
+ * <h2>Accuracy</h2>
+ * <p>
+ * The filter uses a fixed amount of memory, so it can wrongly report a new message as a duplicate. The rate of such
+ * false positives is bounded by {@link Builder#setFalsePositiveRate(double)} as long as no more than
+ * {@link Builder#setExpectedMessages(long)} messages arrive within a horizon, and the current rate is available from
+ * {@link #getFalsePositiveRate()}. The filter does not lock, so two identical messages processed at the very same
+ * instant may both be sent on.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to process.
+ * @author jepeders
+ */
+public class DeduplicationProcessor<T extends Message<T>> implements Processor<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeduplicationProcessor.class);
+
+    private final FingerprintStrategy<T> fingerprintStrategy;
+    private final RotatingBloomFilter filter;
+    private final Duration horizon;
+    private final LongAdder duplicateCount = new LongAdder();
+
+    private DeduplicationProcessor(Builder<T> builder) {
+        this.fingerprintStrategy = builder.fingerprintStrategy;
+        this.horizon = builder.horizon;
+        this.filter = new RotatingBloomFilter(builder.horizon, builder.expectedMessages, builder.falsePositiveRate,
+                builder.generationCount, builder.clock.millis());
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Deduplication processor initialised with a horizon of %s and a filter of %d "
+                    + "bytes", horizon, filter.getSizeInBytes()));
+        }
+    }
+
+    /**
+     * @return A builder that can help build a {@link DeduplicationProcessor}.
+     * @param <T> The type of {@link Message} to process in the {@link DeduplicationProcessor}.
+     */
+    public static <T extends Message<T>> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @Override
+    public Stream<T> apply(Stream<T> stream) {
+        return apply(stream, () -> Clock.systemDefaultZone());
+    }
+
+    /**
+     * Processes the incoming stream by dropping duplicates. This method uses a {@link Supplier} to calculate the time,
+     * which is useful for testing purposes.
+     *
+     * @param stream The {@link Stream} to process.
+     * @param clockSupplier A {@link Supplier} that can produce {@link Clock}s.
+     * @return A processed {@link Stream}.
+     */
+    Stream<T> apply(Stream<T> stream, Supplier<Clock> clockSupplier) {
+        return stream.filter(message -> isNew(message, clockSupplier.get()));
+    }
+
+    /**
+     * @return The number of messages dropped as duplicates since the processor was created.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.sum();
+    }
+
+    /**
+     * @return The rate of new messages that are wrongly dropped, expected from the number of messages remembered at
+     *         the moment.
+     */
+    public double getFalsePositiveRate() {
+        return filter.getFalsePositiveRate();
+    }
+
+    /**
+     * @return The minimum time a message is remembered.
+     */
+    public Duration getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * @return The number of bytes used by the filter, which does not change with the number of messages.
+     */
+    public long getSizeInBytes() {
+        return filter.getSizeInBytes();
+    }
+
+    private boolean isNew(T message, Clock clock) {
+        if (filter.add(fingerprintStrategy.getLongFingerprint(message), clock.millis())) {
+            return true;
+        }
+        duplicateCount.increment();
+        return false;
+    }
+
+    /**
+     * A builder that can help build a {@link DeduplicationProcessor}.
+     *
+     * @author jepeders
+     * @param <T> The type of {@link Message}s to process in the built {@link DeduplicationProcessor}.
+     */
+    public static class Builder<T extends Message<T>> {
+
+        private static final Duration DEFAULT_HORIZON = Duration.ofMinutes(1);
+        private static final long DEFAULT_EXPECTED_MESSAGES = 1_000_000;
+        private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+        private static final int DEFAULT_GENERATION_COUNT = 4;
+
+        private FingerprintStrategy<T> fingerprintStrategy;
+        private Duration horizon = DEFAULT_HORIZON;
+        private long expectedMessages = DEFAULT_EXPECTED_MESSAGES;
+        private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+        private int generationCount = DEFAULT_GENERATION_COUNT;
+        private Clock clock = Clock.systemDefaultZone();
+
+        /**
+         * Builds an instance of a {@link DeduplicationProcessor} using the current values of the builder.
+         *
+         * @return A {@link DeduplicationProcessor}.
+         * @throws IllegalArgumentException If no fingerprint strategy or fields are set.
+         */
+        public DeduplicationProcessor<T> build() {
+            if (fingerprintStrategy == null) {
+                throw new IllegalArgumentException("A fingerprint strategy or fields must be set");
+            }
+            return new DeduplicationProcessor<>(this);
+        }
+
+        /**
+         * @param expectedMessages The number of messages expected within a horizon. The filter is sized to keep the
+         *            false-positive rate at that load. Defaults to 1,000,000.
+         * @return The same builder with the number of messages set.
+         * @throws IllegalArgumentException If the number is not positive.
+         */
+        public Builder<T> setExpectedMessages(long expectedMessages) {
+            if (expectedMessages <= 0) {
+                throw new IllegalArgumentException("The number of expected messages must be positive");
+            }
+            this.expectedMessages = expectedMessages;
+            return this;
+        }
+
+        /**
+         * @param falsePositiveRate The highest acceptable rate of new messages wrongly dropped as duplicates. Defaults
+         *            to 0.001.
+         * @return The same builder with the rate set.
+         * @throws IllegalArgumentException If the rate is not between 0 and 1.
+         */
+        public Builder<T> setFalsePositiveRate(double falsePositiveRate) {
+            if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+                throw new IllegalArgumentException("The false-positive rate must be between 0 and 1");
+            }
+            this.falsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        /**
+         * @param fields The names of the fields that together identify a message, for instance the host, the
+         *            time-stamp and the body.
+         * @return The same builder with the fingerprint strategy set.
+         */
+        public Builder<T> setFields(String... fields) {
+            return setFingerprintStrategy(FingerprintStrategy.ofFields(fields));
+        }
+
+        /**
+         * @param strategy The strategy to identify messages with.
+         * @return The same builder with the fingerprint strategy set.
+         */
+        public Builder<T> setFingerprintStrategy(FingerprintStrategy<T> strategy) {
+            this.fingerprintStrategy = strategy;
+            return this;
+        }
+
+        /**
+         * @param generationCount The number of generations in the filter. With more generations messages are
+         *            forgotten closer to the horizon, but more memory is used. Defaults to 4.
+         * @return The same builder with the number of generations set.
+         * @throws IllegalArgumentException If the number is less than 2.
+         */
+        public Builder<T> setGenerationCount(int generationCount) {
+            if (generationCount < 2) {
+                throw new IllegalArgumentException("At least two generations are needed");
+            }
+            this.generationCount = generationCount;
+            return this;
+        }
+
+        /**
+         * @param horizon The minimum time a message is remembered, so duplicates arriving within this time are dropped.
+         *            Defaults to one minute.
+         * @return The same builder with the horizon set.
+         * @throws IllegalArgumentException If the horizon is zero or less.
+         */
+        public Builder<T> setHorizon(Duration horizon) {
+            if (horizon.isNegative() || horizon.isZero()) {
+                throw new IllegalArgumentException("The horizon must be positive");
+            }
+            this.horizon = horizon;
+            return this;
+        }
+
+        /**
+         * Sets the clock the filter takes its starting time from, which is useful for testing purposes.
+         *
+         * @param clock The clock to use.
+         * @return The same builder with the clock set.
+         */
+        Builder<T> setClock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+    }
+
+}
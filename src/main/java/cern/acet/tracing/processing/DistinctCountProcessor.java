@@ -0,0 +1,154 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.sketch.HyperLogLog;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+import cern.acet.tracing.processing.window.WindowAccumulator;
+
+/**
+ * <p>
+ * A processor that estimates the number of distinct values per key and window, for instance the number of distinct
+ * users per host and minute. The values are the 64-bit fingerprints of a {@link FingerprintStrategy}, and they are
+ * counted in a {@link HyperLogLog} sketch per window, so the memory per key is fixed by the precision of the sketch
+ * regardless of the number of values.
+ * </p>
+ * <p>
+ * When a window closes, the estimate is put in the {@value #DISTINCT_COUNT_FIELD} field of a summary message. See
+ * {@link WindowSummaryProcessor} for the other fields of the summary.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to process.
+ * @author jepeders
+ */
+public class DistinctCountProcessor<T extends Message<T>> extends
+        WindowSummaryProcessor<T, DistinctCountProcessor<T>.DistinctValues> {
+
+    /**
+     * The field of the summary messages that contains the estimated number of distinct values.
+     */
+    public static final String DISTINCT_COUNT_FIELD = "distinctCount";
+
+    private final FingerprintStrategy<T> valueStrategy;
+    private final int precision;
+
+    private DistinctCountProcessor(Builder<T> builder) {
+        super(builder);
+        this.valueStrategy = builder.valueStrategy;
+        this.precision = builder.precision;
+    }
+
+    /**
+     * @return A builder that can help build a {@link DistinctCountProcessor}.
+     * @param <T> The type of {@link Message} to process in the {@link DistinctCountProcessor}.
+     */
+    public static <T extends Message<T>> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @Override
+    protected DistinctValues createAccumulator(T firstMessage) {
+        return new DistinctValues();
+    }
+
+    @Override
+    protected void summarize(DistinctValues values, T summary) {
+        summary.put(DISTINCT_COUNT_FIELD, values.estimate());
+    }
+
+    /**
+     * The distinct values of one window.
+     */
+    protected final class DistinctValues implements WindowAccumulator<T> {
+
+        private final HyperLogLog sketch = new HyperLogLog(precision);
+
+        @Override
+        public void accumulate(T message) {
+            final long value = valueStrategy.getLongFingerprint(message);
+            synchronized (this) {
+                sketch.add(value);
+            }
+        }
+
+        private synchronized long estimate() {
+            return sketch.estimate();
+        }
+
+    }
+
+    /**
+     * A builder that can help build a {@link DistinctCountProcessor}.
+     *
+     * @author jepeders
+     * @param <T> The type of {@link Message}s to process in the built {@link DistinctCountProcessor}.
+     */
+    public static class Builder<T extends Message<T>> extends WindowSummaryProcessor.Builder<T, Builder<T>> {
+
+        private FingerprintStrategy<T> valueStrategy;
+        private int precision = HyperLogLog.DEFAULT_PRECISION;
+
+        /**
+         * Builds an instance of a {@link DistinctCountProcessor} using the current values of the builder.
+         *
+         * @return A {@link DistinctCountProcessor}.
+         * @throws IllegalArgumentException If no key or values are set.
+         */
+        public DistinctCountProcessor<T> build() {
+            validate();
+            if (valueStrategy == null) {
+                throw new IllegalArgumentException("The values to count must be set via fields or a strategy");
+            }
+            return new DistinctCountProcessor<>(this);
+        }
+
+        /**
+         * @param precision The precision of the {@link HyperLogLog} sketches. Every window uses 2<sup>precision</sup>
+         *            bytes. Defaults to {@link HyperLogLog#DEFAULT_PRECISION}.
+         * @return The same builder with the precision set.
+         * @throws IllegalArgumentException If the precision is out of the range allowed by {@link HyperLogLog}.
+         */
+        public Builder<T> setPrecision(int precision) {
+            if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+                throw new IllegalArgumentException(String.format("The precision must be between %d and %d",
+                        HyperLogLog.MIN_PRECISION, HyperLogLog.MAX_PRECISION));
+            }
+            this.precision = precision;
+            return this;
+        }
+
+        /**
+         * @param fields The names of the fields whose values to count, for instance the user.
+         * @return The same builder with the values set.
+         */
+        public Builder<T> setValueFields(String... fields) {
+            return setValueStrategy(FingerprintStrategy.ofFields(fields));
+        }
+
+        /**
+         * @param strategy A strategy whose 64-bit fingerprints are the values to count.
+         * @return The same builder with the values set.
+         */
+        public Builder<T> setValueStrategy(FingerprintStrategy<T> strategy) {
+            this.valueStrategy = strategy;
+            return this;
+        }
+
+        @Override
+        protected Builder<T> self() {
+            return this;
+        }
+
+    }
+
+}
@@ -20,9 +20,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.snapshot.MessageCodec;
+import cern.acet.tracing.processing.snapshot.Snapshottable;
+import cern.acet.tracing.processing.window.EventTimeStrategy;
 import cern.acet.tracing.processing.window.FingerprintStrategy;
 import cern.acet.tracing.processing.window.MessageWindow;
 import cern.acet.tracing.processing.window.WindowManager;
+import cern.acet.tracing.processing.window.WindowScheduler;
 
 /**
  * <p>
@@ -39,11 +43,17 @@ import cern.acet.tracing.processing.window.WindowManager;
  * can be changed via {@link Builder#setRepeatingMapper(UnaryOperator)} and
  * {@link Builder#setNonRepeatingMapper(UnaryOperator)}.
  * </p>
+ * <p>
+ * The windows are timed by a {@link WindowScheduler}, which can be shared with other processors via
+ * {@link Builder#setWindowScheduler(WindowScheduler)}. The processor should be closed when it is no longer used. To
+ * bound the memory held by the windows, the number of open windows can be capped with
+ * {@link Builder#setMaxOpenWindows(int)}; the least recently used windows are then emitted early.
+ * </p>
  *
  * @param <T> The type of {@link Message} to process.
  * @author ghoranyi, jepeders
  */
-public class RepetitionProcessor<T extends Message<T>> implements Processor<T> {
+public class RepetitionProcessor<T extends Message<T>> implements Processor<T>, AutoCloseable {
 
     private static final String NON_REPEATING_ACTION = "Aggregating";
     private static final String REPEATING_ACTION = "Repeating";
@@ -61,7 +71,16 @@ public class RepetitionProcessor<T extends Message<T>> implements Processor<T> {
      * @param builder A {@link Builder} with all the necessary ingredients to create a {@link RepetitionProcessor}.
      */
     private RepetitionProcessor(Builder<T> builder) {
-        this.windowManager = new WindowManager<T>(builder.windowDuration, builder.strategy);
+        final WindowManager.Builder<T> windowBuilder = WindowManager.<T> builder()
+                .setWindowDuration(builder.windowDuration).setFingerprintStrategy(builder.strategy)
+                .setMaxOpenWindows(builder.maxOpenWindows);
+        if (builder.scheduler != null) {
+            windowBuilder.setWindowScheduler(builder.scheduler, RepetitionProcessor.class.getSimpleName());
+        }
+        if (builder.eventTimeStrategy != null) {
+            windowBuilder.setEventTime(builder.eventTimeStrategy, builder.allowedLateness);
+        }
+        this.windowManager = windowBuilder.build();
         this.nonRepetitionMapper = builder.nonRepetitionMapper;
         this.repetitionMapper = builder.repetitionMapper;
 
@@ -85,6 +104,27 @@ public class RepetitionProcessor<T extends Message<T>> implements Processor<T> {
         return Stream.concat(nonRepeatedStream, repeatedStream);
     }
 
+    /**
+     * Stops timing the windows of this processor.
+     */
+    @Override
+    public void close() {
+        windowManager.close();
+    }
+
+    /**
+     * Creates a {@link Snapshottable} that saves and restores the repetition counts of the open windows. Register it
+     * with a {@link cern.acet.tracing.processing.snapshot.StateSnapshotter} before the processor is used.
+     *
+     * @param codec The codec to write and read the messages of the windows with.
+     * @return A {@link Snapshottable} of the open windows.
+     * @throws IllegalStateException If the fingerprints are not
+     *             {@link FingerprintStrategy#isStableAcrossRestarts() stable across restarts}.
+     */
+    public Snapshottable getSnapshottable(MessageCodec<T> codec) {
+        return windowManager.getSnapshottable(codec);
+    }
+
     /**
      * @return A builder that can help build a {@link RepetitionProcessor}.
      * @param <T> The type of {@link Message} to process in the {@link RepetitionProcessor}.
@@ -131,6 +171,10 @@ public class RepetitionProcessor<T extends Message<T>> implements Processor<T> {
         private Duration windowDuration = DEFAULT_WINDOW_DURATION;
         private UnaryOperator<T> nonRepetitionMapper = UnaryOperator.identity();
         private UnaryOperator<T> repetitionMapper = UnaryOperator.identity();
+        private WindowScheduler scheduler;
+        private int maxOpenWindows = WindowManager.UNBOUNDED;
+        private EventTimeStrategy<T> eventTimeStrategy;
+        private Duration allowedLateness = Duration.ZERO;
 
         /**
          * Builds an instance of a {@link RepetitionProcessor} using the current values of the builder.
@@ -146,6 +190,27 @@ public class RepetitionProcessor<T extends Message<T>> implements Processor<T> {
             return new RepetitionProcessor<T>(this);
         }
 
+        /**
+         * Groups repetitions by the time the messages were produced instead of the time they are processed, so files
+         * that are backfilled at full speed are grouped as if they were read live. See {@link WindowManager} for how
+         * event-time windows are closed.
+         *
+         * @param eventTimeStrategy A strategy to take the event time from the messages, for instance
+         *            {@link EventTimeStrategy#ofField(String)}.
+         * @param allowedLateness How far messages can arrive out of order before they are considered late and not
+         *            grouped.
+         * @return The same builder with event time set.
+         * @throws IllegalArgumentException If the allowed lateness is negative.
+         */
+        public Builder<T> setEventTime(EventTimeStrategy<T> eventTimeStrategy, Duration allowedLateness) {
+            if (allowedLateness.isNegative()) {
+                throw new IllegalArgumentException("The allowed lateness cannot be negative");
+            }
+            this.eventTimeStrategy = eventTimeStrategy;
+            this.allowedLateness = allowedLateness;
+            return this;
+        }
+
         /**
          * @param strategy A functional interface, that can define a 'fingerprint' for incoming {@link Message}s. If two
          *            messages has the same fingerprint they're considered equal.
@@ -168,6 +233,21 @@ public class RepetitionProcessor<T extends Message<T>> implements Processor<T> {
             return this;
         }
 
+        /**
+         * @param maxOpenWindows The maximum number of windows (distinct fingerprints) that can be open at the same
+         *            time. When a new window would exceed it, the least recently used window is emitted early.
+         *            Defaults to {@link WindowManager#UNBOUNDED}.
+         * @return The same builder with the maximum number of open windows set.
+         * @throws IllegalArgumentException If the maximum is zero or less.
+         */
+        public Builder<T> setMaxOpenWindows(int maxOpenWindows) {
+            if (maxOpenWindows <= 0) {
+                throw new IllegalArgumentException("The maximum number of open windows must be positive");
+            }
+            this.maxOpenWindows = maxOpenWindows;
+            return this;
+        }
+
         /**
          * @param nonRepetitionMapper A function applied to all messages which are not considered repetitions. Defaults
          *            to {@link UnaryOperator#identity()}.
@@ -188,6 +268,16 @@ public class RepetitionProcessor<T extends Message<T>> implements Processor<T> {
             return this;
         }
 
+        /**
+         * @param scheduler A {@link WindowScheduler} to time the windows with, typically shared with the other
+         *            processors of the Logalike instance. If not set, the processor creates its own scheduler.
+         * @return The same builder with the scheduler set.
+         */
+        public Builder<T> setWindowScheduler(WindowScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
         /**
          * @param windowDuration The duration for how long the {@link RepetitionProcessor} processor looks for and
          *            groups repetitions. After each duration, messages are reset.
@@ -0,0 +1,386 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.ThrottleProcessor.ThrottleListener;
+import cern.acet.tracing.processing.sketch.CountMinSketch;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+
+/**
+ * <p>
+ * A processor that throttles excessive input like the {@link ThrottleProcessor}, but in a fixed amount of memory no
+ * matter how many emitters there are. The message rate of every emitter is estimated in a {@link CountMinSketch}, and
+ * only emitters whose estimate exceeds the limit within a cycle (the heavy hitters) are tracked with exact counts. At
+ * most a configured number of heavy hitters are tracked; when the table is full, a new heavy hitter replaces the
+ * tracked emitter with the lowest count that is not being throttled.
+ * </p>
+ * <h2>Cycles</h2>
+ * <p>
+ * Like the {@link ThrottleProcessor}, messages are counted in cycles, and a heavy hitter that sent more than the limit
+ * in a cycle is throttled in the following cycles until it sends less. The cycle ends with the first message that
+ * arrives after it, which clears the sketch and informs the {@link ThrottleListener} about the tracked emitters. The
+ * event messages are emitted in the stream just before that message. Heavy hitters that are no longer throttled are
+ * forgotten.
+ * </p>
+ * <h2>Accuracy</h2>
+ * <p>
+ * The sketch never underestimates, so an emitter above the limit is always caught. An emitter below the limit can be
+ * promoted if its estimate is inflated by collisions in the sketch. The estimate is then used as its count in the
+ * current cycle, so a few of its messages may be dropped, but it is released at the end of the cycle since its exact
+ * count is then known. Choose a sketch width well above the number of messages per cycle divided by the limit to make
+ * this rare.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to process.
+ * @author jepeders
+ */
+public class SketchThrottleProcessor<T extends Message<T>> implements Processor<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SketchThrottleProcessor.class);
+
+    private final Map<Long, HeavyHitter> heavyHitters = new ConcurrentHashMap<>();
+    private final Object cycleLock = new Object();
+    private final FingerprintStrategy<T> fingerprintStrategy;
+    private final ThrottleListener<T> listener;
+    private final Duration throttleCycle;
+    private final long messageLimitPerCycle;
+    private final int maxHeavyHitters;
+
+    private volatile CountMinSketch currentSketch;
+    private CountMinSketch spareSketch;
+    private volatile long cycleEndMillis = Long.MIN_VALUE;
+
+    private SketchThrottleProcessor(Builder<T> builder) {
+        this.fingerprintStrategy = builder.fingerprintStrategy;
+        this.listener = builder.listener;
+        this.throttleCycle = builder.throttleCycle;
+        this.messageLimitPerCycle = builder.messageLimitPerCycle;
+        this.maxHeavyHitters = builder.maxHeavyHitters;
+        this.currentSketch = new CountMinSketch(builder.sketchWidth, builder.sketchDepth);
+        this.spareSketch = new CountMinSketch(builder.sketchWidth, builder.sketchDepth);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Sketch throttle processor initialised with a cycle of %s, a message limit of "
+                    + "%d and a sketch of %d bytes", throttleCycle, messageLimitPerCycle,
+                    getSketchSizeInBytes()));
+        }
+    }
+
+    /**
+     * @return A builder that can help build a {@link SketchThrottleProcessor}.
+     * @param <T> The type of {@link Message} to process in the {@link SketchThrottleProcessor}.
+     */
+    public static <T extends Message<T>> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @Override
+    public Stream<T> apply(Stream<T> stream) {
+        return apply(stream, () -> Clock.systemDefaultZone());
+    }
+
+    /**
+     * Processes the incoming stream by throttling heavy hitters. This method uses a {@link Supplier} to calculate the
+     * time, which is useful for testing purposes.
+     *
+     * @param stream The {@link Stream} to process.
+     * @param clockSupplier A {@link Supplier} that can produce {@link Clock}s.
+     * @return A processed {@link Stream}.
+     */
+    Stream<T> apply(Stream<T> stream, Supplier<Clock> clockSupplier) {
+        return stream.flatMap(message -> process(message, clockSupplier.get()));
+    }
+
+    /**
+     * @return The number of emitters that are currently tracked with exact counts.
+     */
+    public int getHeavyHitterCount() {
+        return heavyHitters.size();
+    }
+
+    /**
+     * @return The number of bytes used by the sketches, which does not change with the number of emitters.
+     */
+    public long getSketchSizeInBytes() {
+        return currentSketch.getSizeInBytes() * 2;
+    }
+
+    /**
+     * @return The duration of one throttle cycle.
+     */
+    public Duration getThrottleCycle() {
+        return throttleCycle;
+    }
+
+    /**
+     * Counts the given message and returns the messages to send on.
+     *
+     * @param message The message to examine.
+     * @param clock The clock to take the current time from.
+     * @return A {@link Stream} of the message, if it was not throttled, preceded by the messages from the
+     *         {@link ThrottleListener} if the message ended a cycle.
+     */
+    Stream<T> process(T message, Clock clock) {
+        final List<T> events = clock.millis() >= cycleEndMillis ? endCycle(clock) : Collections.emptyList();
+        final boolean isAccepted = take(message);
+        if (events.isEmpty()) {
+            return isAccepted ? Stream.of(message) : Stream.empty();
+        }
+        return isAccepted ? Stream.concat(events.stream(), Stream.of(message)) : events.stream();
+    }
+
+    private boolean take(T message) {
+        final long fingerprint = fingerprintStrategy.getLongFingerprint(message);
+        HeavyHitter heavyHitter = heavyHitters.get(fingerprint);
+        if (heavyHitter == null) {
+            final long estimate = currentSketch.add(fingerprint);
+            if (estimate <= messageLimitPerCycle) {
+                return true;
+            }
+            heavyHitter = promote(fingerprint, message, estimate);
+            if (heavyHitter == null) {
+                /* No room for more heavy hitters */
+                return true;
+            }
+        }
+        final long count = heavyHitter.count.incrementAndGet();
+        return !heavyHitter.isThrottled && count <= messageLimitPerCycle;
+    }
+
+    /**
+     * Starts tracking the given emitter with exact counts, replacing the tracked emitter with the lowest count if the
+     * table is full.
+     *
+     * @return The tracked heavy hitter or null if all tracked emitters have higher counts or are being throttled.
+     */
+    private HeavyHitter promote(long fingerprint, T message, long estimate) {
+        synchronized (cycleLock) {
+            final HeavyHitter existing = heavyHitters.get(fingerprint);
+            if (existing != null) {
+                return existing;
+            }
+            if (heavyHitters.size() >= maxHeavyHitters && !evictSmallerThan(estimate)) {
+                return null;
+            }
+            /* The message is counted when the heavy hitter is returned */
+            final HeavyHitter heavyHitter = new HeavyHitter(fingerprintStrategy.getFingerprint(message), estimate - 1);
+            heavyHitters.put(fingerprint, heavyHitter);
+            return heavyHitter;
+        }
+    }
+
+    private boolean evictSmallerThan(long estimate) {
+        Map.Entry<Long, HeavyHitter> smallest = null;
+        for (Map.Entry<Long, HeavyHitter> entry : heavyHitters.entrySet()) {
+            final HeavyHitter heavyHitter = entry.getValue();
+            if (!heavyHitter.isThrottled
+                    && (smallest == null || heavyHitter.count.get() < smallest.getValue().count.get())) {
+                smallest = entry;
+            }
+        }
+        if (smallest != null && smallest.getValue().count.get() < estimate) {
+            heavyHitters.remove(smallest.getKey());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Ends the current cycle: clears the sketch, evaluates the tracked heavy hitters and forgets the ones that are no
+     * longer throttled.
+     *
+     * @param clock The clock to time-stamp the start of the next cycle and newly throttled emitters.
+     * @return The messages from the {@link ThrottleListener}.
+     */
+    private List<T> endCycle(Clock clock) {
+        synchronized (cycleLock) {
+            final long nowMillis = clock.millis();
+            if (nowMillis < cycleEndMillis) {
+                /* Another thread ended the cycle */
+                return Collections.emptyList();
+            }
+            cycleEndMillis = nowMillis + throttleCycle.toMillis();
+
+            final CountMinSketch endedSketch = currentSketch;
+            spareSketch.clear();
+            currentSketch = spareSketch;
+            spareSketch = endedSketch;
+
+            final List<T> events = new ArrayList<>();
+            final Iterator<HeavyHitter> iterator = heavyHitters.values().iterator();
+            while (iterator.hasNext()) {
+                final HeavyHitter heavyHitter = iterator.next();
+                final long count = heavyHitter.count.getAndSet(0);
+                if (count > messageLimitPerCycle && heavyHitter.isThrottled) {
+                    listener.onThrottleRecurring(heavyHitter.startTime, heavyHitter.fingerprint, count).ifPresent(
+                            events::add);
+                } else if (count > messageLimitPerCycle) {
+                    heavyHitter.startTime = ZonedDateTime.now(clock);
+                    heavyHitter.isThrottled = true;
+                    listener.onThrottleStarting(heavyHitter.startTime, heavyHitter.fingerprint, count).ifPresent(
+                            events::add);
+                } else {
+                    if (heavyHitter.isThrottled) {
+                        listener.onThrottleEnding(heavyHitter.startTime, heavyHitter.fingerprint, count).ifPresent(
+                                events::add);
+                    }
+                    iterator.remove();
+                }
+            }
+            return events;
+        }
+    }
+
+    /**
+     * An emitter that is tracked with an exact count in the current cycle.
+     */
+    private static final class HeavyHitter {
+
+        private final String fingerprint;
+        private final AtomicLong count;
+        private volatile boolean isThrottled = false;
+        private volatile ZonedDateTime startTime;
+
+        private HeavyHitter(String fingerprint, long initialCount) {
+            this.fingerprint = fingerprint;
+            this.count = new AtomicLong(initialCount);
+        }
+
+    }
+
+    /**
+     * A builder that can help build a {@link SketchThrottleProcessor}.
+     *
+     * @author jepeders
+     * @param <T> The type of {@link Message}s to process in the built {@link SketchThrottleProcessor}.
+     */
+    public static class Builder<T extends Message<T>> {
+
+        private static final int DEFAULT_MAX_HEAVY_HITTERS = 100;
+        private static final int DEFAULT_SKETCH_WIDTH = 1 << 14;
+        private static final int DEFAULT_SKETCH_DEPTH = 4;
+
+        private FingerprintStrategy<T> fingerprintStrategy;
+        private ThrottleListener<T> listener = ThrottleListener.empty();
+        private Duration throttleCycle;
+        private long messageLimitPerCycle;
+        private int maxHeavyHitters = DEFAULT_MAX_HEAVY_HITTERS;
+        private int sketchWidth = DEFAULT_SKETCH_WIDTH;
+        private int sketchDepth = DEFAULT_SKETCH_DEPTH;
+
+        /**
+         * Builds an instance of a {@link SketchThrottleProcessor} using the current values of the builder.
+         *
+         * @return A {@link SketchThrottleProcessor}.
+         * @throws IllegalArgumentException If the {@link FingerprintStrategy}, the throttle cycle or a positive
+         *             message limit is not set, or the sketch size is invalid (see
+         *             {@link CountMinSketch#CountMinSketch(int, int)}).
+         */
+        public SketchThrottleProcessor<T> build() {
+            if (fingerprintStrategy == null) {
+                throw new IllegalArgumentException("FingerprintStrategy must be set");
+            }
+            if (throttleCycle == null || throttleCycle.isZero() || throttleCycle.isNegative()) {
+                throw new IllegalArgumentException("The throttle cycle must be set and cannot be zero or less");
+            }
+            if (messageLimitPerCycle <= 0) {
+                throw new IllegalArgumentException("The message limit must be set and be positive");
+            }
+            return new SketchThrottleProcessor<>(this);
+        }
+
+        /**
+         * @param fingerprintStrategy A strategy to uniquely identify message emitters.
+         * @return The same builder with its {@link FingerprintStrategy} set.
+         */
+        public Builder<T> setFingerprintStrategy(FingerprintStrategy<T> fingerprintStrategy) {
+            this.fingerprintStrategy = fingerprintStrategy;
+            return this;
+        }
+
+        /**
+         * @param listener A {@link ThrottleListener} that can react to throttling events. Defaults to
+         *            {@link ThrottleListener#empty()}.
+         * @return The same builder with its listener set.
+         */
+        public Builder<T> setListener(ThrottleListener<T> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param maxHeavyHitters The maximum number of emitters to track with exact counts. Defaults to
+         *            {@value #DEFAULT_MAX_HEAVY_HITTERS}.
+         * @return The same builder with the maximum number of heavy hitters set.
+         * @throws IllegalArgumentException If the number is zero or less.
+         */
+        public Builder<T> setMaxHeavyHitters(int maxHeavyHitters) {
+            if (maxHeavyHitters <= 0) {
+                throw new IllegalArgumentException("The maximum number of heavy hitters must be positive");
+            }
+            this.maxHeavyHitters = maxHeavyHitters;
+            return this;
+        }
+
+        /**
+         * @param messageLimitPerCycle The limit of messages that an emitter can send per cycle.
+         * @return The same builder with the message limit set.
+         */
+        public Builder<T> setMessageLimitPerCycle(long messageLimitPerCycle) {
+            this.messageLimitPerCycle = messageLimitPerCycle;
+            return this;
+        }
+
+        /**
+         * Sets the size of the {@link CountMinSketch}. Two sketches of <code>width * depth</code> counters of 8 bytes
+         * are allocated. Defaults to a width of {@value #DEFAULT_SKETCH_WIDTH} and a depth of
+         * {@value #DEFAULT_SKETCH_DEPTH}.
+         *
+         * @param width The number of counters per row. Must be a positive power of two.
+         * @param depth The number of rows.
+         * @return The same builder with the sketch size set.
+         */
+        public Builder<T> setSketchSize(int width, int depth) {
+            this.sketchWidth = width;
+            this.sketchDepth = depth;
+            return this;
+        }
+
+        /**
+         * @param throttleCycle The duration of the cycle in which messages are counted. Cannot be zero or less.
+         * @return The same builder with the throttle cycle set.
+         */
+        public Builder<T> setThrottleCycle(Duration throttleCycle) {
+            this.throttleCycle = throttleCycle;
+            return this;
+        }
+
+    }
+
+}
@@ -8,10 +8,14 @@
 
 package cern.acet.tracing.processing;
 
+import java.io.IOException;
 import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
@@ -22,9 +26,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.snapshot.MessageCodec;
+import cern.acet.tracing.processing.snapshot.SnapshotReader;
+import cern.acet.tracing.processing.snapshot.SnapshotWriter;
+import cern.acet.tracing.processing.snapshot.Snapshottable;
+import cern.acet.tracing.processing.window.EventTimeStrategy;
 import cern.acet.tracing.processing.window.FingerprintStrategy;
 import cern.acet.tracing.processing.window.MessageWindow;
 import cern.acet.tracing.processing.window.WindowManager;
+import cern.acet.tracing.processing.window.WindowScheduler;
 
 /**
  * <p>
@@ -40,15 +50,36 @@ import cern.acet.tracing.processing.window.WindowManager;
  * An emitter is a single source of messages, identified by a {@link FingerprintStrategy}, which can take a message and
  * generate a unique fingerprint from it. A typical example of an emitter is a host, process or similar.
  * </p>
+ * <p>
+ * Since messages are counted in fixed cycles, an emitter can send up to twice the limit across the boundary of two
+ * cycles. See the {@link TokenBucketThrottleProcessor} for a rate limiter without that problem.
+ * </p>
+ * <h2>Scheduling</h2>
+ * <p>
+ * The throttle cycles are timed by a {@link WindowScheduler}. Pass the scheduler of the Logalike instance to share its
+ * timer thread with other processors; otherwise the processor creates its own. The processor should be closed when it
+ * is no longer used, which {@link cern.acet.tracing.LogalikeImpl} does for all processors it was built with. The cycles
+ * can also be timed by the event time of the messages, see
+ * {@link #ThrottleProcessor(Duration, int, FingerprintStrategy, ThrottleListener, WindowScheduler, EventTimeStrategy, Duration)}.
+ * </p>
  *
  * @param <T> The type of {@link Message} to process.
  * @author jepeders
  */
-public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
+public class ThrottleProcessor<T extends Message<T>> implements Processor<T>, AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ThrottleProcessor.class);
 
-    private final Map<String, ZonedDateTime> throttledEmitters = new ConcurrentHashMap<>();
+    /**
+     * The kind of the snapshot records of the throttled emitters.
+     */
+    private static final int SNAPSHOT_EMITTER_KIND = 2;
+
+    /**
+     * Emitters that are currently throttled, keyed by their 64-bit fingerprint (see
+     * {@link FingerprintStrategy#getLongFingerprint(Message)}).
+     */
+    private final Map<Long, ZonedDateTime> throttledEmitters = new ConcurrentHashMap<>();
 
     private final long messageLimitPerCycle;
     private final Duration throttleCycle;
@@ -67,23 +98,7 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
      */
     public ThrottleProcessor(Duration throttleCycle, int messageLimitPerCycle,
             FingerprintStrategy<T> fingerprintStrategy) {
-        this(throttleCycle, messageLimitPerCycle, fingerprintStrategy, new ThrottleListener<T>() {
-
-            @Override
-            public Optional<T> onThrottleStarting(ZonedDateTime startTime, String fingerprint, long count) {
-                return Optional.empty();
-            }
-
-            @Override
-            public Optional<T> onThrottleRecurring(ZonedDateTime startTime, String fingerprint, long count) {
-                return Optional.empty();
-            }
-
-            @Override
-            public Optional<T> onThrottleEnding(ZonedDateTime startTime, String fingerprint, long count) {
-                return Optional.empty();
-            }
-        });
+        this(throttleCycle, messageLimitPerCycle, fingerprintStrategy, ThrottleListener.empty());
     }
 
     /**
@@ -98,15 +113,61 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
      */
     public ThrottleProcessor(Duration throttleCycle, int messageLimitPerCycle,
             FingerprintStrategy<T> fingerprintStrategy, ThrottleListener<T> listener) {
-        if (throttleCycle.isZero() || throttleCycle.isNegative()) {
-            throw new IllegalArgumentException("The throttle cycle cannot be zero or less");
-        }
+        this(throttleCycle, messageLimitPerCycle, fingerprintStrategy, listener, new WindowManager<T>(
+                requirePositive(throttleCycle), fingerprintStrategy));
+    }
+
+    /**
+     * Creates a throttling filter that uses the given {@link ThrottleListener} to inform whenever emitters are being
+     * (un)throttled, and times the throttle cycles with the given, shared {@link WindowScheduler}.
+     *
+     * @param throttleCycle The duration of the cycle from which the messages are checked. Cannot be zero or less.
+     * @param messageLimitPerCycle The limit of messages that an emitter can send per cycle.
+     * @param fingerprintStrategy A strategy to uniquely identify message emitters.
+     * @param listener A {@link ThrottleListener} that can react to throttling events.
+     * @param scheduler The {@link WindowScheduler} to time the throttle cycles with.
+     * @throws IllegalArgumentException If the cycle duration is zero or less.
+     * @throws IllegalStateException If the scheduler is closed.
+     */
+    public ThrottleProcessor(Duration throttleCycle, int messageLimitPerCycle,
+            FingerprintStrategy<T> fingerprintStrategy, ThrottleListener<T> listener, WindowScheduler scheduler) {
+        this(throttleCycle, messageLimitPerCycle, fingerprintStrategy, listener, new WindowManager<T>(
+                requirePositive(throttleCycle), fingerprintStrategy, scheduler, ThrottleProcessor.class
+                        .getSimpleName()));
+    }
+
+    /**
+     * Creates a throttling filter that counts the messages in cycles of the time they were produced (their event time)
+     * instead of the time they are processed. That way emitters are throttled by the rate at which they produced
+     * messages, even if the messages are backfilled from old files at full speed.
+     *
+     * @param throttleCycle The duration of the cycle from which the messages are checked. Cannot be zero or less.
+     * @param messageLimitPerCycle The limit of messages that an emitter can send per cycle.
+     * @param fingerprintStrategy A strategy to uniquely identify message emitters.
+     * @param listener A {@link ThrottleListener} that can react to throttling events.
+     * @param scheduler The {@link WindowScheduler} to time the throttle cycles with.
+     * @param eventTimeStrategy A strategy to take the event time from the messages.
+     * @param allowedLateness How far messages can arrive out of order before they are considered late and not
+     *            counted.
+     * @throws IllegalArgumentException If the cycle duration is zero or less or the allowed lateness is negative.
+     * @throws IllegalStateException If the scheduler is closed.
+     */
+    public ThrottleProcessor(Duration throttleCycle, int messageLimitPerCycle,
+            FingerprintStrategy<T> fingerprintStrategy, ThrottleListener<T> listener, WindowScheduler scheduler,
+            EventTimeStrategy<T> eventTimeStrategy, Duration allowedLateness) {
+        this(throttleCycle, messageLimitPerCycle, fingerprintStrategy, listener, WindowManager.<T> builder()
+                .setWindowDuration(requirePositive(throttleCycle)).setFingerprintStrategy(fingerprintStrategy)
+                .setWindowScheduler(scheduler, ThrottleProcessor.class.getSimpleName())
+                .setEventTime(eventTimeStrategy, allowedLateness).build());
+    }
 
+    private ThrottleProcessor(Duration throttleCycle, int messageLimitPerCycle,
+            FingerprintStrategy<T> fingerprintStrategy, ThrottleListener<T> listener, WindowManager<T> windowManager) {
         this.fingerprintStrategy = fingerprintStrategy;
         this.listener = listener;
         this.messageLimitPerCycle = messageLimitPerCycle;
         this.throttleCycle = throttleCycle;
-        this.windowManager = new WindowManager<T>(throttleCycle, fingerprintStrategy);
+        this.windowManager = windowManager;
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(String.format("Throttle processor initialised with a cycle of %s and a message limit of %d",
@@ -147,6 +208,29 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
         return Stream.concat(messagesBelowThrottleLimit, throttledMessages);
     }
 
+    /**
+     * Stops timing the throttle cycles of this processor.
+     */
+    @Override
+    public void close() {
+        windowManager.close();
+    }
+
+    /**
+     * Creates a {@link Snapshottable} that saves and restores the state of this processor: the counts of the current
+     * cycle and the emitters that are throttled. Register it with a
+     * {@link cern.acet.tracing.processing.snapshot.StateSnapshotter} before the processor is used, so throttled
+     * emitters stay throttled across restarts.
+     *
+     * @param codec The codec to write and read the messages of the cycle windows with.
+     * @return A {@link Snapshottable} of the processor state.
+     * @throws IllegalStateException If the fingerprints are not
+     *             {@link FingerprintStrategy#isStableAcrossRestarts() stable across restarts}.
+     */
+    public Snapshottable getSnapshottable(MessageCodec<T> codec) {
+        return new ThrottleSnapshot(windowManager.getSnapshottable(codec));
+    }
+
     /**
      * @return The cycle of one throttle duration, which indicates how long emitters will be blocked.
      */
@@ -183,12 +267,19 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
      *         emitter is below the threshold.
      */
     private boolean shouldThrottle(T message, Supplier<Clock> clockSupplier) {
-        final String fingerprint = fingerprintStrategy.getFingerprint(message);
+        final long fingerprint = fingerprintStrategy.getLongFingerprint(message);
         /* Increment regardless of whether the message is blocked */
-        final long newCounter = windowManager.increment(message, clockSupplier.get());
+        final long newCounter = windowManager.increment(message, fingerprint, clockSupplier.get());
         return !throttledEmitters.containsKey(fingerprint) && newCounter <= messageLimitPerCycle;
     }
 
+    private static Duration requirePositive(Duration throttleCycle) {
+        if (throttleCycle.isZero() || throttleCycle.isNegative()) {
+            throw new IllegalArgumentException("The throttle cycle cannot be zero or less");
+        }
+        return throttleCycle;
+    }
+
     /**
      * A listener that can react when the {@link ThrottleProcessor} activates events for certain message emitters. This
      * happens when a identified emitter (e. g. a host or whatever is identified by the {@link FingerprintStrategy})
@@ -232,6 +323,32 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
          */
         public Optional<T> onThrottleStarting(ZonedDateTime startTime, String fingerprint, long count);
 
+        /**
+         * Creates a listener that ignores all events.
+         *
+         * @param <T> The type of {@link Message} the {@link ThrottleProcessor} treats.
+         * @return A {@link ThrottleListener} that never returns a message.
+         */
+        public static <T extends Message<T>> ThrottleListener<T> empty() {
+            return new ThrottleListener<T>() {
+
+                @Override
+                public Optional<T> onThrottleStarting(ZonedDateTime startTime, String fingerprint, long count) {
+                    return Optional.empty();
+                }
+
+                @Override
+                public Optional<T> onThrottleRecurring(ZonedDateTime startTime, String fingerprint, long count) {
+                    return Optional.empty();
+                }
+
+                @Override
+                public Optional<T> onThrottleEnding(ZonedDateTime startTime, String fingerprint, long count) {
+                    return Optional.empty();
+                }
+            };
+        }
+
     }
 
     /**
@@ -261,6 +378,58 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
         NORMAL;
     }
 
+    /**
+     * Writes and restores the cycle windows and the throttled emitters. An emitter record holds the time the emitter
+     * was first throttled. The emitters written last are kept, so only changes are written.
+     */
+    private final class ThrottleSnapshot implements Snapshottable {
+
+        private final Snapshottable windowSnapshot;
+        private final Map<Long, ZonedDateTime> writtenEmitters = new HashMap<>();
+
+        private ThrottleSnapshot(Snapshottable windowSnapshot) {
+            this.windowSnapshot = windowSnapshot;
+        }
+
+        @Override
+        public void writeSnapshot(SnapshotWriter writer, boolean isFull) throws IOException {
+            windowSnapshot.writeSnapshot(writer, isFull);
+            final Map<Long, ZonedDateTime> emitters = new HashMap<>(throttledEmitters);
+            if (!isFull) {
+                for (Long fingerprint : writtenEmitters.keySet()) {
+                    if (!emitters.containsKey(fingerprint)) {
+                        writer.remove(SNAPSHOT_EMITTER_KIND, fingerprint);
+                    }
+                }
+            }
+            for (Map.Entry<Long, ZonedDateTime> emitter : emitters.entrySet()) {
+                if (isFull || !emitter.getValue().equals(writtenEmitters.get(emitter.getKey()))) {
+                    final ZonedDateTime startTime = emitter.getValue();
+                    writer.put(SNAPSHOT_EMITTER_KIND, emitter.getKey(), output -> {
+                        output.writeLong(startTime.toEpochSecond());
+                        output.writeInt(startTime.getNano());
+                        MessageCodec.writeString(output, startTime.getZone().getId());
+                    });
+                }
+            }
+            writtenEmitters.clear();
+            writtenEmitters.putAll(emitters);
+        }
+
+        @Override
+        public void restoreSnapshot(SnapshotReader reader) {
+            windowSnapshot.restoreSnapshot(reader);
+            reader.getRecords(SNAPSHOT_EMITTER_KIND).forEach((fingerprint, record) -> {
+                final Instant startTime = Instant.ofEpochSecond(record.getLong(), record.getInt());
+                final ZonedDateTime zonedStartTime = ZonedDateTime.ofInstant(startTime,
+                        ZoneId.of(MessageCodec.readString(record)));
+                throttledEmitters.put(fingerprint, zonedStartTime);
+                writtenEmitters.put(fingerprint, zonedStartTime);
+            });
+        }
+
+    }
+
     /**
      * A data-type that contains information about the fingerprint and throttle status of a {@link MessageWindow}.
      *
@@ -270,6 +439,7 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
 
         private final ZonedDateTime startTime;
         private final String fingerprint;
+        private final long longFingerprint;
         private final ThrottleStatus status;
         private final MessageWindow<T> window;
 
@@ -282,8 +452,10 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
         private ThrottleEntry(MessageWindow<T> window, Clock clock) {
             this.window = window;
             this.fingerprint = fingerprintStrategy.getFingerprint(window.getMessage());
+            this.longFingerprint = fingerprintStrategy.getLongFingerprint(window.getMessage());
             this.status = updateEmitterStatus(window.getCount(), clock);
-            this.startTime = Optional.ofNullable(throttledEmitters.get(fingerprint)).orElse(ZonedDateTime.now(clock));
+            this.startTime = Optional.ofNullable(throttledEmitters.get(longFingerprint)).orElse(
+                    ZonedDateTime.now(clock));
         }
 
         /**
@@ -295,14 +467,14 @@ public class ThrottleProcessor<T extends Message<T>> implements Processor<T> {
          * @return A {@link ThrottleStatus}.
          */
         private synchronized ThrottleStatus updateEmitterStatus(long count, Clock clock) {
-            final boolean isThrottled = throttledEmitters.containsKey(fingerprint);
+            final boolean isThrottled = throttledEmitters.containsKey(longFingerprint);
             if (count > messageLimitPerCycle && isThrottled) {
                 return ThrottleStatus.RECURRING;
             } else if (count > messageLimitPerCycle) {
-                throttledEmitters.put(fingerprint, ZonedDateTime.now(clock));
+                throttledEmitters.put(longFingerprint, ZonedDateTime.now(clock));
                 return ThrottleStatus.STARTING;
             } else if (isThrottled) {
-                throttledEmitters.remove(fingerprint);
+                throttledEmitters.remove(longFingerprint);
                 return ThrottleStatus.ENDING;
             } else {
                 return ThrottleStatus.NORMAL;
@@ -0,0 +1,337 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction.
+ *
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.Message;
+
+/**
+ * <p>
+ * A {@link MessageMapper} that parses a time-stamp from a field in the incoming {@link Message}s and stores it via
+ * {@link Message#putTimestamp(ZonedDateTime)}. One or more formats can be given in the {@link Builder}. The mapper
+ * remembers which format matched last and tries that first, since log files rarely change their time-stamp format from
+ * one line to the next.
+ * </p>
+ * <h3>Caching</h3>
+ * <p>
+ * Log lines arrive in bursts that share the same second, so each format caches the last time-stamp it parsed, truncated
+ * to the second. If the next time-stamp only differs in its fraction of a second (the <code>S</code> pattern letters),
+ * the fraction is read directly from the string and added to the cached value, instead of parsing the full date again.
+ * Formats without a fraction, or where the position of the fraction cannot be determined, are only cached if the
+ * time-stamp string is exactly the same as the previous one.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to map.
+ * @author jepeders
+ */
+public class TimestampMapper<T extends Message<T>> implements MessageMapper<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimestampMapper.class);
+
+    private final String field;
+    private final TimestampFormat[] formats;
+
+    /**
+     * The index of the format that matched last. Races between threads are harmless; at worst a format is tried twice.
+     */
+    private volatile int lastMatchingFormat = 0;
+
+    private TimestampMapper(Builder<T> builder) {
+        this.field = builder.field;
+        this.formats = builder.formats.stream().map(format -> format.withZone(builder.zone))
+                .toArray(TimestampFormat[]::new);
+    }
+
+    @Override
+    public T apply(T message) {
+        //@formatter:off
+        return message.getOptionalAs(field, String.class)
+                .flatMap(this::parse)
+                .map(message::putTimestamp)
+                .orElse(message);
+        //@formatter:on
+    }
+
+    /**
+     * @return A {@link Builder} that can help build a {@link TimestampMapper}.
+     * @param <T> The type of {@link Message}s to use in the {@link TimestampMapper}.
+     */
+    public static <T extends Message<T>> Builder<T> builder() {
+        return new Builder<T>();
+    }
+
+    /**
+     * Parses the given string with the formats of this mapper, starting with the format that matched last.
+     *
+     * @param text The time-stamp to parse.
+     * @return A {@link ZonedDateTime} if one of the formats could parse the text, otherwise {@link Optional#empty()}.
+     */
+    public Optional<ZonedDateTime> parse(String text) {
+        final int first = lastMatchingFormat;
+        ZonedDateTime timestamp = formats[first].parse(text);
+        if (timestamp != null) {
+            return Optional.of(timestamp);
+        }
+
+        for (int index = 0; index < formats.length; index++) {
+            if (index != first) {
+                timestamp = formats[index].parse(text);
+                if (timestamp != null) {
+                    lastMatchingFormat = index;
+                    return Optional.of(timestamp);
+                }
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Failed to parse time-stamp '{}' in field '{}' with any of the {} format(s)", text, field,
+                    formats.length);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * A single time-stamp format with a one-entry cache of the last second it parsed.
+     */
+    private static final class TimestampFormat {
+
+        private static final int NOT_CACHEABLE = -1;
+        private static final int NANOS_DIGITS = 9;
+        private static final ZonedDateTime SAMPLE_EARLY = ZonedDateTime.of(2001, 2, 3, 4, 5, 6, 0, ZoneOffset.UTC);
+        private static final ZonedDateTime SAMPLE_LATE = ZonedDateTime.of(2019, 11, 28, 23, 59, 58, 0,
+                ZoneOffset.UTC);
+
+        private final String pattern;
+        private final DateTimeFormatter formatter;
+        private final int fractionStart;
+        private final int fractionDigits;
+
+        private volatile CachedSecond cache;
+
+        private TimestampFormat(String pattern, DateTimeFormatter formatter, int fractionStart, int fractionDigits) {
+            this.pattern = pattern;
+            this.formatter = formatter;
+            this.fractionStart = fractionStart;
+            this.fractionDigits = fractionDigits;
+        }
+
+        /**
+         * Creates a format from a {@link DateTimeFormatter} pattern and finds the position of the fraction of a second
+         * in the formatted text, if the part of the pattern before the fraction has a fixed width.
+         */
+        static TimestampFormat ofPattern(String pattern) {
+            final DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern);
+            final int patternFractionStart = findFractionInPattern(pattern);
+            if (patternFractionStart == NOT_CACHEABLE) {
+                return new TimestampFormat(pattern, formatter, NOT_CACHEABLE, 0);
+            }
+
+            int digits = 0;
+            while (patternFractionStart + digits < pattern.length()
+                    && pattern.charAt(patternFractionStart + digits) == 'S') {
+                digits++;
+            }
+
+            try {
+                final DateTimeFormatter prefix = DateTimeFormatter.ofPattern(pattern.substring(0,
+                        patternFractionStart));
+                final int earlyWidth = prefix.format(SAMPLE_EARLY).length();
+                final int lateWidth = prefix.format(SAMPLE_LATE).length();
+                if (earlyWidth == lateWidth && digits <= NANOS_DIGITS) {
+                    return new TimestampFormat(pattern, formatter, earlyWidth, digits);
+                }
+            } catch (DateTimeException | IllegalArgumentException e) {
+                /* The prefix cannot be formatted on its own, so we only cache identical strings */
+            }
+            return new TimestampFormat(pattern, formatter, NOT_CACHEABLE, 0);
+        }
+
+        static TimestampFormat ofFormatter(DateTimeFormatter formatter) {
+            return new TimestampFormat(formatter.toString(), formatter, NOT_CACHEABLE, 0);
+        }
+
+        /**
+         * Finds the first run of 'S' pattern letters outside quoted literals.
+         */
+        private static int findFractionInPattern(String pattern) {
+            boolean isQuoted = false;
+            for (int index = 0; index < pattern.length(); index++) {
+                final char letter = pattern.charAt(index);
+                if (letter == '\'') {
+                    isQuoted = !isQuoted;
+                } else if (!isQuoted && letter == 'S') {
+                    return index;
+                }
+            }
+            return NOT_CACHEABLE;
+        }
+
+        TimestampFormat withZone(ZoneId zone) {
+            return new TimestampFormat(pattern, formatter.withZone(zone), fractionStart, fractionDigits);
+        }
+
+        /**
+         * @return The parsed time-stamp or null if the text does not match this format.
+         */
+        ZonedDateTime parse(String text) {
+            final CachedSecond cached = cache;
+            if (cached != null) {
+                final ZonedDateTime fromCache = parseFromCache(cached, text);
+                if (fromCache != null) {
+                    return fromCache;
+                }
+            }
+
+            try {
+                final ZonedDateTime timestamp = ZonedDateTime.parse(text, formatter);
+                cache = new CachedSecond(text, fractionStart == NOT_CACHEABLE ? timestamp : timestamp.withNano(0));
+                return timestamp;
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+
+        private ZonedDateTime parseFromCache(CachedSecond cached, String text) {
+            if (fractionStart == NOT_CACHEABLE) {
+                return cached.text.equals(text) ? cached.second : null;
+            }
+
+            final int fractionEnd = fractionStart + fractionDigits;
+            if (text.length() != cached.text.length() || !text.regionMatches(0, cached.text, 0, fractionStart)
+                    || !text.regionMatches(fractionEnd, cached.text, fractionEnd, text.length() - fractionEnd)) {
+                return null;
+            }
+
+            int fraction = 0;
+            for (int index = fractionStart; index < fractionEnd; index++) {
+                final char digit = text.charAt(index);
+                if (digit < '0' || digit > '9') {
+                    return null;
+                }
+                fraction = fraction * 10 + (digit - '0');
+            }
+            for (int index = fractionDigits; index < NANOS_DIGITS; index++) {
+                fraction *= 10;
+            }
+            return cached.second.withNano(fraction);
+        }
+
+    }
+
+    /**
+     * An immutable pair of the last parsed string and its value, truncated to the second if the format has a fraction.
+     */
+    private static final class CachedSecond {
+
+        private final String text;
+        private final ZonedDateTime second;
+
+        private CachedSecond(String text, ZonedDateTime second) {
+            this.text = text;
+            this.second = second;
+        }
+
+    }
+
+    /**
+     * A builder that can help to build a {@link TimestampMapper}.
+     *
+     * @author jepeders
+     * @param <T> The type of {@link Message} to use when building a {@link TimestampMapper}.
+     */
+    public static class Builder<T extends Message<T>> {
+
+        private final List<TimestampFormat> formats = new ArrayList<>();
+        private String field;
+        private ZoneId zone = ZoneId.systemDefault();
+
+        /**
+         * Builds a {@link TimestampMapper} from the current parameters.
+         *
+         * @return An instance of a {@link TimestampMapper}.
+         * @throws NullPointerException if the field has not been set.
+         * @throws IllegalArgumentException if no formats have been added.
+         */
+        public TimestampMapper<T> build() {
+            Objects.requireNonNull(field, "The message field must be set");
+            if (formats.isEmpty()) {
+                throw new IllegalArgumentException("At least one time-stamp format must be added");
+            }
+            return new TimestampMapper<T>(this);
+        }
+
+        /**
+         * Adds a format to parse time-stamps with, using the pattern syntax of {@link DateTimeFormatter}, e. g.
+         * <code>"yyyy-MM-dd HH:mm:ss.SSS"</code>. Formats are tried in the order they are added.
+         *
+         * @param pattern The pattern of the time-stamp.
+         * @return The same builder with the format added.
+         * @throws IllegalArgumentException If the pattern is invalid.
+         */
+        public Builder<T> addFormat(String pattern) {
+            formats.add(TimestampFormat.ofPattern(pattern));
+            return this;
+        }
+
+        /**
+         * Adds a format to parse time-stamps with. Time-stamps parsed by a {@link DateTimeFormatter} are only cached
+         * if the same string is seen twice in a row; use {@link #addFormat(String)} to also cache the fraction of a
+         * second.
+         *
+         * @param formatter The formatter to parse time-stamps with.
+         * @return The same builder with the format added.
+         */
+        public Builder<T> addFormat(DateTimeFormatter formatter) {
+            formats.add(TimestampFormat.ofFormatter(formatter));
+            return this;
+        }
+
+        /**
+         * Defines the field to parse the time-stamp from. This is a mandatory field that must be set before the
+         * {@link TimestampMapper} can be built.
+         *
+         * @param field The name of the field to parse in incoming messages, e. g. "timestamp".
+         * @return The same builder with the field set to the given value.
+         */
+        public Builder<T> setFieldToParse(String field) {
+            this.field = field;
+            return this;
+        }
+
+        /**
+         * Sets the zone to use for time-stamps that do not contain a zone or offset. Defaults to the zone of the
+         * system.
+         *
+         * @param zone The zone of the time-stamps.
+         * @return The same builder with the zone set.
+         */
+        public Builder<T> setZone(ZoneId zone) {
+            this.zone = Objects.requireNonNull(zone, "The zone cannot be null");
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,444 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.ThrottleProcessor.ThrottleListener;
+import cern.acet.tracing.processing.ThrottleProcessor.ThrottleStatus;
+import cern.acet.tracing.processing.window.FingerprintHasher;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+
+/**
+ * <p>
+ * A processor that throttles excessive input with a token bucket per emitter. Every emitter (identified by a
+ * {@link FingerprintStrategy}, like in the {@link ThrottleProcessor}) has a bucket of at most
+ * <code>messageLimitPerCycle</code> tokens, which refills at a rate of <code>messageLimitPerCycle</code> tokens per
+ * cycle. Each message takes one token, and messages are dropped while the bucket is empty. Unlike the
+ * {@link ThrottleProcessor}, there are no fixed cycles, so an emitter can never send more than the limit plus the
+ * refill within any cycle.
+ * </p>
+ * <p>
+ * Throttled emitters keep paying for the messages they send (up to one cycle in advance), so an emitter is released
+ * when its rate falls below the limit, and not every time a single token becomes available.
+ * </p>
+ * <h2>Buckets</h2>
+ * <p>
+ * The buckets are implemented as a generic cell rate algorithm, where a bucket is a single <code>long</code>: the
+ * theoretical arrival time of the next message. The buckets are refilled lazily when the emitter sends a message, so no
+ * timer is needed. They are kept in primitive open-addressing tables, striped by fingerprint so parallel streams rarely
+ * contend. Buckets that are full and not throttled carry no information, and are pruned when a table grows.
+ * </p>
+ * <h2>Events</h2>
+ * <p>
+ * The {@link ThrottleListener} is informed when an emitter is throttled for the first time, once per cycle while it is
+ * still being throttled, and when it is released. The events are detected when the emitter sends a message, and any
+ * event message is emitted in the stream just before that message. The count passed to the listener is the number of
+ * messages received from the emitter since the previous event.
+ * </p>
+ * <p>
+ * A throttled emitter that falls silent is released once its bucket has been full for a cycle. Since it sends no
+ * message to detect that on, the throttled buckets of a table are checked at most once per cycle when another emitter
+ * of the same table sends a message, and the release is emitted just before that message. The released bucket is
+ * then pruned like any other full bucket.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to process.
+ * @author jepeders
+ */
+public class TokenBucketThrottleProcessor<T extends Message<T>> implements Processor<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenBucketThrottleProcessor.class);
+    private static final int SEGMENT_BITS = 4;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final Segment<T>[] segments;
+    private final Duration throttleCycle;
+    private final FingerprintStrategy<T> fingerprintStrategy;
+    private final ThrottleListener<T> listener;
+
+    /**
+     * Creates a token bucket throttle that does not inform about messages being throttled.
+     *
+     * @param throttleCycle The duration in which an emitter can send the limit of messages. Cannot be zero or less.
+     * @param messageLimitPerCycle The number of messages an emitter can send per cycle. Must be positive.
+     * @param fingerprintStrategy A strategy to uniquely identify message emitters.
+     * @throws IllegalArgumentException If the cycle duration or the limit is zero or less.
+     */
+    public TokenBucketThrottleProcessor(Duration throttleCycle, int messageLimitPerCycle,
+            FingerprintStrategy<T> fingerprintStrategy) {
+        this(throttleCycle, messageLimitPerCycle, fingerprintStrategy, ThrottleListener.empty());
+    }
+
+    /**
+     * Creates a token bucket throttle that uses the given {@link ThrottleListener} to inform whenever emitters are
+     * being (un)throttled.
+     *
+     * @param throttleCycle The duration in which an emitter can send the limit of messages. Cannot be zero or less.
+     * @param messageLimitPerCycle The number of messages an emitter can send per cycle. Must be positive.
+     * @param fingerprintStrategy A strategy to uniquely identify message emitters.
+     * @param listener A {@link ThrottleListener} that can react to throttling events.
+     * @throws IllegalArgumentException If the cycle duration or the limit is zero or less.
+     */
+    public TokenBucketThrottleProcessor(Duration throttleCycle, int messageLimitPerCycle,
+            FingerprintStrategy<T> fingerprintStrategy, ThrottleListener<T> listener) {
+        if (throttleCycle.isZero() || throttleCycle.isNegative()) {
+            throw new IllegalArgumentException("The throttle cycle cannot be zero or less");
+        }
+        if (messageLimitPerCycle <= 0) {
+            throw new IllegalArgumentException("The message limit must be positive");
+        }
+
+        this.throttleCycle = throttleCycle;
+        this.fingerprintStrategy = fingerprintStrategy;
+        this.listener = listener;
+        final long cycleNanos = throttleCycle.toNanos();
+        final long nanosPerMessage = Math.max(1, cycleNanos / messageLimitPerCycle);
+        final long burstNanos = cycleNanos - nanosPerMessage;
+        @SuppressWarnings("unchecked")
+        final Segment<T>[] newSegments = new Segment[1 << SEGMENT_BITS];
+        for (int index = 0; index < newSegments.length; index++) {
+            newSegments[index] = new Segment<>(cycleNanos, nanosPerMessage, burstNanos, fingerprintStrategy);
+        }
+        this.segments = newSegments;
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format(
+                    "Token bucket throttle processor initialised with a cycle of %s and a message limit of %d",
+                    throttleCycle.toString(), messageLimitPerCycle));
+        }
+    }
+
+    @Override
+    public Stream<T> apply(Stream<T> stream) {
+        return apply(stream, () -> Clock.systemDefaultZone());
+    }
+
+    /**
+     * Processes the incoming stream by throttling emitters that exceed their rate. This method uses a {@link Supplier}
+     * to calculate the time, which is useful for testing purposes.
+     *
+     * @param stream The {@link Stream} to process.
+     * @param clockSupplier A {@link Supplier} that can produce {@link Clock}s.
+     * @return A processed {@link Stream}.
+     */
+    Stream<T> apply(Stream<T> stream, Supplier<Clock> clockSupplier) {
+        return stream.flatMap(message -> process(message, clockSupplier.get()));
+    }
+
+    /**
+     * @return The duration in which an emitter can send the limit of messages.
+     */
+    public Duration getThrottleCycle() {
+        return throttleCycle;
+    }
+
+    /**
+     * @return The number of emitters whose buckets are currently tracked.
+     */
+    public int getEmitterCount() {
+        int count = 0;
+        for (Segment<T> segment : segments) {
+            count += segment.getSize();
+        }
+        return count;
+    }
+
+    /**
+     * Takes a token for the given message and returns the messages to send on.
+     *
+     * @param message The message to examine.
+     * @param clock The clock to take the current time from.
+     * @return A {@link Stream} of the message, if it was not throttled, preceded by a message from the
+     *         {@link ThrottleListener} if the message caused an event.
+     */
+    Stream<T> process(T message, Clock clock) {
+        final long fingerprint = fingerprintStrategy.getLongFingerprint(message);
+        final long hash = FingerprintHasher.mix(fingerprint);
+        final Instant now = clock.instant();
+        final long nowNanos = now.getEpochSecond() * NANOS_PER_SECOND + now.getNano();
+
+        final Verdict verdict = segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))].take(fingerprint, (int) hash,
+                nowNanos, message);
+        if (verdict.status == ThrottleStatus.NORMAL && verdict.releases.isEmpty()) {
+            return verdict.isAccepted ? Stream.of(message) : Stream.empty();
+        }
+
+        final Stream.Builder<T> messages = Stream.builder();
+        for (Verdict release : verdict.releases) {
+            getThrottleMessage(release, clock).ifPresent(messages);
+        }
+        getThrottleMessage(verdict, clock).ifPresent(messages);
+        if (verdict.isAccepted) {
+            messages.accept(message);
+        }
+        return messages.build();
+    }
+
+    private Optional<T> getThrottleMessage(Verdict verdict, Clock clock) {
+        final ZonedDateTime startTime = ZonedDateTime.ofInstant(
+                Instant.ofEpochSecond(0, verdict.throttleStartNanos), clock.getZone());
+        final String fingerprint = verdict.fingerprint;
+        switch (verdict.status) {
+        case STARTING:
+            return listener.onThrottleStarting(startTime, fingerprint, verdict.count);
+        case RECURRING:
+            return listener.onThrottleRecurring(startTime, fingerprint, verdict.count);
+        case ENDING:
+            return listener.onThrottleEnding(startTime, fingerprint, verdict.count);
+        default:
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * The outcome of taking a token: whether the message is accepted and which event, if any, it caused, along with
+     * the releases of silent emitters that were detected on the way.
+     */
+    private static final class Verdict {
+
+        private static final Verdict ACCEPTED = new Verdict(true, ThrottleStatus.NORMAL, 0, 0, null);
+        private static final Verdict DROPPED = new Verdict(false, ThrottleStatus.NORMAL, 0, 0, null);
+
+        private final boolean isAccepted;
+        private final ThrottleStatus status;
+        private final long throttleStartNanos;
+        private final long count;
+        private final String fingerprint;
+        private final List<Verdict> releases;
+
+        private Verdict(boolean isAccepted, ThrottleStatus status, long throttleStartNanos, long count,
+                String fingerprint) {
+            this(isAccepted, status, throttleStartNanos, count, fingerprint, Collections.emptyList());
+        }
+
+        private Verdict(boolean isAccepted, ThrottleStatus status, long throttleStartNanos, long count,
+                String fingerprint, List<Verdict> releases) {
+            this.isAccepted = isAccepted;
+            this.status = status;
+            this.throttleStartNanos = throttleStartNanos;
+            this.count = count;
+            this.fingerprint = fingerprint;
+            this.releases = releases;
+        }
+
+        private Verdict withReleases(List<Verdict> releases) {
+            return new Verdict(isAccepted, status, throttleStartNanos, count, fingerprint, releases);
+        }
+
+    }
+
+    /**
+     * An open-addressing table of buckets, stored in parallel primitive arrays and guarded by its own monitor.
+     */
+    private static final class Segment<T extends Message<T>> {
+
+        private static final int MINIMUM_CAPACITY = 16;
+        private static final long NOT_THROTTLED = Long.MIN_VALUE;
+
+        private final long cycleNanos;
+        private final long nanosPerMessage;
+        private final long burstNanos;
+        private final FingerprintStrategy<T> fingerprintStrategy;
+
+        private long[] fingerprints;
+        private boolean[] isUsed;
+        private long[] arrivalTimes;
+        private long[] throttleStartTimes;
+        private long[] lastEventTimes;
+        private long[] counts;
+        private String[] names;
+        private int size;
+        private int throttledCount = 0;
+        private long nextReleaseCheckNanos = Long.MIN_VALUE;
+        private List<Verdict> releases = Collections.emptyList();
+
+        private Segment(long cycleNanos, long nanosPerMessage, long burstNanos,
+                FingerprintStrategy<T> fingerprintStrategy) {
+            this.cycleNanos = cycleNanos;
+            this.nanosPerMessage = nanosPerMessage;
+            this.burstNanos = burstNanos;
+            this.fingerprintStrategy = fingerprintStrategy;
+            allocate(MINIMUM_CAPACITY);
+        }
+
+        private synchronized int getSize() {
+            return size;
+        }
+
+        private synchronized Verdict take(long fingerprint, int hash, long nowNanos, T message) {
+            if (throttledCount > 0 && nowNanos >= nextReleaseCheckNanos) {
+                releaseSilentEmitters(nowNanos);
+            }
+            final Verdict verdict = take(findOrInsert(fingerprint, hash, nowNanos), nowNanos, message);
+            if (releases.isEmpty()) {
+                return verdict;
+            }
+            final List<Verdict> detectedReleases = releases;
+            releases = Collections.emptyList();
+            return verdict.withReleases(detectedReleases);
+        }
+
+        private Verdict take(int slot, long nowNanos, T message) {
+            counts[slot]++;
+
+            final long arrivalTime = Math.max(arrivalTimes[slot], nowNanos);
+            if (throttleStartTimes[slot] == NOT_THROTTLED) {
+                if (arrivalTime - nowNanos <= burstNanos) {
+                    arrivalTimes[slot] = arrivalTime + nanosPerMessage;
+                    return Verdict.ACCEPTED;
+                }
+                arrivalTimes[slot] = Math.min(arrivalTime + nanosPerMessage, nowNanos + cycleNanos);
+                throttleStartTimes[slot] = nowNanos;
+                names[slot] = fingerprintStrategy.getFingerprint(message);
+                throttledCount++;
+                return event(slot, false, ThrottleStatus.STARTING, nowNanos);
+            }
+
+            /* A throttled emitter is released when it has paid off all the messages it sent */
+            if (arrivalTime == nowNanos) {
+                arrivalTimes[slot] = nowNanos + nanosPerMessage;
+                return event(slot, true, ThrottleStatus.ENDING, nowNanos);
+            }
+            arrivalTimes[slot] = Math.min(arrivalTime + nanosPerMessage, nowNanos + cycleNanos);
+            if (nowNanos - lastEventTimes[slot] >= cycleNanos) {
+                return event(slot, false, ThrottleStatus.RECURRING, nowNanos);
+            }
+            return Verdict.DROPPED;
+        }
+
+        private Verdict event(int slot, boolean isAccepted, ThrottleStatus status, long nowNanos) {
+            final Verdict verdict = new Verdict(isAccepted, status, throttleStartTimes[slot], counts[slot],
+                    names[slot]);
+            counts[slot] = 0;
+            lastEventTimes[slot] = nowNanos;
+            if (status == ThrottleStatus.ENDING) {
+                throttleStartTimes[slot] = NOT_THROTTLED;
+                names[slot] = null;
+                throttledCount--;
+            }
+            return verdict;
+        }
+
+        /**
+         * Releases the throttled emitters whose buckets have been full for at least a cycle, because they stopped
+         * sending messages. The releases are kept until they can be returned with the next verdict.
+         */
+        private void releaseSilentEmitters(long nowNanos) {
+            nextReleaseCheckNanos = nowNanos + cycleNanos;
+            for (int slot = 0; slot < fingerprints.length && throttledCount > 0; slot++) {
+                if (isUsed[slot] && throttleStartTimes[slot] != NOT_THROTTLED
+                        && nowNanos - arrivalTimes[slot] >= cycleNanos) {
+                    if (releases.isEmpty()) {
+                        releases = new ArrayList<>();
+                    }
+                    releases.add(event(slot, false, ThrottleStatus.ENDING, nowNanos));
+                }
+            }
+        }
+
+        private int findOrInsert(long fingerprint, int hash, long nowNanos) {
+            final int mask = fingerprints.length - 1;
+            int slot = hash & mask;
+            while (isUsed[slot]) {
+                if (fingerprints[slot] == fingerprint) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if ((size + 1) * 4 > fingerprints.length * 3) {
+                rebuild(nowNanos);
+                return findOrInsert(fingerprint, hash, nowNanos);
+            }
+            size++;
+            isUsed[slot] = true;
+            fingerprints[slot] = fingerprint;
+            arrivalTimes[slot] = nowNanos;
+            throttleStartTimes[slot] = NOT_THROTTLED;
+            lastEventTimes[slot] = nowNanos;
+            counts[slot] = 0;
+            return slot;
+        }
+
+        /**
+         * Rebuilds the table without the buckets that are full and not throttled, since they behave exactly like new
+         * buckets. The table doubles if more than half of it is still in use.
+         */
+        private void rebuild(long nowNanos) {
+            releaseSilentEmitters(nowNanos);
+            final long[] oldFingerprints = fingerprints;
+            final boolean[] oldIsUsed = isUsed;
+            final long[] oldArrivalTimes = arrivalTimes;
+            final long[] oldThrottleStartTimes = throttleStartTimes;
+            final long[] oldLastEventTimes = lastEventTimes;
+            final long[] oldCounts = counts;
+            final String[] oldNames = names;
+
+            int liveBuckets = 0;
+            for (int index = 0; index < oldFingerprints.length; index++) {
+                if (isLive(oldIsUsed[index], oldArrivalTimes[index], oldThrottleStartTimes[index], nowNanos)) {
+                    liveBuckets++;
+                }
+            }
+            allocate(liveBuckets * 2 > oldFingerprints.length ? oldFingerprints.length * 2 : oldFingerprints.length);
+
+            final int mask = fingerprints.length - 1;
+            size = 0;
+            for (int index = 0; index < oldFingerprints.length; index++) {
+                if (isLive(oldIsUsed[index], oldArrivalTimes[index], oldThrottleStartTimes[index], nowNanos)) {
+                    int slot = (int) FingerprintHasher.mix(oldFingerprints[index]) & mask;
+                    while (isUsed[slot]) {
+                        slot = (slot + 1) & mask;
+                    }
+                    size++;
+                    isUsed[slot] = true;
+                    fingerprints[slot] = oldFingerprints[index];
+                    arrivalTimes[slot] = oldArrivalTimes[index];
+                    throttleStartTimes[slot] = oldThrottleStartTimes[index];
+                    lastEventTimes[slot] = oldLastEventTimes[index];
+                    counts[slot] = oldCounts[index];
+                    names[slot] = oldNames[index];
+                }
+            }
+        }
+
+        private boolean isLive(boolean isUsed, long arrivalTime, long throttleStartTime, long nowNanos) {
+            return isUsed && (arrivalTime > nowNanos || throttleStartTime != NOT_THROTTLED);
+        }
+
+        private void allocate(int capacity) {
+            fingerprints = new long[capacity];
+            isUsed = new boolean[capacity];
+            arrivalTimes = new long[capacity];
+            throttleStartTimes = new long[capacity];
+            lastEventTimes = new long[capacity];
+            counts = new long[capacity];
+            names = new String[capacity];
+        }
+
+    }
+
+}
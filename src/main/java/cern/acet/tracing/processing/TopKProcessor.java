@@ -0,0 +1,205 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.sketch.TopKSketch;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+import cern.acet.tracing.processing.window.WindowAccumulator;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * <p>
+ * A processor that finds the most frequent items per key and window, for instance the top 10 error messages per host
+ * and minute. The items are given by a {@link FingerprintStrategy}: the 64-bit fingerprint identifies an item, and the
+ * {@link String} fingerprint labels it. Items are counted in a {@link TopKSketch} per window, so the memory per key is
+ * fixed by the capacity of the sketch regardless of the number of items.
+ * </p>
+ * <p>
+ * When a window closes, the items are put in the {@value #TOP_FIELD} field of a summary message, as a list of maps with
+ * the label ({@value #ITEM_FIELD}), the estimated count ({@value #ITEM_COUNT_FIELD}) and the maximum overestimate of
+ * the count ({@value #ITEM_ERROR_FIELD}), most frequent first. See {@link WindowSummaryProcessor} for the other fields
+ * of the summary.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to process.
+ * @author jepeders
+ */
+public class TopKProcessor<T extends Message<T>> extends WindowSummaryProcessor<T, TopKProcessor<T>.TopItems> {
+
+    /**
+     * The field of the summary messages that contains the most frequent items.
+     */
+    public static final String TOP_FIELD = "top";
+
+    /**
+     * The key of the label in the maps of the {@value #TOP_FIELD} field.
+     */
+    public static final String ITEM_FIELD = "item";
+
+    /**
+     * The key of the estimated count in the maps of the {@value #TOP_FIELD} field.
+     */
+    public static final String ITEM_COUNT_FIELD = "count";
+
+    /**
+     * The key of the maximum overestimate in the maps of the {@value #TOP_FIELD} field.
+     */
+    public static final String ITEM_ERROR_FIELD = "error";
+
+    private final FingerprintStrategy<T> itemStrategy;
+    private final int topCount;
+    private final int capacity;
+
+    private TopKProcessor(Builder<T> builder) {
+        super(builder);
+        this.itemStrategy = builder.itemStrategy;
+        this.topCount = builder.topCount;
+        this.capacity = builder.capacity > 0 ? builder.capacity : builder.topCount * Builder.DEFAULT_CAPACITY_FACTOR;
+    }
+
+    /**
+     * @return A builder that can help build a {@link TopKProcessor}.
+     * @param <T> The type of {@link Message} to process in the {@link TopKProcessor}.
+     */
+    public static <T extends Message<T>> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @Override
+    protected TopItems createAccumulator(T firstMessage) {
+        return new TopItems();
+    }
+
+    @Override
+    protected void summarize(TopItems items, T summary) {
+        summary.put(TOP_FIELD, items.getTop());
+    }
+
+    /**
+     * The most frequent items of one window.
+     */
+    protected final class TopItems implements WindowAccumulator<T> {
+
+        private final TopKSketch sketch = new TopKSketch(capacity);
+
+        @Override
+        public void accumulate(T message) {
+            final long item = itemStrategy.getLongFingerprint(message);
+            synchronized (this) {
+                sketch.add(item, () -> itemStrategy.getFingerprint(message));
+            }
+        }
+
+        private synchronized List<Map<String, Object>> getTop() {
+            //@formatter:off
+            return sketch.getTop(topCount).stream()
+                    .map(item -> ImmutableMap.<String, Object> of(
+                            ITEM_FIELD, item.getLabel(),
+                            ITEM_COUNT_FIELD, item.getCount(),
+                            ITEM_ERROR_FIELD, item.getError()))
+                    .collect(Collectors.toList());
+            //@formatter:on
+        }
+
+    }
+
+    /**
+     * A builder that can help build a {@link TopKProcessor}.
+     *
+     * @author jepeders
+     * @param <T> The type of {@link Message}s to process in the built {@link TopKProcessor}.
+     */
+    public static class Builder<T extends Message<T>> extends WindowSummaryProcessor.Builder<T, Builder<T>> {
+
+        private static final int DEFAULT_TOP_COUNT = 10;
+        private static final int DEFAULT_CAPACITY_FACTOR = 4;
+
+        private FingerprintStrategy<T> itemStrategy;
+        private int topCount = DEFAULT_TOP_COUNT;
+        private int capacity = 0;
+
+        /**
+         * Builds an instance of a {@link TopKProcessor} using the current values of the builder.
+         *
+         * @return A {@link TopKProcessor}.
+         * @throws IllegalArgumentException If no key or items are set, or if the capacity is below the number of items
+         *             to report.
+         */
+        public TopKProcessor<T> build() {
+            validate();
+            if (itemStrategy == null) {
+                throw new IllegalArgumentException("The items to count must be set via fields or a strategy");
+            }
+            if (capacity > 0 && capacity < topCount) {
+                throw new IllegalArgumentException("The capacity cannot be less than the number of items to report");
+            }
+            return new TopKProcessor<>(this);
+        }
+
+        /**
+         * @param capacity The number of items each window tracks. More items give more accurate counts. Defaults to
+         *            four times the number of items to report.
+         * @return The same builder with the capacity set.
+         * @throws IllegalArgumentException If the capacity is not positive.
+         */
+        public Builder<T> setCapacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("The capacity must be positive");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param fields The names of the fields whose values are the items to count, for instance the message body.
+         * @return The same builder with the items set.
+         */
+        public Builder<T> setItemFields(String... fields) {
+            return setItemStrategy(FingerprintStrategy.ofFields(fields));
+        }
+
+        /**
+         * @param strategy A strategy whose fingerprints identify and label the items to count.
+         * @return The same builder with the items set.
+         */
+        public Builder<T> setItemStrategy(FingerprintStrategy<T> strategy) {
+            this.itemStrategy = strategy;
+            return this;
+        }
+
+        /**
+         * @param topCount The number of most frequent items to report per window. Defaults to 10.
+         * @return The same builder with the number of items set.
+         * @throws IllegalArgumentException If the number is not positive.
+         */
+        public Builder<T> setTopCount(int topCount) {
+            if (topCount <= 0) {
+                throw new IllegalArgumentException("The number of items to report must be positive");
+            }
+            this.topCount = topCount;
+            return this;
+        }
+
+        @Override
+        protected Builder<T> self() {
+            return this;
+        }
+
+    }
+
+}
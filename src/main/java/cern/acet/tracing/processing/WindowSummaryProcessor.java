@@ -0,0 +1,282 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.window.EventTimeStrategy;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+import cern.acet.tracing.processing.window.MessageWindow;
+import cern.acet.tracing.processing.window.WindowAccumulator;
+import cern.acet.tracing.processing.window.WindowManager;
+import cern.acet.tracing.processing.window.WindowScheduler;
+
+/**
+ * <p>
+ * A processor that summarises the messages of every key in tumbling windows, and emits one summary message per key
+ * when its window closes. The windows are managed by a {@link WindowManager}, and the state of each window is kept in
+ * a {@link WindowAccumulator} created by the subclass.
+ * </p>
+ * <h2>Summaries</h2>
+ * <p>
+ * A summary message is made from the first message of the window: all fields are removed except the fields of the key
+ * (if the key is given by {@link Builder#setKeyFields(String...)}), or the key is put in the {@value #KEY_FIELD} field
+ * (if the key is given by a {@link FingerprintStrategy}). The time-stamp is set to the start of the window and the
+ * number of messages is put in the {@value #COUNT_FIELD} field, before the subclass adds its own fields.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to process.
+ * @param <A> The type of {@link WindowAccumulator} that keeps the state of a window.
+ * @author jepeders
+ */
+public abstract class WindowSummaryProcessor<T extends Message<T>, A extends WindowAccumulator<T>> implements
+        Processor<T>, AutoCloseable {
+
+    /**
+     * The field of the summary messages that contains the number of messages in the window.
+     */
+    public static final String COUNT_FIELD = "count";
+
+    /**
+     * The field of the summary messages that contains the key, if the key is given by a {@link FingerprintStrategy}.
+     */
+    public static final String KEY_FIELD = "key";
+
+    private final WindowManager<T> windowManager;
+    private final FingerprintStrategy<T> keyStrategy;
+    private final Set<String> keyFields;
+    private final boolean isDroppingMessages;
+    private final ZoneId zone;
+
+    /**
+     * Creates the processor from the settings of a builder.
+     *
+     * @param builder The builder with the settings of the windows and summaries.
+     */
+    protected WindowSummaryProcessor(Builder<T, ?> builder) {
+        this.keyStrategy = builder.keyStrategy;
+        this.keyFields = builder.keyFields;
+        this.isDroppingMessages = builder.isDroppingMessages;
+        this.zone = builder.zone;
+
+        final WindowManager.Builder<T> windowBuilder = WindowManager.<T> builder()
+                .setWindowDuration(builder.windowDuration).setFingerprintStrategy(builder.keyStrategy)
+                .setAccumulatorFactory(this::createAccumulator);
+        if (builder.scheduler != null) {
+            windowBuilder.setWindowScheduler(builder.scheduler, getClass().getSimpleName());
+        }
+        if (builder.eventTimeStrategy != null) {
+            windowBuilder.setEventTime(builder.eventTimeStrategy, builder.allowedLateness);
+        }
+        this.windowManager = windowBuilder.build();
+    }
+
+    @Override
+    public Stream<T> apply(Stream<T> stream) {
+        Stream<T> messages = stream.peek(windowManager::increment);
+        if (isDroppingMessages) {
+            messages = messages.filter(message -> false);
+        }
+        final Stream<T> summaries = windowManager.getClosedWindowsStream().map(this::toSummary);
+        return Stream.concat(messages, summaries);
+    }
+
+    /**
+     * Stops timing the windows of this processor.
+     */
+    @Override
+    public void close() {
+        windowManager.close();
+    }
+
+    /**
+     * @return The {@link WindowManager} of this processor, for instance to inspect the number of open windows.
+     */
+    public WindowManager<T> getWindowManager() {
+        return windowManager;
+    }
+
+    /**
+     * Creates the state of a new window. The accumulator is fed every message of the window (including the first)
+     * from many threads at a time, so it must be thread-safe.
+     *
+     * @param firstMessage The message that opened the window.
+     * @return A new {@link WindowAccumulator}.
+     */
+    protected abstract A createAccumulator(T firstMessage);
+
+    /**
+     * Adds the results of a window to its summary message.
+     *
+     * @param accumulator The state of the closed window.
+     * @param summary The summary message to add the results to.
+     */
+    protected abstract void summarize(A accumulator, T summary);
+
+    /**
+     * Turns the message that opened the window into a summary of the window. The message belongs to the closed window,
+     * so it is safe to change.
+     *
+     * @param window The closed window.
+     * @return The summary message.
+     */
+    @SuppressWarnings("unchecked")
+    private T toSummary(MessageWindow<T> window) {
+        final T summary = window.getMessage();
+        final String key = keyFields.isEmpty() ? keyStrategy.getFingerprint(summary) : null;
+        final Set<String> otherFields = new HashSet<>(summary.toMap().keySet());
+        otherFields.removeAll(keyFields);
+        summary.removeAll(otherFields);
+        if (key != null) {
+            summary.put(KEY_FIELD, key);
+        }
+        summary.putTimestamp(ZonedDateTime.ofInstant(window.getStartTime(), zone));
+        summary.put(COUNT_FIELD, window.getCount());
+        /* Every window of this processor has an accumulator created by createAccumulator */
+        window.getAccumulator().ifPresent(accumulator -> summarize((A) accumulator, summary));
+        return summary;
+    }
+
+    /**
+     * A builder of the settings shared by all {@link WindowSummaryProcessor}s.
+     *
+     * @author jepeders
+     * @param <T> The type of {@link Message}s to process in the built processor.
+     * @param <B> The type of the builder itself, returned by the setters.
+     */
+    public abstract static class Builder<T extends Message<T>, B extends Builder<T, B>> {
+
+        private static final Duration DEFAULT_WINDOW_DURATION = Duration.ofMinutes(1);
+
+        private FingerprintStrategy<T> keyStrategy;
+        private Set<String> keyFields = Collections.emptySet();
+        private Duration windowDuration = DEFAULT_WINDOW_DURATION;
+        private WindowScheduler scheduler;
+        private EventTimeStrategy<T> eventTimeStrategy;
+        private Duration allowedLateness = Duration.ZERO;
+        private boolean isDroppingMessages = false;
+        private ZoneId zone = ZoneId.systemDefault();
+
+        /**
+         * @return This builder, as its own type.
+         */
+        protected abstract B self();
+
+        /**
+         * Checks the shared settings before building.
+         *
+         * @throws IllegalArgumentException If no key is set.
+         */
+        protected void validate() {
+            if (keyStrategy == null) {
+                throw new IllegalArgumentException("A key must be set via fields or a fingerprint strategy");
+            }
+        }
+
+        /**
+         * @param isDroppingMessages True if only the summaries should be sent on, false if the messages should be sent
+         *            on as well. Defaults to false.
+         * @return The same builder with the option set.
+         */
+        public B setDropMessages(boolean isDroppingMessages) {
+            this.isDroppingMessages = isDroppingMessages;
+            return self();
+        }
+
+        /**
+         * Summarises the messages in windows of the time they were produced instead of the time they are processed.
+         * See {@link WindowManager} for how event-time windows are closed.
+         *
+         * @param eventTimeStrategy A strategy to take the event time from the messages.
+         * @param allowedLateness How far messages can arrive out of order before they are considered late and left out
+         *            of the summaries.
+         * @return The same builder with event time set.
+         * @throws IllegalArgumentException If the allowed lateness is negative.
+         */
+        public B setEventTime(EventTimeStrategy<T> eventTimeStrategy, Duration allowedLateness) {
+            if (allowedLateness.isNegative()) {
+                throw new IllegalArgumentException("The allowed lateness cannot be negative");
+            }
+            this.eventTimeStrategy = eventTimeStrategy;
+            this.allowedLateness = allowedLateness;
+            return self();
+        }
+
+        /**
+         * Sets the key of the windows to the values of one or more fields, which are kept in the summary messages.
+         *
+         * @param fields The names of the fields, for instance the host and the level.
+         * @return The same builder with the key set.
+         * @throws IllegalArgumentException If no fields are given.
+         */
+        public B setKeyFields(String... fields) {
+            this.keyStrategy = FingerprintStrategy.ofFields(fields);
+            this.keyFields = new HashSet<>(Arrays.asList(fields));
+            return self();
+        }
+
+        /**
+         * Sets the key of the windows to the fingerprint of a {@link FingerprintStrategy}, which is put in the
+         * {@value WindowSummaryProcessor#KEY_FIELD} field of the summary messages.
+         *
+         * @param strategy The strategy to take the key from.
+         * @return The same builder with the key set.
+         */
+        public B setKeyStrategy(FingerprintStrategy<T> strategy) {
+            this.keyStrategy = strategy;
+            this.keyFields = Collections.emptySet();
+            return self();
+        }
+
+        /**
+         * @param windowDuration The duration of the windows. Defaults to one minute.
+         * @return The same builder with the window duration set.
+         * @throws IllegalArgumentException If the duration is zero or less.
+         */
+        public B setWindowDuration(Duration windowDuration) {
+            if (windowDuration.isNegative() || windowDuration.isZero()) {
+                throw new IllegalArgumentException("Window duration cannot be less or equal to zero");
+            }
+            this.windowDuration = windowDuration;
+            return self();
+        }
+
+        /**
+         * @param scheduler A {@link WindowScheduler} to time the windows with, typically shared with the other
+         *            processors of the Logalike instance. If not set, the processor creates its own scheduler.
+         * @return The same builder with the scheduler set.
+         */
+        public B setWindowScheduler(WindowScheduler scheduler) {
+            this.scheduler = scheduler;
+            return self();
+        }
+
+        /**
+         * @param zone The time-zone of the time-stamps of the summary messages. Defaults to the system time-zone.
+         * @return The same builder with the zone set.
+         */
+        public B setZone(ZoneId zone) {
+            this.zone = zone;
+            return self();
+        }
+
+    }
+
+}
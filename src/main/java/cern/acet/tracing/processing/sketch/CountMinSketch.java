@@ -0,0 +1,110 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cern.acet.tracing.processing.window.FingerprintHasher;
+
+/**
+ * A count-min sketch that estimates how many times a 64-bit key has been added, in a fixed amount of memory. The
+ * sketch has <code>depth</code> rows of <code>width</code> counters. Each key is counted in one counter per row, and
+ * the estimate is the smallest of those counters. Estimates are never below the true count, and with a probability of
+ * 1 - (1/2)<sup>depth</sup> they are at most <code>2 * total / width</code> above it, where <code>total</code> is the
+ * number of additions since the sketch was cleared.
+ * <p>
+ * The counters are updated atomically, so the sketch can be shared between threads without locking.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class CountMinSketch {
+
+    private final AtomicLongArray counters;
+    private final int width;
+    private final int depth;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param width The number of counters per row. Must be a positive power of two.
+     * @param depth The number of rows. Must be positive.
+     * @throws IllegalArgumentException If the width is not a positive power of two or the depth is not positive.
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || Integer.bitCount(width) != 1) {
+            throw new IllegalArgumentException("The width of the sketch must be a positive power of two");
+        }
+        if (depth <= 0) {
+            throw new IllegalArgumentException("The depth of the sketch must be positive");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(width * depth);
+    }
+
+    /**
+     * Adds one occurrence of the key.
+     *
+     * @param key The key to count, typically a 64-bit fingerprint.
+     * @return The estimated count of the key, including this occurrence.
+     */
+    public long add(long key) {
+        final long hash = FingerprintHasher.mix(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.incrementAndGet(indexOf(hash, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Estimates how many times the key has been added since the sketch was last cleared.
+     *
+     * @param key The key to look up.
+     * @return An estimate that is at least the true count.
+     */
+    public long estimate(long key) {
+        final long hash = FingerprintHasher.mix(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(indexOf(hash, row)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Resets all counters to zero. Additions that happen while the sketch is being cleared may or may not be kept.
+     */
+    public void clear() {
+        for (int index = 0; index < counters.length(); index++) {
+            counters.lazySet(index, 0);
+        }
+    }
+
+    /**
+     * @return The number of bytes used by the counters of the sketch.
+     */
+    public long getSizeInBytes() {
+        return (long) counters.length() * Long.BYTES;
+    }
+
+    /**
+     * Finds the counter of the key in the given row, by double hashing the two halves of the mixed key.
+     */
+    private int indexOf(long hash, int row) {
+        final int hash1 = (int) hash;
+        final int hash2 = (int) (hash >>> 32) | 1;
+        return row * width + ((hash1 + row * hash2) & (width - 1));
+    }
+
+}
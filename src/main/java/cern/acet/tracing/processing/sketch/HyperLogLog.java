@@ -0,0 +1,160 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import cern.acet.tracing.processing.window.FingerprintHasher;
+
+/**
+ * A HyperLogLog sketch that estimates the number of distinct 64-bit keys added to it, in a fixed amount of memory.
+ * The sketch has 2<sup>precision</sup> registers of one byte each. The first bits of a (mixed) key select a register,
+ * and the register remembers the longest run of leading zeros seen in the remaining bits. The standard error of the
+ * estimate is about <code>1.04 / sqrt(2<sup>precision</sup>)</code>, so the default precision of 12 uses 4 KiB and is
+ * accurate to about 1.6%.
+ * <p>
+ * Sketches with the same precision can be merged, which gives the distinct count of the union of their keys. The
+ * sketch is not thread-safe.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class HyperLogLog {
+
+    /**
+     * The precision used when no other precision is given.
+     */
+    public static final int DEFAULT_PRECISION = 12;
+
+    /**
+     * The smallest precision allowed.
+     */
+    public static final int MIN_PRECISION = 4;
+
+    /**
+     * The largest precision allowed.
+     */
+    public static final int MAX_PRECISION = 18;
+
+    private final byte[] registers;
+    private final int precision;
+
+    /**
+     * Creates an empty sketch with the {@link #DEFAULT_PRECISION}.
+     */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param precision The number of bits used to select a register, between {@link #MIN_PRECISION} and
+     *            {@link #MAX_PRECISION}.
+     * @throws IllegalArgumentException If the precision is out of range.
+     */
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(String.format("The precision must be between %d and %d",
+                    MIN_PRECISION, MAX_PRECISION));
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Adds a key to the sketch. Adding the same key again does not change the estimate.
+     *
+     * @param key The key to add, typically a 64-bit fingerprint.
+     */
+    public void add(long key) {
+        final long hash = FingerprintHasher.mix(key);
+        final int index = (int) (hash >>> (Long.SIZE - precision));
+        final long remaining = hash << precision;
+        final int maxRank = Long.SIZE - precision + 1;
+        final int rank = remaining == 0 ? maxRank : Math.min(Long.numberOfLeadingZeros(remaining) + 1, maxRank);
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * @return An estimate of the number of distinct keys added to the sketch.
+     */
+    public long estimate() {
+        final int registerCount = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double estimate = getAlpha(registerCount) * registerCount * registerCount / sum;
+        if (estimate <= 2.5 * registerCount && zeros > 0) {
+            /* Linear counting is more accurate for small cardinalities */
+            return Math.round(registerCount * Math.log((double) registerCount / zeros));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Merges the keys of another sketch into this sketch.
+     *
+     * @param other The sketch to merge. It is not changed.
+     * @throws IllegalArgumentException If the other sketch has a different precision.
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge sketches with different precisions");
+        }
+        for (int index = 0; index < registers.length; index++) {
+            if (other.registers[index] > registers[index]) {
+                registers[index] = other.registers[index];
+            }
+        }
+    }
+
+    /**
+     * @return The precision of the sketch.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @return The number of bytes used by the registers of the sketch.
+     */
+    public int getSizeInBytes() {
+        return registers.length;
+    }
+
+    /**
+     * @return The relative standard error of the estimates of this sketch.
+     */
+    public double getStandardError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    private static double getAlpha(int registerCount) {
+        switch (registerCount) {
+        case 16:
+            return 0.673;
+        case 32:
+            return 0.697;
+        case 64:
+            return 0.709;
+        default:
+            return 0.7213 / (1 + 1.079 / registerCount);
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A mergeable sketch that estimates quantiles of a stream of numbers with a bounded relative error, in the style of
+ * DDSketch. Values are counted in logarithmic buckets, where bucket <code>i</code> holds the values in
+ * (&gamma;<sup>i-1</sup>, &gamma;<sup>i</sup>] and &gamma; = (1 + &alpha;) / (1 - &alpha;) for a relative accuracy
+ * &alpha;. A quantile is then estimated within a factor of &alpha; of the true value. Positive and negative values are
+ * kept in separate stores of primitive counters, and zero (or values too close to it) in a single counter.
+ * </p>
+ * <p>
+ * Two sketches with the same accuracy can be merged by adding their counters, so sketches of windows or threads can be
+ * combined without losing accuracy. The number of buckets per store is bounded: when a store would grow beyond it, the
+ * buckets of the smallest magnitudes are collapsed into one, which only affects the accuracy of the lowest quantiles
+ * (or the highest, for negative values).
+ * </p>
+ * <p>
+ * The sketch is <b>not</b> thread-safe.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class QuantileSketch {
+
+    /**
+     * The default relative accuracy of 1 %.
+     */
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    /**
+     * The default maximum number of buckets per store, which covers more than 40 orders of magnitude at the default
+     * accuracy.
+     */
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+
+    private static final double MIN_INDEXABLE_VALUE = 1e-300;
+
+    private final double relativeAccuracy;
+    private final double logGamma;
+    private final int maxBuckets;
+    private final Store positives;
+    private final Store negatives;
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates an empty sketch with the {@link #DEFAULT_RELATIVE_ACCURACY} and {@link #DEFAULT_MAX_BUCKETS}.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param relativeAccuracy The relative accuracy of the quantiles, between 0 and 1 (exclusive).
+     * @param maxBuckets The maximum number of buckets for positive and for negative values. Must be positive.
+     * @throws IllegalArgumentException If one of the arguments is out of range.
+     */
+    public QuantileSketch(double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1");
+        }
+        if (maxBuckets <= 0) {
+            throw new IllegalArgumentException("The maximum number of buckets must be positive");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+        this.maxBuckets = maxBuckets;
+        this.positives = new Store();
+        this.negatives = new Store();
+    }
+
+    /**
+     * Adds a value to the sketch. NaN values are ignored.
+     *
+     * @param value The value to add.
+     */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (value > MIN_INDEXABLE_VALUE) {
+            positives.add(indexOf(value), 1);
+        } else if (value < -MIN_INDEXABLE_VALUE) {
+            negatives.add(indexOf(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values of the other sketch to this sketch.
+     *
+     * @param other The sketch to merge into this one. It is not changed.
+     * @throws IllegalArgumentException If the sketches do not have the same relative accuracy.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Only sketches with the same relative accuracy can be merged");
+        }
+        positives.merge(other.positives);
+        negatives.merge(other.negatives);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return The number of values added to the sketch.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The largest value added to the sketch, or NaN if the sketch is empty.
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @return The smallest value added to the sketch, or NaN if the sketch is empty.
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * Estimates the value at the given quantile.
+     *
+     * @param quantile The quantile, between 0 and 1 (inclusive); for instance 0.99 for the 99th percentile.
+     * @return The estimated value, within the relative accuracy of the true value, or NaN if the sketch is empty.
+     * @throws IllegalArgumentException If the quantile is not between 0 and 1.
+     */
+    public double getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("The quantile must be between 0 and 1");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        final long rank = (long) (quantile * (count - 1));
+        final double value;
+        if (rank < negatives.total) {
+            /* Negative values are ordered from the largest magnitude */
+            value = -valueOf(negatives.indexAtRank(negatives.total - 1 - rank));
+        } else if (rank < negatives.total + zeroCount) {
+            value = 0;
+        } else {
+            value = valueOf(positives.indexAtRank(rank - negatives.total - zeroCount));
+        }
+        /* The bucket estimate can fall outside of the exact bounds */
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * @return The relative accuracy of the sketch.
+     */
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    private int indexOf(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    /**
+     * @return The value in the middle of the bucket, which is within the relative accuracy of all values in it.
+     */
+    private double valueOf(int index) {
+        return 2 * Math.exp(index * logGamma) / (1 + Math.exp(logGamma));
+    }
+
+    /**
+     * Counters for a contiguous range of bucket indices, in a primitive array that grows as needed.
+     */
+    private final class Store {
+
+        private long[] counts = new long[0];
+        private int offset;
+        private long total;
+
+        private void add(int index, long increment) {
+            final int position = ensureIndex(index);
+            counts[position] += increment;
+            total += increment;
+        }
+
+        private void merge(Store other) {
+            for (int position = 0; position < other.counts.length; position++) {
+                if (other.counts[position] != 0) {
+                    add(other.offset + position, other.counts[position]);
+                }
+            }
+        }
+
+        private int indexAtRank(long rank) {
+            long seen = 0;
+            for (int position = 0; position < counts.length; position++) {
+                seen += counts[position];
+                if (seen > rank) {
+                    return offset + position;
+                }
+            }
+            return offset + counts.length - 1;
+        }
+
+        /**
+         * Grows the array to hold the index, collapsing the lowest buckets if the store would exceed the maximum.
+         *
+         * @return The position of the index in the array.
+         */
+        private int ensureIndex(int index) {
+            if (counts.length == 0) {
+                counts = new long[Math.min(64, maxBuckets)];
+                offset = index - counts.length / 2;
+                if (counts.length == 1) {
+                    offset = index;
+                }
+            }
+            if (index < offset) {
+                final int highest = offset + counts.length - 1;
+                if (highest - index + 1 > maxBuckets) {
+                    /* Collapse into the lowest bucket we keep */
+                    return 0;
+                }
+                resize(index, highest);
+            } else if (index >= offset + counts.length) {
+                final int lowest = Math.max(offset, index - maxBuckets + 1);
+                resize(lowest, index);
+            }
+            return index - offset;
+        }
+
+        private void resize(int lowest, int highest) {
+            final int length = Math.min(maxBuckets, Math.max(highest - lowest + 1, counts.length * 2));
+            final int newOffset = Math.max(lowest - (length - (highest - lowest + 1)) / 2, highest - length + 1);
+            final long[] newCounts = new long[length];
+            for (int position = 0; position < counts.length; position++) {
+                final int index = offset + position;
+                final int newPosition = Math.max(0, Math.min(length - 1, index - newOffset));
+                newCounts[newPosition] += counts[position];
+            }
+            counts = newCounts;
+            offset = newOffset;
+        }
+
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QuantileSketch[count=%d, min=%s, max=%s, median=%s]", count, getMin(), getMax(),
+                getQuantile(0.5));
+    }
+
+}
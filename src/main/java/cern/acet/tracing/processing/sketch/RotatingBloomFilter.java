@@ -0,0 +1,240 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import cern.acet.tracing.processing.window.FingerprintHasher;
+
+/**
+ * <p>
+ * A Bloom filter that forgets keys after a horizon, in a fixed amount of memory. The filter is made of a number of
+ * generations, each a Bloom filter of its own. New keys are added to the current generation, and keys are looked up in
+ * all generations. Every <code>horizon / (generations - 1)</code> the oldest generation is cleared and becomes the
+ * current one, so a key is remembered for at least the horizon and at most
+ * <code>horizon * generations / (generations - 1)</code>.
+ * </p>
+ * <h2>Sizing</h2>
+ * <p>
+ * The filter is sized from the number of keys expected within a horizon and the false-positive rate wanted when that
+ * many keys have been added. Each generation gets an equal share of the false-positive rate, and its number of bits is
+ * rounded up to a power of two. The false-positive rate expected from the keys actually added is available from
+ * {@link #getFalsePositiveRate()}.
+ * </p>
+ * <h2>Concurrency</h2>
+ * <p>
+ * The bits are set with atomic operations and a generation is rotated by the first thread that notices the time has
+ * come, so the filter never blocks. Two threads adding the same key at the same instant may both see it as new, and a
+ * key may be missed while the generation it was added to is being cleared at the end of its life.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class RotatingBloomFilter {
+
+    private static final long SECOND_SEED = 0x2545F4914F6CDD1DL;
+
+    private final AtomicLongArray[] generations;
+    private final LongAdder[] insertions;
+    private final long bitMask;
+    private final int hashCount;
+    private final long rotationMillis;
+    private final AtomicLong currentEpoch;
+    private final AtomicBoolean isRotating = new AtomicBoolean(false);
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param horizon The minimum time a key is remembered.
+     * @param expectedKeys The number of keys expected to be added within a horizon.
+     * @param falsePositiveRate The rate of new keys wrongly reported as seen, when the expected number of keys has been
+     *            added. Must be between 0 and 1.
+     * @param generationCount The number of generations. More generations make the horizon more precise, at the cost
+     *            of more memory per key. Must be at least 2.
+     * @param nowMillis The current time in milliseconds.
+     * @throws IllegalArgumentException If any of the parameters are out of range.
+     */
+    public RotatingBloomFilter(Duration horizon, long expectedKeys, double falsePositiveRate, int generationCount,
+            long nowMillis) {
+        if (horizon.isNegative() || horizon.isZero()) {
+            throw new IllegalArgumentException("The horizon must be positive");
+        }
+        if (expectedKeys <= 0) {
+            throw new IllegalArgumentException("The number of expected keys must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The false-positive rate must be between 0 and 1");
+        }
+        if (generationCount < 2) {
+            throw new IllegalArgumentException("At least two generations are needed");
+        }
+        this.rotationMillis = Math.max(1, horizon.toMillis() / (generationCount - 1));
+        this.currentEpoch = new AtomicLong(nowMillis / rotationMillis);
+
+        final double keysPerGeneration = Math.ceil((double) expectedKeys / (generationCount - 1));
+        final double generationRate = falsePositiveRate / generationCount;
+        final double optimalBits = -keysPerGeneration * Math.log(generationRate) / (Math.log(2) * Math.log(2));
+        final long bits = Math.max(Long.SIZE, Long.highestOneBit((long) Math.ceil(optimalBits) - 1) << 1);
+        if (bits / Long.SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The filter would be too large for the expected number of keys");
+        }
+        this.bitMask = bits - 1;
+        this.hashCount = (int) Math.max(1, Math.round(bits / keysPerGeneration * Math.log(2)));
+
+        this.generations = new AtomicLongArray[generationCount];
+        this.insertions = new LongAdder[generationCount];
+        for (int generation = 0; generation < generationCount; generation++) {
+            generations[generation] = new AtomicLongArray((int) (bits / Long.SIZE));
+            insertions[generation] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds the key to the filter, unless it has been seen within the horizon.
+     *
+     * @param key The key to add, typically a 64-bit fingerprint.
+     * @param nowMillis The current time in milliseconds.
+     * @return True if the key was new, false if it (probably) has been added before.
+     */
+    public boolean add(long key, long nowMillis) {
+        rotateIfNeeded(nowMillis);
+        final long firstHash = FingerprintHasher.mix(key);
+        final long secondHash = FingerprintHasher.mix(key ^ SECOND_SEED) | 1;
+        final int current = indexOf(currentEpoch.get());
+        for (int generation = 0; generation < generations.length; generation++) {
+            if (generation != current && contains(generations[generation], firstHash, secondHash)) {
+                return false;
+            }
+        }
+        final AtomicLongArray bits = generations[current];
+        boolean isNew = false;
+        for (int round = 0; round < hashCount; round++) {
+            isNew |= setBit(bits, (firstHash + round * secondHash) & bitMask);
+        }
+        if (isNew) {
+            insertions[current].increment();
+        }
+        return isNew;
+    }
+
+    /**
+     * Looks up a key without adding it.
+     *
+     * @param key The key to look up.
+     * @return True if the key (probably) has been added within the horizon, false if it has not.
+     */
+    public boolean contains(long key) {
+        final long firstHash = FingerprintHasher.mix(key);
+        final long secondHash = FingerprintHasher.mix(key ^ SECOND_SEED) | 1;
+        for (AtomicLongArray generation : generations) {
+            if (contains(generation, firstHash, secondHash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The false-positive rate expected from the number of keys in the generations at the moment.
+     */
+    public double getFalsePositiveRate() {
+        final double bits = bitMask + 1;
+        double trueNegativeRate = 1;
+        for (LongAdder insertion : insertions) {
+            final double generationRate = Math.pow(1 - Math.exp(-hashCount * insertion.sum() / bits), hashCount);
+            trueNegativeRate *= 1 - generationRate;
+        }
+        return 1 - trueNegativeRate;
+    }
+
+    /**
+     * @return The number of hash functions used per key.
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * @return The number of keys currently remembered by the filter.
+     */
+    public long getKeyCount() {
+        long keys = 0;
+        for (LongAdder insertion : insertions) {
+            keys += insertion.sum();
+        }
+        return keys;
+    }
+
+    /**
+     * @return The number of bytes used by the bits of all generations.
+     */
+    public long getSizeInBytes() {
+        return (bitMask + 1) / Byte.SIZE * generations.length;
+    }
+
+    private boolean contains(AtomicLongArray bits, long firstHash, long secondHash) {
+        for (int round = 0; round < hashCount; round++) {
+            final long bit = (firstHash + round * secondHash) & bitMask;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(long epoch) {
+        return (int) (epoch % generations.length);
+    }
+
+    private void rotateIfNeeded(long nowMillis) {
+        final long epoch = nowMillis / rotationMillis;
+        final long current = currentEpoch.get();
+        if (epoch <= current || !isRotating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            /* Clear the generations before publishing the new epoch, so no keys are added to them while clearing */
+            for (long next = Math.max(current + 1, epoch - generations.length + 1); next <= epoch; next++) {
+                final int generation = indexOf(next);
+                final AtomicLongArray bits = generations[generation];
+                for (int index = 0; index < bits.length(); index++) {
+                    bits.lazySet(index, 0);
+                }
+                insertions[generation].reset();
+            }
+            currentEpoch.set(epoch);
+        } finally {
+            isRotating.set(false);
+        }
+    }
+
+    /**
+     * @return True if the bit was not set before.
+     */
+    private static boolean setBit(AtomicLongArray bits, long bit) {
+        final int index = (int) (bit >>> 6);
+        final long mask = 1L << bit;
+        long word = bits.get(index);
+        while ((word & mask) == 0) {
+            if (bits.compareAndSet(index, word, word | mask)) {
+                return true;
+            }
+            word = bits.get(index);
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,216 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * A sketch that finds the most frequent keys in a stream with the Space-Saving algorithm, in a fixed amount of memory.
+ * The sketch tracks at most <code>capacity</code> keys. When an untracked key arrives and the sketch is full, it takes
+ * over the counter of the least frequent key, and the old count is remembered as the possible overestimate (error) of
+ * the new key. Every key that occurs more than <code>total / capacity</code> times is guaranteed to be tracked, so a
+ * capacity of a few times the number of keys to report gives good results.
+ * <p>
+ * The counters are kept in a binary min-heap, so both hits and replacements take logarithmic time. The sketch is not
+ * thread-safe.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class TopKSketch {
+
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final String[] labels;
+    private final Map<Long, Integer> slots;
+
+    /**
+     * The slots ordered as a min-heap by count, and the position of every slot in the heap.
+     */
+    private final int[] heap;
+    private final int[] heapPositions;
+    private int size = 0;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param capacity The number of keys to track. Must be positive.
+     * @throws IllegalArgumentException If the capacity is not positive.
+     */
+    public TopKSketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the sketch must be positive");
+        }
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.labels = new String[capacity];
+        this.heap = new int[capacity];
+        this.heapPositions = new int[capacity];
+        this.slots = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     *
+     * @param key The key to count, typically a 64-bit fingerprint.
+     * @param label A supplier of a readable label for the key, which is only called when the key starts being tracked.
+     */
+    public void add(long key, Supplier<String> label) {
+        final Integer existing = slots.get(key);
+        final int slot;
+        boolean isAppended = false;
+        if (existing != null) {
+            slot = existing;
+        } else if (size < keys.length) {
+            isAppended = true;
+            slot = size;
+            heap[size] = slot;
+            heapPositions[slot] = size;
+            size++;
+            track(slot, key, label.get(), 0);
+        } else {
+            slot = heap[0];
+            slots.remove(keys[slot]);
+            track(slot, key, label.get(), counts[slot]);
+        }
+        counts[slot]++;
+        /* Appended keys start at the bottom of the heap with the lowest count, while other counts only grow */
+        if (isAppended) {
+            siftUp(heapPositions[slot]);
+        } else {
+            siftDown(heapPositions[slot]);
+        }
+    }
+
+    /**
+     * @return The number of keys the sketch can track.
+     */
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    /**
+     * @param limit The maximum number of keys to return.
+     * @return The most frequent keys, ordered by their estimated count with the most frequent first.
+     */
+    public List<Item> getTop(int limit) {
+        return IntStream.range(0, size).boxed()
+                .sorted(Comparator.comparingLong((Integer slot) -> counts[slot]).reversed()).limit(limit)
+                .map(slot -> new Item(labels[slot], counts[slot], errors[slot]))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    @Override
+    public String toString() {
+        return "TopKSketch" + Arrays.toString(getTop(size).toArray());
+    }
+
+    private void track(int slot, long key, String label, long error) {
+        keys[slot] = key;
+        labels[slot] = label;
+        errors[slot] = error;
+        counts[slot] = error;
+        slots.put(key, slot);
+    }
+
+    private void siftDown(int position) {
+        final int slot = heap[position];
+        while (true) {
+            final int left = position * 2 + 1;
+            if (left >= size) {
+                break;
+            }
+            final int right = left + 1;
+            final int child = right < size && counts[heap[right]] < counts[heap[left]] ? right : left;
+            if (counts[heap[child]] >= counts[slot]) {
+                break;
+            }
+            heap[position] = heap[child];
+            heapPositions[heap[position]] = position;
+            position = child;
+        }
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+
+    private void siftUp(int position) {
+        final int slot = heap[position];
+        while (position > 0) {
+            final int parent = (position - 1) / 2;
+            if (counts[heap[parent]] <= counts[slot]) {
+                break;
+            }
+            heap[position] = heap[parent];
+            heapPositions[heap[position]] = position;
+            position = parent;
+        }
+        heap[position] = slot;
+        heapPositions[slot] = position;
+    }
+
+    /**
+     * A key tracked by a {@link TopKSketch} with its estimated count.
+     *
+     * @author jepeders
+     */
+    public static class Item {
+
+        private final String label;
+        private final long count;
+        private final long error;
+
+        private Item(String label, long count, long error) {
+            this.label = label;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * @return The estimated number of occurrences of the key. The true count is between
+         *         <code>count - error</code> and <code>count</code>.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The maximum overestimate of the count.
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * @return The readable label of the key.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        @Override
+        public String toString() {
+            return label + "=" + count;
+        }
+
+    }
+
+}
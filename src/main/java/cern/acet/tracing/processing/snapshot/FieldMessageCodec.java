@@ -0,0 +1,125 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import cern.acet.tracing.Message;
+
+/**
+ * A {@link MessageCodec} that writes the fields of the messages with a type tag, see
+ * {@link MessageCodec#ofFields(Supplier)}.
+ *
+ * @param <MessageType> The type of {@link Message} to write and read.
+ * @author jepeders
+ */
+final class FieldMessageCodec<MessageType extends Message<MessageType>> implements MessageCodec<MessageType> {
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_LONG = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_DOUBLE = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_ZONED_DATE_TIME = 5;
+    private static final byte TYPE_INSTANT = 6;
+
+    private final Supplier<MessageType> messageFactory;
+
+    FieldMessageCodec(Supplier<MessageType> messageFactory) {
+        this.messageFactory = messageFactory;
+    }
+
+    @Override
+    public void encode(MessageType message, DataOutput output) throws IOException {
+        final Map<String, Object> fields = message.toMap();
+        output.writeInt(fields.size());
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            MessageCodec.writeString(output, field.getKey());
+            writeValue(output, field.getValue());
+        }
+    }
+
+    @Override
+    public MessageType decode(ByteBuffer input) {
+        final MessageType message = messageFactory.get();
+        try {
+            final int size = input.getInt();
+            for (int index = 0; index < size; index++) {
+                message.put(MessageCodec.readString(input), readValue(input));
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Failed to read message from snapshot", e);
+        }
+        return message;
+    }
+
+    private static void writeValue(DataOutput output, Object value) throws IOException {
+        if (value instanceof Long) {
+            output.writeByte(TYPE_LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            output.writeByte(TYPE_INTEGER);
+            output.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            output.writeByte(TYPE_DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            output.writeByte(TYPE_BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof ZonedDateTime) {
+            final ZonedDateTime time = (ZonedDateTime) value;
+            output.writeByte(TYPE_ZONED_DATE_TIME);
+            output.writeLong(time.toEpochSecond());
+            output.writeInt(time.getNano());
+            MessageCodec.writeString(output, time.getZone().getId());
+        } else if (value instanceof Instant) {
+            final Instant time = (Instant) value;
+            output.writeByte(TYPE_INSTANT);
+            output.writeLong(time.getEpochSecond());
+            output.writeInt(time.getNano());
+        } else {
+            output.writeByte(TYPE_STRING);
+            MessageCodec.writeString(output, String.valueOf(value));
+        }
+    }
+
+    private static Object readValue(ByteBuffer input) {
+        final byte type = input.get();
+        switch (type) {
+        case TYPE_STRING:
+            return MessageCodec.readString(input);
+        case TYPE_LONG:
+            return input.getLong();
+        case TYPE_INTEGER:
+            return input.getInt();
+        case TYPE_DOUBLE:
+            return input.getDouble();
+        case TYPE_BOOLEAN:
+            return input.get() != 0;
+        case TYPE_ZONED_DATE_TIME:
+            final Instant instant = Instant.ofEpochSecond(input.getLong(), input.getInt());
+            return ZonedDateTime.ofInstant(instant, ZoneId.of(MessageCodec.readString(input)));
+        case TYPE_INSTANT:
+            return Instant.ofEpochSecond(input.getLong(), input.getInt());
+        default:
+            throw new IllegalArgumentException("Unknown type of field value: " + type);
+        }
+    }
+
+}
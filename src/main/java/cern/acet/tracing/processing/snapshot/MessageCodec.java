@@ -0,0 +1,91 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.function.Supplier;
+
+import cern.acet.tracing.Message;
+
+/**
+ * Writes {@link Message}s to snapshots and reads them back.
+ *
+ * @param <MessageType> The type of {@link Message} to write and read.
+ * @author jepeders
+ */
+public interface MessageCodec<MessageType extends Message<MessageType>> {
+
+    /**
+     * Writes the message.
+     *
+     * @param message The message to write.
+     * @param output The output to write to.
+     * @throws IOException If the message could not be written.
+     */
+    void encode(MessageType message, DataOutput output) throws IOException;
+
+    /**
+     * Reads a message written by {@link #encode(Message, DataOutput)}.
+     *
+     * @param input The buffer to read from, positioned at the start of the message.
+     * @return The message.
+     * @throws IllegalArgumentException If the message could not be read.
+     */
+    MessageType decode(ByteBuffer input);
+
+    /**
+     * Creates a codec that writes the fields of the messages. Strings, numbers, booleans and time-stamps
+     * ({@link ZonedDateTime} and {@link Instant}) keep their type, while other values are written as their
+     * {@link Object#toString()}. Messages are read by putting the fields into new messages from the factory, so the
+     * type constraints of the messages apply.
+     *
+     * @param messageFactory A factory of empty messages, for instance <code>MessageImpl::ofUntyped</code>.
+     * @param <MessageType> The type of {@link Message} to write and read.
+     * @return A {@link MessageCodec}.
+     */
+    static <MessageType extends Message<MessageType>> MessageCodec<MessageType> ofFields(
+            Supplier<MessageType> messageFactory) {
+        return new FieldMessageCodec<>(messageFactory);
+    }
+
+    /**
+     * Writes a string as its length in bytes followed by its UTF-8 bytes.
+     *
+     * @param output The output to write to.
+     * @param text The text to write.
+     * @throws IOException If the text could not be written.
+     */
+    static void writeString(DataOutput output, String text) throws IOException {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param input The buffer to read from.
+     * @return The text.
+     */
+    static String readString(ByteBuffer input) {
+        final int length = input.getInt();
+        final byte[] bytes = new byte[length];
+        input.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
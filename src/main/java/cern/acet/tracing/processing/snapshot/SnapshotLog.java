@@ -0,0 +1,268 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import cern.acet.tracing.util.ThrowingConsumer;
+
+/**
+ * <p>
+ * An append-only file of snapshot records. Every snapshot appends the records that changed and ends with a commit
+ * marker, which is forced to disk. When the file is read, only records up to the last commit are used, so a snapshot
+ * that was interrupted by a crash is ignored as a whole. A full snapshot is written to a new file, which then replaces
+ * the old one, so the file does not grow forever.
+ * </p>
+ * <p>
+ * The file starts with a magic number and a version, followed by the records. A record starts with an operation byte;
+ * puts are followed by the kind, the key, the length of the value and the value, and removals by the kind and the key.
+ * </p>
+ *
+ * @author jepeders
+ */
+class SnapshotLog implements SnapshotWriter, AutoCloseable {
+
+    private static final int MAGIC = 0x4C47534E;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final byte OPERATION_PUT = 1;
+    private static final byte OPERATION_REMOVE = 2;
+    private static final byte OPERATION_COMMIT = 3;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final Path temporaryFile;
+    private final ByteArrayOutputStream valueBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream valueOutput = new DataOutputStream(valueBuffer);
+    private FileChannel channel;
+    private DataOutputStream output;
+    private long lastFullSize = 0;
+
+    /**
+     * Opens the log in the given file for appending, creating it if it does not exist. A file that is not a snapshot
+     * log is overwritten.
+     *
+     * @param file The file of the log.
+     * @throws IOException If the file could not be opened.
+     */
+    SnapshotLog(Path file) throws IOException {
+        this.file = file;
+        this.temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        open(file, hasHeader(file));
+        lastFullSize = channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.flush();
+        channel.close();
+    }
+
+    /**
+     * Marks the records written since the last commit as complete, and forces them to disk.
+     *
+     * @throws IOException If the commit could not be written.
+     */
+    void commit() throws IOException {
+        output.writeByte(OPERATION_COMMIT);
+        output.flush();
+        channel.force(false);
+    }
+
+    /**
+     * Starts a full snapshot in a new file. The records written until {@link #finishFullSnapshot()} replace all records
+     * of the current file.
+     *
+     * @throws IOException If the new file could not be created.
+     */
+    void startFullSnapshot() throws IOException {
+        close();
+        open(temporaryFile, false);
+    }
+
+    /**
+     * Commits the full snapshot started by {@link #startFullSnapshot()} and replaces the current file with it.
+     *
+     * @throws IOException If the snapshot could not be committed or the file could not be replaced.
+     */
+    void finishFullSnapshot() throws IOException {
+        commit();
+        lastFullSize = channel.size();
+        channel.close();
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open(file, true);
+    }
+
+    /**
+     * @return The number of bytes appended since the last full snapshot was written.
+     * @throws IOException If the size of the file could not be read.
+     */
+    long getAppendedBytes() throws IOException {
+        output.flush();
+        return channel.size() - lastFullSize;
+    }
+
+    /**
+     * @return The number of bytes in the file when the last full snapshot was written.
+     */
+    long getLastFullSize() {
+        return lastFullSize;
+    }
+
+    @Override
+    public void put(int kind, long key, ThrowingConsumer<DataOutput, IOException> value) throws IOException {
+        valueBuffer.reset();
+        value.accept(valueOutput);
+        output.writeByte(OPERATION_PUT);
+        output.writeByte(checkKind(kind));
+        output.writeLong(key);
+        output.writeInt(valueBuffer.size());
+        valueBuffer.writeTo(output);
+    }
+
+    @Override
+    public void remove(int kind, long key) throws IOException {
+        output.writeByte(OPERATION_REMOVE);
+        output.writeByte(checkKind(kind));
+        output.writeLong(key);
+    }
+
+    /**
+     * Reads the committed records of the given file. A missing, empty or foreign file gives no records, and records
+     * after the last commit are ignored.
+     *
+     * @param file The file to read.
+     * @return A {@link SnapshotReader} with the records.
+     * @throws IOException If the file could not be read.
+     */
+    static SnapshotReader read(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < HEADER_BYTES) {
+            return SnapshotReader.empty();
+        }
+        try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a snapshot file of a known version: " + file);
+            }
+            final int committedEnd = findLastCommit(buffer.duplicate());
+            return new SnapshotReader(readRecords(buffer, committedEnd));
+        }
+    }
+
+    private static int findLastCommit(ByteBuffer buffer) {
+        int committedEnd = HEADER_BYTES;
+        try {
+            while (buffer.hasRemaining()) {
+                final byte operation = buffer.get();
+                if (operation == OPERATION_PUT) {
+                    buffer.position(buffer.position() + 1 + Long.BYTES);
+                    final int length = buffer.getInt();
+                    buffer.position(buffer.position() + length);
+                } else if (operation == OPERATION_REMOVE) {
+                    buffer.position(buffer.position() + 1 + Long.BYTES);
+                } else if (operation == OPERATION_COMMIT) {
+                    committedEnd = buffer.position();
+                } else {
+                    break;
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            /* A record was cut short by a crash; it cannot have been committed */
+        }
+        return committedEnd;
+    }
+
+    private static Map<Integer, Map<Long, ByteBuffer>> readRecords(ByteBuffer buffer, int committedEnd) {
+        final Map<Integer, Map<Long, ByteBuffer>> records = new HashMap<>();
+        while (buffer.position() < committedEnd) {
+            final byte operation = buffer.get();
+            if (operation == OPERATION_COMMIT) {
+                continue;
+            }
+            final int kind = buffer.get();
+            final long key = buffer.getLong();
+            final Map<Long, ByteBuffer> kindRecords = records.computeIfAbsent(kind, k -> new HashMap<>());
+            if (operation == OPERATION_PUT) {
+                final int length = buffer.getInt();
+                final ByteBuffer value = buffer.slice();
+                value.limit(length);
+                kindRecords.put(key, value.asReadOnlyBuffer());
+                buffer.position(buffer.position() + length);
+            } else {
+                kindRecords.remove(key);
+            }
+        }
+        return records;
+    }
+
+    private void open(Path path, boolean isAppending) throws IOException {
+        if (isAppending) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            /* Drop records after the last commit, so new records do not follow a torn one */
+            final int committedEnd = findCommittedEnd(path);
+            channel.truncate(committedEnd);
+            channel.position(committedEnd);
+            output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+    }
+
+    private static boolean hasHeader(Path path) throws IOException {
+        if (!Files.exists(path) || Files.size(path) < HEADER_BYTES) {
+            return false;
+        }
+        try (FileChannel readChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && readChannel.read(header) >= 0) {
+                /* Read the whole header */
+            }
+            header.flip();
+            return header.getInt() == MAGIC && header.getInt() == VERSION;
+        }
+    }
+
+    private static int findCommittedEnd(Path path) throws IOException {
+        try (FileChannel readChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+            buffer.position(HEADER_BYTES);
+            return findLastCommit(buffer);
+        }
+    }
+
+    private static byte checkKind(int kind) {
+        if (kind < 0 || kind > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("The kind of a record must be between 0 and 127");
+        }
+        return (byte) kind;
+    }
+
+}
@@ -0,0 +1,55 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The records of a snapshot, as they were when the last snapshot was committed. The values are read-only buffers
+ * positioned at the start of the value.
+ *
+ * @author jepeders
+ */
+public class SnapshotReader {
+
+    private final Map<Integer, Map<Long, ByteBuffer>> records;
+
+    SnapshotReader(Map<Integer, Map<Long, ByteBuffer>> records) {
+        this.records = records;
+    }
+
+    /**
+     * @return A reader without any records.
+     */
+    static SnapshotReader empty() {
+        return new SnapshotReader(new HashMap<>());
+    }
+
+    /**
+     * @param kind The kind of records to get.
+     * @return The records of the given kind by their key.
+     */
+    public Map<Long, ByteBuffer> getRecords(int kind) {
+        return Collections.unmodifiableMap(records.getOrDefault(kind, Collections.emptyMap()));
+    }
+
+    /**
+     * @return The number of records of all kinds.
+     */
+    public int size() {
+        return records.values().stream().mapToInt(Map::size).sum();
+    }
+
+}
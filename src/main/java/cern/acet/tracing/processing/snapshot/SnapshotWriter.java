@@ -0,0 +1,46 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import cern.acet.tracing.util.ThrowingConsumer;
+
+/**
+ * Writes records to a snapshot. A record is identified by its kind and a 64-bit key; writing a record with the same
+ * kind and key again replaces it.
+ *
+ * @author jepeders
+ */
+public interface SnapshotWriter {
+
+    /**
+     * Writes a record. If the value cannot be written because it throws a {@link RuntimeException}, nothing is written.
+     *
+     * @param kind The kind of the record, between 0 and 127.
+     * @param key The key of the record.
+     * @param value A function that writes the value of the record.
+     * @throws IOException If the record could not be written.
+     */
+    void put(int kind, long key, ThrowingConsumer<DataOutput, IOException> value) throws IOException;
+
+    /**
+     * Removes a record.
+     *
+     * @param kind The kind of the record, between 0 and 127.
+     * @param key The key of the record.
+     * @throws IOException If the removal could not be written.
+     */
+    void remove(int kind, long key) throws IOException;
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import java.io.IOException;
+
+/**
+ * State that can be saved to and restored from a snapshot, for instance the open windows of a
+ * {@link cern.acet.tracing.processing.window.WindowManager}. The state is written as records of a kind and a 64-bit
+ * key, so changes since the last snapshot can be appended without rewriting the rest (see {@link StateSnapshotter}).
+ *
+ * @author jepeders
+ */
+public interface Snapshottable {
+
+    /**
+     * Writes the state to the snapshot. Unless a full snapshot is asked for, only the records that changed since the
+     * last call need to be written, along with the removal of records that no longer exist. The method is called from
+     * one thread at a time, while the state may be changed by other threads.
+     *
+     * @param writer The writer to write the records with.
+     * @param isFull True if all records should be written, because the snapshot is written from scratch.
+     * @throws IOException If the records could not be written.
+     */
+    void writeSnapshot(SnapshotWriter writer, boolean isFull) throws IOException;
+
+    /**
+     * Restores the state from a snapshot. Called once, before any records are written.
+     *
+     * @param reader The reader with the records of the last snapshot.
+     */
+    void restoreSnapshot(SnapshotReader reader);
+
+}
@@ -0,0 +1,214 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Saves the state of processors to local files at a fixed interval, and restores it when the processors are
+ * registered, so for instance throttled emitters stay throttled across a restart. Every registered
+ * {@link Snapshottable} gets its own file in the directory of the snapshotter, named after the name it is registered
+ * under.
+ * </p>
+ * <h2>Incremental snapshots</h2>
+ * <p>
+ * Each snapshot only appends the records that changed since the last one, and ends with a commit that is forced to
+ * disk (see {@link Snapshottable#writeSnapshot(SnapshotWriter, boolean)}). When the appended records outgrow the last
+ * full snapshot, the next snapshot is written in full to a new file that replaces the old one. Restoring reads the
+ * file once through a memory map, so even millions of records are restored in a fraction of a second.
+ * </p>
+ * <p>
+ * The snapshots are written by a single daemon thread. The snapshotter should be {@link #close()}d when Logalike
+ * closes, which writes a last snapshot.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class StateSnapshotter implements AutoCloseable {
+
+    /**
+     * The interval between two snapshots when no other interval is given.
+     */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(10);
+
+    private static final String FILE_SUFFIX = ".snapshot";
+
+    /**
+     * The size below which a log is never rewritten, so small states are not rewritten on every snapshot.
+     */
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateSnapshotter.class);
+
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private final Path directory;
+    private volatile boolean isClosed = false;
+
+    /**
+     * Creates a snapshotter that writes snapshots every {@link #DEFAULT_INTERVAL}.
+     *
+     * @param directory The directory to keep the snapshot files in. It is created if it does not exist.
+     * @throws IOException If the directory could not be created.
+     */
+    public StateSnapshotter(Path directory) throws IOException {
+        this(directory, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Creates a snapshotter that writes snapshots with the given interval.
+     *
+     * @param directory The directory to keep the snapshot files in. It is created if it does not exist.
+     * @param interval The interval between two snapshots. Must be at least one millisecond.
+     * @throws IOException If the directory could not be created.
+     * @throws IllegalArgumentException If the interval is less than one millisecond or the directory is not a
+     *             directory.
+     */
+    public StateSnapshotter(Path directory, Duration interval) throws IOException {
+        if (interval.toMillis() < 1) {
+            throw new IllegalArgumentException("The snapshot interval must be at least one millisecond");
+        }
+        if (!Files.exists(directory)) {
+            Files.createDirectories(directory);
+        } else if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("The path to the snapshots must be a directory: " + directory);
+        }
+        this.directory = directory;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "logalike-state-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::snapshot, interval.toMillis(), interval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Restores the state of the given {@link Snapshottable} from its file, if there is one, and includes it in the
+     * following snapshots. Register the state before messages are processed, so the restored state is not mixed with
+     * new state.
+     *
+     * @param name The name of the state, which must be unique within the snapshotter and usable as a file name.
+     * @param state The state to restore and save.
+     * @throws IOException If the file of the state could not be opened.
+     * @throws IllegalArgumentException If the name is already registered.
+     */
+    public void register(String name, Snapshottable state) throws IOException {
+        final Path file = directory.resolve(name + FILE_SUFFIX);
+        SnapshotReader reader;
+        try {
+            reader = SnapshotLog.read(file);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read snapshot " + file + ", starting without the saved state", e);
+            reader = SnapshotReader.empty();
+        }
+        final long startNanos = System.nanoTime();
+        state.restoreSnapshot(reader);
+        LOGGER.info("Restored {} records of {} in {} ms", reader.size(), name,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
+        final Registration registration = new Registration(name, state, new SnapshotLog(file));
+        if (registrations.putIfAbsent(name, registration) != null) {
+            registration.log.close();
+            throw new IllegalArgumentException("A state is already registered under the name " + name);
+        }
+    }
+
+    /**
+     * Writes a last snapshot and stops taking snapshots.
+     */
+    @Override
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotAll();
+        registrations.values().forEach(registration -> {
+            try {
+                registration.log.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close snapshot of {}", registration.name, e);
+            }
+        });
+        registrations.clear();
+    }
+
+    /**
+     * Writes a snapshot of all registered states now.
+     */
+    public void snapshot() {
+        if (!isClosed) {
+            snapshotAll();
+        }
+    }
+
+    private synchronized void snapshotAll() {
+        registrations.values().forEach(Registration::snapshot);
+    }
+
+    /**
+     * A registered state and the log it is written to.
+     */
+    private static final class Registration {
+
+        private final String name;
+        private final Snapshottable state;
+        private final SnapshotLog log;
+        private boolean isFullSnapshotNeeded = true;
+
+        private Registration(String name, Snapshottable state, SnapshotLog log) {
+            this.name = name;
+            this.state = state;
+            this.log = log;
+        }
+
+        private void snapshot() {
+            try {
+                if (isFullSnapshotNeeded
+                        || log.getAppendedBytes() > Math.max(MIN_COMPACTION_BYTES, log.getLastFullSize())) {
+                    log.startFullSnapshot();
+                    state.writeSnapshot(log, true);
+                    log.finishFullSnapshot();
+                    isFullSnapshotNeeded = false;
+                } else {
+                    state.writeSnapshot(log, false);
+                    log.commit();
+                }
+            } catch (IOException | RuntimeException e) {
+                /* Start over from a full snapshot, since the state may have forgotten changes it tried to write */
+                isFullSnapshotNeeded = true;
+                LOGGER.warn("Failed to write snapshot of {}", name, e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.template;
+
+import java.util.Optional;
+
+import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.MessageMapper;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+
+/**
+ * <p>
+ * A {@link MessageMapper} that mines the template of a text field with a {@link TemplateMiner}, and adds the id of the
+ * template, the template itself and the values of its variable parts (the parameters) to the message. Lines such as
+ * "Connection from 10.0.0.1 closed" and "Connection from 10.0.0.2 closed" get the same template id and the template
+ * "Connection from &lt;*&gt; closed".
+ * </p>
+ * <h2>Fingerprints</h2>
+ * <p>
+ * The mapper is also a {@link FingerprintStrategy} that identifies messages by their template id, so the
+ * {@link cern.acet.tracing.processing.RepetitionProcessor} and the
+ * {@link cern.acet.tracing.processing.ThrottleProcessor} can group near-duplicate lines. If the mapper has already
+ * been applied to a message, the template id is read from the message; otherwise the template is only looked up (see
+ * {@link TemplateMiner#find(String)}), so taking a fingerprint never mines or changes a template. The mapper should
+ * therefore be applied before the fingerprints are taken, since lines whose template has not been mined yet have no
+ * template id. The template ids depend on the order in which the templates were mined, so windows
+ * grouped by the mapper cannot be saved in snapshots.
+ * </p>
+ *
+ * @param <T> The type of {@link Message} to mine templates from.
+ * @author jepeders
+ */
+public class TemplateMapper<T extends Message<T>> implements MessageMapper<T>, FingerprintStrategy<T> {
+
+    private final TemplateMiner miner;
+    private final String field;
+    private final String templateIdField;
+    private final String templateField;
+    private final String parametersField;
+
+    private TemplateMapper(Builder<T> builder) {
+        this.miner = builder.miner;
+        this.field = builder.field;
+        this.templateIdField = builder.templateIdField;
+        this.templateField = builder.templateField;
+        this.parametersField = builder.parametersField;
+    }
+
+    /**
+     * @return A builder that can help build a {@link TemplateMapper}.
+     * @param <T> The type of {@link Message} to mine templates from.
+     */
+    public static <T extends Message<T>> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @Override
+    public T apply(T message) {
+        return match(message).map(match -> {
+            message.put(templateIdField, match.getTemplateId()).put(templateField, match.getTemplate());
+            if (parametersField != null) {
+                message.put(parametersField, match.getParameters());
+            }
+            return message;
+        }).orElse(message);
+    }
+
+    /**
+     * @return The id of the template of the message as a {@link String}, or an empty string if the message does not
+     *         contain the field to mine or its template has not been mined.
+     */
+    @Override
+    public String getFingerprint(T message) {
+        final long templateId = getLongFingerprint(message);
+        return templateId < 0 ? "" : Long.toString(templateId);
+    }
+
+    /**
+     * @return The id of the template of the message, or -1 if the message does not contain the field to mine or its
+     *         template has not been mined.
+     */
+    @Override
+    public long getLongFingerprint(T message) {
+        final Optional<Long> templateId = message.getOptionalAs(templateIdField, Long.class);
+        if (templateId.isPresent()) {
+            return templateId.get();
+        }
+        return message.getOptionalAs(field, String.class).flatMap(miner::find).map(TemplateMatch::getTemplateId)
+                .orElse(-1L);
+    }
+
+    /**
+     * @return False, since the template ids are given out in the order the templates are mined by this process.
+     */
+    @Override
+    public boolean isStableAcrossRestarts() {
+        return false;
+    }
+
+    /**
+     * @return The {@link TemplateMiner} that holds the templates of this mapper.
+     */
+    public TemplateMiner getMiner() {
+        return miner;
+    }
+
+    private Optional<TemplateMatch> match(T message) {
+        return message.getOptionalAs(field, String.class).map(miner::match);
+    }
+
+    /**
+     * A builder that can help build a {@link TemplateMapper}.
+     *
+     * @author jepeders
+     * @param <T> The type of {@link Message} to mine templates from in the built {@link TemplateMapper}.
+     */
+    public static class Builder<T extends Message<T>> {
+
+        private static final String DEFAULT_TEMPLATE_ID_FIELD = "templateId";
+        private static final String DEFAULT_TEMPLATE_FIELD = "template";
+        private static final String DEFAULT_PARAMETERS_FIELD = "templateParameters";
+
+        private TemplateMiner miner = new TemplateMiner();
+        private String field;
+        private String templateIdField = DEFAULT_TEMPLATE_ID_FIELD;
+        private String templateField = DEFAULT_TEMPLATE_FIELD;
+        private String parametersField = DEFAULT_PARAMETERS_FIELD;
+
+        /**
+         * Builds an instance of a {@link TemplateMapper} using the current values of the builder.
+         *
+         * @return A {@link TemplateMapper}.
+         * @throws IllegalArgumentException If the field to mine is not set via {@link #setField(String)}.
+         */
+        public TemplateMapper<T> build() {
+            if (field == null) {
+                throw new IllegalArgumentException("The field to mine templates from must be set");
+            }
+            return new TemplateMapper<>(this);
+        }
+
+        /**
+         * @param field The name of the text field to mine templates from.
+         * @return The same builder with the field set.
+         */
+        public Builder<T> setField(String field) {
+            this.field = field;
+            return this;
+        }
+
+        /**
+         * @param miner The {@link TemplateMiner} to use, for instance to share templates between mappers or to change
+         *            the parameters of the parse tree. Defaults to a {@link TemplateMiner} with default parameters.
+         * @return The same builder with the miner set.
+         */
+        public Builder<T> setMiner(TemplateMiner miner) {
+            this.miner = miner;
+            return this;
+        }
+
+        /**
+         * @param parametersField The name of the field to put the list of parameters in, or null to leave out the
+         *            parameters. Defaults to {@value #DEFAULT_PARAMETERS_FIELD}.
+         * @return The same builder with the parameters field set.
+         */
+        public Builder<T> setParametersField(String parametersField) {
+            this.parametersField = parametersField;
+            return this;
+        }
+
+        /**
+         * @param templateField The name of the field to put the template in. Defaults to
+         *            {@value #DEFAULT_TEMPLATE_FIELD}.
+         * @return The same builder with the template field set.
+         */
+        public Builder<T> setTemplateField(String templateField) {
+            this.templateField = templateField;
+            return this;
+        }
+
+        /**
+         * @param templateIdField The name of the field to put the template id in. Defaults to
+         *            {@value #DEFAULT_TEMPLATE_ID_FIELD}.
+         * @return The same builder with the template id field set.
+         */
+        public Builder<T> setTemplateIdField(String templateIdField) {
+            this.templateIdField = templateIdField;
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.template;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of matching a line against the templates of a {@link TemplateMiner}: the template the line belongs to and
+ * the values of the variable parts of the line.
+ *
+ * @author jepeders
+ */
+public final class TemplateMatch {
+
+    private final long templateId;
+    private final String template;
+    private final List<String> parameters;
+
+    TemplateMatch(long templateId, String template, List<String> parameters) {
+        this.templateId = templateId;
+        this.template = template;
+        this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    /**
+     * @return The values of the variable parts of the line, in the order they appear.
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return The template, where variable parts are replaced with {@value TemplateMiner#WILDCARD}. The template of a
+     *         cluster can become more general as more lines are matched.
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return The id of the template, which stays the same while the template becomes more general.
+     */
+    public long getTemplateId() {
+        return templateId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TemplateMatch[%d: %s %s]", templateId, template, parameters);
+    }
+
+}
@@ -0,0 +1,373 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.template;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Mines templates from log lines, so lines that only differ in ids, numbers or other variable parts are recognised as
+ * the same kind of line. The miner follows the Drain algorithm: lines are split into tokens on whitespace and looked
+ * up in a parse tree of fixed depth. The first level of the tree groups lines by their number of tokens, and the
+ * following levels by their first tokens, where tokens that contain digits are treated as variables. The leaves hold
+ * the templates (clusters), and a line joins the most similar template in its leaf if at least a given share of the
+ * tokens are equal. The tokens that differ are then replaced by a {@value #WILDCARD} in the template. Otherwise the
+ * line starts a new template. Lines whose first tokens differ in words without digits never share a template, so the
+ * depth should be small enough to keep variable words out of the prefix.
+ * </p>
+ * <p>
+ * Since the depth of the tree is fixed and the number of children per node is bounded, a line is matched in a time
+ * that only depends on its length and the number of templates in its leaf, not on the total number of templates.
+ * </p>
+ * <h2>Bounded memory</h2>
+ * <p>
+ * Lines with many variable words can start a new template each, so the number of templates is capped. When a new
+ * template exceeds the cap, the least recently used templates are evicted. Like the windows of the
+ * {@link cern.acet.tracing.processing.window.WindowManager}, recency is approximated with the CLOCK algorithm: a match
+ * only sets a flag on the template, and the eviction sweeps the templates in the order they were mined, giving a second
+ * chance to templates whose flag is set. A line of an evicted template starts a new template with a new id.
+ * </p>
+ * <h2>Concurrency</h2>
+ * <p>
+ * The inner nodes of the tree are concurrent maps, and each leaf is locked while a line is matched against its
+ * templates, so lines of different kinds are matched in parallel. Evictions lock the leaves of the evicted templates
+ * one at a time, after the leaf of the new template is unlocked.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class TemplateMiner {
+
+    /**
+     * The token that replaces variable parts of a template.
+     */
+    public static final String WILDCARD = "<*>";
+
+    /**
+     * The default depth of the parse tree, including the root and the leaves.
+     */
+    public static final int DEFAULT_DEPTH = 4;
+
+    /**
+     * The default share of equal tokens required for a line to join a template.
+     */
+    public static final double DEFAULT_SIMILARITY_THRESHOLD = 0.4;
+
+    /**
+     * The default maximum number of children of an inner node of the parse tree.
+     */
+    public static final int DEFAULT_MAX_CHILDREN = 100;
+
+    /**
+     * The default maximum number of templates kept by the miner.
+     */
+    public static final int DEFAULT_MAX_TEMPLATES = 10000;
+
+    private final Map<Integer, Node> lengthNodes = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Cluster> clusterClock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clusterCount = new AtomicInteger();
+    private final AtomicLong nextTemplateId = new AtomicLong();
+    private final AtomicLong evictedTemplateCount = new AtomicLong();
+    private final int prefixDepth;
+    private final double similarityThreshold;
+    private final int maxChildren;
+    private final int maxTemplates;
+
+    /**
+     * Creates a miner with the default depth, similarity threshold and maximum numbers of children and templates.
+     */
+    public TemplateMiner() {
+        this(DEFAULT_DEPTH, DEFAULT_SIMILARITY_THRESHOLD, DEFAULT_MAX_CHILDREN);
+    }
+
+    /**
+     * Creates a miner that keeps at most {@value #DEFAULT_MAX_TEMPLATES} templates.
+     *
+     * @param depth The depth of the parse tree, including the root and the leaves. A depth of <code>d</code> groups
+     *            lines by their first <code>d - 2</code> tokens. Must be at least 3.
+     * @param similarityThreshold The share of equal tokens required for a line to join a template, between 0 and 1.
+     * @param maxChildren The maximum number of children of an inner node. When a node is full, new tokens are grouped
+     *            under a {@value #WILDCARD} child. Must be positive.
+     * @throws IllegalArgumentException If one of the arguments is out of range.
+     */
+    public TemplateMiner(int depth, double similarityThreshold, int maxChildren) {
+        this(depth, similarityThreshold, maxChildren, DEFAULT_MAX_TEMPLATES);
+    }
+
+    /**
+     * Creates a miner.
+     *
+     * @param depth The depth of the parse tree, including the root and the leaves. A depth of <code>d</code> groups
+     *            lines by their first <code>d - 2</code> tokens. Must be at least 3.
+     * @param similarityThreshold The share of equal tokens required for a line to join a template, between 0 and 1.
+     * @param maxChildren The maximum number of children of an inner node. When a node is full, new tokens are grouped
+     *            under a {@value #WILDCARD} child. Must be positive.
+     * @param maxTemplates The maximum number of templates to keep. When a new template exceeds it, the least recently
+     *            used templates are evicted. Must be positive.
+     * @throws IllegalArgumentException If one of the arguments is out of range.
+     */
+    public TemplateMiner(int depth, double similarityThreshold, int maxChildren, int maxTemplates) {
+        if (depth < 3) {
+            throw new IllegalArgumentException("The depth of the parse tree must be at least 3");
+        }
+        if (similarityThreshold < 0 || similarityThreshold > 1) {
+            throw new IllegalArgumentException("The similarity threshold must be between 0 and 1");
+        }
+        if (maxChildren <= 0) {
+            throw new IllegalArgumentException("The maximum number of children must be positive");
+        }
+        if (maxTemplates <= 0) {
+            throw new IllegalArgumentException("The maximum number of templates must be positive");
+        }
+        this.prefixDepth = depth - 2;
+        this.similarityThreshold = similarityThreshold;
+        this.maxChildren = maxChildren;
+        this.maxTemplates = maxTemplates;
+    }
+
+    /**
+     * @return The number of templates mined so far, including the templates that were evicted.
+     */
+    public long getTemplateCount() {
+        return nextTemplateId.get();
+    }
+
+    /**
+     * @return The number of templates that were evicted to stay within the maximum number of templates.
+     */
+    public long getEvictedTemplateCount() {
+        return evictedTemplateCount.get();
+    }
+
+    /**
+     * Finds the template of the given line without changing the miner: no template is started or generalised, and the
+     * recency of the templates is left alone.
+     *
+     * @param line The line to look up.
+     * @return The template of the line and the values of its variable parts, if a template is similar enough.
+     */
+    public Optional<TemplateMatch> find(String line) {
+        final String[] tokens = tokenize(line);
+        Node node = lengthNodes.get(tokens.length);
+        final int depth = Math.min(prefixDepth, tokens.length);
+        for (int index = 0; index < depth && node != null; index++) {
+            final String token = tokens[index];
+            final String key = hasDigits(token) ? WILDCARD : token;
+            final Node child = node.children.get(key);
+            node = child == null && node.children.size() >= maxChildren ? node.children.get(WILDCARD) : child;
+        }
+        if (node == null) {
+            return Optional.empty();
+        }
+        synchronized (node) {
+            final Cluster cluster = findMostSimilar(node.clusters, tokens);
+            return cluster == null ? Optional.empty() : Optional.of(cluster.toMatch(tokens));
+        }
+    }
+
+    /**
+     * Finds the template of the given line, or starts a new template if no template is similar enough. A matched
+     * template is generalised with the tokens of the line that differ from it.
+     *
+     * @param line The line to match.
+     * @return The template of the line and the values of its variable parts.
+     */
+    public TemplateMatch match(String line) {
+        final String[] tokens = tokenize(line);
+        final Node leaf = findLeaf(tokens);
+        final TemplateMatch match;
+        synchronized (leaf) {
+            Cluster cluster = findMostSimilar(leaf.clusters, tokens);
+            if (cluster == null) {
+                cluster = new Cluster(nextTemplateId.getAndIncrement(), tokens, leaf);
+                leaf.clusters.add(cluster);
+                clusterClock.offer(cluster);
+                clusterCount.incrementAndGet();
+            } else {
+                cluster.generalise(tokens);
+                cluster.isRecentlyUsed = true;
+            }
+            match = cluster.toMatch(tokens);
+        }
+        if (clusterCount.get() > maxTemplates) {
+            evictClusters();
+        }
+        return match;
+    }
+
+    /**
+     * Evicts the least recently used clusters until the miner is within the maximum number of templates. The clusters
+     * are swept in the order they were mined, and clusters that were used since the last sweep are given another
+     * chance. Since every swept cluster loses its flag, at most two rounds are needed.
+     */
+    private void evictClusters() {
+        synchronized (clusterClock) {
+            while (clusterCount.get() > maxTemplates) {
+                final Cluster cluster = clusterClock.poll();
+                if (cluster == null) {
+                    return;
+                }
+                if (cluster.isRecentlyUsed) {
+                    cluster.isRecentlyUsed = false;
+                    clusterClock.offer(cluster);
+                } else {
+                    synchronized (cluster.leaf) {
+                        cluster.leaf.clusters.remove(cluster);
+                    }
+                    clusterCount.decrementAndGet();
+                    evictedTemplateCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the parse tree down to the leaf of the given tokens, creating the nodes on the way.
+     */
+    private Node findLeaf(String[] tokens) {
+        Node node = lengthNodes.computeIfAbsent(tokens.length, length -> new Node());
+        final int depth = Math.min(prefixDepth, tokens.length);
+        for (int index = 0; index < depth; index++) {
+            final String token = tokens[index];
+            String key = hasDigits(token) ? WILDCARD : token;
+            if (!node.children.containsKey(key) && node.children.size() >= maxChildren) {
+                key = WILDCARD;
+            }
+            node = node.children.computeIfAbsent(key, newKey -> new Node());
+        }
+        return node;
+    }
+
+    /**
+     * Finds the cluster with the highest share of tokens equal to the given tokens, preferring clusters with more
+     * wildcards if the shares are equal. All clusters in a leaf have the same number of tokens as the line.
+     *
+     * @return The most similar cluster, or null if no cluster reaches the similarity threshold.
+     */
+    private Cluster findMostSimilar(List<Cluster> clusters, String[] tokens) {
+        Cluster mostSimilar = null;
+        int mostEqual = -1;
+        int mostWildcards = -1;
+        for (Cluster cluster : clusters) {
+            int equal = 0;
+            int wildcards = 0;
+            for (int index = 0; index < tokens.length; index++) {
+                final String templateToken = cluster.tokens[index];
+                if (templateToken == WILDCARD) {
+                    wildcards++;
+                } else if (templateToken.equals(tokens[index])) {
+                    equal++;
+                }
+            }
+            if (equal > mostEqual || (equal == mostEqual && wildcards > mostWildcards)) {
+                mostSimilar = cluster;
+                mostEqual = equal;
+                mostWildcards = wildcards;
+            }
+        }
+        if (mostSimilar == null || (tokens.length > 0 && mostEqual < similarityThreshold * tokens.length)) {
+            return null;
+        }
+        return mostSimilar;
+    }
+
+    private static boolean hasDigits(String token) {
+        for (int index = 0; index < token.length(); index++) {
+            final char character = token.charAt(index);
+            if (character >= '0' && character <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the line on whitespace, without regular expressions.
+     */
+    static String[] tokenize(String line) {
+        final List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int index = 0; index < line.length(); index++) {
+            if (Character.isWhitespace(line.charAt(index))) {
+                if (start >= 0) {
+                    tokens.add(line.substring(start, index));
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = index;
+            }
+        }
+        if (start >= 0) {
+            tokens.add(line.substring(start));
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * A node in the parse tree. Inner nodes have children, leaves have clusters.
+     */
+    private static final class Node {
+
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private final List<Cluster> clusters = new ArrayList<>();
+
+    }
+
+    /**
+     * A template and its id. The tokens of the template are only accessed while holding the lock of its leaf. Wildcards
+     * are compared by identity, so a line that contains the text of the {@link TemplateMiner#WILDCARD} is not mistaken
+     * for a template.
+     */
+    private static final class Cluster {
+
+        private final long id;
+        private final String[] tokens;
+        private final Node leaf;
+        private volatile boolean isRecentlyUsed;
+
+        private Cluster(long id, String[] tokens, Node leaf) {
+            this.id = id;
+            this.tokens = tokens.clone();
+            this.leaf = leaf;
+        }
+
+        /**
+         * Replaces the tokens of the template that differ from the given tokens with wildcards.
+         */
+        private void generalise(String[] lineTokens) {
+            for (int index = 0; index < tokens.length; index++) {
+                if (tokens[index] != WILDCARD && !tokens[index].equals(lineTokens[index])) {
+                    tokens[index] = WILDCARD;
+                }
+            }
+        }
+
+        private TemplateMatch toMatch(String[] lineTokens) {
+            final List<String> parameters = new ArrayList<>();
+            for (int index = 0; index < tokens.length; index++) {
+                if (tokens[index] == WILDCARD) {
+                    parameters.add(lineTokens[index]);
+                }
+            }
+            return new TemplateMatch(id, String.join(" ", tokens), parameters);
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.TemporalAccessor;
+import java.util.Optional;
+
+import cern.acet.tracing.Message;
+
+/**
+ * A functional interface that can collect the time at which a {@link Message} was produced (its event time), as
+ * opposed to the time at which it is processed. Windows that are timed by the event time give the same result whether
+ * the messages are read as they are written or backfilled from old files at full speed.
+ *
+ * @param <MessageType> The type of {@link Message} to take the event time from.
+ * @author jepeders
+ */
+@FunctionalInterface
+public interface EventTimeStrategy<MessageType extends Message<MessageType>> {
+
+    /**
+     * Retrieves the event time of the given message.
+     *
+     * @param message The {@link Message} to get the event time from.
+     * @return The event time, or {@link Optional#empty()} if the message does not have one.
+     */
+    Optional<Instant> getEventTime(MessageType message);
+
+    /**
+     * Creates an {@link EventTimeStrategy} that reads the event time from a field. The field can contain a
+     * {@link ZonedDateTime} (as set by {@link Message#putTimestamp(ZonedDateTime)}), any other
+     * {@link TemporalAccessor} with an instant, or a number of milliseconds since the epoch.
+     *
+     * @param field The name of the field that contains the event time.
+     * @param <MessageType> The type of {@link Message} to take the event time from.
+     * @return An {@link EventTimeStrategy} over the given field.
+     */
+    static <MessageType extends Message<MessageType>> EventTimeStrategy<MessageType> ofField(String field) {
+        return message -> message.getOptional(field).flatMap(value -> {
+            if (value instanceof Instant) {
+                return Optional.of((Instant) value);
+            } else if (value instanceof ZonedDateTime) {
+                return Optional.of(((ZonedDateTime) value).toInstant());
+            } else if (value instanceof Number) {
+                return Optional.of(Instant.ofEpochMilli(((Number) value).longValue()));
+            } else if (value instanceof TemporalAccessor) {
+                try {
+                    return Optional.of(Instant.from((TemporalAccessor) value));
+                } catch (DateTimeException e) {
+                    return Optional.empty();
+                }
+            }
+            return Optional.empty();
+        });
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction.
+ *
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import cern.acet.tracing.Message;
+
+/**
+ * A fast, non-cryptographic 64-bit hash function for fingerprints, modelled on the rounds and avalanche step of
+ * xxHash64. Strings are hashed directly from their characters, four at a time, so no intermediate strings or byte arrays
+ * are created.
+ * <p>
+ * The hashes are a fixed function of the characters and the seed: they do not depend on the JVM, the process or
+ * {@link String#hashCode()}. Windows and throttled emitters are saved in snapshots under these hashes (see
+ * {@link cern.acet.tracing.processing.snapshot.StateSnapshotter}), so the function must give the same hashes across
+ * restarts and versions. Changing it makes existing snapshots restore under the wrong keys.
+ * </p>
+ *
+ * @author jepeders
+ */
+public final class FingerprintHasher {
+
+    /**
+     * The seed used when no other seed is given.
+     */
+    public static final long DEFAULT_SEED = 0;
+
+    private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME_3 = 0x165667B19E3779F9L;
+    private static final long PRIME_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME_5 = 0x27D4EB2F165667C5L;
+
+    private FingerprintHasher() {
+        /* Static methods only */
+    }
+
+    /**
+     * Hashes the given text with the {@link #DEFAULT_SEED}.
+     *
+     * @param text The text to hash.
+     * @return A 64-bit hash of the text.
+     */
+    public static long hash(CharSequence text) {
+        return hash(DEFAULT_SEED, text);
+    }
+
+    /**
+     * Hashes the given text, starting from the given seed. Hashes can be chained by using the result of one call as
+     * the seed of the next.
+     *
+     * @param seed The seed to start from.
+     * @param text The text to hash.
+     * @return A 64-bit hash of the seed and the text.
+     */
+    public static long hash(long seed, CharSequence text) {
+        final int length = text.length();
+        long hash = seed + PRIME_5 + length * 2L;
+
+        int index = 0;
+        for (; index + 4 <= length; index += 4) {
+            final long block = text.charAt(index) | (long) text.charAt(index + 1) << 16
+                    | (long) text.charAt(index + 2) << 32 | (long) text.charAt(index + 3) << 48;
+            hash ^= round(block);
+            hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        }
+        for (; index < length; index++) {
+            hash ^= text.charAt(index) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+        return avalanche(hash);
+    }
+
+    /**
+     * Hashes a single long value, starting from the given seed.
+     *
+     * @param seed The seed to start from.
+     * @param value The value to hash.
+     * @return A 64-bit hash of the seed and the value.
+     */
+    public static long hash(long seed, long value) {
+        long hash = seed + PRIME_5 + Long.BYTES;
+        hash ^= round(value);
+        hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+        return avalanche(hash);
+    }
+
+    /**
+     * Hashes the values of the given fields in the message, exactly like {@link #hash(CharSequence)} hashes the values
+     * joined by {@link FingerprintStrategy#FIELD_SEPARATOR}, but without joining them. String values are hashed
+     * directly, while other values are hashed via their {@link Object#toString()} representation. Missing fields count
+     * as empty values, like in the {@link String} fingerprints of {@link FingerprintStrategy#ofFields(String...)}.
+     *
+     * @param message The message to read the fields from.
+     * @param fields The names of the fields to hash, in order.
+     * @param <MessageType> The type of {@link Message} to hash.
+     * @return A 64-bit hash of the field values.
+     */
+    public static <MessageType extends Message<MessageType>> long hashFields(MessageType message, String... fields) {
+        if (fields.length == 1) {
+            return hash(getValue(message, fields[0]));
+        }
+        final CharSequence[] values = new CharSequence[fields.length];
+        int length = fields.length - 1;
+        for (int index = 0; index < fields.length; index++) {
+            values[index] = getValue(message, fields[index]);
+            length += values[index].length();
+        }
+
+        final char separator = FingerprintStrategy.FIELD_SEPARATOR.charAt(0);
+        long hash = DEFAULT_SEED + PRIME_5 + length * 2L;
+        long block = 0;
+        int blockChars = 0;
+        for (int index = 0; index < values.length; index++) {
+            final CharSequence value = values[index];
+            final int valueLength = value.length();
+            for (int charIndex = index == 0 ? 0 : -1; charIndex < valueLength; charIndex++) {
+                final char next = charIndex < 0 ? separator : value.charAt(charIndex);
+                block |= (long) next << (Character.SIZE * blockChars);
+                if (++blockChars == 4) {
+                    hash ^= round(block);
+                    hash = Long.rotateLeft(hash, 27) * PRIME_1 + PRIME_4;
+                    block = 0;
+                    blockChars = 0;
+                }
+            }
+        }
+        for (int index = 0; index < blockChars; index++) {
+            hash ^= ((block >>> (Character.SIZE * index)) & 0xFFFF) * PRIME_5;
+            hash = Long.rotateLeft(hash, 11) * PRIME_1;
+        }
+        return avalanche(hash);
+    }
+
+    private static <MessageType extends Message<MessageType>> CharSequence getValue(MessageType message,
+            String field) {
+        final Object value = message.getOptional(field).orElse("");
+        return value instanceof CharSequence ? (CharSequence) value : value.toString();
+    }
+
+    /**
+     * Mixes the bits of a long so that every input bit affects every output bit. Useful to spread keys that are not
+     * uniformly distributed before using them as table indices.
+     *
+     * @param value The value to mix.
+     * @return The mixed value.
+     */
+    public static long mix(long value) {
+        return avalanche(value * PRIME_1);
+    }
+
+    private static long round(long input) {
+        return Long.rotateLeft(input * PRIME_2, 31) * PRIME_1;
+    }
+
+    private static long avalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= PRIME_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME_3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+}
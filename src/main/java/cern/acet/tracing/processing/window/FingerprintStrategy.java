@@ -11,11 +11,19 @@
 
 package cern.acet.tracing.processing.window;
 
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import cern.acet.tracing.Message;
 
 /**
  * A functional interface that can collect a 'fingerprint' from a {@link Message}. Depending on the situation, this
  * fingerprint can be used to find equality between two messages, if they produce the same fingerprint.
+ * <p>
+ * Besides the {@link String} fingerprint, every strategy has a 64-bit fingerprint ({@link #getLongFingerprint(Message)}
+ * ) which is used as key when storing windows. By default it is a hash of the {@link String} fingerprint, but strategies
+ * such as {@link #ofFields(String...)} compute it directly from the message fields without building the string.
+ * </p>
  * 
  * @param <MessageType> The type of {@link Message} to take fingerprints of.
  * @author ghoranyi, jepeders
@@ -23,12 +31,76 @@ import cern.acet.tracing.Message;
 @FunctionalInterface
 public interface FingerprintStrategy<MessageType extends Message<MessageType>> {
 
+    /**
+     * The separator between field values in the {@link String} fingerprints created by {@link #ofFields(String...)}.
+     */
+    String FIELD_SEPARATOR = "\u001F";
+
     /**
      * Retrieves the unique fingerprint from the given message.
-     * 
+     *
      * @param message The {@link Message} to get the fingerprint from.
      * @return A String.
      */
     String getFingerprint(MessageType message);
 
+    /**
+     * Retrieves a 64-bit fingerprint from the given message. Two messages with the same {@link String} fingerprint
+     * must have the same 64-bit fingerprint.
+     *
+     * @param message The {@link Message} to get the fingerprint from.
+     * @return A long, which defaults to a {@link FingerprintHasher#hash(CharSequence)} of the {@link String}
+     *         fingerprint.
+     */
+    default long getLongFingerprint(MessageType message) {
+        return FingerprintHasher.hash(getFingerprint(message));
+    }
+
+    /**
+     * Tells whether the 64-bit fingerprints are the same in every process, so windows saved in a snapshot under their
+     * 64-bit fingerprint can be restored after a restart. This holds for the default
+     * {@link #getLongFingerprint(Message)}, since {@link FingerprintHasher} gives the same hashes across restarts.
+     * Strategies that return fingerprints assigned by the running process, such as ids given out by a counter, must
+     * return false.
+     *
+     * @return True if the 64-bit fingerprints can be restored from a snapshot, false otherwise.
+     */
+    default boolean isStableAcrossRestarts() {
+        return true;
+    }
+
+    /**
+     * Creates a {@link FingerprintStrategy} from the values of one or more fields. The 64-bit fingerprint is hashed
+     * directly from the field values, so the {@link String} fingerprint is only built when it is asked for (e. g. when
+     * reporting an emitter). The 64-bit fingerprint is the same as the hash of the {@link String} fingerprint, so the
+     * strategy is interchangeable with one that only builds the {@link String}. Missing fields count as empty values.
+     *
+     * @param fields The names of the fields to take the fingerprint from.
+     * @param <MessageType> The type of {@link Message} to take fingerprints of.
+     * @return A {@link FingerprintStrategy} over the given fields.
+     * @throws IllegalArgumentException If no fields are given.
+     */
+    static <MessageType extends Message<MessageType>> FingerprintStrategy<MessageType> ofFields(String... fields) {
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("At least one field must be given");
+        }
+        final String[] fieldsCopy = fields.clone();
+        return new FingerprintStrategy<MessageType>() {
+
+            @Override
+            public String getFingerprint(MessageType message) {
+                if (fieldsCopy.length == 1) {
+                    return message.getOptional(fieldsCopy[0]).map(Object::toString).orElse("");
+                }
+                return Stream.of(fieldsCopy).map(field -> message.getOptional(field).map(Object::toString).orElse(""))
+                        .collect(Collectors.joining(FIELD_SEPARATOR));
+            }
+
+            @Override
+            public long getLongFingerprint(MessageType message) {
+                return FingerprintHasher.hashFields(message, fieldsCopy);
+            }
+        };
+    }
+
 }
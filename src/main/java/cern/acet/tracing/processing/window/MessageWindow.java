@@ -13,13 +13,15 @@ package cern.acet.tracing.processing.window;
 
 import java.time.Clock;
 import java.time.Instant;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 
 import cern.acet.tracing.Message;
 
 /**
  * A message window which stores the time of creation and a count of how many times the window has been queried for
- * duplicates.
+ * duplicates. The count is kept in a {@link LongAdder}, so many threads can increment the same window without
+ * contending on a single memory location.
  * 
  * @param <MessageType> The type of {@link Message} stored in the {@link MessageWindow}.
  * @author jepeders
@@ -28,7 +30,10 @@ public class MessageWindow<MessageType extends Message<MessageType>> {
 
     private final MessageType message;
     private final Instant startTime;
-    private final AtomicLong counter = new AtomicLong(1);
+    private final LongAdder counter = new LongAdder();
+    private final WindowAccumulator<MessageType> accumulator;
+    private volatile boolean isReferenced = false;
+    private long snapshotCount = 0;
 
     /**
      * Creates a window which started at the given time and a start count of 1.
@@ -37,8 +42,74 @@ public class MessageWindow<MessageType extends Message<MessageType>> {
      * @param clock The clock to draw time from. Useful for testing.
      */
     public MessageWindow(MessageType message, Clock clock) {
+        this(message, Instant.now(clock));
+    }
+
+    /**
+     * Creates a window which started at the given time and a start count of 1.
+     * 
+     * @param message The message to store in the window.
+     * @param startTime The time at which the window started, for instance the start of an event-time window.
+     */
+    public MessageWindow(MessageType message, Instant startTime) {
+        this(message, startTime, null);
+    }
+
+    /**
+     * Creates a window which started at the given time and a start count of 1, and keeps additional state in the given
+     * accumulator. The message is <b>not</b> accumulated by this constructor.
+     * 
+     * @param message The message to store in the window.
+     * @param startTime The time at which the window started.
+     * @param accumulator The accumulator of the window, or null if the window only counts.
+     */
+    public MessageWindow(MessageType message, Instant startTime, WindowAccumulator<MessageType> accumulator) {
+        this.accumulator = accumulator;
         this.message = message;
-        this.startTime = Instant.now(clock);
+        this.startTime = startTime;
+        this.counter.increment();
+    }
+
+    /**
+     * Raises the count of a new window to the given count, for windows restored from a snapshot.
+     * 
+     * @param count The count of the window when the snapshot was taken. Must be at least 1.
+     */
+    void restoreCount(long count) {
+        counter.add(count - 1);
+    }
+
+    /**
+     * @return The count of the window when it was last written to a snapshot, or 0 if it has not been written. Only
+     *         accessed by the thread writing the snapshots.
+     */
+    long getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    /**
+     * @param snapshotCount The count of the window that was written to a snapshot.
+     */
+    void setSnapshotCount(long snapshotCount) {
+        this.snapshotCount = snapshotCount;
+    }
+
+    /**
+     * Adds the message to the accumulator of the window, if it has one.
+     * 
+     * @param messageToAccumulate The message that was counted in the window.
+     */
+    void accumulate(MessageType messageToAccumulate) {
+        if (accumulator != null) {
+            accumulator.accumulate(messageToAccumulate);
+        }
+    }
+
+    /**
+     * @return The {@link WindowAccumulator} of the window, if the {@link WindowManager} was built with accumulators.
+     */
+    public Optional<WindowAccumulator<MessageType>> getAccumulator() {
+        return Optional.ofNullable(accumulator);
     }
 
     /**
@@ -56,7 +127,7 @@ public class MessageWindow<MessageType extends Message<MessageType>> {
      * @return A positive long.
      */
     public long getCount() {
-        return counter.get();
+        return counter.sum();
     }
 
     /**
@@ -71,10 +142,35 @@ public class MessageWindow<MessageType extends Message<MessageType>> {
     /**
      * Increment the number of times a duplicate of the underlying message has been seen.
      * 
-     * @return The new counter after incrementation.
+     * @return The new counter after incrementation. If other threads increment the window at the same time, their
+     *         increments may or may not be included, but the returned count always includes this one.
      */
     public long increment() {
-        return counter.incrementAndGet();
+        counter.increment();
+        return counter.sum();
+    }
+
+    /**
+     * Marks the window as used since the last time it was examined for eviction. The flag is only written if it is not
+     * already set, so frequently used windows are not written to on every access.
+     */
+    void markReferenced() {
+        if (!isReferenced) {
+            isReferenced = true;
+        }
+    }
+
+    /**
+     * Clears the flag set by {@link #markReferenced()}.
+     *
+     * @return True if the window was used since the flag was last cleared.
+     */
+    boolean clearReferenced() {
+        if (isReferenced) {
+            isReferenced = false;
+            return true;
+        }
+        return false;
     }
 
     /**
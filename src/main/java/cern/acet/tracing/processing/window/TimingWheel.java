@@ -0,0 +1,178 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel that expires elements at a given deadline, with a resolution of one tick. The lowest
+ * level has {@value #SLOTS_PER_LEVEL} slots of one tick each, the next level has {@value #SLOTS_PER_LEVEL} slots of
+ * {@value #SLOTS_PER_LEVEL} ticks each, and so on. Elements far in the future are placed in a coarse level and moved
+ * down a level (cascaded) as their deadline approaches. Scheduling an element is therefore O(1), and advancing the wheel
+ * only touches the elements that expire or cascade, no matter how many elements are waiting.
+ * <p>
+ * The wheel is <b>not</b> thread-safe; it is meant to be owned by the single thread that advances it.
+ * </p>
+ *
+ * @param <E> The type of elements to expire.
+ * @author jepeders
+ */
+final class TimingWheel<E> {
+
+    private static final int BITS_PER_LEVEL = 6;
+    private static final int SLOTS_PER_LEVEL = 1 << BITS_PER_LEVEL;
+    private static final int SLOT_MASK = SLOTS_PER_LEVEL - 1;
+    private static final int LEVELS = (Long.SIZE + BITS_PER_LEVEL - 1) / BITS_PER_LEVEL;
+
+    private final long tickMillis;
+    private final List<List<Entry<E>>[]> levels = new ArrayList<>(LEVELS);
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty wheel.
+     *
+     * @param tickMillis The resolution of the wheel in milliseconds. Must be positive.
+     * @param startMillis The current time in milliseconds since the epoch.
+     * @throws IllegalArgumentException If the tick is zero or less.
+     */
+    TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("The tick of a timing wheel must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * Schedules the element to expire at the first tick at or after the given deadline. Deadlines in the past expire
+     * at the next tick.
+     *
+     * @param element The element to expire.
+     * @param deadlineMillis The deadline in milliseconds since the epoch.
+     */
+    void schedule(E element, long deadlineMillis) {
+        final long deadlineTick = Math.max(currentTick + 1, ceilDiv(deadlineMillis, tickMillis));
+        insert(new Entry<>(element, deadlineTick));
+        size++;
+    }
+
+    /**
+     * Advances the wheel to the given time, handing every element whose deadline has passed to the given action, in the
+     * order of their deadlines (with tick resolution).
+     *
+     * @param nowMillis The current time in milliseconds since the epoch.
+     * @param expiredAction The action to perform on the expired elements.
+     */
+    void advance(long nowMillis, Consumer<E> expiredAction) {
+        final long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                currentTick = targetTick;
+                return;
+            }
+            currentTick++;
+            cascade();
+            final List<Entry<E>> expired = removeSlot(0, (int) (currentTick & SLOT_MASK));
+            if (expired != null) {
+                size -= expired.size();
+                expired.forEach(entry -> expiredAction.accept(entry.element));
+            }
+        }
+    }
+
+    /**
+     * @return The number of elements waiting to expire.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The resolution of the wheel in milliseconds.
+     */
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Moves the elements of the coarser levels one level down when the current tick reaches their slot. Higher levels
+     * are cascaded first, so an element can fall through several levels in one tick.
+     */
+    private void cascade() {
+        for (int level = levels.size() - 1; level > 0; level--) {
+            final int shift = level * BITS_PER_LEVEL;
+            if ((currentTick & ((1L << shift) - 1)) == 0) {
+                final List<Entry<E>> entries = removeSlot(level, (int) ((currentTick >>> shift) & SLOT_MASK));
+                if (entries != null) {
+                    entries.forEach(this::insert);
+                }
+            }
+        }
+    }
+
+    /**
+     * Inserts the entry in the level given by the most significant bit in which its deadline differs from the current
+     * tick. Entries that are due now end in the current slot of the lowest level.
+     */
+    private void insert(Entry<E> entry) {
+        final long difference = entry.deadlineTick ^ currentTick;
+        final int level = difference == 0 ? 0 : (Long.SIZE - 1 - Long.numberOfLeadingZeros(difference))
+                / BITS_PER_LEVEL;
+        final int slot = (int) ((entry.deadlineTick >>> (level * BITS_PER_LEVEL)) & SLOT_MASK);
+        final List<Entry<E>>[] slots = getLevel(level);
+        if (slots[slot] == null) {
+            slots[slot] = new ArrayList<>();
+        }
+        slots[slot].add(entry);
+    }
+
+    private List<Entry<E>> removeSlot(int level, int slot) {
+        if (level >= levels.size()) {
+            return null;
+        }
+        final List<Entry<E>>[] slots = levels.get(level);
+        final List<Entry<E>> entries = slots[slot];
+        slots[slot] = null;
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entry<E>>[] getLevel(int level) {
+        while (levels.size() <= level) {
+            levels.add((List<Entry<E>>[]) new List<?>[SLOTS_PER_LEVEL]);
+        }
+        return levels.get(level);
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    /**
+     * An element in the wheel and the tick at which it expires.
+     */
+    private static final class Entry<E> {
+
+        private final E element;
+        private final long deadlineTick;
+
+        private Entry(E element, long deadlineTick) {
+            this.element = element;
+            this.deadlineTick = deadlineTick;
+        }
+
+    }
+
+}
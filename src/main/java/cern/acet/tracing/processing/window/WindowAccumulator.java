@@ -0,0 +1,36 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import cern.acet.tracing.Message;
+
+/**
+ * State that is kept for each {@link MessageWindow} besides its count, for instance sums or sketches of the values of
+ * the messages in the window. The {@link WindowManager} hands every message that is counted in a window to its
+ * accumulator, and only closes the window once all messages have been accumulated. Create a {@link WindowManager}
+ * with accumulators via {@link WindowManager.Builder#setAccumulatorFactory(java.util.function.Function)}.
+ *
+ * @param <MessageType> The type of {@link Message} to accumulate.
+ * @author jepeders
+ */
+@FunctionalInterface
+public interface WindowAccumulator<MessageType extends Message<MessageType>> {
+
+    /**
+     * Adds the given message to the state of the window. This method can be called from many threads at the same time,
+     * so implementations must be thread-safe.
+     *
+     * @param message The message that was counted in the window.
+     */
+    void accumulate(MessageType message);
+
+}
@@ -11,62 +11,390 @@
 
 package cern.acet.tracing.processing.window;
 
+import java.io.IOException;
 import java.time.Clock;
 import java.time.Duration;
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import cern.acet.tracing.Message;
+import cern.acet.tracing.processing.snapshot.MessageCodec;
+import cern.acet.tracing.processing.snapshot.SnapshotReader;
+import cern.acet.tracing.processing.snapshot.SnapshotWriter;
+import cern.acet.tracing.processing.snapshot.Snapshottable;
 
 /**
  * Contains and manages time-based {@link MessageWindow}s that counts the number of occurrences for each message. The
  * {@link #increment(Message)} checks for the occurrence of the fingerprint of the given message and increments a
- * counter each time the same message is seen. The windows will automatically be closed if it is older than the decay
- * time, given in the constructor. The manager also schedules a clean-up of old {@link MessageWindow}s every time ten
- * window durations passes.
+ * counter each time the same message is seen. Each window is closed when the window duration, given in the
+ * constructor, has passed since the window was opened. The expiry is timed by the system clock, so with the default
+ * clock this is the window duration after {@link MessageWindow#getStartTime()}.
+ * <p>
+ * Windows are stored under the 64-bit fingerprint of the {@link FingerprintStrategy} (see
+ * {@link FingerprintStrategy#getLongFingerprint(Message)}).
+ * </p>
+ * <h2>Expiry</h2>
+ * <p>
+ * The deadlines of the open windows are kept in a hierarchical {@link TimingWheel} with a resolution of
+ * 1/{@value #TICKS_PER_WINDOW} of the window duration. The wheel is advanced by a {@link WindowScheduler}, and only the
+ * windows whose deadline passed since the last tick are touched, so the expiry work is spread evenly over time instead
+ * of closing every window at once. The scheduler can be shared between many managers; a manager that is created
+ * without one gets a private scheduler. Either way, the manager should be {@link #close()}d when it is no longer used.
+ * </p>
+ * <h2>Concurrency</h2>
+ * <p>
+ * Increments do not lock. The open windows are kept in a {@link ConcurrentHashMap} and their counters are
+ * {@link java.util.concurrent.atomic.LongAdder}s. New windows are handed to the ticking thread through a concurrent
+ * queue, so only that thread touches the wheel. When windows expire, they are removed from the map and the ticking
+ * thread waits (see {@link WriterPhaser}) for the increments that may still hold them, before the windows are handed
+ * to the closed windows. That way no count is lost.
+ * </p>
+ * <h2>Bounded memory</h2>
+ * <p>
+ * Every open window holds a copy of the message that opened it, so a stream with many distinct fingerprints can hold
+ * a lot of memory. The number of open windows can be capped in the constructor. When a new window would exceed the
+ * cap, the least recently used windows are closed early and emitted like expired windows. Recency is approximated with
+ * the CLOCK algorithm: an increment only sets a flag on the window, and the eviction sweeps the windows in the order
+ * they were opened, giving a second chance to windows whose flag is set. New windows are not flagged until they are
+ * used again, so a flood of one-off fingerprints evicts its own windows before the ones that repeat. The memory held
+ * by the open windows is estimated as they open and close, see {@link #getEstimatedSizeInBytes()}.
+ * </p>
+ * <h2>Event time</h2>
+ * <p>
+ * By default windows are timed by the time the messages are processed. A manager built with
+ * {@link Builder#setEventTime(EventTimeStrategy, Duration)} instead times the windows by the time the messages were
+ * produced, so backfilling old files at full speed gives the same counts as reading them live. Event-time windows are
+ * tumbling: a message belongs to the window of its fingerprint that starts at its event time rounded down to the
+ * window duration, regardless of the order in which the messages arrive. The windows are closed by a watermark, which
+ * trails the highest event time seen by the allowed lateness. Messages older than the watermark are late; they are not
+ * counted in any window, but in {@link #getLateMessageCount()}. When no newer messages arrive for one window duration,
+ * the watermark follows the system clock, so the last windows of a stream that goes quiet are closed as well.
+ * </p>
+ * <h2>Snapshots</h2>
+ * <p>
+ * The open windows can be saved and restored across restarts via {@link #getSnapshottable(MessageCodec)} and a
+ * {@link cern.acet.tracing.processing.snapshot.StateSnapshotter}. Each snapshot writes the windows whose count changed
+ * and removes the windows that closed since the last one. Restored windows keep their start time and count, and close
+ * one window duration after they started, so windows that should have closed during the restart close right away.
+ * Accumulators are not saved, so managers with accumulators cannot be snapshotted. The windows are saved under their
+ * 64-bit fingerprint, so managers whose {@link FingerprintStrategy} is not
+ * {@link FingerprintStrategy#isStableAcrossRestarts() stable across restarts} cannot be snapshotted either.
+ * </p>
  *
  * @param <MessageType> The type of {@link Message} to manage.
  * @author jepeders
  */
-public class WindowManager<MessageType extends Message<MessageType>> {
+public class WindowManager<MessageType extends Message<MessageType>> implements AutoCloseable {
+
+    /**
+     * The number of ticks of the timing wheel in one window duration.
+     */
+    static final int TICKS_PER_WINDOW = 64;
+
+    /**
+     * The maximum number of open windows that means no maximum.
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    /**
+     * The estimated number of bytes held by an open window besides its message: the map entry, the window with its
+     * counter and start time, and the entries in the timing wheel and the eviction order.
+     */
+    static final long WINDOW_OVERHEAD_BYTES = 192;
+
+    /**
+     * The kind of the snapshot records of the open windows.
+     */
+    public static final int SNAPSHOT_WINDOW_KIND = 1;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WindowManager.class);
 
     private final LinkedBlockingQueue<MessageWindow<MessageType>> closedWindows = new LinkedBlockingQueue<MessageWindow<MessageType>>();
-    private final Map<String, MessageWindow<MessageType>> messageWindows = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ConcurrentHashMap<Long, MessageWindow<MessageType>> messageWindows = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<OpenWindow<MessageType>> openedWindows = new ConcurrentLinkedQueue<>();
+    private final ArrayDeque<OpenWindow<MessageType>> recentWindows = new ArrayDeque<>();
+    private final LongAdder estimatedSizeInBytes = new LongAdder();
+    private final LongAdder evictedWindowCount = new LongAdder();
+    private final WriterPhaser writers = new WriterPhaser();
+    private final WindowScheduler scheduler;
+    private final boolean isOwningScheduler;
     private final FingerprintStrategy<MessageType> strategy;
     private final Duration windowDuration;
+    private final String name;
+    private final int maxOpenWindows;
+    private final Function<MessageType, WindowAccumulator<MessageType>> accumulatorFactory;
+
+    /* Event time, if the windows are timed by the messages */
+    private final EventTimeStrategy<MessageType> eventTimeStrategy;
+    private final long allowedLatenessMillis;
+    private final AtomicLong maxEventTimeMillis = new AtomicLong(Long.MIN_VALUE);
+    private final LongAdder lateMessageCount = new LongAdder();
+    private volatile long lastEventTimeAdvanceMillis;
+    private volatile long watermarkMillis = Long.MIN_VALUE;
 
     /**
-     * Creates a manager for {@link MessageWindow}s.
+     * The keys of the windows closed since the last snapshot, or null if the windows are not snapshotted.
+     */
+    private volatile ConcurrentLinkedQueue<Long> closedSinceSnapshot;
+
+    /* The wheel runs on event time if the windows are timed by the messages, so it is created with the first window */
+    private TimingWheel<OpenWindow<MessageType>> wheel;
+
+    /**
+     * Creates a manager for {@link MessageWindow}s with its own {@link WindowScheduler}, which ticks with the resolution
+     * of the timing wheel.
      *
      * @param duration The duration of the windows.
      * @param strategy A function to determine a unique 'fingerprint' for a message.
      */
     public WindowManager(Duration duration, FingerprintStrategy<MessageType> strategy) {
-        this.windowDuration = duration;
-        this.strategy = strategy;
+        this(duration, strategy, UNBOUNDED);
+    }
+
+    /**
+     * Creates a manager for {@link MessageWindow}s with its own {@link WindowScheduler} and at most the given number of
+     * open windows.
+     *
+     * @param duration The duration of the windows.
+     * @param strategy A function to determine a unique 'fingerprint' for a message.
+     * @param maxOpenWindows The maximum number of windows that can be open at the same time, or {@link #UNBOUNDED}.
+     * @throws IllegalArgumentException If the maximum is zero or less.
+     */
+    public WindowManager(Duration duration, FingerprintStrategy<MessageType> strategy, int maxOpenWindows) {
+        this(WindowManager.<MessageType> builder().setWindowDuration(duration).setFingerprintStrategy(strategy)
+                .setMaxOpenWindows(maxOpenWindows));
+    }
+
+    /**
+     * Creates a manager for {@link MessageWindow}s whose windows are expired by the given, shared
+     * {@link WindowScheduler}.
+     *
+     * @param duration The duration of the windows.
+     * @param strategy A function to determine a unique 'fingerprint' for a message.
+     * @param scheduler The scheduler to expire the windows.
+     * @param name The name to report the window counts of this manager under, see
+     *            {@link WindowScheduler#getOpenWindowCounts()}.
+     * @throws IllegalStateException If the scheduler is closed.
+     */
+    public WindowManager(Duration duration, FingerprintStrategy<MessageType> strategy, WindowScheduler scheduler,
+            String name) {
+        this(duration, strategy, scheduler, name, UNBOUNDED);
+    }
+
+    /**
+     * Creates a manager for {@link MessageWindow}s whose windows are expired by the given, shared
+     * {@link WindowScheduler}, with at most the given number of open windows.
+     *
+     * @param duration The duration of the windows.
+     * @param strategy A function to determine a unique 'fingerprint' for a message.
+     * @param scheduler The scheduler to expire the windows.
+     * @param name The name to report the window counts of this manager under, see
+     *            {@link WindowScheduler#getOpenWindowCounts()}.
+     * @param maxOpenWindows The maximum number of windows that can be open at the same time, or {@link #UNBOUNDED}.
+     * @throws IllegalArgumentException If the maximum is zero or less.
+     * @throws IllegalStateException If the scheduler is closed.
+     */
+    public WindowManager(Duration duration, FingerprintStrategy<MessageType> strategy, WindowScheduler scheduler,
+            String name, int maxOpenWindows) {
+        this(WindowManager.<MessageType> builder().setWindowDuration(duration).setFingerprintStrategy(strategy)
+                .setWindowScheduler(scheduler, name).setMaxOpenWindows(maxOpenWindows));
+    }
+
+    private WindowManager(Builder<MessageType> builder) {
+        if (builder.windowDuration == null || builder.windowDuration.isZero() || builder.windowDuration.isNegative()) {
+            throw new IllegalArgumentException("The window duration must be set and cannot be zero or less");
+        }
+        if (builder.strategy == null) {
+            throw new IllegalArgumentException("FingerprintStrategy must be set");
+        }
+        if (builder.maxOpenWindows <= 0) {
+            throw new IllegalArgumentException("The maximum number of open windows must be positive");
+        }
+        this.maxOpenWindows = builder.maxOpenWindows;
+        this.windowDuration = builder.windowDuration;
+        this.strategy = builder.strategy;
+        this.eventTimeStrategy = builder.eventTimeStrategy;
+        this.allowedLatenessMillis = builder.allowedLateness.toMillis();
+        this.name = builder.name;
+        this.accumulatorFactory = builder.accumulatorFactory;
+        if (builder.scheduler == null) {
+            this.scheduler = new WindowScheduler(Duration.ofMillis(getTickMillis(windowDuration)));
+            this.isOwningScheduler = true;
+        } else {
+            this.scheduler = builder.scheduler;
+            this.isOwningScheduler = false;
+        }
+        if (eventTimeStrategy == null) {
+            this.wheel = new TimingWheel<>(getTickMillis(windowDuration), System.currentTimeMillis());
+        }
+
+        scheduler.register(this);
+    }
+
+    /**
+     * @return A builder that can help build a {@link WindowManager}.
+     * @param <MessageType> The type of {@link Message} to manage.
+     */
+    public static <MessageType extends Message<MessageType>> Builder<MessageType> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Stops expiring the windows of this manager. If the manager owns its {@link WindowScheduler}, the scheduler is
+     * closed as well.
+     */
+    @Override
+    public void close() {
+        scheduler.unregister(this);
+        if (isOwningScheduler) {
+            scheduler.close();
+        }
+    }
 
-        /* Schedule closing of windows */
-        scheduler.scheduleWithFixedDelay(this::closeWindows, windowDuration.toMillis(), windowDuration.toMillis(),
-                TimeUnit.MILLISECONDS);
+    /**
+     * Closes the windows whose deadline has passed at the given time, by removing them from the open windows and adding
+     * them to the queue of closed windows.
+     *
+     * @param nowMillis The current time in milliseconds since the epoch.
+     */
+    synchronized void expireWindows(long nowMillis) {
+        final long wheelMillis = eventTimeStrategy == null ? nowMillis : advanceWatermark(nowMillis);
+        drainOpenedWindows();
+        if (wheel == null) {
+            /* No event-time windows have been opened yet */
+            return;
+        }
+
+        final List<MessageWindow<MessageType>> expiredWindows = new ArrayList<>();
+        wheel.advance(wheelMillis, expired -> {
+            /* Windows that were evicted are still in the wheel */
+            if (closeWindow(expired)) {
+                expiredWindows.add(expired.window);
+            }
+        });
+        emitClosedWindows(expiredWindows);
+
+        /* Drop expired windows from the eviction order once they make up most of it */
+        if (recentWindows.size() > 2 * messageWindows.size() + TICKS_PER_WINDOW) {
+            recentWindows.removeIf(recentWindow -> recentWindow.isClosed);
+        }
+    }
+
+    /**
+     * Moves the watermark to the highest event time seen minus the allowed lateness, or along the system clock if no
+     * newer messages arrived for one window duration. The watermark never moves backwards.
+     *
+     * @param nowMillis The current system time in milliseconds since the epoch.
+     * @return The new watermark in milliseconds since the epoch.
+     */
+    private long advanceWatermark(long nowMillis) {
+        final long maxEventTime = maxEventTimeMillis.get();
+        if (maxEventTime == Long.MIN_VALUE) {
+            return watermarkMillis;
+        }
+        long watermark = maxEventTime - allowedLatenessMillis;
+        final long idleMillis = nowMillis - lastEventTimeAdvanceMillis;
+        if (idleMillis > windowDuration.toMillis()) {
+            watermark += idleMillis - windowDuration.toMillis();
+        }
+        if (watermark > watermarkMillis) {
+            watermarkMillis = watermark;
+        }
+        return watermarkMillis;
     }
 
     /**
-     * Closes the currently open windows by removing them from the list of open windows and adding them to queue of
-     * closed windows.
-     * 
-     * @param clock A clock to use for dependency injection.
+     * Closes the least recently used windows until the number of open windows is within the maximum.
+     *
+     * @param openedWindow The window whose opening exceeded the maximum. It is the most recently used window, so it
+     *            is not evicted even though it has not been marked yet.
      */
-    private synchronized void closeWindows() {
-        Map<String, MessageWindow<MessageType>> windowsToClose = new HashMap<>(messageWindows);
-        windowsToClose.entrySet().stream().forEach(entry -> closeWindow(entry.getKey(), entry.getValue()));
+    private synchronized void evictWindows(OpenWindow<MessageType> openedWindow) {
+        drainOpenedWindows();
+
+        final List<MessageWindow<MessageType>> evictedWindows = new ArrayList<>();
+        /* Windows can be marked again while we sweep, so only give second chances for two rounds */
+        int secondChances = 2 * recentWindows.size();
+        while (messageWindows.size() > maxOpenWindows && !recentWindows.isEmpty()) {
+            final OpenWindow<MessageType> candidate = recentWindows.poll();
+            if (candidate.isClosed) {
+                continue;
+            }
+            if (candidate == openedWindow) {
+                if (recentWindows.isEmpty()) {
+                    recentWindows.add(candidate);
+                    break;
+                }
+                recentWindows.add(candidate);
+            } else if (secondChances > 0 && candidate.window.clearReferenced()) {
+                secondChances--;
+                recentWindows.add(candidate);
+            } else if (closeWindow(candidate)) {
+                evictedWindows.add(candidate.window);
+            }
+        }
+        evictedWindowCount.add(evictedWindows.size());
+        emitClosedWindows(evictedWindows);
+    }
+
+    /**
+     * Moves the windows opened since the last call into the timing wheel and, if the windows are bounded, the eviction
+     * order. Must be called while holding the lock of this manager.
+     */
+    private void drainOpenedWindows() {
+        OpenWindow<MessageType> openedWindow;
+        while ((openedWindow = openedWindows.poll()) != null) {
+            if (wheel == null) {
+                /* Start the event-time wheel at the first window; earlier windows expire at its first tick */
+                wheel = new TimingWheel<>(getTickMillis(windowDuration), openedWindow.deadlineMillis
+                        - windowDuration.toMillis());
+            }
+            wheel.schedule(openedWindow, openedWindow.deadlineMillis);
+            if (maxOpenWindows != UNBOUNDED) {
+                recentWindows.add(openedWindow);
+            }
+        }
+    }
+
+    /**
+     * Removes the given window from the open windows. Must be called while holding the lock of this manager.
+     *
+     * @return True if the window was open, false if it was already closed.
+     */
+    private boolean closeWindow(OpenWindow<MessageType> openWindow) {
+        if (openWindow.isClosed) {
+            return false;
+        }
+        openWindow.isClosed = true;
+        messageWindows.remove(openWindow.fingerprint, openWindow.window);
+        estimatedSizeInBytes.add(-openWindow.sizeInBytes);
+        final ConcurrentLinkedQueue<Long> closedKeys = closedSinceSnapshot;
+        if (closedKeys != null) {
+            closedKeys.add(openWindow.fingerprint);
+        }
+        return true;
+    }
+
+    private void emitClosedWindows(List<MessageWindow<MessageType>> windows) {
+        if (!windows.isEmpty()) {
+            /* Wait for increments that found the windows before they were removed */
+            writers.flipPhase();
+            closedWindows.addAll(windows);
+        }
     }
 
     /**
@@ -86,25 +414,120 @@ public class WindowManager<MessageType extends Message<MessageType>> {
     }
 
     /**
-     * Closes a window if it is older than the decay duration by removing it from the active windows. The window is put
-     * in a list of decayed windows.
+     * Estimates the number of bytes held by the open windows, including the messages that opened them. The estimate
+     * is updated as windows open and close, so it is cheap to read.
      *
-     * @param fingerprint The fingerprint of the window.
-     * @param window The window to decay, if it's old enough.
+     * @return The estimated number of bytes.
+     */
+    public long getEstimatedSizeInBytes() {
+        return estimatedSizeInBytes.sum();
+    }
+
+    /**
+     * @return The number of messages that arrived after the watermark had passed the end of their event-time window.
+     *         Always 0 for windows timed by the processing time.
+     */
+    public long getLateMessageCount() {
+        return lateMessageCount.sum();
+    }
+
+    /**
+     * @return The watermark of the event-time windows, or {@link Optional#empty()} if the windows are timed by the
+     *         processing time or no windows have been closed yet.
+     */
+    public Optional<Instant> getWatermark() {
+        final long watermark = watermarkMillis;
+        return watermark == Long.MIN_VALUE ? Optional.empty() : Optional.of(Instant.ofEpochMilli(watermark));
+    }
+
+    /**
+     * @return The number of windows that were closed early, because the maximum number of open windows was reached.
+     */
+    public long getEvictedWindowCount() {
+        return evictedWindowCount.sum();
+    }
+
+    /**
+     * @return The maximum number of windows that can be open at the same time, or {@link #UNBOUNDED}.
+     */
+    public int getMaxOpenWindows() {
+        return maxOpenWindows;
+    }
+
+    /**
+     * @return The name this manager reports its window counts under.
      */
-    private synchronized void closeWindow(String fingerprint, MessageWindow<MessageType> window) {
-        messageWindows.remove(fingerprint);
-        closedWindows.add(window);
+    public String getName() {
+        return name;
     }
 
     /**
-     * Returns the window associated with the given host name.
+     * @return The number of windows that are currently open.
+     */
+    public int getOpenWindowCount() {
+        return messageWindows.size();
+    }
+
+    /**
+     * Creates a {@link Snapshottable} that saves and restores the open windows of this manager. Only one should be
+     * created per manager.
+     *
+     * @param codec The codec to write and read the messages of the windows with.
+     * @return A {@link Snapshottable} of the open windows.
+     * @throws IllegalStateException If the manager has accumulators, which cannot be saved, or its 64-bit
+     *             fingerprints are not {@link FingerprintStrategy#isStableAcrossRestarts() stable across restarts}.
+     */
+    public Snapshottable getSnapshottable(MessageCodec<MessageType> codec) {
+        if (accumulatorFactory != null) {
+            throw new IllegalStateException("Windows with accumulators cannot be snapshotted");
+        }
+        if (!strategy.isStableAcrossRestarts()) {
+            throw new IllegalStateException("Windows with fingerprints that change across restarts cannot be "
+                    + "snapshotted");
+        }
+        closedSinceSnapshot = new ConcurrentLinkedQueue<>();
+        return new WindowSnapshot(codec);
+    }
+
+    /**
+     * Returns the window associated with the fingerprint of the given message.
+     *
+     * @param message The message whose fingerprint to search for.
+     * @return The window if it could be found.
+     */
+    public Optional<MessageWindow<MessageType>> getWindow(MessageType message) {
+        final long fingerprint = strategy.getLongFingerprint(message);
+        if (eventTimeStrategy == null) {
+            return getWindow(fingerprint);
+        }
+        final long eventMillis = eventTimeStrategy.getEventTime(message).map(Instant::toEpochMilli)
+                .orElse(maxEventTimeMillis.get());
+        return getWindow(getEventTimeKey(fingerprint, getWindowStartMillis(eventMillis)));
+    }
+
+    /**
+     * Returns the window associated with the given {@link String} fingerprint. The fingerprint is hashed with
+     * {@link FingerprintHasher#hash(CharSequence)}, like the default {@link FingerprintStrategy#getLongFingerprint(Message)}
+     * and the strategies from {@link FingerprintStrategy#ofFields(String...)} do, so windows of strategies with their
+     * own 64-bit fingerprints are better found with {@link #getWindow(Message)}.
      *
-     * @param hostName The name to search for.
+     * @param fingerprint The fingerprint to search for.
      * @return The window if it could be found.
      */
-    public Optional<MessageWindow<MessageType>> getWindow(String hostName) {
-        return Optional.ofNullable(messageWindows.get(hostName));
+    public Optional<MessageWindow<MessageType>> getWindow(String fingerprint) {
+        return getWindow(FingerprintHasher.hash(fingerprint));
+    }
+
+    /**
+     * Returns the window associated with the given 64-bit key. For windows timed by the processing time, the key is the
+     * fingerprint of the {@link FingerprintStrategy}. Event-time windows also depend on the window start, so they are
+     * easier to find with {@link #getWindow(Message)}.
+     *
+     * @param fingerprint The key to search for.
+     * @return The window if it could be found.
+     */
+    public Optional<MessageWindow<MessageType>> getWindow(long fingerprint) {
+        return Optional.ofNullable(messageWindows.get(fingerprint));
     }
 
     /**
@@ -121,23 +544,350 @@ public class WindowManager<MessageType extends Message<MessageType>> {
 
     /**
      * Increments the counter for the given message, whose fingerprint is taken using the {@link FingerprintStrategy}
-     * provided in the constructor. The message is synchronized to avoid concurrent operations on the internal list of
-     * message windows.
+     * provided in the constructor. This method can safely be called from many threads at the same time.
      *
      * @param message The message whose counter to increment.
      * @param clock The clock to use when examining if {@link MessageWindow}s have decayed.
      * @return A positive integer denoting the current count of the message-window. 1 if the message has not been stored
      *         before.
      */
-    public synchronized long increment(MessageType message, Clock clock) {
-        final String fingerprint = strategy.getFingerprint(message);
-        final boolean contains = messageWindows.containsKey(fingerprint);
-        if (!contains) {
-            messageWindows.put(fingerprint, new MessageWindow<MessageType>(message.copy(), clock));
-            return 1;
+    public long increment(MessageType message, Clock clock) {
+        return increment(message, strategy.getLongFingerprint(message), clock);
+    }
+
+    /**
+     * Increments the counter for the given message, using a 64-bit fingerprint that the caller already took with the
+     * {@link FingerprintStrategy} of this manager. This avoids taking the same fingerprint twice.
+     *
+     * @param message The message whose counter to increment.
+     * @param fingerprint The 64-bit fingerprint of the message, as returned by
+     *            {@link FingerprintStrategy#getLongFingerprint(Message)}.
+     * @param clock The clock to use when examining if {@link MessageWindow}s have decayed.
+     * @return A positive integer denoting the current count of the message-window. 1 if the message has not been stored
+     *         before. Concurrent increments of the same window may be included in the count.
+     */
+    public long increment(MessageType message, long fingerprint, Clock clock) {
+        final long key;
+        final long windowStartMillis;
+        if (eventTimeStrategy == null) {
+            key = fingerprint;
+            windowStartMillis = clock.millis();
         } else {
-            final MessageWindow<MessageType> messageWindow = messageWindows.get(fingerprint);
-            return messageWindow.increment();
+            windowStartMillis = getWindowStartMillis(observeEventTime(message, clock));
+            if (windowStartMillis + windowDuration.toMillis() <= watermarkMillis) {
+                lateMessageCount.increment();
+                return 1;
+            }
+            key = getEventTimeKey(fingerprint, windowStartMillis);
+        }
+
+        final OpenWindow<MessageType> openedWindow;
+        final int token = writers.enter();
+        try {
+            /* Look up before computing, since computeIfAbsent locks the bin even if the key is present */
+            final MessageWindow<MessageType> window = messageWindows.get(key);
+            if (window != null) {
+                window.markReferenced();
+                window.accumulate(message);
+                return window.increment();
+            }
+
+            final MessageType messageCopy = message.copy();
+            final MessageWindow<MessageType> newWindow = new MessageWindow<>(messageCopy,
+                    Instant.ofEpochMilli(windowStartMillis), accumulatorFactory == null ? null : accumulatorFactory
+                            .apply(messageCopy));
+            final MessageWindow<MessageType> existingWindow = messageWindows.putIfAbsent(key, newWindow);
+            if (existingWindow != null) {
+                existingWindow.markReferenced();
+                existingWindow.accumulate(message);
+                return existingWindow.increment();
+            }
+            newWindow.accumulate(message);
+            /* Processing-time windows expire by the system clock, event-time windows by the watermark */
+            final long deadlineMillis = eventTimeStrategy == null ? System.currentTimeMillis()
+                    + windowDuration.toMillis() : windowStartMillis + windowDuration.toMillis();
+            final long sizeInBytes = WINDOW_OVERHEAD_BYTES + estimateSizeInBytes(messageCopy);
+            estimatedSizeInBytes.add(sizeInBytes);
+            openedWindow = new OpenWindow<>(key, newWindow, deadlineMillis, sizeInBytes);
+            openedWindows.add(openedWindow);
+        } finally {
+            writers.exit(token);
         }
+
+        /* Evict outside the writer phase, since the eviction waits for the writers */
+        if (maxOpenWindows != UNBOUNDED && messageWindows.size() > maxOpenWindows) {
+            evictWindows(openedWindow);
+        }
+        return 1;
+    }
+
+    /**
+     * Opens a window restored from a snapshot, unless a window with the same key is already open.
+     *
+     * @param key The key of the window.
+     * @param message The message that opened the window.
+     * @param startMillis The start time of the window in milliseconds since the epoch.
+     * @param count The count of the window.
+     */
+    private void restoreWindow(long key, MessageType message, long startMillis, long count) {
+        final MessageWindow<MessageType> window = new MessageWindow<>(message, Instant.ofEpochMilli(startMillis));
+        window.restoreCount(count);
+        window.setSnapshotCount(count);
+        if (messageWindows.putIfAbsent(key, window) != null) {
+            return;
+        }
+        final long sizeInBytes = WINDOW_OVERHEAD_BYTES + estimateSizeInBytes(message);
+        estimatedSizeInBytes.add(sizeInBytes);
+        openedWindows.add(new OpenWindow<>(key, window, startMillis + windowDuration.toMillis(), sizeInBytes));
+        if (eventTimeStrategy != null) {
+            long maxEventTime = maxEventTimeMillis.get();
+            while (startMillis > maxEventTime && !maxEventTimeMillis.compareAndSet(maxEventTime, startMillis)) {
+                maxEventTime = maxEventTimeMillis.get();
+            }
+            lastEventTimeAdvanceMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Takes the event time of the message and raises the highest event time seen. Messages without an event time are
+     * assumed to be in order, so they get the highest event time seen, or the time of the clock if none was seen.
+     *
+     * @return The event time of the message in milliseconds since the epoch.
+     */
+    private long observeEventTime(MessageType message, Clock clock) {
+        long maxEventTime = maxEventTimeMillis.get();
+        final long eventMillis = eventTimeStrategy.getEventTime(message).map(Instant::toEpochMilli)
+                .orElse(maxEventTime == Long.MIN_VALUE ? clock.millis() : maxEventTime);
+        while (eventMillis > maxEventTime) {
+            if (maxEventTimeMillis.compareAndSet(maxEventTime, eventMillis)) {
+                lastEventTimeAdvanceMillis = System.currentTimeMillis();
+                break;
+            }
+            maxEventTime = maxEventTimeMillis.get();
+        }
+        return eventMillis;
+    }
+
+    private long getWindowStartMillis(long eventMillis) {
+        final long durationMillis = windowDuration.toMillis();
+        return Math.floorDiv(eventMillis, durationMillis) * durationMillis;
+    }
+
+    private static long getEventTimeKey(long fingerprint, long windowStartMillis) {
+        return FingerprintHasher.hash(fingerprint, windowStartMillis);
     }
+
+    /**
+     * Roughly estimates the bytes held by a message, assuming a hash map of fields with string or boxed values.
+     *
+     * @param message The message to estimate the size of.
+     * @return The estimated number of bytes.
+     */
+    static long estimateSizeInBytes(Message<?> message) {
+        /* The message object and its map */
+        long size = 64;
+        for (Map.Entry<String, Object> entry : message.toMap().entrySet()) {
+            /* The map node and its table slot */
+            size += 40 + estimateSizeInBytes(entry.getKey()) + estimateSizeInBytes(entry.getValue());
+        }
+        return size;
+    }
+
+    private static long estimateSizeInBytes(Object value) {
+        if (value instanceof CharSequence) {
+            return 40 + 2L * ((CharSequence) value).length();
+        }
+        return 16;
+    }
+
+    private static long getTickMillis(Duration windowDuration) {
+        return Math.max(1, windowDuration.toMillis() / TICKS_PER_WINDOW);
+    }
+
+    /**
+     * A window that is waiting to expire, together with the fingerprint it is stored under, the system time at which
+     * it expires and its estimated size. The closed flag is only accessed while holding the lock of the manager.
+     *
+     * @param <MessageType> The type of {@link Message} in the window.
+     */
+    private static final class OpenWindow<MessageType extends Message<MessageType>> {
+
+        private final long fingerprint;
+        private final MessageWindow<MessageType> window;
+        private final long deadlineMillis;
+        private final long sizeInBytes;
+        private boolean isClosed = false;
+
+        private OpenWindow(long fingerprint, MessageWindow<MessageType> window, long deadlineMillis, long sizeInBytes) {
+            this.fingerprint = fingerprint;
+            this.window = window;
+            this.deadlineMillis = deadlineMillis;
+            this.sizeInBytes = sizeInBytes;
+        }
+
+    }
+
+    /**
+     * Writes and restores the open windows. A window record holds the start time, the count and the message of the
+     * window.
+     */
+    private final class WindowSnapshot implements Snapshottable {
+
+        private final MessageCodec<MessageType> codec;
+
+        private WindowSnapshot(MessageCodec<MessageType> codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void writeSnapshot(SnapshotWriter writer, boolean isFull) throws IOException {
+            /* Removals come first, since a closed window can be opened again under the same key */
+            Long closedKey;
+            while ((closedKey = closedSinceSnapshot.poll()) != null) {
+                if (!isFull) {
+                    writer.remove(SNAPSHOT_WINDOW_KIND, closedKey);
+                }
+            }
+            for (Map.Entry<Long, MessageWindow<MessageType>> entry : messageWindows.entrySet()) {
+                final MessageWindow<MessageType> window = entry.getValue();
+                final long count = window.getCount();
+                if (!isFull && count == window.getSnapshotCount()) {
+                    continue;
+                }
+                try {
+                    writer.put(SNAPSHOT_WINDOW_KIND, entry.getKey(), output -> {
+                        output.writeLong(window.getStartTime().toEpochMilli());
+                        output.writeLong(count);
+                        codec.encode(window.getMessage(), output);
+                    });
+                    window.setSnapshotCount(count);
+                } catch (RuntimeException e) {
+                    /* The window closed and its message was changed while we wrote it, so it is removed next time */
+                }
+            }
+        }
+
+        @Override
+        public void restoreSnapshot(SnapshotReader reader) {
+            reader.getRecords(SNAPSHOT_WINDOW_KIND).forEach((key, record) -> {
+                try {
+                    final long startMillis = record.getLong();
+                    final long count = record.getLong();
+                    restoreWindow(key, codec.decode(record), startMillis, count);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Failed to restore window of {} from snapshot", name, e);
+                }
+            });
+            if (maxOpenWindows != UNBOUNDED && messageWindows.size() > maxOpenWindows) {
+                evictWindows(null);
+            }
+        }
+
+    }
+
+    /**
+     * A builder that can help build a {@link WindowManager}.
+     *
+     * @author jepeders
+     * @param <MessageType> The type of {@link Message} to manage in the built {@link WindowManager}.
+     */
+    public static class Builder<MessageType extends Message<MessageType>> {
+
+        private Duration windowDuration;
+        private FingerprintStrategy<MessageType> strategy;
+        private WindowScheduler scheduler;
+        private String name = WindowManager.class.getSimpleName();
+        private int maxOpenWindows = UNBOUNDED;
+        private EventTimeStrategy<MessageType> eventTimeStrategy;
+        private Duration allowedLateness = Duration.ZERO;
+        private Function<MessageType, WindowAccumulator<MessageType>> accumulatorFactory;
+
+        /**
+         * Builds an instance of a {@link WindowManager} using the current values of the builder.
+         *
+         * @return A {@link WindowManager}.
+         * @throws IllegalArgumentException If the window duration or the {@link FingerprintStrategy} is not set, or
+         *             the maximum number of open windows is zero or less.
+         * @throws IllegalStateException If the {@link WindowScheduler} is closed.
+         */
+        public WindowManager<MessageType> build() {
+            return new WindowManager<>(this);
+        }
+
+        /**
+         * Keeps additional state for each window in a {@link WindowAccumulator}, which is given every message that is
+         * counted in the window before the window is closed.
+         *
+         * @param accumulatorFactory A function that creates the accumulator of a new window from the message that
+         *            opened it.
+         * @return The same builder with the accumulator factory set.
+         */
+        public Builder<MessageType> setAccumulatorFactory(
+                Function<MessageType, WindowAccumulator<MessageType>> accumulatorFactory) {
+            this.accumulatorFactory = accumulatorFactory;
+            return this;
+        }
+
+        /**
+         * Times the windows by the time the messages were produced, instead of the time they are processed.
+         *
+         * @param eventTimeStrategy A strategy to take the event time from the messages.
+         * @param allowedLateness How far the event time of a message can be behind the highest event time seen, before
+         *            the message is considered late. Windows are closed this long after their end in event time.
+         * @return The same builder with event time set.
+         * @throws IllegalArgumentException If the allowed lateness is negative.
+         */
+        public Builder<MessageType> setEventTime(EventTimeStrategy<MessageType> eventTimeStrategy,
+                Duration allowedLateness) {
+            if (allowedLateness.isNegative()) {
+                throw new IllegalArgumentException("The allowed lateness cannot be negative");
+            }
+            this.eventTimeStrategy = eventTimeStrategy;
+            this.allowedLateness = allowedLateness;
+            return this;
+        }
+
+        /**
+         * @param strategy A function to determine a unique 'fingerprint' for a message.
+         * @return The same builder with its {@link FingerprintStrategy} set.
+         */
+        public Builder<MessageType> setFingerprintStrategy(FingerprintStrategy<MessageType> strategy) {
+            this.strategy = strategy;
+            return this;
+        }
+
+        /**
+         * @param maxOpenWindows The maximum number of windows that can be open at the same time. Defaults to
+         *            {@link WindowManager#UNBOUNDED}.
+         * @return The same builder with the maximum number of open windows set.
+         */
+        public Builder<MessageType> setMaxOpenWindows(int maxOpenWindows) {
+            this.maxOpenWindows = maxOpenWindows;
+            return this;
+        }
+
+        /**
+         * @param windowDuration The duration of the windows.
+         * @return The same builder with the window duration set.
+         */
+        public Builder<MessageType> setWindowDuration(Duration windowDuration) {
+            this.windowDuration = windowDuration;
+            return this;
+        }
+
+        /**
+         * @param scheduler A shared {@link WindowScheduler} to expire the windows. If not set, the manager creates its
+         *            own scheduler.
+         * @param name The name to report the window counts of the manager under, see
+         *            {@link WindowScheduler#getOpenWindowCounts()}.
+         * @return The same builder with the scheduler set.
+         */
+        public Builder<MessageType> setWindowScheduler(WindowScheduler scheduler, String name) {
+            this.scheduler = scheduler;
+            this.name = name;
+            return this;
+        }
+
+    }
+
 }
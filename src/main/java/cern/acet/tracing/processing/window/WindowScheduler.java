@@ -0,0 +1,159 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A service that expires the windows of many {@link WindowManager}s from one thread. Every tick, the scheduler advances
+ * the timing wheels of all the registered managers in one batch, so a pipeline with many window-based processors only
+ * needs a single timer thread.
+ * <p>
+ * A scheduler is typically owned by a {@link cern.acet.tracing.LogalikeImpl} instance (see
+ * {@link cern.acet.tracing.LogalikeImpl.Builder#getWindowScheduler()}), which closes it when Logalike closes. Window
+ * managers that are created without a scheduler get a private scheduler that is closed together with the manager.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class WindowScheduler implements AutoCloseable {
+
+    /**
+     * The default interval between two ticks.
+     */
+    public static final Duration DEFAULT_TICK = Duration.ofMillis(10);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WindowScheduler.class);
+
+    private final List<WindowManager<?>> managers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService executor;
+    private final Duration tick;
+    private volatile boolean isClosed = false;
+
+    /**
+     * Creates a scheduler that ticks every {@link #DEFAULT_TICK}.
+     */
+    public WindowScheduler() {
+        this(DEFAULT_TICK);
+    }
+
+    /**
+     * Creates a scheduler that ticks with the given interval. The interval is the resolution with which the windows of
+     * the registered managers are closed.
+     *
+     * @param tick The interval between two ticks. Must be at least one millisecond.
+     * @throws IllegalArgumentException If the tick is less than one millisecond.
+     */
+    public WindowScheduler(Duration tick) {
+        if (tick.toMillis() < 1) {
+            throw new IllegalArgumentException("The tick of the window scheduler must be at least one millisecond");
+        }
+        this.tick = tick;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "logalike-window-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::tick, tick.toMillis(), tick.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the scheduler. Windows of the registered managers are no longer closed after this call.
+     */
+    @Override
+    public void close() {
+        isClosed = true;
+        executor.shutdownNow();
+        managers.clear();
+    }
+
+    /**
+     * Counts the open windows of every registered {@link WindowManager}, by the name they were registered with.
+     * Managers that were registered under the same name are suffixed with <code>#</code> and a number.
+     *
+     * @return A map of manager names to the number of windows that are currently open, in the order the managers were
+     *         registered.
+     */
+    public Map<String, Integer> getOpenWindowCounts() {
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        for (WindowManager<?> manager : managers) {
+            String name = manager.getName();
+            for (int index = 2; counts.containsKey(name); index++) {
+                name = manager.getName() + "#" + index;
+            }
+            counts.put(name, manager.getOpenWindowCount());
+        }
+        return counts;
+    }
+
+    /**
+     * @return The interval between two ticks.
+     */
+    public Duration getTick() {
+        return tick;
+    }
+
+    /**
+     * @return True if the scheduler has been closed.
+     */
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     * Registers a manager, so its windows are expired on every tick.
+     *
+     * @param manager The manager to register.
+     * @throws IllegalStateException If the scheduler is closed.
+     */
+    void register(WindowManager<?> manager) {
+        if (isClosed) {
+            throw new IllegalStateException("Cannot register a window manager in a closed scheduler");
+        }
+        managers.add(manager);
+    }
+
+    /**
+     * Stops expiring the windows of the given manager.
+     *
+     * @param manager The manager to unregister.
+     */
+    void unregister(WindowManager<?> manager) {
+        managers.remove(manager);
+    }
+
+    /**
+     * Expires the windows of all the registered managers. Failures in one manager are logged, so they neither stop the
+     * other managers nor the scheduler.
+     */
+    private void tick() {
+        final long nowMillis = System.currentTimeMillis();
+        for (WindowManager<?> manager : managers) {
+            try {
+                manager.expireWindows(nowMillis);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to expire windows of " + manager.getName(), e);
+            }
+        }
+    }
+
+}
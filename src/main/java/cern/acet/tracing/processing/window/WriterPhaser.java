@@ -0,0 +1,86 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lets a single reader wait until all writers that could have seen some earlier state are done, without the writers
+ * taking any lock. Writers bracket their critical section with {@link #enter()} and {@link #exit(int)}. The reader
+ * first removes the state from the writers' view (for example removes a window from a map), then calls
+ * {@link #flipPhase()}. When that returns, every writer that could have seen the removed state has left its critical
+ * section.
+ * <p>
+ * The writers are counted in two sets of striped counters, one per phase. Flipping the phase sends new writers to the
+ * other set, so the reader only waits for writers that already entered.
+ * </p>
+ *
+ * @author jepeders
+ */
+final class WriterPhaser {
+
+    private static final int STRIPES = 64;
+
+    /**
+     * The distance between two stripes in the counter arrays, so each stripe lives on its own cache line.
+     */
+    private static final int STRIPE_PADDING = 8;
+
+    private final AtomicLongArray[] writers = { new AtomicLongArray(STRIPES * STRIPE_PADDING),
+            new AtomicLongArray(STRIPES * STRIPE_PADDING) };
+    private volatile int phase;
+
+    /**
+     * Registers the current thread as a writer. A thread always uses the same stripe, so a writer that backs out again
+     * can never make a stripe look smaller than the number of writers in it.
+     *
+     * @return A token to pass to {@link #exit(int)}.
+     */
+    int enter() {
+        final int stripe = (int) (Thread.currentThread().getId() % STRIPES) * STRIPE_PADDING;
+        while (true) {
+            final int currentPhase = phase;
+            writers[currentPhase].incrementAndGet(stripe);
+            if (currentPhase == phase) {
+                return currentPhase * STRIPES * STRIPE_PADDING + stripe;
+            }
+            /* The phase flipped before we were counted; count us in the new phase instead */
+            writers[currentPhase].decrementAndGet(stripe);
+        }
+    }
+
+    /**
+     * Unregisters a writer.
+     *
+     * @param token The token returned by {@link #enter()}.
+     */
+    void exit(int token) {
+        final int stripes = STRIPES * STRIPE_PADDING;
+        writers[token / stripes].decrementAndGet(token % stripes);
+    }
+
+    /**
+     * Flips the phase and waits until all the writers of the previous phase have exited. Only one thread may call this
+     * at a time.
+     */
+    void flipPhase() {
+        final int previousPhase = phase;
+        phase = previousPhase ^ 1;
+        final AtomicLongArray previousWriters = writers[previousPhase];
+        for (int stripe = 0; stripe < previousWriters.length(); stripe += STRIPE_PADDING) {
+            while (previousWriters.get(stripe) != 0) {
+                Thread.yield();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package demo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cern.acet.tracing.input.file.tailer.PositionTailer;
+import cern.acet.tracing.input.file.tailer.PositionTailerListener;
+
+/**
+ * A demonstration of how fast a {@link PositionTailer} reads and decodes a file. Two files are generated: one with
+ * ASCII lines only and one where every fourth line contains non-ASCII characters. Each file is read from the beginning
+ * a few times, and the throughput is printed to std::out.
+ * <p>
+ * The number of lines in each file can be given as the first argument.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class TailerThroughputDemonstration {
+
+    private static final int DEFAULT_LINE_COUNT = 2_000_000;
+    private static final int ROUNDS = 5;
+    private static final String ASCII_LINE = "2016-01-05 12:34:56.789 INFO [main] cern.acet.Demo - Processed request ";
+    private static final String MIXED_LINE = "2016-01-05 12:34:56.789 WARN [main] cern.acet.Demo - Grüße, Ελληνικά ";
+
+    public static void main(String[] args) throws Exception {
+        final int lineCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LINE_COUNT;
+        measure("ASCII", createFile(lineCount, false));
+        measure("Mixed", createFile(lineCount, true));
+    }
+
+    private static Path createFile(int lineCount, boolean isMixed) throws IOException {
+        final Path file = Files.createTempFile("logalike-throughput", ".log");
+        file.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int line = 0; line < lineCount; line++) {
+                writer.write(isMixed && line % 4 == 0 ? MIXED_LINE : ASCII_LINE);
+                writer.write(Integer.toString(line));
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+
+    private static void measure(String name, Path file) throws Exception {
+        final long size = Files.size(file);
+        for (int round = 0; round < ROUNDS; round++) {
+            final CountDownLatch isDone = new CountDownLatch(1);
+            final AtomicLong characters = new AtomicLong();
+            final PositionTailer tailer = PositionTailer.builder().setFile(file.toFile())
+                    .setFileCheckInterval(Duration.ofMillis(1)).setStartPositionAtBeginningOfFile()
+                    .setListener(new CountingListener(characters, size, isDone)).build();
+
+            final long start = System.nanoTime();
+            final Thread thread = new Thread(tailer, "Throughput demonstration");
+            thread.start();
+            isDone.await();
+            final long millis = Math.max(1, Duration.ofNanos(System.nanoTime() - start).toMillis());
+            tailer.stop();
+            thread.join();
+
+            System.out.printf("%s round %d: %d MB in %d ms, %d MB/s (%d characters)%n", name, round + 1,
+                    size / 1_000_000, millis, size / 1_000 / millis, characters.get());
+        }
+    }
+
+    /**
+     * Counts the decoded characters and signals when the tailer has read to the given position.
+     */
+    private static class CountingListener implements PositionTailerListener {
+
+        private final AtomicLong characters;
+        private final long endPosition;
+        private final CountDownLatch isDone;
+
+        CountingListener(AtomicLong characters, long endPosition, CountDownLatch isDone) {
+            this.characters = characters;
+            this.endPosition = endPosition;
+            this.isDone = isDone;
+        }
+
+        @Override
+        public void init(PositionTailer tailer) {
+            /* Nothing to initialise */
+        }
+
+        @Override
+        public void fileNotFound() {
+            isDone.countDown();
+        }
+
+        @Override
+        public void fileRotated() {
+            /* The file is not rotated */
+        }
+
+        @Override
+        public void handle(String line) {
+            characters.addAndGet(line.length());
+        }
+
+        @Override
+        public void handle(Exception exception) {
+            exception.printStackTrace();
+            isDone.countDown();
+        }
+
+        @Override
+        public void positionUpdated(long position) {
+            if (position >= endPosition) {
+                isDone.countDown();
+            }
+        }
+
+    }
+
+}
@@ -21,11 +21,14 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
 import cern.acet.tracing.input.file.store.FilePositionStore;
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -86,6 +89,20 @@ public class FileInputTest {
         assertTrue(fileInput.get().findAny().get().containsKey("body"));
     }
 
+    @Test
+    public void canReadFilesCreatedAfterBuild() throws Exception {
+        Path directory = Files.createTempDirectory("logalike");
+        try {
+            fileInput = FileInput.buildTailing(line -> ofUntyped().put("body", line))
+                    .addFiles(directory + File.separator + "*.log").shouldRescanGlobs(true)
+                    .setGlobRescanInterval(Duration.ofMillis(10)).build();
+            Files.write(directory.resolve("new.log"), "new line\n".getBytes());
+            assertEquals("new line", fileInput.get().findAny().get().getAs("body", String.class));
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
     @Test
     public void canSetStorePositionToFileSize() throws IOException, InterruptedException {
         fileInput = createInput(dataFile.toString());
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.time.Duration;
+import java.util.Optional;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -32,6 +33,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Matchers;
 
+import cern.acet.tracing.input.file.tailer.MultiplexedTailer;
+
 public class FileTailerFactoryTest {
 
     private static final String DATA = "test";
@@ -87,6 +90,25 @@ public class FileTailerFactoryTest {
         assertEquals(DATA, factory.getStream().findAny().get());
     }
 
+    @Test
+    public void canStartTailerInMultiplexedTailer() throws Exception {
+        writeToFile(DATA);
+        try (MultiplexedTailer multiplexer = factory.startMultiplexedTailer(executor, 1)) {
+            factory.startTailer(file, multiplexer, true);
+            assertEquals(DATA, factory.getStream().findAny().get());
+        }
+    }
+
+    @Test
+    public void canAssembleMultilineEvents() throws Exception {
+        factory.close();
+        factory = new FileTailerFactory(FILE_CHECK_INTERVAL, Optional.of(MultilineAssembly.builder()
+                .setContinuationPattern("^\\s").setFlushTimeout(Duration.ofMillis(10)).build()));
+        writeToFile(DATA + "\n\tat first\n\tat second");
+        factory.startTailer(file, executor, true);
+        assertEquals(DATA + "\n\tat first\n\tat second", factory.getStream().findAny().get());
+    }
+
     private void writeToFile(String data) throws IOException {
         try (FileOutputStream fileOut = new FileOutputStream(file); PrintWriter writer = new PrintWriter(fileOut)) {
             writer.println(data);
@@ -0,0 +1,120 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.acet.tracing.input.file.tailer.PositionTailer;
+
+public class GlobRediscoveryTest {
+
+    private Path directory;
+    private Path existingFile;
+    private PositionTailer existingTailer;
+    private PositionTailer newTailer;
+    private Function<File, PositionTailer> mockStarter;
+    private GlobRediscovery rediscovery;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("rediscovery");
+        existingFile = Files.createFile(directory.resolve("existing.log"));
+        existingTailer = mock(PositionTailer.class);
+        newTailer = mock(PositionTailer.class);
+        mockStarter = mock(Function.class);
+        when(mockStarter.apply(any(File.class))).thenReturn(newTailer);
+
+        GlobScanner scanner = new GlobScanner(directory + "/*.log", directory);
+        scanner.scan();
+        Map<Path, PositionTailer> tailers = new HashMap<>();
+        tailers.put(existingFile, existingTailer);
+        rediscovery = new GlobRediscovery(Collections.singletonList(scanner), tailers, mockStarter,
+                Duration.ofHours(1));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        rediscovery.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void canKeepTailingExistingFiles() {
+        rediscovery.rescan();
+        verify(mockStarter, never()).apply(any(File.class));
+        verify(existingTailer, never()).stop();
+    }
+
+    @Test
+    public void canStartTailingNewFiles() throws Exception {
+        Path newFile = Files.createFile(directory.resolve("new.log"));
+        Files.createFile(directory.resolve("new.txt"));
+        rediscovery.rescan();
+        verify(mockStarter).apply(newFile.toFile());
+    }
+
+    @Test
+    public void canIgnoreRotatedFiles() throws Exception {
+        Path rotatedFile = Files.move(existingFile, directory.resolve("existing.1.log"));
+        Files.createFile(existingFile);
+        rediscovery.rescan();
+        rediscovery.rescan();
+        verify(mockStarter, never()).apply(any(File.class));
+        verify(existingTailer, never()).stop();
+        Files.delete(rotatedFile);
+    }
+
+    @Test
+    public void canIgnoreFilesNotModifiedSinceLastScan() throws Exception {
+        Path archivedFile = Files.createFile(directory.resolve("archived.log"));
+        Files.setLastModifiedTime(archivedFile, FileTime.fromMillis(System.currentTimeMillis() - 3600000));
+        rediscovery.rescan();
+        verify(mockStarter, never()).apply(any(File.class));
+    }
+
+    @Test
+    public void canStopTailingDeletedFiles() throws Exception {
+        Files.delete(existingFile);
+        rediscovery.rescan();
+        verify(existingTailer).stop();
+    }
+
+    @Test
+    public void canStopTailingDiscoveredFilesWhenDeleted() throws Exception {
+        Path newFile = Files.createFile(directory.resolve("new.log"));
+        rediscovery.rescan();
+        Files.delete(newFile);
+        rediscovery.rescan();
+        verify(newTailer).stop();
+    }
+
+}
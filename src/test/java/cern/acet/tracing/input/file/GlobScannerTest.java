@@ -0,0 +1,115 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlobScannerTest {
+
+    private static final FileTime AN_HOUR_AGO = FileTime
+            .fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+
+    private Path directory;
+    private GlobScanner scanner;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("glob");
+        scanner = new GlobScanner(directory + "/**.log", directory);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void canFindMatchingFiles() throws Exception {
+        Path first = Files.createFile(directory.resolve("first.log"));
+        Files.createFile(directory.resolve("first.txt"));
+        Path nested = Files.createFile(Files.createDirectories(directory.resolve("a/b")).resolve("nested.log"));
+        assertEquals(new HashSet<>(Arrays.asList(first, nested)), scanner.scan());
+    }
+
+    @Test
+    public void canFindNewFiles() throws Exception {
+        Path first = Files.createFile(directory.resolve("first.log"));
+        scanner.scan();
+        Path second = Files.createFile(directory.resolve("second.log"));
+        Path nested = Files.createFile(Files.createDirectories(directory.resolve("new")).resolve("nested.log"));
+        assertEquals(new HashSet<>(Arrays.asList(first, second, nested)), scanner.scan());
+    }
+
+    @Test
+    public void canForgetDeletedFiles() throws Exception {
+        Path first = Files.createFile(directory.resolve("first.log"));
+        Path second = Files.createFile(directory.resolve("second.log"));
+        scanner.scan();
+        Files.delete(second);
+        assertEquals(new HashSet<>(Arrays.asList(first)), scanner.scan());
+    }
+
+    @Test
+    public void canFindFilesInUnchangedDirectory() throws Exception {
+        Path subdirectory = Files.createDirectories(directory.resolve("sub"));
+        Path first = Files.createFile(subdirectory.resolve("first.log"));
+        setModifiedAnHourAgo(subdirectory);
+        scanner.scan();
+        assertEquals(new HashSet<>(Arrays.asList(first)), scanner.scan());
+    }
+
+    @Test
+    public void canReuseListingOfUnchangedDirectory() throws Exception {
+        Path subdirectory = Files.createDirectories(directory.resolve("sub"));
+        Files.createFile(subdirectory.resolve("first.log"));
+        setModifiedAnHourAgo(subdirectory);
+        scanner.scan();
+        // A file that is created without changing the modification time is not seen, since the listing is reused
+        Files.createFile(subdirectory.resolve("second.log"));
+        setModifiedAnHourAgo(subdirectory);
+        assertEquals(1, scanner.scan().size());
+    }
+
+    @Test
+    public void canListRecentlyModifiedDirectoryAgain() throws Exception {
+        FileTime modified = Files.getLastModifiedTime(directory);
+        scanner.scan();
+        Files.createFile(directory.resolve("first.log"));
+        // Restore the modification time, as a file system with a coarse resolution could
+        Files.setLastModifiedTime(directory, modified);
+        assertEquals(1, scanner.scan().size());
+    }
+
+    @Test
+    public void canScanMissingDirectory() throws Exception {
+        scanner = new GlobScanner(directory + "/missing/*.log", directory.resolve("missing"));
+        assertTrue(scanner.scan().isEmpty());
+    }
+
+    private static void setModifiedAnHourAgo(Path path) throws Exception {
+        Files.setLastModifiedTime(path, AN_HOUR_AGO);
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import cern.acet.tracing.input.file.tailer.PositionTailer;
+import cern.acet.tracing.input.file.tailer.PositionTailerListener;
+
+public class MultilineTailerListenerTest {
+
+    private static final String START_PATTERN = "^\\d{4}-\\d{2}-\\d{2} ";
+    private static final String FIRST = "2016-01-05 12:34:56 ERROR Failed";
+    private static final String SECOND = "2016-01-05 12:34:57 INFO Done";
+    private static final String FRAME = "\tat cern.acet.Test.run(Test.java:42)";
+
+    private PositionTailerListener mockDelegate;
+    private MultilineTailerListener listener;
+
+    @Before
+    public void setup() {
+        mockDelegate = mock(PositionTailerListener.class);
+        listener = create(MultilineAssembly.builder().setStartPattern(START_PATTERN));
+    }
+
+    @Test
+    public void canAssembleStackTrace() {
+        listener.handle(FIRST);
+        listener.handle(FRAME);
+        listener.handle(FRAME);
+        listener.handle(SECOND);
+        verify(mockDelegate).handle(FIRST + "\n" + FRAME + "\n" + FRAME);
+        verify(mockDelegate, never()).handle(SECOND);
+    }
+
+    @Test
+    public void canAssembleWithContinuationPattern() {
+        listener = create(MultilineAssembly.builder().setContinuationPattern("^\\s+at "));
+        listener.handle(FIRST);
+        listener.handle(FRAME);
+        listener.handle("Caused by: nothing");
+        verify(mockDelegate).handle(FIRST + "\n" + FRAME);
+    }
+
+    @Test
+    public void canUseBothPatterns() {
+        MultilineAssembly assembly = MultilineAssembly.builder().setStartPattern(START_PATTERN)
+                .setContinuationPattern("^\\s").build();
+        assertTrue(assembly.isContinuation(FRAME));
+        assertFalse(assembly.isContinuation(FIRST));
+        assertFalse(assembly.isContinuation("Caused by: nothing"));
+    }
+
+    @Test
+    public void canFlushWhenTailerStopped() {
+        PositionTailer mockTailer = mock(PositionTailer.class);
+        when(mockTailer.isRunning()).thenReturn(true);
+        listener.init(mockTailer);
+        listener.handle(FIRST);
+        assertFalse(listener.flushIfStopped());
+        verify(mockDelegate, never()).handle(anyString());
+
+        when(mockTailer.isRunning()).thenReturn(false);
+        assertTrue(listener.flushIfStopped());
+        verify(mockDelegate).handle(FIRST);
+    }
+
+    @Test
+    public void canTruncateLargeEvents() {
+        listener = create(MultilineAssembly.builder().setStartPattern(START_PATTERN)
+                .setMaxEventSize(FIRST.length() + 5));
+        listener.handle(FIRST);
+        listener.handle(FRAME);
+        listener.handle(FRAME);
+        listener.handle(SECOND);
+        verify(mockDelegate).handle(FIRST + "\n" + FRAME.substring(0, 4));
+    }
+
+    @Test
+    public void canFlushAfterTimeout() throws InterruptedException {
+        listener = create(MultilineAssembly.builder().setStartPattern(START_PATTERN)
+                .setFlushTimeout(Duration.ofMillis(1)));
+        listener.handle(FIRST);
+        Thread.sleep(5);
+        listener.flushIfIdle();
+        verify(mockDelegate).handle(FIRST);
+    }
+
+    @Test
+    public void canWaitForTimeoutBeforeFlushing() {
+        listener = create(MultilineAssembly.builder().setStartPattern(START_PATTERN)
+                .setFlushTimeout(Duration.ofMinutes(1)));
+        listener.handle(FIRST);
+        listener.flushIfIdle();
+        verify(mockDelegate, never()).handle(anyString());
+    }
+
+    @Test
+    public void canFlushWhenFileRotates() {
+        listener.handle(FIRST);
+        listener.fileRotated();
+        InOrder order = inOrder(mockDelegate);
+        order.verify(mockDelegate).handle(FIRST);
+        order.verify(mockDelegate).fileRotated();
+    }
+
+    @Test
+    public void canHoldPositionUntilEventIsEmitted() {
+        listener.handle(FIRST);
+        listener.positionUpdated(42);
+        verify(mockDelegate, never()).positionUpdated(anyLong());
+        listener.handle(SECOND);
+        InOrder order = inOrder(mockDelegate);
+        order.verify(mockDelegate).handle(FIRST);
+        order.verify(mockDelegate).positionUpdated(42);
+    }
+
+    @Test
+    public void canReuseBufferBetweenEvents() {
+        listener.handle(FIRST);
+        listener.handle(FRAME);
+        listener.handle(SECOND);
+        listener.fileRotated();
+        verify(mockDelegate).handle(SECOND);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutPatterns() {
+        MultilineAssembly.builder().build();
+    }
+
+    private MultilineTailerListener create(MultilineAssembly.Builder builder) {
+        return new MultilineTailerListener(mockDelegate, builder.build());
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.spy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import cern.acet.tracing.input.file.store.FilePositionStore;
+import cern.acet.tracing.input.file.store.FileRange;
+
+public class ParallelBackfillTest {
+
+    private static final int LINE_COUNT = 1000;
+    private static final long RANGE_SIZE = 500;
+    private static final int LARGE_LINE_COUNT = 25000;
+    private static final long LARGE_RANGE_SIZE = 200 * 1024;
+
+    private Path directory;
+    private Path file;
+    private List<String> lines;
+    private FilePositionStore store;
+    private ExecutorService executor;
+    private ParallelBackfill<String> backfill;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("backfill");
+        file = directory.resolve("large.log");
+        lines = IntStream.range(0, LINE_COUNT).mapToObj(i -> "line number " + i).collect(Collectors.toList());
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        store = FilePositionStore.createUnder(Files.createDirectory(directory.resolve("store")));
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (backfill != null) {
+            backfill.close();
+        }
+        executor.shutdownNow();
+        store.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void canSplitIntoLineAlignedRanges() throws IOException {
+        Files.write(file, "incomplete".getBytes(), java.nio.file.StandardOpenOption.APPEND);
+        List<FileRange> ranges = ParallelBackfill.splitIntoRanges(file, RANGE_SIZE);
+        byte[] bytes = Files.readAllBytes(file);
+
+        assertTrue(ranges.size() > 1);
+        assertEquals(0, ranges.get(0).getStart());
+        for (int index = 1; index < ranges.size(); index++) {
+            assertEquals(ranges.get(index - 1).getEnd(), ranges.get(index).getStart());
+            assertEquals('\n', bytes[(int) ranges.get(index).getStart() - 1]);
+        }
+        assertEquals(bytes.length - "incomplete".length(), ranges.get(ranges.size() - 1).getEnd());
+    }
+
+    @Test
+    public void canSplitFileWithoutLines() throws IOException {
+        Files.write(file, "incomplete".getBytes());
+        assertTrue(ParallelBackfill.splitIntoRanges(file, RANGE_SIZE).isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void canReadRangesInOrder() {
+        backfill = create(true);
+        assertEquals(lines, backfill.getStream().collect(Collectors.toList()));
+    }
+
+    @Test(timeout = 10000)
+    public void canReadRangesUnordered() {
+        backfill = create(false);
+        List<String> actual = backfill.getStream().sorted().collect(Collectors.toList());
+        assertEquals(lines.stream().sorted().collect(Collectors.toList()), actual);
+    }
+
+    @Test(timeout = 10000)
+    public void canConvertLinesConcurrently() {
+        backfill = new ParallelBackfill<>(Arrays.asList(file.toFile()), line -> Thread.currentThread().getName(),
+                RANGE_SIZE, true, 10, Optional.empty(), executor);
+        assertTrue(backfill.getStream().distinct().count() > 1);
+    }
+
+    @Test(timeout = 10000)
+    public void canResumeFromStoredRanges() throws IOException {
+        List<FileRange> ranges = ParallelBackfill.splitIntoRanges(file, RANGE_SIZE);
+        FileRange first = ranges.get(0);
+        ranges.set(0, new FileRange(first.getStart(), first.getEnd(), first.getEnd()));
+        store.setFileRanges(file, ranges);
+
+        backfill = create(true);
+        List<String> actual = backfill.getStream().collect(Collectors.toList());
+        int linesInFirstRange = new String(Files.readAllBytes(file), StandardCharsets.UTF_8)
+                .substring(0, (int) first.getEnd()).split("\n").length;
+        assertEquals(lines.subList(linesInFirstRange, LINE_COUNT), actual);
+    }
+
+    @Test(timeout = 10000)
+    public void canStoreProgressOfRanges() throws IOException {
+        backfill = create(true);
+        backfill.getStream().count();
+        List<FileRange> ranges = store.getFileRanges(file);
+        assertTrue(ranges.size() > 1);
+        assertTrue(ranges.stream().allMatch(FileRange::isFinished));
+        assertEquals(Optional.of(Files.size(file)), store.getFilePosition(file));
+    }
+
+    @Test(timeout = 10000)
+    public void canFinishRangesLargerThanReadBuffer() throws IOException {
+        List<String> longLines = IntStream.range(0, LARGE_LINE_COUNT).mapToObj(i -> "a longer line number " + i)
+                .collect(Collectors.toList());
+        Files.write(file, longLines, StandardCharsets.UTF_8);
+        List<FileRange> ranges = ParallelBackfill.splitIntoRanges(file, LARGE_RANGE_SIZE);
+        FilePositionStore spyStore = spy(store);
+        executor.shutdownNow();
+        executor = Executors.newSingleThreadExecutor(); // Read the ranges one after the other
+
+        backfill = new ParallelBackfill<>(Arrays.asList(file.toFile()), Function.identity(), LARGE_RANGE_SIZE, true,
+                10, Optional.of(spyStore), executor);
+        assertEquals(longLines, backfill.getStream().collect(Collectors.toList()));
+
+        FileRange last = ranges.get(ranges.size() - 1);
+        InOrder inOrder = inOrder(spyStore);
+        inOrder.verify(spyStore).setFileRangePosition(file, ranges.size() - 1, last.getEnd());
+        inOrder.verify(spyStore).setFilePosition(file, Files.size(file));
+    }
+
+    private ParallelBackfill<String> create(boolean isOrdered) {
+        return new ParallelBackfill<>(Arrays.asList(file.toFile()), Function.identity(), RANGE_SIZE, isOrdered, 10,
+                Optional.of(store), executor);
+    }
+
+}
@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
@@ -88,6 +90,56 @@ public class FilePositionStoreEntryTest {
         assertFalse(entry.isSameFile(filePath));
     }
 
+    @Test
+    public void canRecogniseSameFileAfterItGrows() throws Exception {
+        Files.write(filePath, "first line\n".getBytes());
+        entry.setFilePosition(11L);
+        Files.write(filePath, "second line\n".getBytes(), StandardOpenOption.APPEND);
+        assertTrue(entry.isSameFile(filePath));
+    }
+
+    @Test
+    public void canTestThatFileWasRewrittenInPlace() throws Exception {
+        Files.write(filePath, "first line\n".getBytes());
+        entry.setFilePosition(11L);
+        Files.write(filePath, "other line\n".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        assertFalse(entry.isSameFile(filePath));
+    }
+
+    @Test
+    public void canRecordIdentityWhenPositionMovesBackwards() throws Exception {
+        Files.write(filePath, "first line\n".getBytes());
+        entry.setFilePosition(11L);
+        Files.write(filePath, "other\n".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        entry.setFilePosition(6L);
+        assertTrue(entry.isSameFile(filePath));
+    }
+
+    @Test
+    public void canResetPositionAndRangesIfFileIsReplaced() throws Exception {
+        Files.write(filePath, "first line\n".getBytes());
+        entry.setFilePosition(11L);
+        entry.setFileRanges(Collections.singletonList(new FileRange(0, 11, 5)));
+        Path rotatedFile = Paths.get(filePath.toString() + ".1");
+        Files.move(filePath, rotatedFile);
+        Files.write(filePath, "first line\n".getBytes());
+        assertTrue(entry.resetIfReplaced());
+        assertEquals(Optional.of(0L), entry.getFilePosition());
+        assertEquals(Collections.emptyList(), entry.getFileRanges());
+        assertFalse(entry.resetIfReplaced());
+        Files.delete(rotatedFile);
+    }
+
+    @Test
+    public void canKeepIdentityAfterClosing() throws Exception {
+        Files.write(filePath, "first line\n".getBytes());
+        entry.setFilePosition(11L);
+        entry.close();
+        Files.write(filePath, "other line\n".getBytes(), StandardOpenOption.TRUNCATE_EXISTING);
+        entry = FilePositionStoreEntry.createEntry(parentPath, filePath.toAbsolutePath());
+        assertTrue(entry.resetIfReplaced());
+    }
+
     private Path getStoreFile() {
         return parentPath.resolve(FilePositionStoreEntry.hashFileName(filePath.toAbsolutePath().toString()));
     }
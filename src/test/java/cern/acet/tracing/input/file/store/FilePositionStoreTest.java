@@ -19,6 +19,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.Assert.assertEquals;
@@ -79,6 +84,53 @@ public class FilePositionStoreTest {
         assertEquals(Optional.of(data), store.getFilePosition(filePath));
     }
 
+    @Test
+    public void canRecoverPreviousMappedStore() throws Exception {
+        store.close();
+        store = FilePositionStore.createMappedUnder(parentPath, Duration.ofMillis(10));
+        store.setFilePosition(filePath, 1312L);
+        store.close();
+        store = FilePositionStore.createMappedUnder(parentPath, Duration.ofMillis(10));
+        assertEquals(Optional.of(1312L), store.getFilePosition(filePath));
+    }
+
+    @Test
+    public void canTakeOverPositionsInMappedStore() throws Exception {
+        store.setFilePosition(filePath, 1312L);
+        store.close();
+        store = FilePositionStore.createMappedUnder(parentPath, Duration.ofMillis(10));
+        assertEquals(Optional.of(1312L), store.getFilePosition(filePath));
+    }
+
+    @Test
+    public void canResetPositionIfFileIsRotatedInMappedStore() throws Exception {
+        store.close();
+        store = FilePositionStore.createMappedUnder(parentPath, Duration.ofMillis(10));
+        Files.write(filePath, "first line\n".getBytes());
+        store.setFilePosition(filePath, 11L);
+        Path newFile = Paths.get(filePath.toString() + ".1");
+        Files.move(filePath, newFile);
+        Files.write(filePath, "first line\n".getBytes());
+        assertEquals(Optional.of(0L), store.getFilePosition(filePath));
+        Files.delete(newFile);
+    }
+
+    @Test
+    public void canStoreFileRanges() throws Exception {
+        List<FileRange> ranges = Arrays.asList(new FileRange(0, 10, 0), new FileRange(10, 25, 10));
+        store.setFileRanges(filePath, ranges);
+        store.setFileRangePosition(filePath, 1, 20L);
+        store.close();
+        store = FilePositionStore.createUnder(parentPath);
+        assertEquals(Arrays.asList(new FileRange(0, 10, 0), new FileRange(10, 25, 20)), store.getFileRanges(filePath));
+        assertEquals(Optional.empty(), store.getFilePosition(filePath));
+    }
+
+    @Test
+    public void canReadNonExistentFileRanges() {
+        assertEquals(Collections.emptyList(), store.getFileRanges(filePath));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void canFailIfDirectoryIsFile() throws IOException {
         Files.delete(parentPath);
@@ -95,6 +147,29 @@ public class FilePositionStoreTest {
         Files.delete(newFile);
     }
 
+    @Test
+    public void canResetPositionIfFileIsRotated() throws Exception {
+        Files.write(filePath, "first line\nsecond line\n".getBytes());
+        store.setFilePosition(filePath, 23L);
+        store.close();
+        Path newFile = Paths.get(filePath.toString() + ".1");
+        Files.move(filePath, newFile);
+        Files.write(filePath, "first line\n".getBytes());
+        store = FilePositionStore.createUnder(parentPath);
+        assertEquals(Optional.of(0L), store.getFilePosition(filePath));
+        Files.delete(newFile);
+    }
+
+    @Test
+    public void canResumePositionForSameContent() throws Exception {
+        Files.write(filePath, "first line\n".getBytes());
+        store.setFilePosition(filePath, 11L);
+        store.close();
+        Files.write(filePath, "second line\n".getBytes(), StandardOpenOption.APPEND);
+        store = FilePositionStore.createUnder(parentPath);
+        assertEquals(Optional.of(11L), store.getFilePosition(filePath));
+    }
+
     @Test
     public void canResetPositionIfFileIsMoved() throws IOException {
         store.setFilePosition(filePath, 0L);
@@ -0,0 +1,137 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.store;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedOffsetTableTest {
+
+    private static final Duration COMMIT_INTERVAL = Duration.ofMillis(10);
+    private static final Duration RETENTION = Duration.ofDays(1);
+    private static final Instant NOW = Instant.parse("2016-01-05T12:00:00Z");
+    private static final FileIdentity IDENTITY = new FileIdentity(42, 11, 1234);
+
+    private Path directory;
+    private MappedOffsetTable table;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("offsets");
+        table = open(NOW);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        table.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void canReadEmptySlot() throws IOException {
+        assertEquals(Optional.empty(), getSlot("a").getPosition());
+        assertEquals(Optional.empty(), getSlot("a").getIdentity());
+        assertEquals(0, table.getSlotCount());
+    }
+
+    @Test
+    public void canStorePositionAndIdentity() throws IOException {
+        getSlot("a").setPositionAndIdentity(12L, IDENTITY);
+        getSlot("a").setPosition(13L);
+        assertEquals(Optional.of(13L), getSlot("a").getPosition());
+        assertEquals(Optional.of(IDENTITY), getSlot("a").getIdentity());
+        assertEquals(Optional.empty(), getSlot("b").getPosition());
+    }
+
+    @Test
+    public void canStoreIdentityWithoutPosition() throws IOException {
+        getSlot("a").setPositionAndIdentity(PositionSlot.NO_POSITION, IDENTITY);
+        assertEquals(Optional.empty(), getSlot("a").getPosition());
+        assertEquals(Optional.of(IDENTITY), getSlot("a").getIdentity());
+    }
+
+    @Test
+    public void canReopenTable() throws IOException {
+        getSlot("a").setPositionAndIdentity(12L, IDENTITY);
+        getSlot("b").setPosition(20L);
+        table.close();
+        table = open(NOW);
+        assertEquals(Optional.of(12L), getSlot("a").getPosition());
+        assertEquals(Optional.of(IDENTITY), getSlot("a").getIdentity());
+        assertEquals(Optional.of(20L), getSlot("b").getPosition());
+        assertEquals(2, table.getSlotCount());
+    }
+
+    @Test
+    public void canGrowWhenFull() throws IOException {
+        for (int index = 0; index <= MappedOffsetTable.MINIMUM_CAPACITY; index++) {
+            getSlot("file" + index).setPosition(index);
+        }
+        assertEquals(MappedOffsetTable.MINIMUM_CAPACITY * 2, table.getCapacity());
+        for (int index = 0; index <= MappedOffsetTable.MINIMUM_CAPACITY; index++) {
+            assertEquals(Optional.of((long) index), getSlot("file" + index).getPosition());
+        }
+    }
+
+    @Test
+    public void canCompactOldSlots() throws IOException {
+        getSlot("a").setPosition(12L);
+        table.close();
+        table = open(NOW.plus(RETENTION).minusSeconds(1));
+        getSlot("b").setPosition(20L);
+        table.close();
+        table = open(NOW.plus(RETENTION).plusSeconds(1));
+        assertEquals(Optional.empty(), getSlot("a").getPosition());
+        assertEquals(Optional.of(20L), getSlot("b").getPosition());
+        assertEquals(1, table.getSlotCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void canFailIfTableIsInUse() throws IOException {
+        open(NOW);
+    }
+
+    @Test
+    public void canIgnoreCorruptTable() throws IOException {
+        table.close();
+        Files.write(directory.resolve(MappedOffsetTable.TABLE_FILE_NAME), "not a table".getBytes());
+        table = open(NOW);
+        assertEquals(0, table.getSlotCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutCommitInterval() throws IOException {
+        new MappedOffsetTable(directory, Duration.ZERO, RETENTION, Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    private MappedOffsetTable open(Instant now) throws IOException {
+        return new MappedOffsetTable(directory, COMMIT_INTERVAL, RETENTION, Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private PositionSlot getSlot(String name) {
+        return table.getSlot(FilePositionStoreEntry.hashFileName(name));
+    }
+
+}
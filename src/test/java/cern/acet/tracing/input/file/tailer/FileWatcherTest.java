@@ -0,0 +1,120 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.tailer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.Closeable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileWatcherTest {
+
+    private Path directory;
+    private Path file;
+    private FileWatcher watcher;
+    private Runnable mockListener;
+
+    @Before
+    public void setup() throws Exception {
+        Optional<FileWatcher> watcherOption = FileWatcher.create();
+        Assume.assumeTrue(watcherOption.isPresent());
+        watcher = watcherOption.get();
+        directory = Files.createTempDirectory("watcher");
+        file = directory.resolve("test.log");
+        mockListener = mock(Runnable.class);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (watcher != null) {
+            watcher.close();
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void canNotifyOnCreate() throws Exception {
+        watcher.register(file, mockListener);
+        Files.createFile(file);
+        verify(mockListener, timeout(1000).atLeastOnce()).run();
+    }
+
+    @Test
+    public void canNotifyOnModify() throws Exception {
+        Files.createFile(file);
+        watcher.register(file, mockListener);
+        Files.write(file, "line\n".getBytes(), StandardOpenOption.APPEND);
+        verify(mockListener, timeout(1000).atLeastOnce()).run();
+    }
+
+    @Test
+    public void canPollFilesOnNetworkAndFuseStores() {
+        assertFalse(FileWatcher.isNotifiedStoreType("nfs4"));
+        assertFalse(FileWatcher.isNotifiedStoreType("cifs"));
+        assertFalse(FileWatcher.isNotifiedStoreType("fuse.sshfs"));
+        assertTrue(FileWatcher.isNotifiedStoreType("ext4"));
+        assertTrue(FileWatcher.isNotifiedStoreType("fuseblk"));
+    }
+
+    @Test
+    public void canTellIfFileStoreIsNotified() throws Exception {
+        String type = Files.getFileStore(directory).type();
+        assertEquals(FileWatcher.isNotifiedStoreType(type), watcher.isNotified(file));
+    }
+
+    @Test
+    public void canIgnoreOtherFiles() throws Exception {
+        watcher.register(file, mockListener);
+        Files.createFile(directory.resolve("other.log"));
+        verify(mockListener, after(100).never()).run();
+    }
+
+    @Test
+    public void canStopNotifyingWhenUnregistered() throws Exception {
+        Files.createFile(file);
+        Closeable registration = watcher.register(file, mockListener);
+        registration.close();
+        Files.write(file, "line\n".getBytes(), StandardOpenOption.APPEND);
+        verify(mockListener, after(100).never()).run();
+    }
+
+    @Test
+    public void canNotifyAllListenersOfFile() throws Exception {
+        Runnable otherListener = mock(Runnable.class);
+        watcher.register(file, mockListener);
+        watcher.register(file, otherListener);
+        Files.createFile(file);
+        verify(mockListener, timeout(1000).atLeastOnce()).run();
+        verify(otherListener, timeout(1000).atLeastOnce()).run();
+    }
+
+    @Test
+    public void canUseDefaultPollInterval() {
+        assertEquals(FileWatcher.DEFAULT_POLL_INTERVAL, watcher.getPollInterval());
+    }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.input.file.tailer;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiplexedTailerTest {
+
+    private static final int THREAD_COUNT = 2;
+
+    private Path directory;
+    private ExecutorService executor;
+    private MultiplexedTailer.Builder multiplexerBuilder;
+    private MultiplexedTailer multiplexer;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("multiplexed");
+        executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        multiplexerBuilder = MultiplexedTailer.builder().setExecutor(executor).setThreadCount(THREAD_COUNT)
+                .setFileCheckInterval(Duration.ofMillis(5));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (multiplexer != null) {
+            multiplexer.close();
+        }
+        executor.shutdown();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void canTailManyFilesWithFewThreads() throws Exception {
+        multiplexer = multiplexerBuilder.build();
+        List<Path> files = new ArrayList<>();
+        List<PositionTailerListener> listeners = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Path file = Files.createFile(directory.resolve("file" + i));
+            PositionTailerListener listener = mock(PositionTailerListener.class);
+            multiplexer.add(tailerBuilder(file, listener).setStartPositionAtBeginningOfFile().build());
+            files.add(file);
+            listeners.add(listener);
+        }
+        for (int i = 0; i < files.size(); i++) {
+            Files.write(files.get(i), ("line " + i + "\n").getBytes(), APPEND);
+        }
+        for (int i = 0; i < files.size(); i++) {
+            verify(listeners.get(i), timeout(1000)).handle("line " + i);
+        }
+    }
+
+    @Test
+    public void canReadFilesFairly() throws Exception {
+        final int lineCount = 20_000;
+        Path busyFile = directory.resolve("busy");
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            data.append("busy line ").append(i).append('\n');
+        }
+        Files.write(busyFile, data.toString().getBytes());
+        Path quietFile = Files.write(directory.resolve("quiet"), "quiet line\n".getBytes());
+
+        AtomicInteger busyLines = new AtomicInteger();
+        AtomicInteger busyLinesBeforeQuiet = new AtomicInteger(-1);
+        PositionTailerListener busyListener = mock(PositionTailerListener.class);
+        doAnswer(invocation -> {
+            busyLines.incrementAndGet();
+            return null;
+        }).when(busyListener).handle(anyString());
+        PositionTailerListener quietListener = mock(PositionTailerListener.class);
+        doAnswer(invocation -> {
+            busyLinesBeforeQuiet.set(busyLines.get());
+            return null;
+        }).when(quietListener).handle(anyString());
+
+        // Hold the only worker back until both files are queued
+        CountDownLatch latch = new CountDownLatch(1);
+        ExecutorService singleExecutor = Executors.newSingleThreadExecutor();
+        try {
+            singleExecutor.execute(() -> awaitQuietly(latch));
+            multiplexer = multiplexerBuilder.setExecutor(singleExecutor).setThreadCount(1).setMaxBytesPerTurn(1024)
+                    .build();
+            multiplexer.add(tailerBuilder(busyFile, busyListener).setStartPositionAtBeginningOfFile().build());
+            multiplexer.add(tailerBuilder(quietFile, quietListener).setStartPositionAtBeginningOfFile().build());
+            latch.countDown();
+
+            verify(busyListener, timeout(5000)).handle("busy line " + (lineCount - 1));
+            verify(quietListener).handle("quiet line");
+            assertTrue(busyLinesBeforeQuiet.get() < lineCount / 10);
+        } finally {
+            multiplexer.close();
+            singleExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void canWakeOnFileChanges() throws Exception {
+        Optional<FileWatcher> watcherOption = FileWatcher.create();
+        assumeTrue(watcherOption.isPresent());
+        try (FileWatcher watcher = watcherOption.get()) {
+            multiplexer = multiplexerBuilder.setFileWatcher(watcher).setFileCheckInterval(Duration.ofMinutes(1))
+                    .build();
+            Path file = Files.createFile(directory.resolve("watched"));
+            PositionTailerListener listener = mock(PositionTailerListener.class);
+            multiplexer.add(tailerBuilder(file, listener).build());
+            Thread.sleep(50);
+            Files.write(file, "first\n".getBytes(), APPEND);
+            verify(listener, timeout(1000)).handle("first");
+            Files.write(file, "second\n".getBytes(), APPEND);
+            verify(listener, timeout(1000)).handle("second");
+        }
+    }
+
+    @Test
+    public void canRemoveStoppedTailers() throws Exception {
+        multiplexer = multiplexerBuilder.build();
+        Path file = Files.createFile(directory.resolve("stopped"));
+        PositionTailerListener listener = mock(PositionTailerListener.class);
+        PositionTailer tailer = tailerBuilder(file, listener).build();
+        multiplexer.add(tailer);
+        assertEquals(1, multiplexer.getFileCount());
+        tailer.stop();
+        Thread.sleep(50);
+        assertEquals(0, multiplexer.getFileCount());
+        Files.write(file, "ignored\n".getBytes(), APPEND);
+        verify(listener, after(50).never()).handle(anyString());
+    }
+
+    @Test
+    public void canStopTailersWhenClosed() throws Exception {
+        multiplexer = multiplexerBuilder.build();
+        Path file = Files.createFile(directory.resolve("closed"));
+        PositionTailerListener listener = mock(PositionTailerListener.class);
+        PositionTailer tailer = tailerBuilder(file, listener).build();
+        multiplexer.add(tailer);
+        multiplexer.close();
+        Files.write(file, "ignored\n".getBytes(), APPEND);
+        verify(listener, after(50).never()).handle(anyString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void canFailToAddToClosedTailer() throws Exception {
+        multiplexer = multiplexerBuilder.build();
+        multiplexer.close();
+        Path file = Files.createFile(directory.resolve("late"));
+        multiplexer.add(tailerBuilder(file, mock(PositionTailerListener.class)).build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutExecutor() {
+        multiplexer = MultiplexedTailer.builder().build();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private PositionTailer.Builder tailerBuilder(Path file, PositionTailerListener listener) {
+        return PositionTailer.builder().setFile(file.toFile()).setListener(listener);
+    }
+
+}
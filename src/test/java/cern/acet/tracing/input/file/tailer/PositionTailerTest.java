@@ -15,18 +15,26 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.theories.suppliers.TestedOn;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Mockito.*;
 
 public class PositionTailerTest {
@@ -114,6 +122,201 @@ public class PositionTailerTest {
         Files.delete(newFile);
     }
 
+    @Test
+    public void canFinishRotatedFileBeforeSwitching() throws Exception {
+        Path rotatedFile = Paths.get(file.toString() + ".1");
+        write("an old line that makes the old file longer than the new one", file);
+        tailerBuilder.setFileCheckInterval(Duration.ofMillis(200));
+        start();
+        write("before rotation", file);
+        Files.move(file, rotatedFile);
+        write("after rotation", rotatedFile);
+        write("in new file", Files.createFile(file));
+        awaitLine("in new file");
+        InOrder order = inOrder(mockListener);
+        order.verify(mockListener).handle("before rotation");
+        order.verify(mockListener).handle("after rotation");
+        order.verify(mockListener).fileRotated();
+        order.verify(mockListener).handle("in new file");
+        Files.delete(rotatedFile);
+    }
+
+    @Test
+    public void canDetectRotationToLargerFile() throws Exception {
+        Path rotatedFile = Paths.get(file.toString() + ".1");
+        write("old", file);
+        tailerBuilder.setStartPositionAtBeginningOfFile();
+        start();
+        awaitLine("old");
+        Files.move(file, rotatedFile);
+        write("a line that is longer than the old file", Files.createFile(file));
+        awaitLine("a line that is longer than the old file");
+        verify(mockListener).fileRotated();
+        Files.delete(rotatedFile);
+    }
+
+    @Test
+    public void canEmitUnterminatedLastLineOfRotatedFile() throws Exception {
+        Path rotatedFile = Paths.get(file.toString() + ".1");
+        tailerBuilder.setFileCheckInterval(Duration.ofMillis(200));
+        start();
+        Files.write(file, "unterminated".getBytes(), APPEND);
+        Files.move(file, rotatedFile);
+        write("in new file", Files.createFile(file));
+        awaitLine("in new file");
+        verify(mockListener).handle("unterminated");
+        Files.delete(rotatedFile);
+    }
+
+    @Test
+    public void canReadFileTruncatedInPlace() throws Exception {
+        write("first line before truncation", file);
+        tailerBuilder.setStartPositionAtBeginningOfFile();
+        start();
+        awaitLine("first line before truncation");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(0);
+        }
+        write("copied", file);
+        awaitLine("copied");
+        verify(mockListener).fileRotated();
+    }
+
+    @Test
+    public void canReadLinesAcrossBufferBoundaries() throws Exception {
+        tailerBuilder.setStartPositionAtBeginningOfFile().setBufferSize(3);
+        Files.write(file, "first line\nsecond\n\nlast line\n".getBytes());
+        start();
+        awaitLine("last line");
+        InOrder order = inOrder(mockListener);
+        order.verify(mockListener).handle("first line");
+        order.verify(mockListener).handle("second");
+        order.verify(mockListener).handle("");
+        order.verify(mockListener).handle("last line");
+    }
+
+    @Test
+    public void canFindLineEndingsAtEveryOffset() throws Exception {
+        StringBuilder data = new StringBuilder();
+        for (int length = 0; length < 20; length++) {
+            data.append("abcdefghijklmnopqrst", 0, length).append('\n');
+        }
+        Files.write(file, data.toString().getBytes());
+        tailerBuilder.setStartPositionAtBeginningOfFile();
+        start();
+        awaitLine("abcdefghijklmnopqrs");
+        for (int length = 0; length < 20; length++) {
+            verify(mockListener).handle("abcdefghijklmnopqrst".substring(0, length));
+        }
+    }
+
+    @Test
+    public void canReadCarriageReturnLineEndings() throws Exception {
+        Files.write(file, "windows\r\nmac\runix\n".getBytes());
+        tailerBuilder.setStartPositionAtBeginningOfFile().setBufferSize(8);
+        start();
+        awaitLine("unix");
+        InOrder order = inOrder(mockListener);
+        order.verify(mockListener).handle("windows");
+        order.verify(mockListener).handle("mac");
+        order.verify(mockListener).handle("unix");
+        verify(mockListener, never()).handle("");
+    }
+
+    @Test
+    public void canReadWhenNotifiedByWatcher() throws Exception {
+        Optional<FileWatcher> watcherOption = FileWatcher.create();
+        assumeTrue(watcherOption.isPresent());
+        FileWatcher watcher = watcherOption.get();
+        try {
+            tailerBuilder.setFileCheckInterval(Duration.ofMinutes(1)).setFileWatcher(watcher);
+            start();
+            Thread.sleep(50);
+            write("first", file);
+            awaitLine("first");
+            write("second", file);
+            awaitLine("second");
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void canWaitForEndOfLine() throws Exception {
+        start();
+        Files.write(file, "half".getBytes(), APPEND);
+        Thread.sleep(20);
+        verify(mockListener, never()).handle(Matchers.anyString());
+        write(" and half", file);
+        awaitLine("half and half");
+    }
+
+    @Test
+    public void canDecodeMixedScripts() throws Exception {
+        List<String> lines = Arrays.asList("plain ascii", "Grüße aus Genf", "Ελληνικά και English",
+                "日本語のログ行", "emoji \uD83D\uDE80 launched", "Кириллица");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        tailerBuilder.setStartPositionAtBeginningOfFile().setBufferSize(5);
+        start();
+        awaitLine(lines.get(lines.size() - 1));
+        InOrder order = inOrder(mockListener);
+        for (String line : lines) {
+            order.verify(mockListener).handle(line);
+        }
+    }
+
+    @Test
+    public void canReplaceMalformedInput() throws Exception {
+        Files.write(file, new byte[] { 'a', (byte) 0xC3, 'b', '\n' });
+        tailerBuilder.setStartPositionAtBeginningOfFile();
+        start();
+        awaitLine("a\uFFFDb");
+    }
+
+    @Test
+    public void canDecodeLatin1() throws Exception {
+        Files.write(file, "Grüße\n".getBytes(StandardCharsets.ISO_8859_1));
+        tailerBuilder.setStartPositionAtBeginningOfFile().setCharset(StandardCharsets.ISO_8859_1);
+        start();
+        awaitLine("Grüße");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailToReadUtf16() {
+        tailer = tailerBuilder.build();
+        thread = new Thread(tailer);
+        tailerBuilder.setCharset(StandardCharsets.UTF_16);
+    }
+
+    @Test
+    public void canBackfillFromMappedWindows() throws Exception {
+        List<String> lines = Arrays.asList("short", "a somewhat longer line", "", "x", "Grüße", "last line in file");
+        Files.write(file, String.join("\r\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+        tailerBuilder.setStartPositionAtBeginningOfFile().setBufferSize(4).setBackfillWindowSize(16);
+        start();
+        String data = write("tailed after backfill", file);
+        awaitLine(data);
+        InOrder order = inOrder(mockListener);
+        for (String line : lines) {
+            order.verify(mockListener).handle(line);
+        }
+        order.verify(mockListener).handle(data);
+        verify(mockListener, times(lines.size() + 1)).handle(Matchers.anyString());
+    }
+
+    @Test
+    public void canBackfillFromSetPosition() throws Exception {
+        Files.write(file, "skipped\nfirst\nsecond\nthird\n".getBytes());
+        tailerBuilder.setStartPosition(8).setBufferSize(1).setMemoryMappedBackfill(true);
+        start();
+        awaitLine("third");
+        InOrder order = inOrder(mockListener);
+        order.verify(mockListener).handle("first");
+        order.verify(mockListener).handle("second");
+        order.verify(mockListener).handle("third");
+        verify(mockListener, never()).handle("skipped");
+    }
+
     private void start() throws InterruptedException {
         tailer = tailerBuilder.build();
         thread = new Thread(tailer, "Tailer testing");
@@ -125,6 +328,22 @@ public class PositionTailerTest {
         Thread.sleep(20);
     }
 
+    @Test
+    public void canStopAtEndPosition() throws Exception {
+        Files.write(file, "first\nsecond\nthird\n".getBytes());
+        tailerBuilder.setStartPosition(6).setEndPosition(13);
+        start();
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        verify(mockListener).handle("second");
+        verify(mockListener, times(1)).handle(Matchers.anyString());
+        verify(mockListener).positionUpdated(13);
+    }
+
+    private void awaitLine(String line) {
+        verify(mockListener, timeout(1000)).handle(line);
+    }
+
     private String write(String data, Path file) throws IOException {
         Files.write(file, (data + '\n').getBytes(), APPEND);
         return data;
@@ -12,12 +12,15 @@
 package cern.acet.tracing.logalike;
 
 import static cern.acet.tracing.MessageImpl.ofUntyped;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -28,6 +31,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import cern.acet.tracing.processing.Processor;
+import cern.acet.tracing.processing.RepetitionProcessor;
+import cern.acet.tracing.processing.window.WindowScheduler;
 import cern.acet.tracing.util.type.strategy.DropStrategy;
 
 public class LogalikeImplTest {
@@ -91,6 +96,35 @@ public class LogalikeImplTest {
         verify(closeableOutput).close();
     }
 
+    @Test
+    public void canCloseWindowScheduler() throws IOException {
+        LogalikeImpl.Builder<MessageImpl> builder = Logalike.<MessageImpl> builder();
+        WindowScheduler scheduler = builder.getWindowScheduler();
+        logalike = builder.setInput(mockInput).setOutput(mockOutput).build();
+        assertFalse(scheduler.isClosed());
+        logalike.close();
+        assertTrue(scheduler.isClosed());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void canCloseCloseableProcessor() throws Exception {
+        processor = mock(Processor.class, withSettings().extraInterfaces(AutoCloseable.class));
+        createLogalike(mockInput, mockOutput);
+        logalike.close();
+        verify((AutoCloseable) processor).close();
+    }
+
+    @Test
+    public void canReportWindowCountsOfProcessors() throws IOException {
+        LogalikeImpl.Builder<MessageImpl> builder = Logalike.<MessageImpl> builder();
+        RepetitionProcessor<MessageImpl> repetitionProcessor = RepetitionProcessor.<MessageImpl> builder()
+                .setFingerprintStrategyByField("body").setWindowScheduler(builder.getWindowScheduler()).build();
+        logalike = builder.setInput(mockInput).setOutput(mockOutput).addProcessor(repetitionProcessor).build();
+        assertEquals(0, (int) logalike.getWindowScheduler().get().getOpenWindowCounts().get("RepetitionProcessor"));
+        logalike.close();
+    }
+
     @Test
     public void canFilterMessages() {
         AtomicBoolean shouldAllow = new AtomicBoolean(true);
@@ -19,6 +19,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.Duration;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.Map;
@@ -156,6 +157,22 @@ public class BulkConsumerTest {
         assertEquals(expected, BulkConsumer.formatTimestamp(time));
     }
 
+    @Test
+    public void canFormatTimestampsWithinSameSecond() {
+        ZonedDateTime time = ZonedDateTime.parse("2015-09-30T12:31:21.021+02:00");
+        BulkConsumer.formatTimestamp(time);
+        assertEquals("2015-09-30T12:31:21.007+0200", BulkConsumer.formatTimestamp(time.withNano(7_500_000)));
+        assertEquals("2015-09-30T12:31:21.999+0200", BulkConsumer.formatTimestamp(time.withNano(999_000_000)));
+    }
+
+    @Test
+    public void canFormatTimestampsWithSameInstantInOtherZone() {
+        ZonedDateTime time = ZonedDateTime.parse("2015-09-30T12:31:21.021+02:00");
+        BulkConsumer.formatTimestamp(time);
+        assertEquals("2015-09-30T10:31:21.021+0000",
+                BulkConsumer.formatTimestamp(time.withZoneSameInstant(ZoneOffset.UTC)));
+    }
+
     @Test
     public void canSetCorrectTimestamp() throws Exception {
         String field = ElasticsearchMessage.DEFAULT_TIMESTAMP_FIELD;
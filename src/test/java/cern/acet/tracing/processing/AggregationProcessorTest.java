@@ -0,0 +1,134 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+import cern.acet.tracing.processing.window.EventTimeStrategy;
+
+public class AggregationProcessorTest {
+
+    private static final String HOST_FIELD = "host";
+    private static final String DURATION_FIELD = "duration";
+    private static final String BODY_FIELD = "body";
+    private static final Duration WINDOW_DURATION = Duration.ofMillis(500);
+
+    private AggregationProcessor<MessageImpl> processor;
+
+    @Before
+    public void setup() {
+        processor = AggregationProcessor.<MessageImpl> builder().setKeyFields(HOST_FIELD)
+                .addNumericField(DURATION_FIELD).setWindowDuration(WINDOW_DURATION).setZone(ZoneOffset.UTC)
+                .setDropMessages(true).build();
+    }
+
+    @After
+    public void teardown() {
+        processor.close();
+    }
+
+    @Test(timeout = 10000)
+    public void canSummariseWindowPerKey() {
+        List<MessageImpl> summaries = processor
+                .apply(Stream.of(message("a", 10), message("a", 30), message("b", 5))).limit(2)
+                .collect(Collectors.toList());
+        Map<Object, MessageImpl> byHost = summaries.stream()
+                .collect(Collectors.toMap(summary -> summary.get(HOST_FIELD), Function.identity()));
+
+        MessageImpl summaryA = byHost.get("a");
+        assertEquals(2L, summaryA.get(WindowSummaryProcessor.COUNT_FIELD));
+        assertEquals(2L, summaryA.get("duration_count"));
+        assertEquals(40.0, summaryA.get("duration_sum"));
+        assertEquals(10.0, summaryA.get("duration_min"));
+        assertEquals(30.0, summaryA.get("duration_max"));
+        assertEquals(1L, byHost.get("b").get(WindowSummaryProcessor.COUNT_FIELD));
+    }
+
+    @Test(timeout = 10000)
+    public void canRemoveOtherFieldsFromSummary() {
+        MessageImpl summary = processor.apply(Stream.of(message("a", 10).put(BODY_FIELD, "text"))).findFirst().get();
+        assertFalse(summary.containsKey(BODY_FIELD));
+        assertFalse(summary.containsKey(DURATION_FIELD));
+    }
+
+    @Test(timeout = 10000)
+    public void canEstimateQuantiles() {
+        MessageImpl[] messages = new MessageImpl[100];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = message("a", i + 1);
+        }
+        MessageImpl summary = processor.apply(Stream.of(messages)).findFirst().get();
+        assertEquals(50, (double) summary.get("duration_p50"), 1);
+        assertEquals(99, (double) summary.get("duration_p99"), 1);
+    }
+
+    @Test(timeout = 10000)
+    public void canParseNumericText() {
+        MessageImpl summary = processor.apply(Stream.of(message("a", 1).put(DURATION_FIELD, "2.5"),
+                message("a", 1).put(DURATION_FIELD, "not a number"))).findFirst().get();
+        assertEquals(2L, summary.get(WindowSummaryProcessor.COUNT_FIELD));
+        assertEquals(1L, summary.get("duration_count"));
+        assertEquals(2.5, summary.get("duration_sum"));
+    }
+
+    @Test(timeout = 10000)
+    public void canKeepMessages() {
+        processor.close();
+        processor = AggregationProcessor.<MessageImpl> builder().setKeyFields(HOST_FIELD)
+                .setWindowDuration(WINDOW_DURATION).build();
+        List<MessageImpl> output = processor.apply(Stream.of(message("a", 1))).limit(2).collect(Collectors.toList());
+        assertEquals(1, output.get(0).get(DURATION_FIELD));
+        assertEquals(1L, output.get(1).get(WindowSummaryProcessor.COUNT_FIELD));
+    }
+
+    @Test(timeout = 10000)
+    public void canAggregateByEventTime() {
+        processor.close();
+        processor = AggregationProcessor.<MessageImpl> builder().setKeyFields(HOST_FIELD)
+                .addNumericField(DURATION_FIELD).setWindowDuration(Duration.ofSeconds(1)).setZone(ZoneOffset.UTC)
+                .setEventTime(EventTimeStrategy.ofField(MessageImpl.TIMESTAMP_FIELD), Duration.ZERO)
+                .setDropMessages(true).build();
+        ZonedDateTime start = ZonedDateTime.parse("2016-01-05T12:00:00Z");
+        MessageImpl summary = processor
+                .apply(Stream.of(message("a", 1).putTimestamp(start.plusNanos(200_000_000)),
+                        message("a", 2).putTimestamp(start.plusNanos(700_000_000)),
+                        message("a", 3).putTimestamp(start.plusSeconds(5)))).findFirst().get();
+        assertEquals(start.toInstant(), summary.getAs(MessageImpl.TIMESTAMP_FIELD, ZonedDateTime.class).toInstant());
+        assertEquals(2L, summary.get(WindowSummaryProcessor.COUNT_FIELD));
+        assertEquals(3.0, summary.get("duration_sum"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutKey() {
+        AggregationProcessor.<MessageImpl> builder().build();
+    }
+
+    private static MessageImpl message(String host, int duration) {
+        return MessageImpl.ofUntyped().put(HOST_FIELD, host).put(DURATION_FIELD, duration);
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class DeduplicationProcessorTest {
+
+    private static final String HOST_FIELD = "host";
+    private static final String BODY_FIELD = "body";
+    private static final Duration HORIZON = Duration.ofSeconds(30);
+    private static final Instant START = Instant.parse("2016-01-05T12:00:00Z");
+
+    private final AtomicReference<Clock> clock = new AtomicReference<>(Clock.fixed(START, ZoneId.systemDefault()));
+    private DeduplicationProcessor<MessageImpl> processor;
+
+    @Before
+    public void setup() {
+        processor = DeduplicationProcessor.<MessageImpl> builder().setFields(HOST_FIELD, BODY_FIELD)
+                .setHorizon(HORIZON).setExpectedMessages(10_000).setClock(clock.get()).build();
+    }
+
+    @Test
+    public void canDropDuplicates() {
+        List<MessageImpl> output = process(message("a", "x"), message("a", "x"), message("b", "x"));
+        assertEquals(2, output.size());
+        assertEquals(1, processor.getDuplicateCount());
+    }
+
+    @Test
+    public void canSendDuplicateOnAfterHorizon() {
+        process(message("a", "x"));
+        clock.set(Clock.offset(clock.get(), HORIZON.multipliedBy(2)));
+        assertEquals(1, process(message("a", "x")).size());
+    }
+
+    @Test
+    public void canDropDuplicatesFromManyThreads() {
+        Stream<MessageImpl> messages = IntStream.range(0, 10_000).mapToObj(i -> message("a", "line" + (i / 2)));
+        long count = processor.apply(messages.parallel(), clock::get).count();
+        assertEquals(5_000, count, 50);
+    }
+
+    @Test
+    public void canReportMemoryAndFalsePositiveRate() {
+        assertTrue(processor.getSizeInBytes() > 0);
+        process(message("a", "x"));
+        assertTrue(processor.getFalsePositiveRate() < 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutFields() {
+        DeduplicationProcessor.<MessageImpl> builder().build();
+    }
+
+    private List<MessageImpl> process(MessageImpl... messages) {
+        return processor.apply(Stream.of(messages), clock::get).collect(Collectors.toList());
+    }
+
+    private static MessageImpl message(String host, String body) {
+        return MessageImpl.ofUntyped().put(HOST_FIELD, host).put(BODY_FIELD, body);
+    }
+
+}
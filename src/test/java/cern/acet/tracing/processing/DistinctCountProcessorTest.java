@@ -0,0 +1,74 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class DistinctCountProcessorTest {
+
+    private static final String HOST_FIELD = "host";
+    private static final String USER_FIELD = "user";
+
+    private DistinctCountProcessor<MessageImpl> processor = DistinctCountProcessor.<MessageImpl> builder()
+            .setKeyFields(HOST_FIELD).setValueFields(USER_FIELD).setWindowDuration(Duration.ofMillis(500))
+            .setDropMessages(true).build();
+
+    @After
+    public void teardown() {
+        processor.close();
+    }
+
+    @Test(timeout = 10000)
+    public void canCountDistinctValuesPerKey() {
+        Stream<MessageImpl> messages = Stream.concat(
+                IntStream.range(0, 300).mapToObj(i -> message("a", "user" + (i % 100))),
+                IntStream.range(0, 10).mapToObj(i -> message("b", "user" + i)));
+        Map<Object, MessageImpl> byHost = processor.apply(messages).limit(2)
+                .collect(Collectors.toMap(summary -> summary.get(HOST_FIELD), Function.identity()));
+
+        assertEquals(100, (long) byHost.get("a").get(DistinctCountProcessor.DISTINCT_COUNT_FIELD), 2);
+        assertEquals(300L, byHost.get("a").get(WindowSummaryProcessor.COUNT_FIELD));
+        assertEquals(10L, byHost.get("b").get(DistinctCountProcessor.DISTINCT_COUNT_FIELD));
+    }
+
+    @Test(timeout = 10000)
+    public void canPutKeyOfStrategy() {
+        processor.close();
+        processor = DistinctCountProcessor.<MessageImpl> builder().setKeyStrategy(message -> "all")
+                .setValueFields(USER_FIELD).setWindowDuration(Duration.ofMillis(500)).setDropMessages(true).build();
+        MessageImpl summary = processor.apply(Stream.of(message("a", "x"), message("b", "y"))).findFirst().get();
+        assertEquals("all", summary.get(WindowSummaryProcessor.KEY_FIELD));
+        assertEquals(2L, summary.get(DistinctCountProcessor.DISTINCT_COUNT_FIELD));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutValues() {
+        DistinctCountProcessor.<MessageImpl> builder().setKeyFields(HOST_FIELD).build();
+    }
+
+    private static MessageImpl message(String host, String user) {
+        return MessageImpl.ofUntyped().put(HOST_FIELD, host).put(USER_FIELD, user);
+    }
+
+}
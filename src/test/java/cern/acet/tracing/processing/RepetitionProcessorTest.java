@@ -31,6 +31,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import cern.acet.tracing.MessageImpl;
+import cern.acet.tracing.processing.window.EventTimeStrategy;
 
 public class RepetitionProcessorTest {
 
@@ -118,6 +119,37 @@ public class RepetitionProcessorTest {
         assertTrue(foundAggregated.get());
     }
 
+    @Test(timeout = 10000)
+    public void canEmitEvictedWindowBeforeItExpires() {
+        filter.close();
+        filter = RepetitionProcessor.<MessageImpl> builder().setFingerprintStrategyByField(FINGERPRINT_FIELD)
+                .setWindowDuration(Duration.ofHours(1)).setMaxOpenWindows(1).setRepeatingMapper(ACTION_REPEATING)
+                .setNonRepeatingMapper(ACTION_NON_REPEATING).build();
+        MessageImpl otherMessage = MessageImpl.ofUntyped().put(FINGERPRINT_FIELD, "otherValue");
+        List<MessageImpl> filtered = filterMultiple(message, otherMessage).limit(3).collect(Collectors.toList());
+        assertTrue(isAggregated(filtered.get(2)));
+        assertEquals(FINGERPRINT_VALUE, filtered.get(2).get(FINGERPRINT_FIELD));
+        filter.close();
+    }
+
+    @Test(timeout = 10000)
+    public void canGroupBackfilledMessagesByEventTime() {
+        filter.close();
+        filter = RepetitionProcessor.<MessageImpl> builder().setFingerprintStrategyByField(FINGERPRINT_FIELD)
+                .setWindowDuration(Duration.ofSeconds(1))
+                .setEventTime(EventTimeStrategy.ofField(MessageImpl.TIMESTAMP_FIELD), Duration.ZERO)
+                .setRepeatingMapper(ACTION_REPEATING).setNonRepeatingMapper(ACTION_NON_REPEATING).build();
+        ZonedDateTime start = ZonedDateTime.parse("2016-01-05T12:00:00Z");
+        MessageImpl first = MessageImpl.ofUntyped().putTimestamp(start).put(FINGERPRINT_FIELD, FINGERPRINT_VALUE);
+        MessageImpl second = first.copy().putTimestamp(start.plusNanos(100_000_000));
+        MessageImpl third = first.copy().putTimestamp(start.plusSeconds(5));
+
+        List<MessageImpl> filtered = filterMultiple(first, second, third).limit(4).collect(Collectors.toList());
+        assertTrue(isAggregated(filtered.get(3)));
+        assertEquals(2L, filtered.get(3).get("repeatCount"));
+        filter.close();
+    }
+
     private Optional<MessageImpl> filterSingle(MessageImpl messageToFilter) {
         return filter.apply(Stream.of(messageToFilter)).findAny();
     }
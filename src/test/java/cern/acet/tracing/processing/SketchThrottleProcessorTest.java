@@ -0,0 +1,191 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import cern.acet.tracing.MessageImpl;
+import cern.acet.tracing.processing.ThrottleProcessor.ThrottleListener;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+
+public class SketchThrottleProcessorTest {
+
+    private static final String HOST_FIELD = "host";
+    private static final int MESSAGE_LIMIT = 4;
+    private static final Duration CYCLE = Duration.ofSeconds(1);
+    private static final Instant START = Instant.parse("2016-01-05T12:00:00Z");
+    private static final ZoneId ZONE = ZoneId.of("UTC");
+
+    private ThrottleListener<MessageImpl> mockListener;
+    private SketchThrottleProcessor<MessageImpl> processor;
+    private MessageImpl message;
+    private MessageImpl throttleMessage;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        message = MessageImpl.ofUntyped().put(HOST_FIELD, "host1");
+        throttleMessage = MessageImpl.ofUntyped();
+        mockListener = mock(ThrottleListener.class);
+        when(mockListener.onThrottleEnding(Matchers.any(), Matchers.any(), anyLong())).thenReturn(
+                Optional.of(throttleMessage));
+        when(mockListener.onThrottleRecurring(Matchers.any(), Matchers.any(), anyLong())).thenReturn(
+                Optional.of(throttleMessage));
+        when(mockListener.onThrottleStarting(Matchers.any(), Matchers.any(), anyLong())).thenReturn(
+                Optional.of(throttleMessage));
+        processor = builder().build();
+    }
+
+    @Test
+    public void canAcceptMessagesUpToLimit() {
+        for (int index = 0; index < MESSAGE_LIMIT; index++) {
+            assertEquals(Arrays.asList(message), process(message, 0));
+        }
+        assertEquals(0, processor.getHeavyHitterCount());
+    }
+
+    @Test
+    public void canTrackEmitterAboveLimit() {
+        processMessages(message, MESSAGE_LIMIT, 0);
+        assertEquals(Arrays.asList(), process(message, 0));
+        assertEquals(1, processor.getHeavyHitterCount());
+    }
+
+    @Test
+    public void canStartThrottleAtEndOfCycle() {
+        processMessages(message, MESSAGE_LIMIT + 1, 0);
+        assertEquals(Arrays.asList(throttleMessage), process(message, 1000));
+        verify(mockListener).onThrottleStarting(ZonedDateTime.ofInstant(START.plusMillis(1000), ZONE), "host1",
+                MESSAGE_LIMIT + 1);
+    }
+
+    @Test
+    public void canReportRecurringThrottle() {
+        processMessages(message, MESSAGE_LIMIT + 1, 0);
+        processMessages(message, MESSAGE_LIMIT + 1, 1000);
+        assertEquals(Arrays.asList(throttleMessage), process(message, 2000));
+        verify(mockListener).onThrottleRecurring(ZonedDateTime.ofInstant(START.plusMillis(1000), ZONE), "host1",
+                MESSAGE_LIMIT + 1);
+    }
+
+    @Test
+    public void canEndThrottleAndForgetEmitter() {
+        processMessages(message, MESSAGE_LIMIT + 1, 0);
+        process(message, 1000);
+        assertEquals(Arrays.asList(throttleMessage, message), process(message, 2000));
+        verify(mockListener).onThrottleEnding(ZonedDateTime.ofInstant(START.plusMillis(1000), ZONE), "host1", 1);
+        assertEquals(0, processor.getHeavyHitterCount());
+    }
+
+    @Test
+    public void canThrottleEmittersIndependently() {
+        processMessages(message, MESSAGE_LIMIT + 1, 0);
+        process(message, 1000);
+        MessageImpl otherMessage = MessageImpl.ofUntyped().put(HOST_FIELD, "host2");
+        assertEquals(Arrays.asList(otherMessage), process(otherMessage, 1000));
+    }
+
+    @Test
+    public void canBoundNumberOfHeavyHitters() {
+        processor = builder().setMaxHeavyHitters(2).build();
+        for (int host = 0; host < 10; host++) {
+            processMessages(MessageImpl.ofUntyped().put(HOST_FIELD, "host" + host), MESSAGE_LIMIT + 1 + host, 0);
+        }
+        assertEquals(2, processor.getHeavyHitterCount());
+    }
+
+    @Test
+    public void canReplaceSmallestHeavyHitter() {
+        processor = builder().setMaxHeavyHitters(1).build();
+        processMessages(message, MESSAGE_LIMIT + 1, 0);
+        MessageImpl otherMessage = MessageImpl.ofUntyped().put(HOST_FIELD, "host2");
+        processMessages(otherMessage, MESSAGE_LIMIT + 10, 0);
+        process(message, 1000);
+        verify(mockListener).onThrottleStarting(Matchers.any(), Matchers.eq("host2"), anyLong());
+        verify(mockListener, never()).onThrottleStarting(Matchers.any(), Matchers.eq("host1"), anyLong());
+    }
+
+    @Test
+    public void canKeepThrottledHeavyHitterWhenFull() {
+        processor = builder().setMaxHeavyHitters(1).build();
+        processMessages(message, MESSAGE_LIMIT + 1, 0);
+        process(message, 1000);
+        MessageImpl otherMessage = MessageImpl.ofUntyped().put(HOST_FIELD, "host2");
+        List<MessageImpl> accepted = processMessages(otherMessage, MESSAGE_LIMIT + 10, 1000);
+        assertEquals(MESSAGE_LIMIT + 10, accepted.size());
+        assertEquals(Arrays.asList(), process(message, 1000));
+    }
+
+    @Test
+    public void canUseFixedMemoryForManyEmitters() {
+        processor = builder().setSketchSize(1 << 12, 4).build();
+        for (int host = 0; host < 100_000; host++) {
+            process(MessageImpl.ofUntyped().put(HOST_FIELD, "host" + host), 0);
+        }
+        assertTrue(processor.getHeavyHitterCount() <= 100);
+        assertEquals(2 * (1 << 12) * 4 * 8, processor.getSketchSizeInBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutFingerprintStrategy() {
+        SketchThrottleProcessor.<MessageImpl> builder().setThrottleCycle(CYCLE).setMessageLimitPerCycle(MESSAGE_LIMIT)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnZeroLimit() {
+        builder().setMessageLimitPerCycle(0).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnInvalidSketchWidth() {
+        builder().setSketchSize(1000, 4).build();
+    }
+
+    private SketchThrottleProcessor.Builder<MessageImpl> builder() {
+        return SketchThrottleProcessor.<MessageImpl> builder().setThrottleCycle(CYCLE)
+                .setMessageLimitPerCycle(MESSAGE_LIMIT).setFingerprintStrategy(FingerprintStrategy.ofFields(HOST_FIELD))
+                .setListener(mockListener);
+    }
+
+    private List<MessageImpl> processMessages(MessageImpl messageToProcess, int count, long millis) {
+        return IntStream.range(0, count).mapToObj(index -> process(messageToProcess, millis))
+                .flatMap(List::stream).filter(m -> m == messageToProcess).collect(Collectors.toList());
+    }
+
+    private List<MessageImpl> process(MessageImpl messageToProcess, long millis) {
+        Clock clock = Clock.fixed(START.plusMillis(millis), ZONE);
+        return processor.process(messageToProcess, clock).collect(Collectors.toList());
+    }
+
+}
@@ -35,6 +35,8 @@ import org.mockito.Matchers;
 
 import cern.acet.tracing.MessageImpl;
 import cern.acet.tracing.processing.ThrottleProcessor.ThrottleListener;
+import cern.acet.tracing.processing.window.EventTimeStrategy;
+import cern.acet.tracing.processing.window.WindowScheduler;
 
 public class ThrottleProcessorTest {
 
@@ -122,6 +124,17 @@ public class ThrottleProcessorTest {
         verify(mockListener).onThrottleRecurring(ZonedDateTime.now(CLOCK_NOW), TEST_HOST, 2);
     }
 
+    @Test
+    public void canCountCyclesByEventTime() {
+        WindowScheduler scheduler = new WindowScheduler(Duration.ofHours(1));
+        filter = new ThrottleProcessor<>(DURATION, MESSAGE_LIMIT, x -> x.getAsString(HOST_FIELD), mockListener,
+                scheduler, EventTimeStrategy.ofField(MessageImpl.TIMESTAMP_FIELD), Duration.ZERO);
+        Stream<MessageImpl> backfill = Stream.of(0, 150, 300).map(
+                millis -> message.copy().putTimestamp(ZonedDateTime.now(getClock(millis))));
+        assertEquals(3, filterStreamWithLimit(backfill, 3).size());
+        scheduler.close();
+    }
+
     private List<MessageImpl> filterMessages(int number) {
         MessageImpl[] array = new MessageImpl[number];
         Arrays.fill(array, message);
@@ -0,0 +1,110 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction.
+ *
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class TimestampMapperTest {
+
+    private static final String FIELD = "time";
+    private static final ZoneId ZONE = ZoneOffset.ofHours(2);
+
+    private TimestampMapper<MessageImpl> mapper;
+
+    @Before
+    public void setup() {
+        mapper = TimestampMapper.<MessageImpl> builder().setFieldToParse(FIELD).setZone(ZONE)
+                .addFormat("yyyy-MM-dd HH:mm:ss.SSS").addFormat("dd/MM/yyyy HH:mm:ss")
+                .addFormat(DateTimeFormatter.ISO_OFFSET_DATE_TIME).build();
+    }
+
+    @Test
+    public void canParseTimestamp() {
+        assertEquals(ZonedDateTime.of(2016, 1, 5, 12, 34, 56, 789_000_000, ZONE), parse("2016-01-05 12:34:56.789"));
+    }
+
+    @Test
+    public void canParseTimestampsWithinSameSecond() {
+        parse("2016-01-05 12:34:56.789");
+        assertEquals(ZonedDateTime.of(2016, 1, 5, 12, 34, 56, 12_000_000, ZONE), parse("2016-01-05 12:34:56.012"));
+    }
+
+    @Test
+    public void canParseTimestampInNextSecond() {
+        parse("2016-01-05 12:34:56.789");
+        assertEquals(ZonedDateTime.of(2016, 1, 5, 12, 34, 57, 1_000_000, ZONE), parse("2016-01-05 12:34:57.001"));
+    }
+
+    @Test
+    public void canParseSecondFormat() {
+        parse("2016-01-05 12:34:56.789");
+        assertEquals(ZonedDateTime.of(2016, 1, 5, 12, 34, 56, 0, ZONE), parse("05/01/2016 12:34:56"));
+    }
+
+    @Test
+    public void canParseIdenticalTimestampsWithoutFraction() {
+        parse("05/01/2016 12:34:56");
+        assertEquals(ZonedDateTime.of(2016, 1, 5, 12, 34, 56, 0, ZONE), parse("05/01/2016 12:34:56"));
+    }
+
+    @Test
+    public void canSwitchBackToFirstFormat() {
+        parse("05/01/2016 12:34:56");
+        assertEquals(ZonedDateTime.of(2016, 1, 5, 12, 34, 56, 100_000_000, ZONE), parse("2016-01-05 12:34:56.100"));
+    }
+
+    @Test
+    public void canParseTimestampWithOffset() {
+        assertEquals(ZonedDateTime.parse("2015-09-30T12:31:21.021+02:00").toInstant(),
+                parse("2015-09-30T12:31:21.021+02:00").toInstant());
+    }
+
+    @Test
+    public void canNotUseCacheForCorruptFraction() {
+        parse("2016-01-05 12:34:56.789");
+        assertFalse(mapper.parse("2016-01-05 12:34:56.7x9").isPresent());
+    }
+
+    @Test
+    public void canLeaveMessageWithoutField() {
+        MessageImpl message = MessageImpl.ofUntyped();
+        assertFalse(mapper.apply(message).containsKey(MessageImpl.TIMESTAMP_FIELD));
+    }
+
+    @Test
+    public void canLeaveMessageWithUnknownFormat() {
+        MessageImpl message = MessageImpl.ofUntyped().put(FIELD, "yesterday");
+        assertFalse(mapper.apply(message).containsKey(MessageImpl.TIMESTAMP_FIELD));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutFormats() {
+        TimestampMapper.<MessageImpl> builder().setFieldToParse(FIELD).build();
+    }
+
+    private ZonedDateTime parse(String timestamp) {
+        MessageImpl message = MessageImpl.ofUntyped().put(FIELD, timestamp);
+        return mapper.apply(message).getAs(MessageImpl.TIMESTAMP_FIELD, ZonedDateTime.class);
+    }
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import cern.acet.tracing.MessageImpl;
+import cern.acet.tracing.processing.ThrottleProcessor.ThrottleListener;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+
+public class TokenBucketThrottleProcessorTest {
+
+    private static final String HOST_FIELD = "host";
+    private static final int MESSAGE_LIMIT = 4;
+    private static final Duration CYCLE = Duration.ofSeconds(1);
+    private static final Instant START = Instant.parse("2016-01-05T12:00:00Z");
+    private static final ZoneId ZONE = ZoneId.of("UTC");
+
+    private ThrottleListener<MessageImpl> mockListener;
+    private TokenBucketThrottleProcessor<MessageImpl> processor;
+    private MessageImpl message;
+    private MessageImpl throttleMessage;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        message = MessageImpl.ofUntyped().put(HOST_FIELD, "host1");
+        throttleMessage = MessageImpl.ofUntyped();
+        mockListener = mock(ThrottleListener.class);
+        when(mockListener.onThrottleEnding(Matchers.any(), Matchers.any(), anyLong())).thenReturn(
+                Optional.of(throttleMessage));
+        when(mockListener.onThrottleRecurring(Matchers.any(), Matchers.any(), anyLong())).thenReturn(
+                Optional.of(throttleMessage));
+        when(mockListener.onThrottleStarting(Matchers.any(), Matchers.any(), anyLong())).thenReturn(
+                Optional.of(throttleMessage));
+        processor = new TokenBucketThrottleProcessor<>(CYCLE, MESSAGE_LIMIT, FingerprintStrategy.ofFields(HOST_FIELD),
+                mockListener);
+    }
+
+    @Test
+    public void canAcceptBurstUpToLimit() {
+        for (int index = 0; index < MESSAGE_LIMIT; index++) {
+            assertEquals(Arrays.asList(message), process(message, 0));
+        }
+    }
+
+    @Test
+    public void canThrottleAboveLimit() {
+        processBurst(0);
+        assertEquals(Arrays.asList(throttleMessage), process(message, 0));
+        assertEquals(Arrays.asList(), process(message, 0));
+        verify(mockListener).onThrottleStarting(ZonedDateTime.ofInstant(START, ZONE), "host1", MESSAGE_LIMIT + 1);
+    }
+
+    @Test
+    public void canRefillBucketLazily() {
+        processBurst(0);
+        assertEquals(Arrays.asList(message), process(message, 250));
+        assertEquals(Arrays.asList(message), process(message, 500));
+    }
+
+    @Test
+    public void canReleaseEmitterWhenRateFallsBelowLimit() {
+        processBurst(0);
+        assertEquals(Arrays.asList(throttleMessage), process(message, 0));
+        assertEquals(Arrays.asList(), process(message, 500));
+        assertEquals(Arrays.asList(throttleMessage, message), process(message, 1250));
+        verify(mockListener).onThrottleEnding(ZonedDateTime.ofInstant(START, ZONE), "host1", 2);
+    }
+
+    @Test
+    public void canKeepFloodingEmitterThrottled() {
+        long accepted = 0;
+        for (long millis = 0; millis < 3000; millis += 10) {
+            accepted += process(message, millis).stream().filter(m -> m == message).count();
+        }
+        assertEquals(MESSAGE_LIMIT, accepted);
+        verify(mockListener, never()).onThrottleEnding(Matchers.any(), Matchers.any(), anyLong());
+    }
+
+    @Test
+    public void canReportRecurringThrottleOncePerCycle() {
+        processBurst(0);
+        for (long millis = 0; millis < 2000; millis += 1) {
+            process(message, millis);
+        }
+        verify(mockListener).onThrottleStarting(Matchers.any(), Matchers.any(), anyLong());
+        verify(mockListener, times(1)).onThrottleRecurring(Matchers.any(), Matchers.any(), anyLong());
+        verify(mockListener, never()).onThrottleEnding(Matchers.any(), Matchers.any(), anyLong());
+    }
+
+    @Test
+    public void canThrottleEmittersIndependently() {
+        processBurst(0);
+        MessageImpl otherMessage = MessageImpl.ofUntyped().put(HOST_FIELD, "host2");
+        assertEquals(Arrays.asList(otherMessage), process(otherMessage, 0));
+    }
+
+    @Test
+    public void canPruneIdleEmitters() {
+        for (int host = 0; host < 1000; host++) {
+            process(MessageImpl.ofUntyped().put(HOST_FIELD, "host" + host), 0);
+        }
+        assertEquals(1000, processor.getEmitterCount());
+        for (int host = 0; host < 1000; host++) {
+            process(MessageImpl.ofUntyped().put(HOST_FIELD, "other" + host), 10_000);
+        }
+        assertEquals(true, processor.getEmitterCount() < 2000);
+    }
+
+    @Test
+    public void canReleaseSilentThrottledEmitter() {
+        processBurst(0);
+        process(message, 0);
+        List<MessageImpl> output = new ArrayList<>();
+        for (int host = 0; host < 100; host++) {
+            output.addAll(process(MessageImpl.ofUntyped().put(HOST_FIELD, "other" + host), 2000));
+        }
+        assertTrue(output.contains(throttleMessage));
+        verify(mockListener).onThrottleEnding(ZonedDateTime.ofInstant(START, ZONE), "host1", 0);
+        assertEquals(Arrays.asList(message), process(message, 2000));
+    }
+
+    @Test
+    public void canPruneSilentThrottledEmitters() {
+        for (int host = 0; host < 1000; host++) {
+            MessageImpl hostMessage = MessageImpl.ofUntyped().put(HOST_FIELD, "host" + host);
+            for (int index = 0; index <= MESSAGE_LIMIT; index++) {
+                process(hostMessage, 0);
+            }
+        }
+        for (int host = 0; host < 1000; host++) {
+            process(MessageImpl.ofUntyped().put(HOST_FIELD, "other" + host), 10_000);
+        }
+        assertTrue(processor.getEmitterCount() < 2000);
+        verify(mockListener, times(1000)).onThrottleEnding(Matchers.any(), Matchers.any(), anyLong());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnZeroLimit() {
+        new TokenBucketThrottleProcessor<MessageImpl>(CYCLE, 0, FingerprintStrategy.ofFields(HOST_FIELD));
+    }
+
+    private void processBurst(long millis) {
+        for (int index = 0; index < MESSAGE_LIMIT; index++) {
+            process(message, millis);
+        }
+    }
+
+    private List<MessageImpl> process(MessageImpl messageToProcess, long millis) {
+        Clock clock = Clock.fixed(START.plusMillis(millis), ZONE);
+        return processor.process(messageToProcess, clock).collect(Collectors.toList());
+    }
+
+}
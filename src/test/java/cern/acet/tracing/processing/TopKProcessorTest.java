@@ -0,0 +1,61 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class TopKProcessorTest {
+
+    private static final String HOST_FIELD = "host";
+    private static final String BODY_FIELD = "body";
+
+    private TopKProcessor<MessageImpl> processor = TopKProcessor.<MessageImpl> builder().setKeyFields(HOST_FIELD)
+            .setItemFields(BODY_FIELD).setTopCount(2).setWindowDuration(Duration.ofMillis(500)).setDropMessages(true)
+            .build();
+
+    @After
+    public void teardown() {
+        processor.close();
+    }
+
+    @Test(timeout = 10000)
+    public void canReportMostFrequentItems() {
+        MessageImpl summary = processor.apply(IntStream.range(0, 100).mapToObj(i -> {
+            String body = i % 2 == 0 ? "disk full" : i % 3 == 0 ? "timeout" : "other" + i;
+            return MessageImpl.ofUntyped().put(HOST_FIELD, "a").put(BODY_FIELD, body);
+        })).findFirst().get();
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> top = (List<Map<String, Object>>) summary.get(TopKProcessor.TOP_FIELD);
+        assertEquals(2, top.size());
+        assertEquals("disk full", top.get(0).get(TopKProcessor.ITEM_FIELD));
+        assertEquals("timeout", top.get(1).get(TopKProcessor.ITEM_FIELD));
+        assertEquals("a", summary.get(HOST_FIELD));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithCapacityBelowTopCount() {
+        TopKProcessor.<MessageImpl> builder().setKeyFields(HOST_FIELD).setItemFields(BODY_FIELD).setTopCount(10)
+                .setCapacity(5).build();
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CountMinSketchTest {
+
+    private CountMinSketch sketch;
+
+    @Before
+    public void setup() {
+        sketch = new CountMinSketch(1024, 4);
+    }
+
+    @Test
+    public void canCountSingleKey() {
+        for (int index = 1; index <= 10; index++) {
+            assertEquals(index, sketch.add(42));
+        }
+        assertEquals(10, sketch.estimate(42));
+    }
+
+    @Test
+    public void canEstimateUnseenKeyAsZero() {
+        sketch.add(1);
+        assertEquals(0, sketch.estimate(2));
+    }
+
+    @Test
+    public void canNeverUnderestimate() {
+        for (long key = 0; key < 5000; key++) {
+            for (int count = 0; count < key % 7; count++) {
+                sketch.add(key);
+            }
+        }
+        for (long key = 0; key < 5000; key++) {
+            assertTrue(sketch.estimate(key) >= key % 7);
+        }
+    }
+
+    @Test
+    public void canBoundOverestimate() {
+        final int total = 10_000;
+        for (long key = 0; key < total; key++) {
+            sketch.add(key);
+        }
+        for (int index = 0; index < 100; index++) {
+            sketch.add(-1);
+        }
+        assertTrue(sketch.estimate(-1) <= 100 + 2 * total / 1024);
+    }
+
+    @Test
+    public void canClear() {
+        sketch.add(42);
+        sketch.clear();
+        assertEquals(0, sketch.estimate(42));
+    }
+
+    @Test
+    public void canReportSize() {
+        assertEquals(1024 * 4 * 8, sketch.getSizeInBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnWidthNotPowerOfTwo() {
+        new CountMinSketch(1000, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnZeroDepth() {
+        new CountMinSketch(1024, 0);
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void canEstimateZeroWhenEmpty() {
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    @Test
+    public void canCountSmallCardinalitiesExactly() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (int i = 0; i < 10; i++) {
+            sketch.add(i);
+            sketch.add(i);
+        }
+        assertEquals(10, sketch.estimate());
+    }
+
+    @Test
+    public void canEstimateLargeCardinalitiesWithinError() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long i = 0; i < 1_000_000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(1_000_000, sketch.estimate(), 1_000_000 * sketch.getStandardError() * 3);
+    }
+
+    @Test
+    public void canMergeSketches() {
+        HyperLogLog first = new HyperLogLog(14);
+        HyperLogLog second = new HyperLogLog(14);
+        for (long i = 0; i < 50_000; i++) {
+            first.add(i);
+            second.add(i + 25_000);
+        }
+        first.merge(second);
+        assertEquals(75_000, first.estimate(), 75_000 * first.getStandardError() * 3);
+    }
+
+    @Test
+    public void canUseFixedMemory() {
+        assertEquals(4096, new HyperLogLog(12).getSizeInBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailToMergeDifferentPrecisions() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnPrecisionOutOfRange() {
+        new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+    private static final double ACCURACY = 0.01;
+
+    private QuantileSketch sketch;
+
+    @Before
+    public void setup() {
+        sketch = new QuantileSketch(ACCURACY, 2048);
+    }
+
+    @Test
+    public void canReturnNaNWhenEmpty() {
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        assertEquals(0, sketch.getCount());
+    }
+
+    @Test
+    public void canEstimateQuantilesWithinRelativeAccuracy() {
+        for (int value = 1; value <= 10_000; value++) {
+            sketch.add(value);
+        }
+        assertRelative(5_000, sketch.getQuantile(0.5));
+        assertRelative(9_900, sketch.getQuantile(0.99));
+        assertEquals(1, sketch.getMin(), 0);
+        assertEquals(10_000, sketch.getMax(), 0);
+        assertEquals(10_000, sketch.getCount());
+    }
+
+    @Test
+    public void canEstimateNegativeAndZeroValues() {
+        for (int value = -100; value <= 100; value++) {
+            sketch.add(value);
+        }
+        assertEquals(0, sketch.getQuantile(0.5), 0);
+        assertRelative(-50, sketch.getQuantile(0.25));
+        assertRelative(50, sketch.getQuantile(0.75));
+    }
+
+    @Test
+    public void canMergeSketches() {
+        QuantileSketch other = new QuantileSketch(ACCURACY, 2048);
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            sketch.add(random.nextDouble() * 100);
+            other.add(100 + random.nextDouble() * 100);
+        }
+        sketch.merge(other);
+        assertEquals(20_000, sketch.getCount());
+        assertRelative(100, sketch.getQuantile(0.5));
+        assertTrue(sketch.getMax() >= 199);
+    }
+
+    @Test
+    public void canCollapseLowestBucketsWhenFull() {
+        sketch = new QuantileSketch(ACCURACY, 64);
+        for (int value = 1; value <= 100_000; value++) {
+            sketch.add(value);
+        }
+        assertRelative(99_000, sketch.getQuantile(0.99));
+    }
+
+    @Test
+    public void canIgnoreNaN() {
+        sketch.add(Double.NaN);
+        assertEquals(0, sketch.getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailToMergeDifferentAccuracies() {
+        sketch.merge(new QuantileSketch(0.05, 2048));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnQuantileOutOfRange() {
+        sketch.getQuantile(1.5);
+    }
+
+    private static void assertRelative(double expected, double actual) {
+        assertEquals(expected, actual, Math.abs(expected) * ACCURACY * 2);
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RotatingBloomFilterTest {
+
+    private static final Duration HORIZON = Duration.ofSeconds(3);
+    private static final long NOW = 1_000_000;
+
+    private RotatingBloomFilter filter;
+
+    @Before
+    public void setup() {
+        filter = new RotatingBloomFilter(HORIZON, 10_000, 0.01, 4, NOW);
+    }
+
+    @Test
+    public void canDetectDuplicate() {
+        assertTrue(filter.add(42, NOW));
+        assertFalse(filter.add(42, NOW));
+        assertEquals(1, filter.getKeyCount());
+    }
+
+    @Test
+    public void canRememberKeyWithinHorizon() {
+        filter.add(42, NOW);
+        assertFalse(filter.add(42, NOW + HORIZON.toMillis() - 1));
+    }
+
+    @Test
+    public void canRememberKeyInOlderGeneration() {
+        filter.add(42, NOW);
+        filter.add(43, NOW + 1500);
+        assertFalse(filter.add(42, NOW + 2500));
+    }
+
+    @Test
+    public void canForgetKeyAfterHorizon() {
+        filter.add(42, NOW);
+        assertTrue(filter.add(42, NOW + HORIZON.toMillis() * 2));
+    }
+
+    @Test
+    public void canKeepFalsePositiveRateAtExpectedLoad() {
+        assertEquals(0, filter.getFalsePositiveRate(), 0);
+        for (long key = 0; key < 10_000; key++) {
+            filter.add(key, NOW + key * HORIZON.toMillis() / 10_000);
+        }
+        int falsePositives = 0;
+        for (long key = -1; key >= -100_000; key--) {
+            if (filter.contains(key)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 100_000 * 0.01);
+        assertTrue(filter.getFalsePositiveRate() > 0);
+        assertTrue(filter.getFalsePositiveRate() < 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithOneGeneration() {
+        new RotatingBloomFilter(HORIZON, 10_000, 0.01, 1, NOW);
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.sketch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cern.acet.tracing.processing.sketch.TopKSketch.Item;
+
+public class TopKSketchTest {
+
+    @Test
+    public void canCountExactlyBelowCapacity() {
+        TopKSketch sketch = new TopKSketch(4);
+        add(sketch, 1, 3);
+        add(sketch, 2, 5);
+        add(sketch, 3, 1);
+        List<Item> top = sketch.getTop(2);
+        assertEquals(2, top.size());
+        assertEquals("2", top.get(0).getLabel());
+        assertEquals(5, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+        assertEquals("1", top.get(1).getLabel());
+    }
+
+    @Test
+    public void canFindHeavyHittersAmongManyKeys() {
+        TopKSketch sketch = new TopKSketch(20);
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            if (i % 10 == 0) {
+                sketch.add(-1, () -> "heavy");
+            } else if (i % 20 == 1) {
+                sketch.add(-2, () -> "medium");
+            } else {
+                long key = random.nextInt(10_000);
+                sketch.add(key, () -> Long.toString(key));
+            }
+        }
+        List<Item> top = sketch.getTop(2);
+        assertEquals("heavy", top.get(0).getLabel());
+        assertEquals("medium", top.get(1).getLabel());
+        Item heavy = top.get(0);
+        assertTrue(heavy.getCount() - heavy.getError() <= 10_000 && heavy.getCount() >= 10_000);
+    }
+
+    @Test
+    public void canReplaceLeastFrequentKey() {
+        TopKSketch sketch = new TopKSketch(2);
+        add(sketch, 1, 5);
+        add(sketch, 2, 2);
+        add(sketch, 3, 1);
+        List<Item> top = sketch.getTop(2);
+        assertEquals("1", top.get(0).getLabel());
+        assertEquals("3", top.get(1).getLabel());
+        assertEquals(3, top.get(1).getCount());
+        assertEquals(2, top.get(1).getError());
+    }
+
+    private static void add(TopKSketch sketch, long key, int times) {
+        for (int i = 0; i < times; i++) {
+            sketch.add(key, () -> Long.toString(key));
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class SnapshotLogTest {
+
+    private static final int KIND = 1;
+
+    private Path directory;
+    private Path file;
+    private SnapshotLog log;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("logalike-snapshot");
+        file = directory.resolve("test.snapshot");
+        log = new SnapshotLog(file);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        log.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void canReadCommittedRecords() throws IOException {
+        putLong(1, 10);
+        putLong(2, 20);
+        log.commit();
+        Map<Long, ByteBuffer> records = SnapshotLog.read(file).getRecords(KIND);
+        assertEquals(2, records.size());
+        assertEquals(20, records.get(2L).getLong());
+    }
+
+    @Test
+    public void canReplaceAndRemoveRecords() throws IOException {
+        putLong(1, 10);
+        putLong(2, 20);
+        log.commit();
+        putLong(1, 11);
+        log.remove(KIND, 2);
+        log.commit();
+        Map<Long, ByteBuffer> records = SnapshotLog.read(file).getRecords(KIND);
+        assertEquals(1, records.size());
+        assertEquals(11, records.get(1L).getLong());
+    }
+
+    @Test
+    public void canIgnoreRecordsAfterLastCommit() throws IOException {
+        putLong(1, 10);
+        log.commit();
+        putLong(2, 20);
+        log.close();
+        assertFalse(SnapshotLog.read(file).getRecords(KIND).containsKey(2L));
+        log = new SnapshotLog(file);
+    }
+
+    @Test
+    public void canAppendAfterTornRecord() throws IOException {
+        putLong(1, 10);
+        log.commit();
+        log.close();
+        Files.write(file, new byte[] { 1, KIND, 0, 0 }, StandardOpenOption.APPEND);
+
+        log = new SnapshotLog(file);
+        putLong(2, 20);
+        log.commit();
+        Map<Long, ByteBuffer> records = SnapshotLog.read(file).getRecords(KIND);
+        assertEquals(10, records.get(1L).getLong());
+        assertEquals(20, records.get(2L).getLong());
+    }
+
+    @Test
+    public void canReplaceFileWithFullSnapshot() throws IOException {
+        putLong(1, 10);
+        putLong(2, 20);
+        log.commit();
+        log.startFullSnapshot();
+        putLong(3, 30);
+        log.finishFullSnapshot();
+        assertEquals(0, log.getAppendedBytes());
+
+        Map<Long, ByteBuffer> records = SnapshotLog.read(file).getRecords(KIND);
+        assertEquals(1, records.size());
+        assertTrue(records.containsKey(3L));
+    }
+
+    @Test
+    public void canWriteNothingIfValueFails() throws IOException {
+        try {
+            log.put(KIND, 1, output -> {
+                output.writeLong(10);
+                throw new IllegalStateException();
+            });
+        } catch (IllegalStateException e) {
+            /* Expected */
+        }
+        putLong(2, 20);
+        log.commit();
+        assertEquals(1, SnapshotLog.read(file).size());
+    }
+
+    @Test
+    public void canReadEmptyFile() throws IOException {
+        assertEquals(0, SnapshotLog.read(directory.resolve("missing")).size());
+    }
+
+    @Test
+    public void canEncodeMessageFields() throws IOException {
+        MessageCodec<MessageImpl> codec = MessageCodec.ofFields(MessageImpl::ofUntyped);
+        ZonedDateTime time = ZonedDateTime.of(2016, 1, 5, 12, 0, 0, 123, ZoneOffset.ofHours(2));
+        MessageImpl message = MessageImpl.ofUntyped().put("text", "æøå").put("long", 1L).put("int", 2)
+                .put("double", 0.5).put("boolean", true).put("time", time).put("instant", time.toInstant())
+                .put("other", new StringBuilder("other"));
+        log.put(KIND, 1, output -> codec.encode(message, output));
+        log.commit();
+
+        MessageImpl decoded = codec.decode(SnapshotLog.read(file).getRecords(KIND).get(1L));
+        assertEquals("æøå", decoded.get("text"));
+        assertEquals(1L, decoded.get("long"));
+        assertEquals(2, decoded.get("int"));
+        assertEquals(0.5, decoded.get("double"));
+        assertEquals(true, decoded.get("boolean"));
+        assertEquals(time, decoded.get("time"));
+        assertEquals(Instant.from(time), decoded.get("instant"));
+        assertEquals("other", decoded.get("other"));
+    }
+
+    private void putLong(long key, long value) throws IOException {
+        log.put(KIND, key, output -> output.writeLong(value));
+    }
+
+}
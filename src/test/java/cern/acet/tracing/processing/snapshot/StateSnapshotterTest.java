@@ -0,0 +1,150 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+import cern.acet.tracing.processing.ThrottleProcessor;
+import cern.acet.tracing.processing.ThrottleProcessor.ThrottleListener;
+import cern.acet.tracing.processing.window.FingerprintStrategy;
+import cern.acet.tracing.processing.window.WindowManager;
+
+public class StateSnapshotterTest {
+
+    private static final String HOST_FIELD = "host";
+    private static final String EVENT_FIELD = "event";
+    private static final MessageCodec<MessageImpl> CODEC = MessageCodec.ofFields(MessageImpl::ofUntyped);
+    private static final FingerprintStrategy<MessageImpl> STRATEGY = FingerprintStrategy.ofFields(HOST_FIELD);
+
+    private Path directory;
+    private StateSnapshotter snapshotter;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("logalike-snapshot");
+        snapshotter = new StateSnapshotter(directory, Duration.ofHours(1));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        snapshotter.close();
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void canRestoreOpenWindows() throws IOException {
+        MessageImpl message = MessageImpl.ofUntyped().put(HOST_FIELD, "a");
+        try (WindowManager<MessageImpl> manager = new WindowManager<>(Duration.ofHours(1), STRATEGY)) {
+            snapshotter.register("windows", manager.getSnapshottable(CODEC));
+            manager.increment(message);
+            snapshotter.snapshot();
+            manager.increment(message);
+            manager.increment(message);
+            restart();
+        }
+        try (WindowManager<MessageImpl> manager = new WindowManager<>(Duration.ofHours(1), STRATEGY)) {
+            snapshotter.register("windows", manager.getSnapshottable(CODEC));
+            assertEquals(3, manager.getWindow(message).get().getCount());
+            assertEquals("a", manager.getWindow(message).get().getMessage().get(HOST_FIELD));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void canForgetClosedWindows() throws IOException, InterruptedException {
+        MessageImpl message = MessageImpl.ofUntyped().put(HOST_FIELD, "a");
+        try (WindowManager<MessageImpl> manager = new WindowManager<>(Duration.ofMillis(20), STRATEGY)) {
+            snapshotter.register("windows", manager.getSnapshottable(CODEC));
+            manager.increment(message);
+            snapshotter.snapshot();
+            manager.getClosedWindowsStream().findFirst();
+            restart();
+        }
+        try (WindowManager<MessageImpl> manager = new WindowManager<>(Duration.ofHours(1), STRATEGY)) {
+            snapshotter.register("windows", manager.getSnapshottable(CODEC));
+            assertEquals(0, manager.getOpenWindowCount());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void canRestoreThrottledEmitters() throws IOException {
+        MessageImpl message = MessageImpl.ofUntyped().put(HOST_FIELD, "a");
+        try (ThrottleProcessor<MessageImpl> throttle = createThrottle()) {
+            snapshotter.register("throttle", throttle.getSnapshottable(CODEC));
+            MessageImpl event = throttle.apply(Stream.of(message, message, message)).skip(1).findFirst().get();
+            assertEquals("starting", event.get(EVENT_FIELD));
+            restart();
+        }
+        try (ThrottleProcessor<MessageImpl> throttle = createThrottle()) {
+            snapshotter.register("throttle", throttle.getSnapshottable(CODEC));
+            MessageImpl output = throttle.apply(Stream.of(message)).findFirst().get();
+            assertEquals("ending", output.get(EVENT_FIELD));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailToRegisterNameTwice() throws IOException {
+        try (WindowManager<MessageImpl> manager = new WindowManager<>(Duration.ofHours(1), STRATEGY)) {
+            snapshotter.register("windows", manager.getSnapshottable(CODEC));
+            snapshotter.register("windows", manager.getSnapshottable(CODEC));
+        }
+    }
+
+    @Test
+    public void canStartWithoutSnapshot() throws IOException {
+        try (WindowManager<MessageImpl> manager = new WindowManager<>(Duration.ofHours(1), STRATEGY)) {
+            snapshotter.register("windows", manager.getSnapshottable(CODEC));
+            assertFalse(manager.getWindow(0).isPresent());
+        }
+    }
+
+    private void restart() throws IOException {
+        snapshotter.close();
+        snapshotter = new StateSnapshotter(directory, Duration.ofHours(1));
+    }
+
+    private static ThrottleProcessor<MessageImpl> createThrottle() {
+        return new ThrottleProcessor<>(Duration.ofMillis(50), 1, STRATEGY, new ThrottleListener<MessageImpl>() {
+
+            @Override
+            public Optional<MessageImpl> onThrottleStarting(ZonedDateTime startTime, String fingerprint, long count) {
+                return Optional.of(MessageImpl.ofUntyped().put(EVENT_FIELD, "starting"));
+            }
+
+            @Override
+            public Optional<MessageImpl> onThrottleRecurring(ZonedDateTime startTime, String fingerprint,
+                    long count) {
+                return Optional.of(MessageImpl.ofUntyped().put(EVENT_FIELD, "recurring"));
+            }
+
+            @Override
+            public Optional<MessageImpl> onThrottleEnding(ZonedDateTime startTime, String fingerprint, long count) {
+                return Optional.of(MessageImpl.ofUntyped().put(EVENT_FIELD, "ending"));
+            }
+        });
+    }
+
+}
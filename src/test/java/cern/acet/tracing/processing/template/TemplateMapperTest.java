@@ -0,0 +1,92 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class TemplateMapperTest {
+
+    private static final String FIELD = "body";
+
+    private TemplateMapper<MessageImpl> mapper;
+
+    @Before
+    public void setup() {
+        mapper = TemplateMapper.<MessageImpl> builder().setField(FIELD).build();
+    }
+
+    @Test
+    public void canPutTemplateFields() {
+        mapper.apply(message("Connection from 10.0.0.1 closed"));
+        MessageImpl message = mapper.apply(message("Connection from 10.0.0.2 closed"));
+        assertEquals(0L, message.get("templateId"));
+        assertEquals("Connection from <*> closed", message.get("template"));
+        assertEquals(Arrays.asList("10.0.0.2"), message.get("templateParameters"));
+    }
+
+    @Test
+    public void canLeaveOutParameters() {
+        mapper = TemplateMapper.<MessageImpl> builder().setField(FIELD).setParametersField(null).build();
+        assertFalse(mapper.apply(message("Connection closed")).containsKey("templateParameters"));
+    }
+
+    @Test
+    public void canLeaveMessageWithoutField() {
+        assertFalse(mapper.apply(MessageImpl.ofUntyped()).containsKey("templateId"));
+    }
+
+    @Test
+    public void canRefuseSnapshotsOfTemplateIds() {
+        assertFalse(mapper.isStableAcrossRestarts());
+    }
+
+    @Test
+    public void canFingerprintNearDuplicates() {
+        MessageImpl first = mapper.apply(message("Connection from 10.0.0.1 closed"));
+        MessageImpl second = message("Connection from 10.0.0.2 closed");
+        assertEquals(mapper.getLongFingerprint(first), mapper.getLongFingerprint(second));
+        assertEquals(mapper.getFingerprint(first), mapper.getFingerprint(second));
+        assertNotEquals(mapper.getLongFingerprint(first), mapper.getLongFingerprint(message("Disk is full")));
+    }
+
+    @Test
+    public void canFingerprintWithoutMiningTemplates() {
+        assertEquals(-1L, mapper.getLongFingerprint(message("Connection from 10.0.0.1 closed")));
+        assertEquals("", mapper.getFingerprint(message("Connection from 10.0.0.1 closed")));
+        assertEquals(0, mapper.getMiner().getTemplateCount());
+    }
+
+    @Test
+    public void canFingerprintMappedMessageByTemplateId() {
+        MessageImpl message = mapper.apply(message("Connection from 10.0.0.1 closed")).put(FIELD, "Something else");
+        assertEquals(0L, mapper.getLongFingerprint(message));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutField() {
+        TemplateMapper.<MessageImpl> builder().build();
+    }
+
+    private static MessageImpl message(String body) {
+        return MessageImpl.ofUntyped().put(FIELD, body);
+    }
+
+}
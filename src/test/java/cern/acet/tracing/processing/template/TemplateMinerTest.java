@@ -0,0 +1,146 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.template;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TemplateMinerTest {
+
+    private TemplateMiner miner;
+
+    @Before
+    public void setup() {
+        miner = new TemplateMiner();
+    }
+
+    @Test
+    public void canStartTemplateFromFirstLine() {
+        TemplateMatch match = miner.match("Connection closed");
+        assertEquals("Connection closed", match.getTemplate());
+        assertEquals(Arrays.asList(), match.getParameters());
+    }
+
+    @Test
+    public void canGroupLinesDifferingInNumbers() {
+        TemplateMatch first = miner.match("Received block 1234 of size 67108864 from 10.0.0.1");
+        TemplateMatch second = miner.match("Received block 5678 of size 1024 from 10.0.0.2");
+        assertEquals(first.getTemplateId(), second.getTemplateId());
+        assertEquals("Received block <*> of size <*> from <*>", second.getTemplate());
+        assertEquals(Arrays.asList("5678", "1024", "10.0.0.2"), second.getParameters());
+    }
+
+    @Test
+    public void canGroupLinesDifferingInWords() {
+        TemplateMatch first = miner.match("Session opened for user alice");
+        TemplateMatch second = miner.match("Session opened for user bob");
+        assertEquals(first.getTemplateId(), second.getTemplateId());
+        assertEquals("Session opened for user <*>", second.getTemplate());
+        assertEquals(Arrays.asList("bob"), second.getParameters());
+    }
+
+    @Test
+    public void canSeparateDissimilarLines() {
+        TemplateMatch first = miner.match("Disk quota exceeded on volume");
+        TemplateMatch second = miner.match("Disk controller reset by host");
+        assertNotEquals(first.getTemplateId(), second.getTemplateId());
+        assertEquals(2, miner.getTemplateCount());
+    }
+
+    @Test
+    public void canSeparateLinesOfDifferentLength() {
+        TemplateMatch first = miner.match("Job 12 started");
+        TemplateMatch second = miner.match("Job 12 started again");
+        assertNotEquals(first.getTemplateId(), second.getTemplateId());
+    }
+
+    @Test
+    public void canKeepTemplateIdWhenGeneralising() {
+        long templateId = miner.match("Job 1 started on node1").getTemplateId();
+        miner.match("Job 2 started on node2");
+        assertEquals(templateId, miner.match("Job 3 started on node3").getTemplateId());
+    }
+
+    @Test
+    public void canMatchEmptyLine() {
+        assertEquals(miner.match("").getTemplateId(), miner.match("   ").getTemplateId());
+    }
+
+    @Test
+    public void canNotTreatLiteralWildcardAsWildcard() {
+        TemplateMatch match = miner.match("Template <*> found");
+        assertEquals(Arrays.asList(), match.getParameters());
+    }
+
+    @Test
+    public void canBoundChildrenOfNodes() {
+        miner = new TemplateMiner(TemplateMiner.DEFAULT_DEPTH, TemplateMiner.DEFAULT_SIMILARITY_THRESHOLD, 2);
+        long first = miner.match("alpha is done").getTemplateId();
+        miner.match("beta is done");
+        long third = miner.match("gamma is done").getTemplateId();
+        assertEquals(third, miner.match("delta is done").getTemplateId());
+        assertNotEquals(first, third);
+    }
+
+    @Test
+    public void canTokenizeOnWhitespace() {
+        assertArrayEquals(new String[] { "a", "b", "c" }, TemplateMiner.tokenize("  a\tb   c "));
+    }
+
+    @Test
+    public void canFindTemplateWithoutChangingIt() {
+        long templateId = miner.match("Job 1 started on node1").getTemplateId();
+        TemplateMatch found = miner.find("Job 2 started on node2").get();
+        assertEquals(templateId, found.getTemplateId());
+        assertEquals("Job 1 started on node1", found.getTemplate());
+        assertFalse(miner.find("Disk controller reset by host").isPresent());
+        assertEquals(1, miner.getTemplateCount());
+    }
+
+    @Test
+    public void canEvictLeastRecentlyUsedTemplate() {
+        miner = new TemplateMiner(TemplateMiner.DEFAULT_DEPTH, TemplateMiner.DEFAULT_SIMILARITY_THRESHOLD,
+                TemplateMiner.DEFAULT_MAX_CHILDREN, 2);
+        long first = miner.match("Disk quota exceeded on volume").getTemplateId();
+        long second = miner.match("Connection closed").getTemplateId();
+        miner.match("Disk quota exceeded on volume");
+        miner.match("Session opened for user alice");
+
+        assertEquals(first, miner.find("Disk quota exceeded on volume").get().getTemplateId());
+        assertFalse(miner.find("Connection closed").isPresent());
+        assertNotEquals(second, miner.match("Connection closed").getTemplateId());
+        assertEquals(2, miner.getEvictedTemplateCount());
+    }
+
+    @Test
+    public void canStayWithinMaxTemplates() {
+        miner = new TemplateMiner(TemplateMiner.DEFAULT_DEPTH, TemplateMiner.DEFAULT_SIMILARITY_THRESHOLD,
+                TemplateMiner.DEFAULT_MAX_CHILDREN, 100);
+        for (int index = 0; index < 10000; index++) {
+            miner.match("word" + (char) ('a' + index % 26) + index % 1000 + " x" + index + " y" + index);
+        }
+        assertEquals(miner.getTemplateCount() - 100, miner.getEvictedTemplateCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnShallowTree() {
+        new TemplateMiner(2, TemplateMiner.DEFAULT_SIMILARITY_THRESHOLD, TemplateMiner.DEFAULT_MAX_CHILDREN);
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class EventTimeStrategyTest {
+
+    private static final EventTimeStrategy<MessageImpl> TIME = EventTimeStrategy.ofField("time");
+    private static final Instant INSTANT = Instant.parse("2016-01-05T12:34:56.789Z");
+
+    @Test
+    public void canGetEventTimeOfZonedDateTime() {
+        ZonedDateTime time = ZonedDateTime.ofInstant(INSTANT, ZoneOffset.ofHours(2));
+        assertEquals(Optional.of(INSTANT), TIME.getEventTime(MessageImpl.ofUntyped().put("time", time)));
+    }
+
+    @Test
+    public void canGetEventTimeOfInstant() {
+        assertEquals(Optional.of(INSTANT), TIME.getEventTime(MessageImpl.ofUntyped().put("time", INSTANT)));
+    }
+
+    @Test
+    public void canGetEventTimeOfEpochMillis() {
+        assertEquals(Optional.of(INSTANT),
+                TIME.getEventTime(MessageImpl.ofUntyped().put("time", INSTANT.toEpochMilli())));
+    }
+
+    @Test
+    public void canGetEmptyEventTimeOfMissingField() {
+        assertFalse(TIME.getEventTime(MessageImpl.ofUntyped()).isPresent());
+    }
+
+    @Test
+    public void canGetEmptyEventTimeOfText() {
+        assertFalse(TIME.getEventTime(MessageImpl.ofUntyped().put("time", "yesterday")).isPresent());
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class FingerprintStrategyTest {
+
+    private static final FingerprintStrategy<MessageImpl> HOST = FingerprintStrategy.ofFields("host");
+    private static final FingerprintStrategy<MessageImpl> HOST_AND_PROGRAM = FingerprintStrategy.ofFields("host",
+            "program");
+
+    @Test
+    public void canGetFingerprintOfField() {
+        assertEquals("host1", HOST.getFingerprint(MessageImpl.ofUntyped().put("host", "host1")));
+    }
+
+    @Test
+    public void canGetEmptyFingerprintOfMissingField() {
+        assertEquals("", HOST.getFingerprint(MessageImpl.ofUntyped()));
+    }
+
+    @Test
+    public void canJoinFingerprintsOfFields() {
+        MessageImpl message = MessageImpl.ofUntyped().put("host", "host1").put("program", "sshd");
+        assertEquals("host1" + FingerprintStrategy.FIELD_SEPARATOR + "sshd", HOST_AND_PROGRAM.getFingerprint(message));
+    }
+
+    @Test
+    public void canGetSameLongFingerprintForSameFields() {
+        MessageImpl message1 = MessageImpl.ofUntyped().put("host", "host1").put("body", "a");
+        MessageImpl message2 = MessageImpl.ofUntyped().put("host", new StringBuilder("host1")).put("body", "b");
+        assertEquals(HOST.getLongFingerprint(message1), HOST.getLongFingerprint(message2));
+    }
+
+    @Test
+    public void canGetDifferentLongFingerprintsForDifferentFields() {
+        MessageImpl message1 = MessageImpl.ofUntyped().put("host", "ab").put("program", "c");
+        MessageImpl message2 = MessageImpl.ofUntyped().put("host", "a").put("program", "bc");
+        assertNotEquals(HOST_AND_PROGRAM.getLongFingerprint(message1), HOST_AND_PROGRAM.getLongFingerprint(message2));
+    }
+
+    @Test
+    public void canGetSameLongFingerprintForMissingAndEmptyField() {
+        MessageImpl message = MessageImpl.ofUntyped().put("host", "");
+        assertEquals(HOST.getLongFingerprint(message), HOST.getLongFingerprint(MessageImpl.ofUntyped()));
+    }
+
+    @Test
+    public void canHashLongFingerprintOfFieldsLikeStringFingerprint() {
+        String[] values = { "", "a", "abc", "abcd", "abcde", "host" + FingerprintStrategy.FIELD_SEPARATOR + "1" };
+        for (String host : values) {
+            for (String program : values) {
+                MessageImpl message = MessageImpl.ofUntyped().put("host", host).put("program", program);
+                assertEquals(FingerprintHasher.hash(HOST_AND_PROGRAM.getFingerprint(message)),
+                        HOST_AND_PROGRAM.getLongFingerprint(message));
+            }
+        }
+        MessageImpl message = MessageImpl.ofUntyped().put("program", "sshd");
+        assertEquals(FingerprintHasher.hash(HOST_AND_PROGRAM.getFingerprint(message)),
+                HOST_AND_PROGRAM.getLongFingerprint(message));
+    }
+
+    @Test
+    public void canHashStringFingerprintByDefault() {
+        FingerprintStrategy<MessageImpl> strategy = message -> "fingerprint";
+        assertEquals(FingerprintHasher.hash("fingerprint"), strategy.getLongFingerprint(MessageImpl.ofUntyped()));
+    }
+
+    @Test
+    public void canHashToTheSameValuesAcrossVersions() {
+        /* Snapshots are keyed by these hashes, so they must never change */
+        assertEquals(-1205034819632174695L, FingerprintHasher.hash(""));
+        assertEquals(434176959426080808L, FingerprintHasher.hash("host1"));
+        assertEquals(6648555524222405023L, FingerprintHasher.hash(1L, "Connection from 10.0.0.1 closed"));
+        assertEquals(3385192193508492419L, FingerprintHasher.hash(1L, 2L));
+    }
+
+    @Test
+    public void canHashTextOfAllLengths() {
+        assertNotEquals(FingerprintHasher.hash("abcd"), FingerprintHasher.hash("abcde"));
+        assertNotEquals(FingerprintHasher.hash(""), FingerprintHasher.hash("\u0000"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailWithoutFields() {
+        FingerprintStrategy.ofFields();
+    }
+
+}
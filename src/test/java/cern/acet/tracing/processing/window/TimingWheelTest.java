@@ -0,0 +1,105 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    private static final long TICK = 10;
+    private static final long START = 1_000_000;
+
+    private TimingWheel<String> wheel;
+    private List<String> expired;
+
+    @Before
+    public void setup() {
+        wheel = new TimingWheel<>(TICK, START);
+        expired = new ArrayList<>();
+    }
+
+    @Test
+    public void canExpireElementAtDeadline() {
+        wheel.schedule("a", START + 50);
+        wheel.advance(START + 49, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(START + 50, expired::add);
+        assertEquals(Arrays.asList("a"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void canRoundDeadlineUpToNextTick() {
+        wheel.schedule("a", START + 51);
+        wheel.advance(START + 59, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(START + 60, expired::add);
+        assertEquals(Arrays.asList("a"), expired);
+    }
+
+    @Test
+    public void canExpireElementsInOrderOfDeadline() {
+        wheel.schedule("c", START + 30_000);
+        wheel.schedule("a", START + 20);
+        wheel.schedule("b", START + 700);
+        wheel.advance(START + 60_000, expired::add);
+        assertEquals(Arrays.asList("a", "b", "c"), expired);
+    }
+
+    @Test
+    public void canCascadeElementsFarInTheFuture() {
+        long deadline = START + TICK * 5_000_000L + 3;
+        wheel.schedule("far", deadline);
+        wheel.advance(deadline - TICK, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(deadline + TICK, expired::add);
+        assertEquals(Arrays.asList("far"), expired);
+    }
+
+    @Test
+    public void canExpireDeadlineInThePastAtNextTick() {
+        wheel.schedule("old", START - 1_000);
+        wheel.advance(START + TICK, expired::add);
+        assertEquals(Arrays.asList("old"), expired);
+    }
+
+    @Test
+    public void canScheduleAfterIdleAdvance() {
+        wheel.advance(START + 1_000_000, expired::add);
+        wheel.schedule("a", START + 1_000_100);
+        wheel.advance(START + 1_000_100, expired::add);
+        assertEquals(Arrays.asList("a"), expired);
+    }
+
+    @Test
+    public void canCountElements() {
+        wheel.schedule("a", START + 10);
+        wheel.schedule("b", START + 100_000);
+        assertEquals(2, wheel.size());
+        wheel.advance(START + 10, expired::add);
+        assertEquals(1, wheel.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnNonPositiveTick() {
+        new TimingWheel<String>(0, START);
+    }
+
+}
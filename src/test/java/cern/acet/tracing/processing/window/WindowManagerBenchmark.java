@@ -0,0 +1,98 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cern.acet.tracing.MessageImpl;
+
+/**
+ * A contention benchmark for the increments of the {@link WindowManager}. Each round lets 1 to 32 threads
+ * increment windows for a fixed time, either all on the same fingerprint (one chatty emitter) or spread over many
+ * fingerprints. The windows expire 100 milliseconds after they open, so the expiry is part of the measurement.
+ * <p>
+ * Run it with <code>main</code>; it is not part of the unit tests.
+ * </p>
+ *
+ * @author jepeders
+ */
+public class WindowManagerBenchmark {
+
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16, 32 };
+    private static final int FINGERPRINT_COUNT = 1024;
+    private static final Duration WINDOW_DURATION = Duration.ofMillis(100);
+    private static final long ROUND_MILLIS = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        final MessageImpl[] messages = new MessageImpl[FINGERPRINT_COUNT];
+        final long[] fingerprints = new long[FINGERPRINT_COUNT];
+        final FingerprintStrategy<MessageImpl> strategy = FingerprintStrategy.ofFields("host");
+        for (int index = 0; index < FINGERPRINT_COUNT; index++) {
+            messages[index] = MessageImpl.ofUntyped().put("host", "host" + index);
+            fingerprints[index] = strategy.getLongFingerprint(messages[index]);
+        }
+
+        /* Warm up the JIT before measuring */
+        run(strategy, messages, fingerprints, 4, FINGERPRINT_COUNT);
+
+        System.out.println(String.format("%8s %20s %20s", "threads", "same key (ops/s)", "spread keys (ops/s)"));
+        for (int threads : THREAD_COUNTS) {
+            final long sameKey = run(strategy, messages, fingerprints, threads, 1);
+            final long spreadKeys = run(strategy, messages, fingerprints, threads, FINGERPRINT_COUNT);
+            System.out.println(String.format("%8d %20d %20d", threads, sameKey, spreadKeys));
+        }
+    }
+
+    private static long run(FingerprintStrategy<MessageImpl> strategy, MessageImpl[] messages, long[] fingerprints,
+            int threads, int keys) throws InterruptedException {
+        final WindowManager<MessageImpl> manager = new WindowManager<>(WINDOW_DURATION, strategy);
+        final Clock clock = Clock.systemDefaultZone();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long[] operations = new long[threads];
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ROUND_MILLIS);
+
+        for (int thread = 0; thread < threads; thread++) {
+            final int threadIndex = thread;
+            new Thread(() -> {
+                try {
+                    start.await();
+                    long count = 0;
+                    int key = threadIndex;
+                    while ((count & 0xFF) != 0 || System.nanoTime() < deadline) {
+                        key = (key + 1) % keys;
+                        manager.increment(messages[key], fingerprints[key], clock);
+                        count++;
+                    }
+                    operations[threadIndex] = count;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        start.countDown();
+        done.await();
+        manager.close();
+        long total = 0;
+        for (long count : operations) {
+            total += count;
+        }
+        return total * 1000 / ROUND_MILLIS;
+    }
+
+}
@@ -19,7 +19,14 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -48,9 +55,13 @@ public class WindowManagerTest {
         manager = new WindowManager<>(DECAY, STRATEGY);
     }
 
+    @After
+    public void teardown() {
+        manager.close();
+    }
+
     @Test
     public void canCreateManagerWithDefaultClock() throws Exception {
-        manager = new WindowManager<>(DECAY, STRATEGY);
         manager.increment(MESSAGE);
         MessageWindow<MessageImpl> window = manager.getWindow(FINGERPRINT_VALUE).get();
         assertTrue(System.currentTimeMillis() - window.getStartTime().toEpochMilli() < 100);
@@ -84,4 +95,228 @@ public class WindowManagerTest {
         assertFalse(manager.getWindow(FINGERPRINT_VALUE).isPresent());
     }
 
+    @Test
+    public void canExpireWindowsAfterTheirOwnDuration() throws Exception {
+        /* A scheduler that never ticks during the test, so the windows only expire when we say so */
+        WindowScheduler scheduler = new WindowScheduler(Duration.ofHours(1));
+        Duration duration = Duration.ofMillis(WindowManager.TICKS_PER_WINDOW * 10);
+        manager.close();
+        manager = new WindowManager<>(duration, STRATEGY, scheduler, "manager");
+        MessageImpl otherMessage = MessageImpl.of(AcceptStrategy.INSTANCE).put(FINGERPRINT_FIELD, "otherValue");
+
+        manager.increment(MESSAGE);
+        long firstOpened = System.currentTimeMillis();
+        Thread.sleep(100);
+        manager.increment(otherMessage);
+        long secondOpened = System.currentTimeMillis();
+
+        manager.expireWindows(firstOpened + duration.toMillis() + 10);
+        assertFalse(manager.getWindow(MESSAGE).isPresent());
+        assertTrue(manager.getWindow(otherMessage).isPresent());
+        manager.expireWindows(secondOpened + duration.toMillis() + 10);
+        assertFalse(manager.getWindow(otherMessage).isPresent());
+        scheduler.close();
+    }
+
+    @Test
+    public void canIncrementFromManyThreads() throws Exception {
+        manager.close();
+        manager = new WindowManager<>(Duration.ofHours(1), STRATEGY);
+        incrementInParallel(8, 10000);
+        assertEquals(80000, manager.getWindow(MESSAGE).get().getCount());
+    }
+
+    @Test(timeout = 10000)
+    public void canCloseWindowsWithoutLosingIncrements() throws Exception {
+        incrementInParallel(8, 10000);
+        long count = 0;
+        Iterator<MessageWindow<MessageImpl>> closedWindows = manager.getClosedWindowsStream().iterator();
+        while (count < 80000) {
+            count += closedWindows.next().getCount();
+        }
+        assertEquals(80000, count);
+    }
+
+    @Test
+    public void canEvictLeastRecentlyUsedWindow() throws Exception {
+        manager.close();
+        manager = new WindowManager<>(Duration.ofHours(1), STRATEGY, 2);
+        MessageImpl secondMessage = message("second");
+        MessageImpl thirdMessage = message("third");
+        manager.increment(MESSAGE);
+        manager.increment(secondMessage);
+        manager.increment(MESSAGE);
+        manager.increment(thirdMessage);
+
+        assertEquals(2, manager.getOpenWindowCount());
+        assertTrue(manager.getWindow(MESSAGE).isPresent());
+        assertFalse(manager.getWindow(secondMessage).isPresent());
+        assertTrue(manager.getWindow(thirdMessage).isPresent());
+        assertEquals(1, manager.getEvictedWindowCount());
+    }
+
+    @Test(timeout = 10000)
+    public void canEmitEvictedWindowEarly() throws Exception {
+        manager.close();
+        manager = new WindowManager<>(Duration.ofHours(1), STRATEGY, 1);
+        manager.increment(MESSAGE);
+        manager.increment(MESSAGE);
+        manager.increment(message("second"));
+
+        MessageWindow<MessageImpl> evicted = manager.getClosedWindowsStream().findFirst().get();
+        assertEquals(FINGERPRINT_VALUE, evicted.getMessage().get(FINGERPRINT_FIELD));
+        assertEquals(2, evicted.getCount());
+    }
+
+    @Test
+    public void canStayWithinMaxOpenWindows() throws Exception {
+        manager.close();
+        manager = new WindowManager<>(Duration.ofHours(1), STRATEGY, 100);
+        for (int index = 0; index < 10000; index++) {
+            manager.increment(message("value" + index));
+        }
+        assertEquals(100, manager.getOpenWindowCount());
+        assertEquals(9900, manager.getEvictedWindowCount());
+    }
+
+    @Test
+    public void canEstimateSizeOfOpenWindows() throws Exception {
+        WindowScheduler scheduler = new WindowScheduler(Duration.ofHours(1));
+        manager.close();
+        manager = new WindowManager<>(DECAY, STRATEGY, scheduler, "manager");
+        assertEquals(0, manager.getEstimatedSizeInBytes());
+
+        manager.increment(MESSAGE);
+        long oneWindow = manager.getEstimatedSizeInBytes();
+        assertTrue(oneWindow > WindowManager.WINDOW_OVERHEAD_BYTES);
+        manager.increment(MESSAGE);
+        assertEquals(oneWindow, manager.getEstimatedSizeInBytes());
+        manager.increment(message("testValu2"));
+        assertEquals(2 * oneWindow, manager.getEstimatedSizeInBytes());
+
+        manager.expireWindows(System.currentTimeMillis() + 1000);
+        assertEquals(0, manager.getEstimatedSizeInBytes());
+        scheduler.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void canFailToSnapshotFingerprintsThatChangeAcrossRestarts() {
+        manager.close();
+        manager = new WindowManager<>(DECAY, new FingerprintStrategy<MessageImpl>() {
+            @Override
+            public String getFingerprint(MessageImpl message) {
+                return FINGERPRINT_VALUE;
+            }
+
+            @Override
+            public boolean isStableAcrossRestarts() {
+                return false;
+            }
+        });
+        manager.getSnapshottable(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnZeroMaxOpenWindows() {
+        new WindowManager<>(DECAY, STRATEGY, 0);
+    }
+
+    @Test
+    public void canGroupMessagesByEventTime() {
+        WindowScheduler scheduler = new WindowScheduler(Duration.ofHours(1));
+        useEventTimeManager(scheduler, Duration.ZERO);
+        manager.increment(atEventTime(0));
+        manager.increment(atEventTime(999));
+        assertEquals(3, manager.increment(atEventTime(100)));
+        assertEquals(1, manager.increment(atEventTime(1000)));
+
+        MessageWindow<MessageImpl> window = manager.getWindow(atEventTime(500)).get();
+        assertEquals(3, window.getCount());
+        assertEquals(Instant.ofEpochMilli(0), window.getStartTime());
+        scheduler.close();
+    }
+
+    @Test(timeout = 10000)
+    public void canCloseEventTimeWindowByWatermark() {
+        WindowScheduler scheduler = new WindowScheduler(Duration.ofHours(1));
+        useEventTimeManager(scheduler, Duration.ZERO);
+        manager.increment(atEventTime(0));
+        manager.increment(atEventTime(1500));
+        manager.expireWindows(System.currentTimeMillis());
+
+        assertEquals(Optional.of(Instant.ofEpochMilli(1500)), manager.getWatermark());
+        assertEquals(Instant.ofEpochMilli(0), manager.getClosedWindowsStream().findFirst().get().getStartTime());
+        assertTrue(manager.getWindow(atEventTime(1500)).isPresent());
+        scheduler.close();
+    }
+
+    @Test
+    public void canCountOutOfOrderMessagesWithinLateness() {
+        WindowScheduler scheduler = new WindowScheduler(Duration.ofHours(1));
+        useEventTimeManager(scheduler, Duration.ofMillis(500));
+        manager.increment(atEventTime(100));
+        manager.increment(atEventTime(1200));
+        manager.expireWindows(System.currentTimeMillis());
+        assertEquals(2, manager.increment(atEventTime(900)));
+        assertEquals(0, manager.getLateMessageCount());
+
+        manager.increment(atEventTime(1600));
+        manager.expireWindows(System.currentTimeMillis());
+        assertFalse(manager.getWindow(atEventTime(900)).isPresent());
+        scheduler.close();
+    }
+
+    @Test
+    public void canCountLateMessages() {
+        WindowScheduler scheduler = new WindowScheduler(Duration.ofHours(1));
+        useEventTimeManager(scheduler, Duration.ZERO);
+        manager.increment(atEventTime(1500));
+        manager.expireWindows(System.currentTimeMillis());
+        assertEquals(1, manager.increment(atEventTime(900)));
+        assertEquals(1, manager.getLateMessageCount());
+        assertFalse(manager.getWindow(atEventTime(900)).isPresent());
+        scheduler.close();
+    }
+
+    @Test
+    public void canCloseEventTimeWindowsWhenIdle() {
+        WindowScheduler scheduler = new WindowScheduler(Duration.ofHours(1));
+        useEventTimeManager(scheduler, Duration.ZERO);
+        manager.increment(atEventTime(0));
+        manager.expireWindows(System.currentTimeMillis());
+        assertTrue(manager.getWindow(atEventTime(0)).isPresent());
+        manager.expireWindows(System.currentTimeMillis() + 3000);
+        assertFalse(manager.getWindow(atEventTime(0)).isPresent());
+        scheduler.close();
+    }
+
+    private void useEventTimeManager(WindowScheduler scheduler, Duration allowedLateness) {
+        manager.close();
+        manager = WindowManager.<MessageImpl> builder().setWindowDuration(Duration.ofSeconds(1))
+                .setFingerprintStrategy(STRATEGY).setWindowScheduler(scheduler, "manager")
+                .setEventTime(EventTimeStrategy.ofField(MessageImpl.TIMESTAMP_FIELD), allowedLateness).build();
+    }
+
+    private static MessageImpl atEventTime(long millis) {
+        return message(FINGERPRINT_VALUE).putTimestamp(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+    }
+
+    private static MessageImpl message(String fingerprint) {
+        return MessageImpl.of(AcceptStrategy.INSTANCE).put(FINGERPRINT_FIELD, fingerprint);
+    }
+
+    private void incrementInParallel(int threads, int incrementsPerThread) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int thread = 0; thread < threads; thread++) {
+            executor.execute(() -> {
+                for (int increment = 0; increment < incrementsPerThread; increment++) {
+                    manager.increment(MESSAGE);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
 }
@@ -0,0 +1,87 @@
+/**
+ * Logalike - A stream based message processor
+ * Copyright (c) 2015 European Organisation for Nuclear Research (CERN), All Rights Reserved.
+ * This software is distributed under the terms of the GNU General Public Licence version 3 (GPL Version 3),
+ * copied verbatim in the file “COPYLEFT”.
+ * In applying this licence, CERN does not waive the privileges and immunities granted to it by virtue
+ * of its status as an Intergovernmental Organization or submit itself to any jurisdiction. 
+ * 
+ * Authors: Gergő Horányi <ghoranyi> and Jens Egholm Pedersen <jegp>
+ */
+
+package cern.acet.tracing.processing.window;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cern.acet.tracing.MessageImpl;
+
+public class WindowSchedulerTest {
+
+    private static final FingerprintStrategy<MessageImpl> STRATEGY = FingerprintStrategy.ofFields("body");
+    private static final Duration DURATION = Duration.ofMillis(20);
+
+    private WindowScheduler scheduler;
+
+    @Before
+    public void setup() {
+        scheduler = new WindowScheduler(Duration.ofMillis(1));
+    }
+
+    @After
+    public void teardown() {
+        scheduler.close();
+    }
+
+    @Test(timeout = 5000)
+    public void canExpireWindowsOfManyManagers() {
+        WindowManager<MessageImpl> manager1 = new WindowManager<>(DURATION, STRATEGY, scheduler, "first");
+        WindowManager<MessageImpl> manager2 = new WindowManager<>(DURATION, STRATEGY, scheduler, "second");
+        manager1.increment(MessageImpl.ofUntyped().put("body", "a"));
+        manager2.increment(MessageImpl.ofUntyped().put("body", "b"));
+        assertEquals(1, manager1.getClosedWindowsStream().findFirst().get().getCount());
+        assertEquals(1, manager2.getClosedWindowsStream().findFirst().get().getCount());
+    }
+
+    @Test
+    public void canCountOpenWindowsPerManager() {
+        WindowManager<MessageImpl> manager1 = new WindowManager<>(Duration.ofHours(1), STRATEGY, scheduler, "throttle");
+        WindowManager<MessageImpl> manager2 = new WindowManager<>(Duration.ofHours(1), STRATEGY, scheduler, "throttle");
+        manager1.increment(MessageImpl.ofUntyped().put("body", "a"));
+        manager1.increment(MessageImpl.ofUntyped().put("body", "b"));
+        manager2.increment(MessageImpl.ofUntyped().put("body", "a"));
+
+        Map<String, Integer> counts = scheduler.getOpenWindowCounts();
+        assertEquals(2, counts.size());
+        assertEquals(2, (int) counts.get("throttle"));
+        assertEquals(1, (int) counts.get("throttle#2"));
+    }
+
+    @Test
+    public void canUnregisterClosedManager() {
+        WindowManager<MessageImpl> manager = new WindowManager<>(DURATION, STRATEGY, scheduler, "manager");
+        manager.close();
+        assertTrue(scheduler.getOpenWindowCounts().isEmpty());
+        assertFalse(scheduler.isClosed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void canFailToRegisterInClosedScheduler() {
+        scheduler.close();
+        new WindowManager<>(DURATION, STRATEGY, scheduler, "manager");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void canFailOnTickBelowOneMillisecond() {
+        new WindowScheduler(Duration.ofNanos(10));
+    }
+
+}